@@ -0,0 +1,282 @@
+package com.scottyab.safetynet;
+
+import android.content.Context;
+import android.os.Build.VERSION;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.annotation.WorkerThread;
+
+/**
+ * Opt-in cache of the last verified {@link AttestationStatement}, see
+ * {@link SafetyNetHelper#setAttestationCache(AttestationCache)}.
+ *
+ * <p>A cached statement is served while {@link AttestationStatement#getTimestampMs()} is no older
+ * than the max age. Past that, it is still served for the stale-while-revalidate window while a
+ * new attestation is requested in background. Only requests without a caller nonce are served
+ * from the cache. A statement dated more than the max clock skew in the future is neither cached
+ * nor served, so that a wrong clock cannot keep it in the cache.
+ *
+ * <p>Statements are kept in memory and, if created with {@link #withDiskStore(Context, long)}, also
+ * on disk encrypted with a key held in the Android Keystore (API 23+, memory only on older devices),
+ * so they survive process restarts.
+ */
+public class AttestationCache {
+
+	private static final String TAG = AttestationCache.class.getSimpleName();
+
+	private static final long DEFAULT_MAX_CLOCK_SKEW_MS = 5 * 60 * 1000;
+
+	private final long maxAgeMs;
+	private final DiskStore diskStore;
+
+	private long staleWhileRevalidateMs;
+	private long maxClockSkewMs = DEFAULT_MAX_CLOCK_SKEW_MS;
+	private boolean diskLoaded;
+	private AttestationStatement statement;
+
+	/**
+	 * Creates a memory only cache.
+	 *
+	 * @param maxAgeMs how long a statement is served after its timestamp
+	 */
+	public AttestationCache(long maxAgeMs) {
+		this(maxAgeMs, null);
+	}
+
+	private AttestationCache(long maxAgeMs, DiskStore diskStore) {
+		Preconditions.checkArgument(maxAgeMs >= 0);
+		this.maxAgeMs = maxAgeMs;
+		this.diskStore = diskStore;
+	}
+
+	/**
+	 * Creates a cache which also persists the last statement on disk, encrypted.
+	 *
+	 * @param maxAgeMs how long a statement is served after its timestamp
+	 */
+	public static AttestationCache withDiskStore(@NonNull Context context, long maxAgeMs) {
+		if (VERSION.SDK_INT < 23) {
+			return new AttestationCache(maxAgeMs);
+		}
+		File file = new File(context.getNoBackupFilesDir(), "safetynethelper_attestation.bin");
+		return new AttestationCache(maxAgeMs, new DiskStore(file));
+	}
+
+	/**
+	 * Sets for how long past its max age a statement is still served while a fresh one is
+	 * requested in background. Defaults to 0, i.e. stale statements are never served.
+	 */
+	public synchronized AttestationCache setStaleWhileRevalidateMs(long staleWhileRevalidateMs) {
+		Preconditions.checkArgument(staleWhileRevalidateMs >= 0);
+		this.staleWhileRevalidateMs = staleWhileRevalidateMs;
+		return this;
+	}
+
+	/**
+	 * Sets how far in the future the timestamp of a statement may be, for the clocks of the device
+	 * and of Google's servers differ. Defaults to 5 minutes.
+	 */
+	public synchronized AttestationCache setMaxClockSkewMs(long maxClockSkewMs) {
+		Preconditions.checkArgument(maxClockSkewMs >= 0);
+		this.maxClockSkewMs = maxClockSkewMs;
+		return this;
+	}
+
+	/**
+	 * Returns the cached statement if it can still be served, either fresh or stale, or null.
+	 */
+	@Nullable
+	@WorkerThread
+	synchronized AttestationStatement get(long now) {
+		if (statement == null && diskStore != null && !diskLoaded) {
+			diskLoaded = true;
+			String jws = diskStore.read();
+			if (jws != null) {
+				try {
+					statement = OfflineVerifier.from(jws).getAttestationStatement();
+				} catch (SafetyNetVerificationException e) {
+					Log.w(TAG, e);
+				}
+			}
+		}
+		if (statement == null) {
+			return null;
+		}
+		long age = now - statement.getTimestampMs();
+		if (isTooFarInTheFuture(statement, now)) {
+			// e.g. read from disk after the clock was set back
+			statement = null;
+			if (diskStore != null) {
+				diskStore.delete();
+			}
+			return null;
+		}
+		long servableMs = maxAgeMs + staleWhileRevalidateMs;
+		if (servableMs < 0) {
+			// both are non-negative, saturate on overflow
+			servableMs = Long.MAX_VALUE;
+		}
+		if (age < 0 ? staleWhileRevalidateMs == 0 : age > servableMs) {
+			return null;
+		}
+		return statement;
+	}
+
+	/**
+	 * Returns whether a statement returned by {@link #get(long)} is within its max age. A statement
+	 * dated in the future, i.e. with the clocks skewed, is never fresh: at most it is served stale
+	 * while a new one is requested.
+	 */
+	boolean isFresh(AttestationStatement statement, long now) {
+		long age = now - statement.getTimestampMs();
+		return age >= 0 && age <= maxAgeMs;
+	}
+
+	private boolean isTooFarInTheFuture(AttestationStatement statement, long now) {
+		// written so as not to overflow
+		return statement.getTimestampMs() > now && statement.getTimestampMs() - now > maxClockSkewMs;
+	}
+
+	/**
+	 * Stores a verified statement along with the JWS it was parsed from, unless it is dated more
+	 * than the max clock skew after now, or before the cached one.
+	 */
+	@WorkerThread
+	synchronized void put(String jws, AttestationStatement statement, long now) {
+		if (isTooFarInTheFuture(statement, now)) {
+			return;
+		}
+		if (this.statement != null && this.statement.getTimestampMs() > statement.getTimestampMs()
+				&& !isTooFarInTheFuture(this.statement, now)) {
+			return;
+		}
+		this.statement = statement;
+		if (diskStore != null) {
+			diskStore.write(jws);
+		}
+	}
+
+	/**
+	 * Drops the cached statement, both from memory and disk.
+	 */
+	@WorkerThread
+	public synchronized void clear() {
+		statement = null;
+		diskLoaded = true;
+		if (diskStore != null) {
+			diskStore.delete();
+		}
+	}
+
+	/**
+	 * Stores the JWS of the last statement encrypted with AES-GCM under a key which never leaves
+	 * the Android Keystore.
+	 */
+	@RequiresApi(23)
+	private static class DiskStore {
+		private static final String KEYSTORE = "AndroidKeyStore";
+		private static final String KEY_ALIAS = "safetynethelper_attestation_cache";
+		private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+		private static final int TAG_LENGTH_BITS = 128;
+
+		private final File file;
+
+		DiskStore(File file) {
+			this.file = file;
+		}
+
+		String read() {
+			if (!file.exists()) {
+				return null;
+			}
+			try {
+				DataInputStream in = new DataInputStream(new FileInputStream(file));
+				try {
+					byte[] iv = new byte[in.readUnsignedByte()];
+					in.readFully(iv);
+					byte[] encrypted = new byte[in.readInt()];
+					in.readFully(encrypted);
+					Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+					cipher.init(Cipher.DECRYPT_MODE, getKey(), new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+					return new String(cipher.doFinal(encrypted), Utils.UTF_8);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				Log.w(TAG, e);
+			} catch (GeneralSecurityException e) {
+				Log.w(TAG, e);
+			}
+			delete();
+			return null;
+		}
+
+		void write(String jws) {
+			try {
+				Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+				cipher.init(Cipher.ENCRYPT_MODE, getKey());
+				byte[] iv = cipher.getIV();
+				byte[] encrypted = cipher.doFinal(Utils.getBytes(jws));
+				File tmp = new File(file.getPath() + ".tmp");
+				DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+				try {
+					out.writeByte(iv.length);
+					out.write(iv);
+					out.writeInt(encrypted.length);
+					out.write(encrypted);
+				} finally {
+					out.close();
+				}
+				if (!tmp.renameTo(file)) {
+					throw new IOException("Cannot rename " + tmp + " to " + file);
+				}
+			} catch (IOException e) {
+				Log.w(TAG, e);
+			} catch (GeneralSecurityException e) {
+				Log.w(TAG, e);
+			}
+		}
+
+		void delete() {
+			if (file.exists() && !file.delete()) {
+				Log.w(TAG, "Cannot delete " + file);
+			}
+		}
+
+		private static SecretKey getKey() throws GeneralSecurityException, IOException {
+			KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+			keyStore.load(null);
+			KeyStore.Entry entry = keyStore.getEntry(KEY_ALIAS, null);
+			if (entry instanceof KeyStore.SecretKeyEntry) {
+				return ((KeyStore.SecretKeyEntry) entry).getSecretKey();
+			}
+			KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+			generator.init(new KeyGenParameterSpec.Builder(KEY_ALIAS,
+					KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+					.setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+					.setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+					.setKeySize(256)
+					.build());
+			return generator.generateKey();
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package com.scottyab.safetynet;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Source of signed attestation statements for {@link SafetyNetHelper}, see
+ * {@link SafetyNetHelper#setAttestationClient(AttestationClient)}.
+ *
+ * <p>{@link PlayServicesAttestationClient} is the default, tests can issue statements locally,
+ * e.g. from the {@code FakeAttestationService} test fixture of the safetynetverifier module.
+ */
+public interface AttestationClient {
+
+	/**
+	 * Requests an attestation statement bound to the nonce. The callback must be invoked exactly
+	 * once, on any thread.
+	 *
+	 * @param apiKey the Android Device Verification API key the helper was created with
+	 */
+	void attest(@NonNull Context context, @NonNull byte[] nonce, @NonNull String apiKey, @NonNull Callback callback);
+
+	interface Callback {
+		/**
+		 * @param jwsResult the signed statement, in compact JWS serialization
+		 */
+		void onSuccess(String jwsResult);
+
+		void onFailure(Exception e);
+	}
+}
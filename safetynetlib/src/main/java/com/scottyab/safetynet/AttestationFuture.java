@@ -0,0 +1,185 @@
+package com.scottyab.safetynet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Pending result of a {@link SafetyNetHelper#requestTest(android.content.Context)} call.
+ *
+ * <p>The result can be either waited for with {@link #get()} (possibly with a timeout) or
+ * delivered to callbacks on an executor of choice with {@link #addCallback(Executor, SafetyNetHelper.SafetyNetWrapperCallback)},
+ * so consumers running in background do not need to go through the main thread.
+ *
+ * <p>A {@link SafetyNetVerificationException} is reported as {@link SafetyNetHelper.SafetyNetWrapperCallback#failure},
+ * or thrown by {@link #get()} wrapped in an {@link ExecutionException}; any other exception is
+ * reported as {@link SafetyNetHelper.SafetyNetWrapperCallback#error}.
+ */
+public class AttestationFuture implements Future<AttestationStatement> {
+
+	private final Object lock = new Object();
+
+	private boolean done;
+	private boolean cancelled;
+	private AttestationStatement attestationStatement;
+	private Exception exception;
+	private MerkleNonce.Proof nonceProof;
+	private List<Listener> listeners = new ArrayList<Listener>();
+
+	AttestationFuture() {
+	}
+
+	/**
+	 * Registers a callback invoked on {@code executor} once the result is available. If the
+	 * result is already available the callback is dispatched right away. Callbacks are never
+	 * invoked for a cancelled request.
+	 */
+	public AttestationFuture addCallback(@NonNull Executor executor, @NonNull SafetyNetHelper.SafetyNetWrapperCallback callback) {
+		Listener listener = new Listener(executor, callback);
+		synchronized (lock) {
+			if (!done) {
+				listeners.add(listener);
+				return this;
+			}
+		}
+		if (!cancelled) {
+			listener.dispatch(attestationStatement, exception);
+		}
+		return this;
+	}
+
+	/**
+	 * Returns the proof that the caller nonce given to {@link SafetyNetHelper#requestTest(android.content.Context, byte[])}
+	 * is included in the nonce of the statement, or null if no caller nonce was given. Only
+	 * available once the request has completed.
+	 */
+	@Nullable
+	public MerkleNonce.Proof getNonceProof() {
+		synchronized (lock) {
+			return nonceProof;
+		}
+	}
+
+	void setNonceProof(MerkleNonce.Proof nonceProof) {
+		synchronized (lock) {
+			this.nonceProof = nonceProof;
+		}
+	}
+
+	boolean set(AttestationStatement attestationStatement) {
+		return complete(attestationStatement, null, false);
+	}
+
+	boolean setException(Exception exception) {
+		return complete(null, exception, false);
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return complete(null, null, true);
+	}
+
+	private boolean complete(AttestationStatement attestationStatement, Exception exception, boolean cancelled) {
+		List<Listener> toDispatch;
+		synchronized (lock) {
+			if (done) {
+				return false;
+			}
+			this.done = true;
+			this.cancelled = cancelled;
+			this.attestationStatement = attestationStatement;
+			this.exception = exception;
+			toDispatch = listeners;
+			listeners = null;
+			lock.notifyAll();
+		}
+		if (!cancelled) {
+			for (Listener listener : toDispatch) {
+				listener.dispatch(attestationStatement, exception);
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		synchronized (lock) {
+			return cancelled;
+		}
+	}
+
+	@Override
+	public boolean isDone() {
+		synchronized (lock) {
+			return done;
+		}
+	}
+
+	@Override
+	public AttestationStatement get() throws InterruptedException, ExecutionException {
+		synchronized (lock) {
+			while (!done) {
+				lock.wait();
+			}
+			return getResult();
+		}
+	}
+
+	@Override
+	public AttestationStatement get(long timeout, @NonNull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (lock) {
+			while (!done) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					throw new TimeoutException("SafetyNet attestation did not complete within " + unit.toMillis(timeout) + "ms");
+				}
+				TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+			}
+			return getResult();
+		}
+	}
+
+	private AttestationStatement getResult() throws ExecutionException {
+		if (cancelled) {
+			throw new CancellationException("SafetyNet attestation was cancelled");
+		}
+		if (exception != null) {
+			throw new ExecutionException(exception);
+		}
+		return attestationStatement;
+	}
+
+	private static class Listener {
+		final Executor executor;
+		final SafetyNetHelper.SafetyNetWrapperCallback callback;
+
+		Listener(Executor executor, SafetyNetHelper.SafetyNetWrapperCallback callback) {
+			this.executor = executor;
+			this.callback = callback;
+		}
+
+		void dispatch(final AttestationStatement attestationStatement, final Exception exception) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (exception == null) {
+						callback.success(attestationStatement);
+					} else if (exception instanceof SafetyNetVerificationException) {
+						callback.failure((SafetyNetVerificationException) exception);
+					} else {
+						callback.error(exception);
+					}
+				}
+			});
+		}
+	}
+}
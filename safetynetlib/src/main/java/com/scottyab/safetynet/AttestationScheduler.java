@@ -0,0 +1,283 @@
+package com.scottyab.safetynet;
+
+import com.google.android.gms.common.api.ApiException;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Runs attestation attempts according to a {@link RetryPolicy}: enforces the deadline, retries
+ * retryable failures with backoff and keeps the circuit breaker state shared by all requests.
+ *
+ * <p>Time is read and timers are set through a {@link Clock}, so that the scheduling can be
+ * driven by a virtual clock.
+ */
+class AttestationScheduler {
+
+	/**
+	 * A single call to the attestation service.
+	 */
+	interface Attempt {
+		void run(@NonNull AttemptCallback callback);
+	}
+
+	/**
+	 * Receives the outcome of an {@link Attempt}, or of the whole request.
+	 */
+	interface AttemptCallback {
+		void onSuccess(String jwsResult);
+
+		void onFailure(Exception e);
+	}
+
+	/**
+	 * Source of time and timers.
+	 */
+	interface Clock {
+		long nowMs();
+
+		/**
+		 * Runs the task after the delay, unless the returned handle is cancelled first.
+		 */
+		Cancellable schedule(Runnable task, long delayMs);
+	}
+
+	interface Cancellable {
+		void cancel();
+	}
+
+	private final RetryPolicy policy;
+	private final Clock clock;
+	private final Random random;
+
+	private int consecutiveFailures;
+	private long openUntilMs;
+
+	/**
+	 * @param policy copied, later changes to it have no effect on this scheduler
+	 */
+	AttestationScheduler(RetryPolicy policy, Clock clock, Random random) {
+		this.policy = policy.copy();
+		this.clock = clock;
+		this.random = random;
+	}
+
+	/**
+	 * Runs the attempt, retrying it as needed, and reports the outcome of the request to the
+	 * callback exactly once.
+	 */
+	void execute(Attempt attempt, AttemptCallback callback) {
+		long now = clock.nowMs();
+		synchronized (this) {
+			if (now < openUntilMs) {
+				callback.onFailure(new CircuitBreakerOpenException("Too many failed attestation attempts, circuit breaker open", openUntilMs - now));
+				return;
+			}
+		}
+		new Execution(attempt, callback, now + policy.getDeadlineMs()).start();
+	}
+
+	private synchronized void onAttemptSucceeded() {
+		consecutiveFailures = 0;
+	}
+
+	private synchronized void onAttemptFailed() {
+		consecutiveFailures++;
+		if (consecutiveFailures >= policy.getCircuitBreakerThreshold()) {
+			openUntilMs = clock.nowMs() + policy.getCircuitBreakerOpenMs();
+		}
+	}
+
+	private synchronized boolean isOpen() {
+		return clock.nowMs() < openUntilMs;
+	}
+
+	/**
+	 * Returns the delay before the given retry, 1 being the first one.
+	 */
+	private long backoffMs(int retry) {
+		long backoff = policy.getInitialBackoffMs();
+		for (int i = 1; i < retry && backoff < policy.getMaxBackoffMs(); i++) {
+			backoff *= 2;
+		}
+		backoff = Math.min(backoff, policy.getMaxBackoffMs());
+		long jitter;
+		synchronized (random) {
+			jitter = (long) (random.nextDouble() * (backoff / 2));
+		}
+		return backoff - jitter;
+	}
+
+	private static boolean isRetryable(RetryPolicy policy, Exception e) {
+		return e instanceof ApiException && policy.isRetryable(((ApiException) e).getStatusCode());
+	}
+
+	/**
+	 * State of a single request.
+	 */
+	private class Execution {
+		private final Attempt attempt;
+		private final AttemptCallback callback;
+		private final long deadlineMs;
+
+		private boolean done;
+		private int attempts;
+		private boolean attemptInFlight;
+		private Cancellable deadlineTimer;
+
+		Execution(Attempt attempt, AttemptCallback callback, long deadlineMs) {
+			this.attempt = attempt;
+			this.callback = callback;
+			this.deadlineMs = deadlineMs;
+		}
+
+		void start() {
+			Cancellable timer = clock.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (finish()) {
+						if (recordOutcome(attemptsSoFar())) {
+							onAttemptFailed();
+						}
+						callback.onFailure(new TimeoutException("SafetyNet attestation did not complete within " + policy.getDeadlineMs() + "ms"));
+					}
+				}
+			}, deadlineMs - clock.nowMs());
+			synchronized (this) {
+				deadlineTimer = timer;
+				if (done) {
+					timer.cancel();
+				}
+			}
+			runAttempt();
+		}
+
+		private void runAttempt() {
+			final int number;
+			synchronized (this) {
+				if (done) {
+					return;
+				}
+				number = ++attempts;
+				attemptInFlight = true;
+			}
+			attempt.run(new AttemptCallback() {
+				@Override
+				public void onSuccess(String jwsResult) {
+					if (recordOutcome(number)) {
+						onAttemptSucceeded();
+					}
+					if (finish()) {
+						callback.onSuccess(jwsResult);
+					}
+				}
+
+				@Override
+				public void onFailure(Exception e) {
+					if (!recordOutcome(number)) {
+						// already counted as failed by the deadline
+						return;
+					}
+					onAttemptFailed();
+					long delay = retryDelay(e);
+					if (delay < 0) {
+						if (finish()) {
+							callback.onFailure(e);
+						}
+						return;
+					}
+					clock.schedule(new Runnable() {
+						@Override
+						public void run() {
+							runAttempt();
+						}
+					}, delay);
+				}
+			});
+		}
+
+		private synchronized int attemptsSoFar() {
+			return attempts;
+		}
+
+		/**
+		 * Marks the outcome of the given attempt as counted by the circuit breaker, returns false
+		 * if it already was, e.g. because the deadline fired while the attempt was in flight.
+		 */
+		private synchronized boolean recordOutcome(int number) {
+			if (number != attempts || !attemptInFlight) {
+				return false;
+			}
+			attemptInFlight = false;
+			return true;
+		}
+
+		/**
+		 * Returns the delay before retrying after the failure, or -1 if it must not be retried.
+		 */
+		private long retryDelay(Exception e) {
+			int attemptsSoFar;
+			synchronized (this) {
+				if (done) {
+					return -1;
+				}
+				attemptsSoFar = attempts;
+			}
+			if (attemptsSoFar >= policy.getMaxAttempts() || !isRetryable(policy, e) || isOpen()) {
+				return -1;
+			}
+			long delay = backoffMs(attemptsSoFar);
+			if (clock.nowMs() + delay >= deadlineMs) {
+				return -1;
+			}
+			return delay;
+		}
+
+		/**
+		 * Marks the request as done, returns false if it already was.
+		 */
+		private boolean finish() {
+			Cancellable timer;
+			synchronized (this) {
+				if (done) {
+					return false;
+				}
+				done = true;
+				timer = deadlineTimer;
+			}
+			if (timer != null) {
+				timer.cancel();
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * {@link Clock} backed by the system clock and a scheduled executor.
+	 */
+	static class SystemClock implements Clock {
+		private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+		@Override
+		public long nowMs() {
+			return android.os.SystemClock.elapsedRealtime();
+		}
+
+		@Override
+		public Cancellable schedule(Runnable task, long delayMs) {
+			final ScheduledFuture<?> future = timer.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+			return new Cancellable() {
+				@Override
+				public void cancel() {
+					future.cancel(false);
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package com.scottyab.safetynet;
+
+/**
+ * Reported instead of calling SafetyNet while too many attestation attempts failed in a row,
+ * see {@link RetryPolicy#setCircuitBreaker(int, long)}.
+ */
+public class CircuitBreakerOpenException extends Exception {
+
+	private final long retryAfterMs;
+
+	public CircuitBreakerOpenException(String message, long retryAfterMs) {
+		super(message);
+		this.retryAfterMs = retryAfterMs;
+	}
+
+	/**
+	 * Returns in how many milliseconds the circuit breaker lets requests through again.
+	 */
+	public long getRetryAfterMs() {
+		return retryAfterMs;
+	}
+}
@@ -0,0 +1,57 @@
+package com.scottyab.safetynet;
+
+import android.net.http.X509TrustManagerExtensions;
+import android.os.Build.VERSION;
+
+import java.security.GeneralSecurityException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * Checks the attestation certificate chain as a server chain for attest.android.com, so that the
+ * platform applies the same host specific rules (e.g. the network security config) as for a TLS
+ * connection to that host. Used by default by {@link SafetyNetHelper}.
+ */
+class HostnameAwareTrustManager implements X509TrustManager {
+
+	private static final String HOSTNAME = "attest.android.com";
+
+	private static HostnameAwareTrustManager defaultInstance;
+
+	private final X509TrustManager delegate;
+
+	HostnameAwareTrustManager(X509TrustManager delegate) {
+		this.delegate = Preconditions.checkNotNull(delegate);
+	}
+
+	/**
+	 * Returns an instance wrapping the system default trust manager.
+	 */
+	static synchronized HostnameAwareTrustManager getDefault() throws GeneralSecurityException {
+		if (defaultInstance == null) {
+			defaultInstance = new HostnameAwareTrustManager(JsonWebSignature.getDefaultX509TrustManager());
+		}
+		return defaultInstance;
+	}
+
+	@Override
+	public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+		delegate.checkClientTrusted(chain, authType);
+	}
+
+	@Override
+	public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+		if (VERSION.SDK_INT >= 17) {
+			new X509TrustManagerExtensions(delegate).checkServerTrusted(chain, authType, HOSTNAME);
+		} else {
+			delegate.checkServerTrusted(chain, authType);
+		}
+	}
+
+	@Override
+	public X509Certificate[] getAcceptedIssuers() {
+		return delegate.getAcceptedIssuers();
+	}
+}
@@ -0,0 +1,55 @@
+package com.scottyab.safetynet;
+
+import android.content.Context;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.GoogleApiAvailability;
+import com.google.android.gms.common.GooglePlayServicesNotAvailableException;
+import com.google.android.gms.safetynet.SafetyNet;
+import com.google.android.gms.safetynet.SafetyNetApi;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.util.concurrent.Executor;
+
+import androidx.annotation.NonNull;
+
+/**
+ * {@link AttestationClient} calling the SafetyNet Attestation API of Google Play services.
+ */
+public class PlayServicesAttestationClient implements AttestationClient {
+
+	private final Executor executor;
+
+	/**
+	 * @param executor executor the callback is invoked on
+	 */
+	public PlayServicesAttestationClient(@NonNull Executor executor) {
+		this.executor = Preconditions.checkNotNull(executor);
+	}
+
+	@Override
+	public void attest(@NonNull Context context, @NonNull byte[] nonce, @NonNull String apiKey, @NonNull final Callback callback) {
+		int googlePlayServicesAvailable = GoogleApiAvailability.getInstance()
+				.isGooglePlayServicesAvailable(context);
+		if (googlePlayServicesAvailable != ConnectionResult.SUCCESS) {
+			callback.onFailure(new GooglePlayServicesNotAvailableException(googlePlayServicesAvailable));
+			return;
+		}
+
+		SafetyNet.getClient(context)
+				.attest(nonce, apiKey)
+				.addOnSuccessListener(executor, new OnSuccessListener<SafetyNetApi.AttestationResponse>() {
+					@Override
+					public void onSuccess(SafetyNetApi.AttestationResponse response) {
+						callback.onSuccess(response.getJwsResult());
+					}
+				})
+				.addOnFailureListener(executor, new OnFailureListener() {
+					@Override
+					public void onFailure(@NonNull Exception e) {
+						callback.onFailure(e);
+					}
+				});
+	}
+}
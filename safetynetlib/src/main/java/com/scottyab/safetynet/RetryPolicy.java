@@ -0,0 +1,135 @@
+package com.scottyab.safetynet;
+
+import com.google.android.gms.common.api.CommonStatusCodes;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Deadline, retry and circuit breaker settings applied around the SafetyNet {@code attest()} call,
+ * see {@link SafetyNetHelper#setRetryPolicy(RetryPolicy)}.
+ *
+ * <ul>
+ * <li>A request which did not complete before its deadline fails with a
+ * {@link java.util.concurrent.TimeoutException}.</li>
+ * <li>Attempts failing with an {@link com.google.android.gms.common.api.ApiException} whose status
+ * code is retryable are retried, up to the max number of attempts and within the deadline, after
+ * an exponential backoff with jitter.</li>
+ * <li>After a number of consecutive failed attempts the circuit breaker opens, and requests fail
+ * right away with a {@link CircuitBreakerOpenException} until it has been open for its open
+ * duration.</li>
+ * </ul>
+ */
+public class RetryPolicy {
+
+	private long deadlineMs = TimeUnit.SECONDS.toMillis(60);
+	private int maxAttempts = 3;
+	private long initialBackoffMs = 500;
+	private long maxBackoffMs = TimeUnit.SECONDS.toMillis(5);
+	private int circuitBreakerThreshold = 5;
+	private long circuitBreakerOpenMs = TimeUnit.SECONDS.toMillis(30);
+	private Set<Integer> retryableStatusCodes = new HashSet<Integer>(Arrays.asList(
+			CommonStatusCodes.NETWORK_ERROR,
+			CommonStatusCodes.INTERNAL_ERROR,
+			CommonStatusCodes.TIMEOUT,
+			CommonStatusCodes.INTERRUPTED,
+			CommonStatusCodes.API_NOT_CONNECTED,
+			CommonStatusCodes.RECONNECTION_TIMED_OUT,
+			CommonStatusCodes.RECONNECTION_TIMED_OUT_DURING_UPDATE));
+
+	/**
+	 * Sets the time after which a request fails with a timeout, including retries. Defaults to 60s.
+	 */
+	public RetryPolicy setDeadlineMs(long deadlineMs) {
+		Preconditions.checkArgument(deadlineMs > 0);
+		this.deadlineMs = deadlineMs;
+		return this;
+	}
+
+	/**
+	 * Sets how many times {@code attest()} is called at most per request. Defaults to 3.
+	 */
+	public RetryPolicy setMaxAttempts(int maxAttempts) {
+		Preconditions.checkArgument(maxAttempts >= 1);
+		this.maxAttempts = maxAttempts;
+		return this;
+	}
+
+	/**
+	 * Sets the backoff before the first retry, doubled at each further retry up to the max backoff.
+	 * A random jitter of up to half of it is subtracted. Defaults to 500ms and 5s.
+	 */
+	public RetryPolicy setBackoffMs(long initialBackoffMs, long maxBackoffMs) {
+		Preconditions.checkArgument(initialBackoffMs >= 0 && maxBackoffMs >= initialBackoffMs);
+		this.initialBackoffMs = initialBackoffMs;
+		this.maxBackoffMs = maxBackoffMs;
+		return this;
+	}
+
+	/**
+	 * Sets after how many consecutive failed attempts the circuit breaker opens, and for how long.
+	 * Defaults to 5 attempts and 30s.
+	 */
+	public RetryPolicy setCircuitBreaker(int threshold, long openMs) {
+		Preconditions.checkArgument(threshold >= 1 && openMs >= 0);
+		this.circuitBreakerThreshold = threshold;
+		this.circuitBreakerOpenMs = openMs;
+		return this;
+	}
+
+	/**
+	 * Sets the {@link CommonStatusCodes status codes} of the failures which are retried.
+	 * Defaults to transient network and connection errors.
+	 */
+	public RetryPolicy setRetryableStatusCodes(@NonNull Set<Integer> retryableStatusCodes) {
+		this.retryableStatusCodes = new HashSet<Integer>(retryableStatusCodes);
+		return this;
+	}
+
+	/**
+	 * Returns a copy of this policy, unaffected by later changes to it.
+	 */
+	RetryPolicy copy() {
+		RetryPolicy copy = new RetryPolicy();
+		copy.deadlineMs = deadlineMs;
+		copy.maxAttempts = maxAttempts;
+		copy.initialBackoffMs = initialBackoffMs;
+		copy.maxBackoffMs = maxBackoffMs;
+		copy.circuitBreakerThreshold = circuitBreakerThreshold;
+		copy.circuitBreakerOpenMs = circuitBreakerOpenMs;
+		copy.retryableStatusCodes = new HashSet<Integer>(retryableStatusCodes);
+		return copy;
+	}
+
+	long getDeadlineMs() {
+		return deadlineMs;
+	}
+
+	int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	long getInitialBackoffMs() {
+		return initialBackoffMs;
+	}
+
+	long getMaxBackoffMs() {
+		return maxBackoffMs;
+	}
+
+	int getCircuitBreakerThreshold() {
+		return circuitBreakerThreshold;
+	}
+
+	long getCircuitBreakerOpenMs() {
+		return circuitBreakerOpenMs;
+	}
+
+	boolean isRetryable(int statusCode) {
+		return retryableStatusCodes.contains(statusCode);
+	}
+}
@@ -1,48 +1,68 @@
 package com.scottyab.safetynet;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.text.TextUtils;
-import android.util.Base64;
-
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.GoogleApiAvailability;
-import com.google.android.gms.common.GooglePlayServicesNotAvailableException;
-import com.google.android.gms.safetynet.SafetyNet;
-import com.google.android.gms.safetynet.SafetyNetApi;
-import com.google.android.gms.tasks.Continuation;
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
-import com.google.android.gms.tasks.Task;
+import android.util.Log;
 
+import com.google.android.gms.tasks.TaskExecutors;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
-import java.util.Arrays;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import javax.net.ssl.X509TrustManager;
+
+import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.UiThread;
-
-import static com.scottyab.safetynet.SafetyNetVerificationException.ErrorCode.PAYLOAD_VALIDATION_FAILED;
+import androidx.annotation.WorkerThread;
 
 
 public class SafetyNetHelper {
 
+	private static final String TAG = SafetyNetHelper.class.getSimpleName();
+
 	/**
 	 * This is used to validate the payload response from the SafetyNet.API,
 	 * if it exceeds this duration, the response is considered invalid.
 	 */
 	private static long MAX_TIMESTAMP_DURATION = TimeUnit.MINUTES.toMillis(2);
 
+	private static final Executor DIRECT_EXECUTOR = new Executor() {
+		@Override
+		public void execute(@NonNull Runnable command) {
+			command.run();
+		}
+	};
+
 	private final String googleDeviceVerificationApiKey;
 	private final SecureRandom secureRandom;
 	private final Executor executor;
+	private final AttestationScheduler.Clock clock;
+	private volatile AttestationScheduler scheduler;
+	private volatile AttestationClient attestationClient;
+	private volatile X509TrustManager trustManager;
 
-	//used for local validation of API response payload
-	private byte[] requestNonce;
-	private long requestTimestamp;
+	private final Object batchLock = new Object();
+	private Batch inFlightBatch;
+	private Batch pendingBatch;
+
+	private volatile AttestationCache attestationCache;
+	private volatile List<String> apkCertificateDigests;
+	private volatile PayloadPolicy payloadPolicy;
+	private volatile PayloadPolicy defaultPayloadPolicy;
 
 	/**
 	 * @param googleDeviceVerificationApiKey used to validate safety net response see https://developer.android.com/google/play/safetynet/start.html#verify-compat-check
@@ -54,104 +74,402 @@ public class SafetyNetHelper {
 		this.googleDeviceVerificationApiKey = googleDeviceVerificationApiKey;
 		secureRandom = new SecureRandom();
 		executor = Executors.newSingleThreadExecutor();
+		clock = new AttestationScheduler.SystemClock();
+		scheduler = new AttestationScheduler(new RetryPolicy(), clock, new Random());
+		attestationClient = new PlayServicesAttestationClient(executor);
 	}
 
 	/**
 	 * Call the SafetyNet test to check if this device profile /ROM has passed the CTS test
 	 *
 	 * @param context  used to build and init the GoogleApiClient
-	 * @param callback results and error handling
+	 * @param callback results and error handling, delivered on the UI thread
 	 */
 	@UiThread
 	public void requestTest(@NonNull final Context context, @NonNull final SafetyNetWrapperCallback callback) {
-		int googlePlayServicesAvailable = GoogleApiAvailability.getInstance()
-				.isGooglePlayServicesAvailable(context);
-		if (googlePlayServicesAvailable != ConnectionResult.SUCCESS) {
-			callback.error(new GooglePlayServicesNotAvailableException(googlePlayServicesAvailable));
-			return;
+		requestTest(context, TaskExecutors.MAIN_THREAD, callback);
+	}
+
+	/**
+	 * Call the SafetyNet test to check if this device profile /ROM has passed the CTS test
+	 *
+	 * @param context          used to build and init the GoogleApiClient
+	 * @param deliveryExecutor executor the callback is invoked on
+	 * @param callback         results and error handling
+	 * @return the pending result, which can also be used to cancel the request
+	 */
+	@AnyThread
+	@NonNull
+	public AttestationFuture requestTest(@NonNull final Context context, @NonNull Executor deliveryExecutor, @NonNull final SafetyNetWrapperCallback callback) {
+		return requestTest(context).addCallback(deliveryExecutor, callback);
+	}
+
+	/**
+	 * Call the SafetyNet test to check if this device profile /ROM has passed the CTS test.
+	 *
+	 * <p>The response is verified on a background thread and the returned future is completed
+	 * there, without going through the main thread.
+	 *
+	 * <p>Calls made while another request of this helper is in flight share its result instead
+	 * of issuing a new request. If an {@link AttestationCache} is set, a cached statement may be
+	 * returned instead.
+	 *
+	 * @param context used to build and init the GoogleApiClient
+	 * @return the pending result, which can also be used to cancel the request
+	 */
+	@AnyThread
+	@NonNull
+	public AttestationFuture requestTest(@NonNull final Context context) {
+		final AttestationCache cache = attestationCache;
+		if (cache == null) {
+			return enqueue(context, null);
 		}
+		final AttestationFuture future = new AttestationFuture();
+		// the cache may need to be loaded from disk, so look it up in background
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				long now = System.currentTimeMillis();
+				AttestationStatement cached = cache.get(now);
+				if (cached == null) {
+					forward(enqueue(context, null), future);
+					return;
+				}
+				if (!cache.isFresh(cached, now)) {
+					// serve the stale statement, the new one will replace it in the cache
+					enqueue(context, null);
+				}
+				future.set(cached);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Sets the cache requests without a caller nonce are served from, or null (the default) to
+	 * always request a new attestation.
+	 */
+	@AnyThread
+	public void setAttestationCache(@Nullable AttestationCache attestationCache) {
+		this.attestationCache = attestationCache;
+	}
 
-		requestNonce = generateOneTimeRequestNonce();
-		requestTimestamp = System.currentTimeMillis();
+	private static void forward(AttestationFuture from, final AttestationFuture to) {
+		from.addCallback(DIRECT_EXECUTOR, new SafetyNetWrapperCallback() {
+			@Override
+			public void success(AttestationStatement response) {
+				to.set(response);
+			}
 
-		SafetyNet.getClient(context)
-				.attest(requestNonce, googleDeviceVerificationApiKey)
-				.continueWith(executor, new Continuation<SafetyNetApi.AttestationResponse, Result>() {
-					@Override
-					public Result then(@NonNull Task<SafetyNetApi.AttestationResponse> task) throws Exception {
-						final String jwsResult = task.getResult()
-								.getJwsResult();
-						/*
-						 * We perform the response verification on an executor (background thread) since the apk
-						 * digest calculation may took a long time if the apk is large, and we will deliver the
-						 * final result via a callback anyway, so there is no point in blocking the UI.
-						 */
+			@Override
+			public void failure(SafetyNetVerificationException e) {
+				to.setException(e);
+			}
+
+			@Override
+			public void error(Exception e) {
+				to.setException(e);
+			}
+		});
+	}
 
-						try {
-							OfflineVerifier verifier = OfflineVerifier.from(jwsResult);
-							AttestationStatement response = verifier.getAttestationStatement();
+	/**
+	 * Call the SafetyNet test binding the result to a nonce chosen by the caller, typically
+	 * issued by the server which will check the attestation.
+	 *
+	 * <p>Calls made while another request of this helper is in flight are batched into a single
+	 * follow-up request, whose nonce is the {@link MerkleNonce} root of the batched caller nonces.
+	 * The proof that the caller nonce is included in the nonce of the statement is available from
+	 * {@link AttestationFuture#getNonceProof()} once the request has completed.
+	 *
+	 * @param context     used to build and init the GoogleApiClient
+	 * @param callerNonce nonce to bind the attestation to
+	 * @return the pending result, which can also be used to cancel the request
+	 */
+	@AnyThread
+	@NonNull
+	public AttestationFuture requestTest(@NonNull final Context context, @NonNull byte[] callerNonce) {
+		return enqueue(context, Preconditions.checkNotNull(callerNonce));
+	}
+
+	private AttestationFuture enqueue(Context context, @Nullable byte[] callerNonce) {
+		AttestationFuture future = new AttestationFuture();
+		Batch toStart = null;
+		synchronized (batchLock) {
+			if (inFlightBatch == null) {
+				inFlightBatch = new Batch(context);
+				inFlightBatch.add(future, callerNonce);
+				toStart = inFlightBatch;
+			} else if (callerNonce == null) {
+				// the caller doesn't care about the nonce, so the request in flight will do
+				inFlightBatch.add(future, null);
+			} else {
+				// the nonce of the request in flight is already sent, wait for the next one
+				if (pendingBatch == null) {
+					pendingBatch = new Batch(context);
+				}
+				pendingBatch.add(future, callerNonce);
+			}
+		}
+		if (toStart != null) {
+			start(toStart);
+		}
+		return future;
+	}
+
+	private void start(final Batch batch) {
+		AttestationFuture shared = new AttestationFuture();
+		shared.addCallback(DIRECT_EXECUTOR, new SafetyNetWrapperCallback() {
+			@Override
+			public void success(AttestationStatement response) {
+				finish(batch, response, null);
+			}
 
-							verifier.verify();
+			@Override
+			public void failure(SafetyNetVerificationException e) {
+				finish(batch, null, e);
+			}
+
+			@Override
+			public void error(Exception e) {
+				finish(batch, null, e);
+			}
+		});
+		attest(batch.context, batch.seal(generateOneTimeRequestNonce()), shared);
+	}
 
-							validatePayload(context, response);
+	private void finish(Batch batch, AttestationStatement response, Exception e) {
+		Batch next;
+		synchronized (batchLock) {
+			next = pendingBatch;
+			pendingBatch = null;
+			inFlightBatch = next;
+		}
+		batch.complete(response, e);
+		if (next != null) {
+			start(next);
+		}
+	}
 
-							return new Result(response);
+	private void attest(final Context context, final byte[] requestNonce, final AttestationFuture future) {
+		//used for local validation of API response payload
+		final long requestTimestamp = System.currentTimeMillis();
 
-						} catch (SafetyNetVerificationException e) {
-							return new Result(e);
-						}
+		final AttestationClient client = attestationClient;
+		scheduler.execute(new AttestationScheduler.Attempt() {
+			@Override
+			public void run(@NonNull final AttestationScheduler.AttemptCallback callback) {
+				client.attest(context, requestNonce, googleDeviceVerificationApiKey, new AttestationClient.Callback() {
+					@Override
+					public void onSuccess(String jwsResult) {
+						callback.onSuccess(jwsResult);
 					}
-				})
-				.addOnSuccessListener(new OnSuccessListener<Result>() {
+
 					@Override
-					public void onSuccess(Result result) {
-						if (result.attestationStatement != null) {
-							callback.success(result.attestationStatement);
-						} else {
-							callback.failure(result.safetyNetVerificationException);
-						}
+					public void onFailure(Exception e) {
+						callback.onFailure(e);
 					}
-				})
-				.addOnFailureListener(new OnFailureListener() {
+				});
+			}
+		}, new AttestationScheduler.AttemptCallback() {
+			@Override
+			public void onSuccess(final String jwsResult) {
+				/*
+				 * We perform the response verification on an executor (background thread) since the apk
+				 * digest calculation may took a long time if the apk is large, and we will deliver the
+				 * final result via a callback anyway, so there is no point in blocking the UI.
+				 */
+				executor.execute(new Runnable() {
 					@Override
-					public void onFailure(@NonNull Exception e) {
-						callback.error(e);
+					public void run() {
+						verify(context, jwsResult, requestNonce, requestTimestamp, future);
 					}
 				});
+			}
+
+			@Override
+			public void onFailure(Exception e) {
+				future.setException(e);
+			}
+		});
 	}
 
-	private void validatePayload(Context context, AttestationStatement response) throws SafetyNetVerificationException {
-		if (!Arrays.equals(requestNonce, response.getNonce())) {
-			throw new SafetyNetVerificationException(PAYLOAD_VALIDATION_FAILED, "Invalid nonce, expected:" + base64(requestNonce) + ", received:" + base64(response.getNonce()), response);
-		}
+	private void verify(Context context, String jwsResult, byte[] requestNonce, long requestTimestamp, AttestationFuture future) {
+		try {
+			OfflineVerifier verifier = OfflineVerifier.from(jwsResult);
+			AttestationStatement response = verifier.getAttestationStatement();
 
-		long durationOfReq = response.getTimestampMs() - requestTimestamp;
-		if (durationOfReq > MAX_TIMESTAMP_DURATION) {
-			throw new SafetyNetVerificationException(PAYLOAD_VALIDATION_FAILED, "Duration calculated from the timestamp of response '" + durationOfReq + "' exceeds permitted duration of '" + MAX_TIMESTAMP_DURATION + "'", response);
-		}
+			try {
+				verifier.verify(getTrustManager());
+			} catch (GeneralSecurityException e) {
+				future.setException(e);
+				return;
+			}
 
-		/*
-			The apkPackageName, apkCertificateDigestSha256, and apkDigestSha256 parameters provide information about the APK that you can use to verify the identity of the calling app. These parameters are absent if the API cannot reliably determine the APK information.
-			Note: You should trust this APK information only if the value of ctsProfileMatch is true.
-		 */
-		if (response.isCtsProfileMatch()) {
-			String packageName = context.getPackageName();
-			if (!packageName.equalsIgnoreCase(response.getApkPackageName())) {
-				throw new SafetyNetVerificationException(PAYLOAD_VALIDATION_FAILED, "Invalid packageName, expected:" + packageName + ", received:" + response.getApkPackageName(), response);
+			getPayloadPolicy(context).check(response, requestNonce, requestTimestamp);
+
+			AttestationCache cache = attestationCache;
+			if (cache != null) {
+				cache.put(jwsResult, response, System.currentTimeMillis());
 			}
 
-			List<String> apkCertificateDigests = Utils.calcApkCertificateDigests(context, packageName);
-			if (!Arrays.equals(apkCertificateDigests.toArray(), response.getApkCertificateDigestSha256())) {
-				throw new SafetyNetVerificationException(PAYLOAD_VALIDATION_FAILED, "Invalid apkCertificateDigest, expected:" + apkCertificateDigests + ", received:" + Arrays.toString(response.getApkCertificateDigestSha256()), response);
+			future.set(response);
+
+		} catch (SafetyNetVerificationException e) {
+			future.setException(e);
+		} catch (RuntimeException e) {
+			future.setException(e);
+		}
+	}
+
+	/**
+	 * Sets the deadline, retry and circuit breaker settings used for the {@code attest()} calls.
+	 * The circuit breaker state is reset. The policy is copied, later changes to it have no effect
+	 * unless it is set again.
+	 */
+	@AnyThread
+	public void setRetryPolicy(@NonNull RetryPolicy retryPolicy) {
+		scheduler = new AttestationScheduler(Preconditions.checkNotNull(retryPolicy), clock, new Random());
+	}
+
+	/**
+	 * Sets where attestation statements are requested from, by default
+	 * {@link PlayServicesAttestationClient}.
+	 */
+	@AnyThread
+	public void setAttestationClient(@NonNull AttestationClient attestationClient) {
+		this.attestationClient = Preconditions.checkNotNull(attestationClient);
+	}
+
+	/**
+	 * Sets the trust manager the certificate chain of the statements is checked with, or null (the
+	 * default) to use the system one.
+	 */
+	@AnyThread
+	public void setTrustManager(@Nullable X509TrustManager trustManager) {
+		this.trustManager = trustManager;
+	}
+
+	private X509TrustManager getTrustManager() throws GeneralSecurityException {
+		X509TrustManager tm = trustManager;
+		return tm != null ? tm : HostnameAwareTrustManager.getDefault();
+	}
+
+	/**
+	 * Sets the checks of the statement content, or null (the default) for
+	 * {@link #newDefaultPayloadPolicyBuilder(Context)}. The nonce is always checked.
+	 */
+	@AnyThread
+	public void setPayloadPolicy(@Nullable PayloadPolicy payloadPolicy) {
+		this.payloadPolicy = payloadPolicy;
+	}
+
+	/**
+	 * Returns a builder of the default payload checks, to which further rules can be added: the
+	 * statement timestamp is at most 2 minutes after the request, and the package name and
+	 * certificate digests are the ones of this app.
+	 */
+	@WorkerThread
+	@NonNull
+	public static PayloadPolicy.Builder newDefaultPayloadPolicyBuilder(@NonNull Context context) {
+		return newDefaultPayloadPolicyBuilder(context, Utils.calcApkCertificateDigests(context, context.getPackageName()));
+	}
+
+	private static PayloadPolicy.Builder newDefaultPayloadPolicyBuilder(Context context, List<String> apkCertificateDigests) {
+		return new PayloadPolicy.Builder()
+				.setTimestampWindow(Long.MAX_VALUE, MAX_TIMESTAMP_DURATION)
+				.allowPackages(context.getPackageName())
+				.allowCertificateDigests(apkCertificateDigests);
+	}
+
+	private PayloadPolicy getPayloadPolicy(Context context) {
+		PayloadPolicy policy = payloadPolicy;
+		if (policy != null) {
+			return policy;
+		}
+		policy = defaultPayloadPolicy;
+		if (policy == null) {
+			policy = newDefaultPayloadPolicyBuilder(context, getApkCertificateDigests(context)).build();
+			// keep it only once the digests could be computed
+			if (apkCertificateDigests != null) {
+				defaultPayloadPolicy = policy;
 			}
 		}
+		return policy;
 	}
 
-	private String base64(@Nullable byte[] data) {
-		if (data == null) {
-			return null;
+	/**
+	 * Returns the certificate digests of this app, which can't change while the process is alive.
+	 */
+	private List<String> getApkCertificateDigests(Context context) {
+		List<String> digests = apkCertificateDigests;
+		if (digests == null) {
+			digests = Utils.calcApkCertificateDigests(context, context.getPackageName());
+			if (!digests.isEmpty()) {
+				apkCertificateDigests = digests;
+			}
 		}
-		return Base64.encodeToString(data, Base64.NO_WRAP);
+		return digests;
+	}
+
+	/**
+	 * Performs in background the one-off initializations otherwise paid by the first
+	 * {@link #requestTest} call: Gson type adapters, trust manager, {@link SecureRandom} seeding,
+	 * crypto provider lookups and the default payload policy, with the app certificate digests.
+	 *
+	 * @param context             used to look up the app certificates and to prefetch the attestation
+	 * @param prefetchAttestation whether to also request an attestation, which is then served from
+	 *                            the {@link AttestationCache} if one is set, or shared with calls
+	 *                            made while it is in flight
+	 * @param callback            receives how long each step took, may be null
+	 */
+	@AnyThread
+	public void warmUp(@NonNull final Context context, final boolean prefetchAttestation, @Nullable final WarmUpCallback callback) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				Map<String, Long> durationsMs = new LinkedHashMap<String, Long>();
+				long start = SystemClock.elapsedRealtime();
+
+				OfflineVerifier.warmUp();
+				start = lap(durationsMs, "gson", start);
+
+				try {
+					getTrustManager();
+				} catch (GeneralSecurityException e) {
+					Log.w(TAG, e);
+				}
+				start = lap(durationsMs, "trustManager", start);
+
+				generateOneTimeRequestNonce();
+				start = lap(durationsMs, "secureRandom", start);
+
+				try {
+					Signature.getInstance("SHA256withRSA");
+					CertificateFactory.getInstance("X.509");
+					MessageDigest.getInstance("SHA-256");
+				} catch (GeneralSecurityException e) {
+					Log.w(TAG, e);
+				}
+				start = lap(durationsMs, "cryptoProviders", start);
+
+				getPayloadPolicy(context);
+				lap(durationsMs, "payloadPolicy", start);
+
+				if (prefetchAttestation) {
+					requestTest(context);
+				}
+				if (callback != null) {
+					callback.onWarmedUp(durationsMs);
+				}
+			}
+		});
+	}
+
+	private static long lap(Map<String, Long> durationsMs, String step, long start) {
+		long now = SystemClock.elapsedRealtime();
+		durationsMs.put(step, now - start);
+		return now;
 	}
 
 	private byte[] generateOneTimeRequestNonce() {
@@ -161,7 +479,20 @@ public class SafetyNetHelper {
 	}
 
 	/**
-	 * Simple interface for handling SafetyNet API response
+	 * Receives the outcome of {@link #warmUp(Context, boolean, WarmUpCallback)}.
+	 */
+	public interface WarmUpCallback {
+		/**
+		 * @param durationsMs how long each step took, in milliseconds, in execution order
+		 */
+		@WorkerThread
+		void onWarmedUp(Map<String, Long> durationsMs);
+	}
+
+	/**
+	 * Simple interface for handling SafetyNet API response.
+	 * Methods are invoked on the UI thread unless a different executor was given to
+	 * {@link #requestTest(Context, Executor, SafetyNetWrapperCallback)}.
 	 */
 	public interface SafetyNetWrapperCallback {
 		@UiThread
@@ -184,16 +515,55 @@ public class SafetyNetHelper {
 		void error(Exception e);
 	}
 
-	private static class Result {
-		AttestationStatement attestationStatement;
-		SafetyNetVerificationException safetyNetVerificationException;
+	/**
+	 * Callers sharing a single attestation request.
+	 */
+	private static class Batch {
+		final Context context;
+		final List<AttestationFuture> futures = new ArrayList<AttestationFuture>();
+		final List<Integer> nonceIndexes = new ArrayList<Integer>();
+		final List<byte[]> callerNonces = new ArrayList<byte[]>();
+
+		Batch(Context context) {
+			this.context = context;
+		}
 
-		Result(AttestationStatement attestationStatement) {
-			this.attestationStatement = attestationStatement;
+		void add(AttestationFuture future, @Nullable byte[] callerNonce) {
+			futures.add(future);
+			if (callerNonce != null) {
+				nonceIndexes.add(callerNonces.size());
+				callerNonces.add(callerNonce);
+			} else {
+				nonceIndexes.add(null);
+			}
 		}
 
-		Result(SafetyNetVerificationException safetyNetVerificationException) {
-			this.safetyNetVerificationException = safetyNetVerificationException;
+		/**
+		 * Returns the nonce of the request. Only callers without a nonce may join afterwards.
+		 *
+		 * @param randomNonce fresh random nonce, also mixed in the tree so the root stays unpredictable
+		 */
+		byte[] seal(byte[] randomNonce) {
+			if (callerNonces.isEmpty()) {
+				return randomNonce;
+			}
+			callerNonces.add(randomNonce);
+			return MerkleNonce.root(callerNonces);
+		}
+
+		void complete(AttestationStatement response, Exception e) {
+			for (int i = 0; i < futures.size(); i++) {
+				AttestationFuture future = futures.get(i);
+				Integer nonceIndex = nonceIndexes.get(i);
+				if (nonceIndex != null) {
+					future.setNonceProof(MerkleNonce.proof(callerNonces, nonceIndex));
+				}
+				if (e == null) {
+					future.set(response);
+				} else {
+					future.setException(e);
+				}
+			}
 		}
 	}
 }
@@ -4,11 +4,17 @@ import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.Signature;
+import android.content.res.AssetFileDescriptor;
 import android.util.Base64;
 import android.util.Log;
 
+import com.scottyab.safetynet.internal.cz.msebera.android.httpclient.conn.util.BinaryPublicSuffixList;
+import com.scottyab.safetynet.internal.cz.msebera.android.httpclient.conn.util.PublicSuffixMatcher;
+
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.security.DigestInputStream;
@@ -120,7 +126,7 @@ public class Utils {
 	private static byte[] getApkFileDigest(Context context) {
 		String apkPath = context.getPackageCodePath();
 		try {
-			return getDigest(new FileInputStream(apkPath), "SHA-256");
+			return ApkDigestIndex.digestFile(new File(apkPath), "SHA-256");
 		} catch (Throwable throwable) {
 			throwable.printStackTrace();
 		}
@@ -148,4 +154,22 @@ public class Utils {
 		return s.getBytes(UTF_8);
 	}
 
+	/**
+	 * Memory maps a public suffix list compiled with {@link BinaryPublicSuffixList#main(String[])}
+	 * from an asset. The asset must be stored uncompressed, e.g. with {@code aaptOptions { noCompress "bin" }}.
+	 */
+	public static PublicSuffixMatcher loadPublicSuffixMatcher(Context context, String assetName) throws IOException {
+		AssetFileDescriptor fd = context.getAssets().openFd(assetName);
+		try {
+			FileInputStream in = fd.createInputStream();
+			try {
+				return new PublicSuffixMatcher(BinaryPublicSuffixList.map(in.getChannel(), fd.getStartOffset(), fd.getLength()));
+			} finally {
+				in.close();
+			}
+		} finally {
+			fd.close();
+		}
+	}
+
 }
@@ -1,121 +0,0 @@
-/*
- * ====================================================================
- * Licensed to the Apache Software Foundation (ASF) under one
- * or more contributor license agreements.  See the NOTICE file
- * distributed with this work for additional information
- * regarding copyright ownership.  The ASF licenses this file
- * to you under the Apache License, Version 2.0 (the
- * "License"); you may not use this file except in compliance
- * with the License.  You may obtain a copy of the License at
- *
- *   http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing,
- * software distributed under the License is distributed on an
- * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
- * KIND, either express or implied.  See the License for the
- * specific language governing permissions and limitations
- * under the License.
- * ====================================================================
- *
- * This software consists of voluntary contributions made by many
- * individuals on behalf of the Apache Software Foundation.  For more
- * information on the Apache Software Foundation, please see
- * <http://www.apache.org/>.
- *
- */
-
-package com.scottyab.safetynet.internal.cz.msebera.android.httpclient.conn.util;
-
-import java.util.regex.Pattern;
-
-/**
- * A collection of utilities relating to InetAddresses.
- *
- * @since 4.0
- */
-public class InetAddressUtils {
-
-    private InetAddressUtils() {
-    }
-
-    private static final String IPV4_BASIC_PATTERN_STRING =
-            "(([1-9]|[1-9][0-9]|1[0-9]{2}|2[0-4][0-9]|25[0-5])\\.){1}" + // initial first field, 1-255
-            "(([0-9]|[1-9][0-9]|1[0-9]{2}|2[0-4][0-9]|25[0-5])\\.){2}" + // following 2 fields, 0-255 followed by .
-             "([0-9]|[1-9][0-9]|1[0-9]{2}|2[0-4][0-9]|25[0-5])"; // final field, 0-255
-
-    private static final Pattern IPV4_PATTERN =
-        Pattern.compile("^" + IPV4_BASIC_PATTERN_STRING + "$");
-
-    private static final Pattern IPV4_MAPPED_IPV6_PATTERN = // TODO does not allow for redundant leading zeros
-            Pattern.compile("^::[fF]{4}:" + IPV4_BASIC_PATTERN_STRING + "$");
-
-    private static final Pattern IPV6_STD_PATTERN =
-        Pattern.compile(
-                "^[0-9a-fA-F]{1,4}(:[0-9a-fA-F]{1,4}){7}$");
-
-    private static final Pattern IPV6_HEX_COMPRESSED_PATTERN =
-        Pattern.compile(
-                "^(([0-9A-Fa-f]{1,4}(:[0-9A-Fa-f]{1,4}){0,5})?)" + // 0-6 hex fields
-                 "::" +
-                 "(([0-9A-Fa-f]{1,4}(:[0-9A-Fa-f]{1,4}){0,5})?)$"); // 0-6 hex fields
-
-    /*
-     *  The above pattern is not totally rigorous as it allows for more than 7 hex fields in total
-     */
-    private static final char COLON_CHAR = ':';
-
-    // Must not have more than 7 colons (i.e. 8 fields)
-    private static final int MAX_COLON_COUNT = 7;
-
-    /**
-     * Checks whether the parameter is a valid IPv4 address
-     *
-     * @param input the address string to check for validity
-     * @return true if the input parameter is a valid IPv4 address
-     */
-    public static boolean isIPv4Address(final String input) {
-        return IPV4_PATTERN.matcher(input).matches();
-    }
-
-    public static boolean isIPv4MappedIPv64Address(final String input) {
-        return IPV4_MAPPED_IPV6_PATTERN.matcher(input).matches();
-    }
-
-    /**
-     * Checks whether the parameter is a valid standard (non-compressed) IPv6 address
-     *
-     * @param input the address string to check for validity
-     * @return true if the input parameter is a valid standard (non-compressed) IPv6 address
-     */
-    public static boolean isIPv6StdAddress(final String input) {
-        return IPV6_STD_PATTERN.matcher(input).matches();
-    }
-
-    /**
-     * Checks whether the parameter is a valid compressed IPv6 address
-     *
-     * @param input the address string to check for validity
-     * @return true if the input parameter is a valid compressed IPv6 address
-     */
-    public static boolean isIPv6HexCompressedAddress(final String input) {
-        int colonCount = 0;
-        for(int i = 0; i < input.length(); i++) {
-            if (input.charAt(i) == COLON_CHAR) {
-                colonCount++;
-            }
-        }
-        return  colonCount <= MAX_COLON_COUNT && IPV6_HEX_COMPRESSED_PATTERN.matcher(input).matches();
-    }
-
-    /**
-     * Checks whether the parameter is a valid IPv6 address (including compressed).
-     *
-     * @param input the address string to check for validity
-     * @return true if the input parameter is a valid standard or compressed IPv6 address
-     */
-    public static boolean isIPv6Address(final String input) {
-        return isIPv6StdAddress(input) || isIPv6HexCompressedAddress(input);
-    }
-
-}
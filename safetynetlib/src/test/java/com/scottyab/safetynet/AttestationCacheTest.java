@@ -0,0 +1,78 @@
+package com.scottyab.safetynet;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AttestationCacheTest {
+
+	private static AttestationStatement statement(long timestampMs) {
+		return new Gson().fromJson("{\"timestampMs\":" + timestampMs + "}", AttestationStatement.class);
+	}
+
+	@Test
+	public void servesFreshThenStaleThenNothing() {
+		AttestationCache cache = new AttestationCache(1000).setStaleWhileRevalidateMs(500);
+		AttestationStatement statement = statement(10000);
+		cache.put("jws", statement, 10000);
+
+		assertSame(statement, cache.get(11000));
+		assertTrue(cache.isFresh(statement, 11000));
+		assertSame(statement, cache.get(11500));
+		assertFalse(cache.isFresh(statement, 11500));
+		assertNull(cache.get(11501));
+	}
+
+	@Test
+	public void saturatesHugeWindows() {
+		AttestationCache cache = new AttestationCache(Long.MAX_VALUE).setStaleWhileRevalidateMs(Long.MAX_VALUE);
+		AttestationStatement statement = statement(0);
+		cache.put("jws", statement, 0);
+
+		assertSame(statement, cache.get(Long.MAX_VALUE));
+		assertTrue(cache.isFresh(statement, Long.MAX_VALUE));
+	}
+
+	@Test
+	public void statementsFromTheFutureAreStale() {
+		AttestationStatement statement = statement(10000);
+		AttestationCache cache = new AttestationCache(1000);
+		cache.put("jws", statement, 9999);
+		assertNull(cache.get(9999));
+		assertFalse(cache.isFresh(statement, 9999));
+
+		AttestationCache revalidating = new AttestationCache(1000).setStaleWhileRevalidateMs(500);
+		revalidating.put("jws", statement, 9999);
+		assertSame(statement, revalidating.get(9999));
+		assertFalse(revalidating.isFresh(statement, 9999));
+	}
+
+	@Test
+	public void neitherCachesNorServesStatementsBeyondTheClockSkew() {
+		AttestationCache cache = new AttestationCache(1000).setStaleWhileRevalidateMs(Long.MAX_VALUE).setMaxClockSkewMs(500);
+		cache.put("jws", statement(Long.MAX_VALUE), 10000);
+		assertNull(cache.get(10000));
+		cache.put("jws", statement(10501), 10000);
+		assertNull(cache.get(10000));
+
+		AttestationStatement statement = statement(10500);
+		cache.put("jws", statement, 10000);
+		assertSame(statement, cache.get(10000));
+		assertFalse(cache.isFresh(statement, 10000));
+		// the clock was set back
+		assertNull(cache.get(9999));
+		assertNull(cache.get(10500));
+
+		AttestationStatement older = statement(9000);
+		cache.put("jws", statement, 10000);
+		// the clock was set back again, the older statement replaces the one now too far ahead
+		cache.put("jws", older, 9000);
+		assertSame(older, cache.get(9000));
+		assertTrue(cache.isFresh(older, 9000));
+	}
+}
@@ -0,0 +1,249 @@
+package com.scottyab.safetynet;
+
+import com.google.android.gms.common.api.ApiException;
+import com.google.android.gms.common.api.CommonStatusCodes;
+import com.google.android.gms.common.api.Status;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeoutException;
+
+import androidx.annotation.NonNull;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AttestationSchedulerTest {
+
+	private VirtualClock clock;
+	private FakeClient client;
+	private Outcome outcome;
+
+	@Before
+	public void setUp() {
+		clock = new VirtualClock();
+		client = new FakeClient();
+		outcome = new Outcome();
+	}
+
+	private AttestationScheduler scheduler(RetryPolicy policy) {
+		return new AttestationScheduler(policy, clock, new Random(35));
+	}
+
+	private static ApiException networkError() {
+		return new ApiException(new Status(CommonStatusCodes.NETWORK_ERROR));
+	}
+
+	@Test
+	public void retriesRetryableFailuresWithBackoff() {
+		AttestationScheduler scheduler = scheduler(new RetryPolicy().setBackoffMs(1000, 1000));
+		scheduler.execute(client, outcome);
+
+		client.fail(networkError());
+		assertEquals(1, client.calls);
+		clock.advance(499);
+		assertEquals(1, client.calls);
+		clock.advance(501);
+		assertEquals(2, client.calls);
+
+		client.succeed("jws");
+		assertEquals("jws", outcome.jwsResult);
+		assertEquals(1, outcome.count);
+	}
+
+	@Test
+	public void doesNotRetryOtherFailures() {
+		AttestationScheduler scheduler = scheduler(new RetryPolicy());
+		scheduler.execute(client, outcome);
+
+		IllegalStateException failure = new IllegalStateException();
+		client.fail(failure);
+		clock.advance(60000);
+		assertEquals(1, client.calls);
+		assertEquals(failure, outcome.failure);
+	}
+
+	@Test
+	public void failsWithATimeoutAtTheDeadline() {
+		AttestationScheduler scheduler = scheduler(new RetryPolicy().setDeadlineMs(1000));
+		scheduler.execute(client, outcome);
+
+		clock.advance(999);
+		assertEquals(0, outcome.count);
+		clock.advance(1);
+		assertTrue(outcome.failure instanceof TimeoutException);
+
+		client.succeed("late");
+		assertNull(outcome.jwsResult);
+		assertEquals(1, outcome.count);
+	}
+
+	@Test
+	public void opensTheCircuitBreakerAfterConsecutiveFailures() {
+		AttestationScheduler scheduler = scheduler(new RetryPolicy().setMaxAttempts(1).setCircuitBreaker(2, 5000));
+		scheduler.execute(client, outcome);
+		client.fail(networkError());
+		scheduler.execute(client, new Outcome());
+		client.fail(networkError());
+
+		Outcome rejected = new Outcome();
+		scheduler.execute(client, rejected);
+		assertTrue(rejected.failure instanceof CircuitBreakerOpenException);
+		assertEquals(2, client.calls);
+
+		clock.advance(5000);
+		Outcome accepted = new Outcome();
+		scheduler.execute(client, accepted);
+		client.succeed("jws");
+		assertEquals("jws", accepted.jwsResult);
+	}
+
+	@Test
+	public void countsAFailureArrivingAfterTheDeadlineOnce() {
+		AttestationScheduler scheduler = scheduler(new RetryPolicy().setDeadlineMs(1000).setCircuitBreaker(2, 5000));
+		scheduler.execute(client, outcome);
+		clock.advance(1000);
+		assertTrue(outcome.failure instanceof TimeoutException);
+		client.fail(networkError());
+
+		// a single failed attempt so far, the breaker must still be closed
+		Outcome next = new Outcome();
+		scheduler.execute(client, next);
+		assertEquals(2, client.calls);
+		client.succeed("jws");
+		assertEquals("jws", next.jwsResult);
+	}
+
+	@Test
+	public void countsEachAttemptOnce() {
+		AttestationScheduler scheduler = scheduler(new RetryPolicy().setDeadlineMs(1000)
+				.setBackoffMs(100, 100).setMaxAttempts(3).setCircuitBreaker(3, 5000));
+		scheduler.execute(client, outcome);
+		client.fail(networkError());
+		clock.advance(100);
+		assertEquals(2, client.calls);
+		clock.advance(900);
+		assertTrue(outcome.failure instanceof TimeoutException);
+		client.fail(networkError());
+
+		// two failed attempts, the third one opens the breaker
+		scheduler.execute(client, new Outcome());
+		assertEquals(3, client.calls);
+		client.fail(networkError());
+		Outcome rejected = new Outcome();
+		scheduler.execute(client, rejected);
+		assertTrue(rejected.failure instanceof CircuitBreakerOpenException);
+	}
+
+	@Test
+	public void isUnaffectedByLaterChangesToThePolicy() {
+		RetryPolicy policy = new RetryPolicy().setDeadlineMs(1000);
+		AttestationScheduler scheduler = scheduler(policy);
+		policy.setDeadlineMs(60000);
+
+		scheduler.execute(client, outcome);
+		clock.advance(1000);
+		assertTrue(outcome.failure instanceof TimeoutException);
+	}
+
+	/**
+	 * Attestation client whose calls stay pending until the test completes them.
+	 */
+	private static class FakeClient implements AttestationScheduler.Attempt {
+		private final List<AttestationScheduler.AttemptCallback> pending = new ArrayList<AttestationScheduler.AttemptCallback>();
+		int calls;
+
+		@Override
+		public void run(@NonNull AttestationScheduler.AttemptCallback callback) {
+			calls++;
+			pending.add(callback);
+		}
+
+		void succeed(String jwsResult) {
+			pending.remove(0).onSuccess(jwsResult);
+		}
+
+		void fail(Exception e) {
+			pending.remove(0).onFailure(e);
+		}
+	}
+
+	private static class Outcome implements AttestationScheduler.AttemptCallback {
+		String jwsResult;
+		Exception failure;
+		int count;
+
+		@Override
+		public void onSuccess(String jwsResult) {
+			this.jwsResult = jwsResult;
+			count++;
+		}
+
+		@Override
+		public void onFailure(Exception e) {
+			failure = e;
+			count++;
+		}
+	}
+
+	/**
+	 * Clock which only moves when told to, running the timers falling due on the calling thread.
+	 */
+	private static class VirtualClock implements AttestationScheduler.Clock {
+		private final List<Timer> timers = new ArrayList<Timer>();
+		private long nowMs;
+
+		@Override
+		public long nowMs() {
+			return nowMs;
+		}
+
+		@Override
+		public AttestationScheduler.Cancellable schedule(Runnable task, long delayMs) {
+			final Timer timer = new Timer(nowMs + delayMs, task);
+			timers.add(timer);
+			return new AttestationScheduler.Cancellable() {
+				@Override
+				public void cancel() {
+					timers.remove(timer);
+				}
+			};
+		}
+
+		void advance(long ms) {
+			long target = nowMs + ms;
+			while (true) {
+				Timer next = null;
+				for (Iterator<Timer> it = timers.iterator(); it.hasNext(); ) {
+					Timer timer = it.next();
+					if (timer.dueMs <= target && (next == null || timer.dueMs < next.dueMs)) {
+						next = timer;
+					}
+				}
+				if (next == null) {
+					break;
+				}
+				timers.remove(next);
+				nowMs = next.dueMs;
+				next.task.run();
+			}
+			nowMs = target;
+		}
+	}
+
+	private static class Timer {
+		final long dueMs;
+		final Runnable task;
+
+		Timer(long dueMs, Runnable task) {
+			this.dueMs = dueMs;
+			this.task = task;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.scottyab.safetynet;
+
+import android.content.Context;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import androidx.annotation.NonNull;
+
+/**
+ * {@link AttestationClient} issuing statements for this app from a {@link FakeAttestationService},
+ * without Google Play services nor network access.
+ *
+ * <p>The statements are not trusted by the system, so the helper must be given the trust manager
+ * of the service:
+ *
+ * <pre>
+ * FakeAttestationService service = new FakeAttestationService();
+ * helper.setAttestationClient(new FakeAttestationClient(service));
+ * helper.setTrustManager(service.getTrustManager());
+ * </pre>
+ */
+public class FakeAttestationClient implements AttestationClient {
+
+	private final FakeAttestationService service;
+	private final Executor executor = Executors.newSingleThreadExecutor();
+
+	private volatile boolean ctsProfileMatch = true;
+	private volatile boolean basicIntegrity = true;
+
+	public FakeAttestationClient(@NonNull FakeAttestationService service) {
+		this.service = Preconditions.checkNotNull(service);
+	}
+
+	/**
+	 * Sets the ctsProfileMatch verdict of the issued statements, true by default.
+	 */
+	public FakeAttestationClient setCtsProfileMatch(boolean ctsProfileMatch) {
+		this.ctsProfileMatch = ctsProfileMatch;
+		return this;
+	}
+
+	/**
+	 * Sets the basicIntegrity verdict of the issued statements, true by default.
+	 */
+	public FakeAttestationClient setBasicIntegrity(boolean basicIntegrity) {
+		this.basicIntegrity = basicIntegrity;
+		return this;
+	}
+
+	@Override
+	public void attest(@NonNull final Context context, @NonNull final byte[] nonce, @NonNull String apiKey, @NonNull final Callback callback) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				String packageName = context.getPackageName();
+				FakeAttestationService.Payload payload = new FakeAttestationService.Payload()
+						.setNonce(nonce)
+						.setTimestampMs(System.currentTimeMillis())
+						.setApkPackageName(packageName)
+						.setApkCertificateDigestSha256(Utils.calcApkCertificateDigests(context, packageName))
+						.setCtsProfileMatch(ctsProfileMatch)
+						.setBasicIntegrity(basicIntegrity);
+				String jwsResult;
+				try {
+					jwsResult = service.attest(payload);
+				} catch (GeneralSecurityException e) {
+					callback.onFailure(e);
+					return;
+				}
+				callback.onSuccess(jwsResult);
+			}
+		});
+	}
+}
@@ -0,0 +1,91 @@
+package com.scottyab.safetynet.loadtest;
+
+/**
+ * Histogram of latencies in nanoseconds with a relative error below 1%, so that high percentiles
+ * of millions of samples can be reported without keeping the samples.
+ *
+ * <p>Values are bucketed by their highest set bit and the following {@link #SUB_BUCKET_BITS} bits.
+ * Not thread-safe, each thread records in its own histogram and they are merged at the end.
+ */
+class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final long[] counts = new long[(64 - SUB_BUCKET_BITS) * SUB_BUCKETS];
+	private long total;
+	private long sum;
+	private long max;
+
+	void record(long valueNs) {
+		if (valueNs < 0) {
+			valueNs = 0;
+		}
+		counts[index(valueNs)]++;
+		total++;
+		sum += valueNs;
+		if (valueNs > max) {
+			max = valueNs;
+		}
+	}
+
+	void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		total += other.total;
+		sum += other.sum;
+		max = Math.max(max, other.max);
+	}
+
+	long getCount() {
+		return total;
+	}
+
+	long getMaxNs() {
+		return max;
+	}
+
+	double getMeanNs() {
+		return total == 0 ? 0 : (double) sum / total;
+	}
+
+	/**
+	 * Returns the value below which the given fraction of the samples fall, e.g. 0.99 for p99.
+	 */
+	long getPercentileNs(double fraction) {
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(fraction * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(max, highestValue(i));
+			}
+		}
+		return max;
+	}
+
+	private static int index(long value) {
+		int msb = 63 - Long.numberOfLeadingZeros(value);
+		if (msb < SUB_BUCKET_BITS) {
+			return (int) value;
+		}
+		int shift = msb - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * Returns the highest value falling in the bucket.
+	 */
+	private static long highestValue(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = ((long) SUB_BUCKETS | (index % SUB_BUCKETS)) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,110 @@
+package com.scottyab.safetynet.loadtest;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line entry point.
+ *
+ * <pre>
+ * LoadTest generate &lt;corpus&gt; [--count=10000] [--seed=1] [--threads=N] [--payload-bytes=400,4000]
+ *                   [--intermediates=0,1] [--forged=0.05] [--expired=0.05]
+ *                   [--unsupported-algorithm=0.02] [--nonce-reuse=0.1]
+ * LoadTest run &lt;corpus&gt; [--threads=N] [--warm-up-s=5] [--duration-s=30]
+ *              [--max-verifications=N] [--output=results.json]
+ * LoadTest nonces [--threads=N] [--nonce-length=32] [--prefetch=4096] [--warm-up-s=2]
+ *                 [--duration-s=10]
+ * </pre>
+ */
+public class LoadTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	public static void main(String[] args) throws Exception {
+		if (args.length >= 1 && "nonces".equals(args[0])) {
+			nonces(new Options(args, 1, "threads", "nonce-length", "prefetch", "warm-up-s", "duration-s"));
+			return;
+		}
+		if (args.length < 2 || !("generate".equals(args[0]) || "run".equals(args[0]))) {
+			System.err.println("Usage: LoadTest generate <corpus> [--option=value...]");
+			System.err.println("       LoadTest run <corpus> [--option=value...]");
+			System.err.println("       LoadTest nonces [--option=value...]");
+			System.exit(1);
+		}
+		File corpusFile = new File(args[1]);
+		if ("generate".equals(args[0])) {
+			generate(corpusFile, new Options(args, 2, "count", "seed", "threads", "payload-bytes",
+					"intermediates", "forged", "expired", "unsupported-algorithm", "nonce-reuse"));
+		} else {
+			run(corpusFile, new Options(args, 2, "threads", "warm-up-s", "duration-s",
+					"max-verifications", "output"));
+		}
+	}
+
+	private static void generate(File corpusFile, Options options) throws Exception {
+		int[] payloadBytes = options.getInts("payload-bytes", 400, 4000);
+		if (payloadBytes.length != 2) {
+			throw new IllegalArgumentException("--payload-bytes must be min,max");
+		}
+		TokenCorpus.Generator generator = new TokenCorpus.Generator()
+				.setCount(options.getInt("count", 10000))
+				.setSeed(options.getLong("seed", 1))
+				.setThreads(options.getInt("threads", Runtime.getRuntime().availableProcessors()))
+				.setPayloadBytes(payloadBytes[0], payloadBytes[1])
+				.setIntermediates(options.getInts("intermediates", 0, 1))
+				.setForgedFraction(options.getFraction("forged", 0.05))
+				.setExpiredFraction(options.getFraction("expired", 0.05))
+				.setUnsupportedAlgorithmFraction(options.getFraction("unsupported-algorithm", 0.02))
+				.setNonceReuseFraction(options.getFraction("nonce-reuse", 0.1));
+		long start = System.nanoTime();
+		generator.write(corpusFile);
+		System.err.println("Generated " + corpusFile + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+	}
+
+	private static void run(File corpusFile, Options options) throws Exception {
+		TokenCorpus corpus = TokenCorpus.read(corpusFile);
+		LoadTestHarness.Report report = new LoadTestHarness(corpus, corpus.getTrustManager())
+				.setThreads(options.getInt("threads", Runtime.getRuntime().availableProcessors()))
+				.setWarmUpMs(TimeUnit.SECONDS.toMillis(options.getLong("warm-up-s", 5)))
+				.setDurationMs(TimeUnit.SECONDS.toMillis(options.getLong("duration-s", 30)))
+				.setMaxVerifications(options.getLong("max-verifications", Long.MAX_VALUE))
+				.run();
+
+		Gson gson = new GsonBuilder().setPrettyPrinting().create();
+		String json = gson.toJson(report);
+		String output = options.getString("output", null);
+		if (output == null) {
+			System.out.println(json);
+		} else {
+			Writer out = new OutputStreamWriter(new FileOutputStream(output), UTF_8);
+			try {
+				out.write(json);
+				out.write('\n');
+			} finally {
+				out.close();
+			}
+		}
+		if (report.mismatches > 0) {
+			System.err.println(report.mismatches + " verifications did not match the kind of the token");
+			System.exit(2);
+		}
+	}
+
+	private static void nonces(Options options) throws Exception {
+		NonceBenchmark.Report report = new NonceBenchmark()
+				.setThreads(options.getInt("threads", Runtime.getRuntime().availableProcessors()))
+				.setNonceLength(options.getInt("nonce-length", 32))
+				.setPrefetch(options.getInt("prefetch", 4096))
+				.setWarmUpMs(TimeUnit.SECONDS.toMillis(options.getLong("warm-up-s", 2)))
+				.setDurationMs(TimeUnit.SECONDS.toMillis(options.getLong("duration-s", 10)))
+				.run();
+		System.out.println(new GsonBuilder().setPrettyPrinting().create().toJson(report));
+	}
+}
@@ -0,0 +1,241 @@
+package com.scottyab.safetynet.loadtest;
+
+import com.scottyab.safetynet.AttestationStatement;
+import com.scottyab.safetynet.OfflineVerifier;
+import com.scottyab.safetynet.SafetyNetVerificationException;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * Replays a {@link TokenCorpus} through {@link OfflineVerifier} from several threads and measures
+ * throughput and latency.
+ *
+ * <p>Each verification parses and verifies one token, picked round robin from the corpus. The
+ * outcome is checked against the kind of the token, and the nonces of accepted tokens are looked
+ * up in a shared map to count nonces presented by more than one token.
+ */
+class LoadTestHarness {
+
+	static final String ACCEPTED = "ACCEPTED";
+
+	private final TokenCorpus corpus;
+	private final X509TrustManager trustManager;
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private long warmUpMs = TimeUnit.SECONDS.toMillis(5);
+	private long durationMs = TimeUnit.SECONDS.toMillis(30);
+	private long maxVerifications = Long.MAX_VALUE;
+
+	LoadTestHarness(TokenCorpus corpus, X509TrustManager trustManager) {
+		if (corpus.tokens.isEmpty()) {
+			throw new IllegalArgumentException("Empty corpus");
+		}
+		this.corpus = corpus;
+		this.trustManager = trustManager;
+	}
+
+	LoadTestHarness setThreads(int threads) {
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * Sets for how long the corpus is replayed before measuring, to let the JIT compile the
+	 * verification path.
+	 */
+	LoadTestHarness setWarmUpMs(long warmUpMs) {
+		this.warmUpMs = warmUpMs;
+		return this;
+	}
+
+	LoadTestHarness setDurationMs(long durationMs) {
+		this.durationMs = durationMs;
+		return this;
+	}
+
+	/**
+	 * Stops the measurement after this many verifications, even if the duration is not over.
+	 */
+	LoadTestHarness setMaxVerifications(long maxVerifications) {
+		this.maxVerifications = maxVerifications;
+		return this;
+	}
+
+	Report run() throws InterruptedException {
+		if (warmUpMs > 0) {
+			runPhase(warmUpMs, Long.MAX_VALUE);
+		}
+		long start = System.nanoTime();
+		Worker[] workers = runPhase(durationMs, maxVerifications);
+		long elapsedNs = System.nanoTime() - start;
+
+		LatencyHistogram latency = new LatencyHistogram();
+		Map<String, Map<String, Long>> outcomes = new TreeMap<String, Map<String, Long>>();
+		long mismatches = 0;
+		long nonceReplays = 0;
+		for (Worker worker : workers) {
+			latency.add(worker.latency);
+			mismatches += worker.mismatches;
+			nonceReplays += worker.nonceReplays;
+			for (Map.Entry<String, Long> entry : worker.outcomes.entrySet()) {
+				String kind = entry.getKey().substring(0, entry.getKey().indexOf('/'));
+				String outcome = entry.getKey().substring(kind.length() + 1);
+				Map<String, Long> byOutcome = outcomes.get(kind);
+				if (byOutcome == null) {
+					byOutcome = new TreeMap<String, Long>();
+					outcomes.put(kind, byOutcome);
+				}
+				Long count = byOutcome.get(outcome);
+				byOutcome.put(outcome, (count == null ? 0 : count) + entry.getValue());
+			}
+		}
+
+		Report report = new Report();
+		report.timestampMs = System.currentTimeMillis();
+		report.jvm = System.getProperty("java.vm.name") + " " + System.getProperty("java.version");
+		report.availableProcessors = Runtime.getRuntime().availableProcessors();
+		report.threads = threads;
+		report.corpusTokens = corpus.tokens.size();
+		report.durationMs = TimeUnit.NANOSECONDS.toMillis(elapsedNs);
+		report.verifications = latency.getCount();
+		report.throughputPerSecond = elapsedNs == 0 ? 0 : latency.getCount() * 1e9 / elapsedNs;
+		report.latencyUs.put("mean", latency.getMeanNs() / 1000);
+		report.latencyUs.put("p50", latency.getPercentileNs(0.5) / 1000.0);
+		report.latencyUs.put("p99", latency.getPercentileNs(0.99) / 1000.0);
+		report.latencyUs.put("p999", latency.getPercentileNs(0.999) / 1000.0);
+		report.latencyUs.put("max", latency.getMaxNs() / 1000.0);
+		report.outcomes = outcomes;
+		report.mismatches = mismatches;
+		report.nonceReplays = nonceReplays;
+		return report;
+	}
+
+	private Worker[] runPhase(long durationMs, long maxVerifications) throws InterruptedException {
+		long deadlineNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMs);
+		AtomicLong next = new AtomicLong();
+		ConcurrentHashMap<ByteBuffer, Integer> nonces = new ConcurrentHashMap<ByteBuffer, Integer>();
+		CountDownLatch done = new CountDownLatch(threads);
+		Worker[] workers = new Worker[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Worker(deadlineNs, maxVerifications, next, nonces, done);
+			Thread thread = new Thread(workers[i], "verifier-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		done.await();
+		for (Worker worker : workers) {
+			if (worker.failure != null) {
+				throw new IllegalStateException("Worker failed", worker.failure);
+			}
+		}
+		return workers;
+	}
+
+	private class Worker implements Runnable {
+		final long deadlineNs;
+		final long maxVerifications;
+		final AtomicLong next;
+		final ConcurrentHashMap<ByteBuffer, Integer> nonces;
+		final CountDownLatch done;
+
+		final LatencyHistogram latency = new LatencyHistogram();
+		final Map<String, Long> outcomes = new LinkedHashMap<String, Long>();
+		long mismatches;
+		long nonceReplays;
+		Throwable failure;
+
+		Worker(long deadlineNs, long maxVerifications, AtomicLong next, ConcurrentHashMap<ByteBuffer, Integer> nonces, CountDownLatch done) {
+			this.deadlineNs = deadlineNs;
+			this.maxVerifications = maxVerifications;
+			this.next = next;
+			this.nonces = nonces;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			try {
+				List<TokenCorpus.Token> tokens = corpus.tokens;
+				long n;
+				while ((n = next.getAndIncrement()) < maxVerifications) {
+					int index = (int) (n % tokens.size());
+					TokenCorpus.Token token = tokens.get(index);
+					long start = System.nanoTime();
+					String outcome;
+					AttestationStatement statement = null;
+					try {
+						OfflineVerifier verifier = OfflineVerifier.from(token.jws);
+						verifier.verify(trustManager);
+						statement = verifier.getAttestationStatement();
+						outcome = ACCEPTED;
+					} catch (SafetyNetVerificationException e) {
+						outcome = e.getErrorCode().name();
+					} catch (RuntimeException e) {
+						outcome = e.getClass().getSimpleName();
+					}
+					long end = System.nanoTime();
+					latency.record(end - start);
+
+					boolean accepted = statement != null;
+					if (accepted != token.kind.expectValid) {
+						mismatches++;
+					}
+					if (accepted) {
+						Integer first = nonces.putIfAbsent(ByteBuffer.wrap(statement.getNonce()), index);
+						if (first != null && first != index) {
+							nonceReplays++;
+						}
+					}
+					String key = token.kind.name() + '/' + outcome;
+					Long count = outcomes.get(key);
+					outcomes.put(key, count == null ? 1 : count + 1);
+					if (end >= deadlineNs) {
+						break;
+					}
+				}
+			} catch (Throwable t) {
+				failure = t;
+			} finally {
+				done.countDown();
+			}
+		}
+	}
+
+	/**
+	 * Results of a run, serialized as JSON.
+	 */
+	@SuppressWarnings("unused")
+	static class Report {
+		long timestampMs;
+		String jvm;
+		int availableProcessors;
+		int threads;
+		int corpusTokens;
+		long durationMs;
+		long verifications;
+		double throughputPerSecond;
+		Map<String, Double> latencyUs = new LinkedHashMap<String, Double>();
+		/**
+		 * Verification outcomes by token kind: ACCEPTED or the error code.
+		 */
+		Map<String, Map<String, Long>> outcomes;
+		/**
+		 * Valid tokens rejected plus invalid tokens accepted, should be 0.
+		 */
+		long mismatches;
+		/**
+		 * Accepted tokens whose nonce was first presented by another token.
+		 */
+		long nonceReplays;
+	}
+}
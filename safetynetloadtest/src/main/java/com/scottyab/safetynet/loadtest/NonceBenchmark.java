@@ -0,0 +1,168 @@
+package com.scottyab.safetynet.loadtest;
+
+import com.google.gson.annotations.SerializedName;
+import com.scottyab.safetynet.NonceGenerator;
+
+import java.security.SecureRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the nonce throughput of a {@link SecureRandom} shared by all threads, as
+ * {@code SafetyNetHelper} uses, with {@link NonceGenerator} with and without prefetching.
+ *
+ * <p>Each variant is run for a warm-up period, whose results are discarded, then measured for the
+ * duration, with every thread generating nonces in a loop.
+ */
+class NonceBenchmark {
+
+	/**
+	 * Source of nonces under test.
+	 */
+	interface Source {
+		byte[] next();
+	}
+
+	/* read by nobody, written so that the nonces are not optimized away */
+	static volatile int blackhole;
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int nonceLength = 32;
+	private int prefetch = 4096;
+	private long warmUpMs = TimeUnit.SECONDS.toMillis(2);
+	private long durationMs = TimeUnit.SECONDS.toMillis(10);
+
+	NonceBenchmark setThreads(int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads must be positive");
+		}
+		this.threads = threads;
+		return this;
+	}
+
+	NonceBenchmark setNonceLength(int nonceLength) {
+		this.nonceLength = nonceLength;
+		return this;
+	}
+
+	NonceBenchmark setPrefetch(int prefetch) {
+		this.prefetch = prefetch;
+		return this;
+	}
+
+	NonceBenchmark setWarmUpMs(long warmUpMs) {
+		this.warmUpMs = warmUpMs;
+		return this;
+	}
+
+	NonceBenchmark setDurationMs(long durationMs) {
+		this.durationMs = durationMs;
+		return this;
+	}
+
+	Report run() throws InterruptedException {
+		Report report = new Report();
+		report.threads = threads;
+		report.nonceLength = nonceLength;
+
+		final SecureRandom shared = new SecureRandom();
+		report.sharedSecureRandom = measure(new Source() {
+			@Override
+			public byte[] next() {
+				byte[] nonce = new byte[nonceLength];
+				shared.nextBytes(nonce);
+				return nonce;
+			}
+		});
+
+		final NonceGenerator striped = new NonceGenerator.Builder().setNonceLength(nonceLength).build();
+		report.stripedDrbg = measure(new Source() {
+			@Override
+			public byte[] next() {
+				return striped.next();
+			}
+		});
+
+		if (prefetch > 0) {
+			final NonceGenerator prefetching = new NonceGenerator.Builder().setNonceLength(nonceLength).setPrefetch(prefetch).build();
+			try {
+				report.prefetched = measure(new Source() {
+					@Override
+					public byte[] next() {
+						return prefetching.next();
+					}
+				});
+			} finally {
+				prefetching.close();
+			}
+		}
+		return report;
+	}
+
+	private Result measure(Source source) throws InterruptedException {
+		loop(source, warmUpMs);
+		long start = System.nanoTime();
+		long count = loop(source, durationMs);
+		long elapsedNs = System.nanoTime() - start;
+		Result result = new Result();
+		result.nonces = count;
+		result.noncesPerSecond = count * 1e9 / elapsedNs;
+		return result;
+	}
+
+	/**
+	 * Generates nonces on every thread for the duration, returns how many.
+	 */
+	private long loop(final Source source, long durationMs) throws InterruptedException {
+		final long endNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMs);
+		final AtomicLong total = new AtomicLong();
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					long count = 0;
+					int sink = 0;
+					while ((count & 0xff) != 0 || System.nanoTime() < endNs) {
+						sink += source.next()[0];
+						count++;
+					}
+					total.addAndGet(count);
+					blackhole = sink;
+					done.countDown();
+				}
+			}, "nonce-benchmark-" + i);
+			worker.start();
+		}
+		done.await();
+		return total.get();
+	}
+
+	@SuppressWarnings("unused")
+	static class Result {
+		@SerializedName("nonces")
+		long nonces;
+
+		@SerializedName("noncesPerSecond")
+		double noncesPerSecond;
+	}
+
+	@SuppressWarnings("unused")
+	static class Report {
+		@SerializedName("threads")
+		int threads;
+
+		@SerializedName("nonceLength")
+		int nonceLength;
+
+		@SerializedName("sharedSecureRandom")
+		Result sharedSecureRandom;
+
+		@SerializedName("stripedDrbg")
+		Result stripedDrbg;
+
+		@SerializedName("prefetched")
+		Result prefetched;
+	}
+}
@@ -0,0 +1,72 @@
+package com.scottyab.safetynet.loadtest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line options in the {@code --name=value} form.
+ */
+class Options {
+
+	private final Map<String, String> values = new HashMap<String, String>();
+
+	Options(String[] args, int offset, String... names) {
+		List<String> known = new ArrayList<String>();
+		for (String name : names) {
+			known.add(name);
+		}
+		for (int i = offset; i < args.length; i++) {
+			String arg = args[i];
+			int eq = arg.indexOf('=');
+			if (!arg.startsWith("--") || eq < 0 || !known.contains(arg.substring(2, eq))) {
+				throw new IllegalArgumentException("Unknown option " + arg + ", expected --name=value with name one of " + known);
+			}
+			values.put(arg.substring(2, eq), arg.substring(eq + 1));
+		}
+	}
+
+	String getString(String name, String defaultValue) {
+		String value = values.get(name);
+		return value != null ? value : defaultValue;
+	}
+
+	int getInt(String name, int defaultValue) {
+		String value = values.get(name);
+		return value != null ? Integer.parseInt(value) : defaultValue;
+	}
+
+	long getLong(String name, long defaultValue) {
+		String value = values.get(name);
+		return value != null ? Long.parseLong(value) : defaultValue;
+	}
+
+	double getFraction(String name, double defaultValue) {
+		String value = values.get(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		double fraction = Double.parseDouble(value);
+		if (fraction < 0 || fraction > 1) {
+			throw new IllegalArgumentException("--" + name + " must be between 0 and 1");
+		}
+		return fraction;
+	}
+
+	/**
+	 * Parses a comma separated list of integers.
+	 */
+	int[] getInts(String name, int... defaultValue) {
+		String value = values.get(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		String[] parts = value.split(",");
+		int[] ints = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			ints[i] = Integer.parseInt(parts[i].trim());
+		}
+		return ints;
+	}
+}
@@ -0,0 +1,361 @@
+package com.scottyab.safetynet.loadtest;
+
+import com.scottyab.safetynet.FakeAttestationService;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * A set of synthetic attestation tokens, along with the CAs they chain up to.
+ *
+ * <p>Stored as UTF-8 text: a {@code #} header line, one {@code ca <base64 DER>} line per trusted
+ * CA, then one {@code <kind> <JWS>} line per token, fields separated by a tab.
+ */
+class TokenCorpus {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String HEADER = "# safetynet token corpus v1";
+	private static final int CHUNK_SIZE = 256;
+
+	/**
+	 * What a token is made of, and so whether it must pass verification.
+	 */
+	enum Kind {
+		VALID(true),
+		/**
+		 * The payload was replaced after signing.
+		 */
+		FORGED(false),
+		/**
+		 * The leaf certificate is past its validity.
+		 */
+		EXPIRED(false),
+		/**
+		 * Signed with RS384 or RS512, which SafetyNet never uses.
+		 */
+		UNSUPPORTED_ALGORITHM(false);
+
+		final boolean expectValid;
+
+		Kind(boolean expectValid) {
+			this.expectValid = expectValid;
+		}
+	}
+
+	static class Token {
+		final Kind kind;
+		final String jws;
+
+		Token(Kind kind, String jws) {
+			this.kind = kind;
+			this.jws = jws;
+		}
+	}
+
+	final List<X509Certificate> caCertificates;
+	final List<Token> tokens;
+
+	private TokenCorpus(List<X509Certificate> caCertificates, List<Token> tokens) {
+		this.caCertificates = caCertificates;
+		this.tokens = tokens;
+	}
+
+	/**
+	 * Returns a trust manager trusting the CAs of the corpus only.
+	 */
+	X509TrustManager getTrustManager() throws GeneralSecurityException, IOException {
+		KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+		keyStore.load(null, null);
+		for (int i = 0; i < caCertificates.size(); i++) {
+			keyStore.setCertificateEntry("ca" + i, caCertificates.get(i));
+		}
+		TrustManagerFactory factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		factory.init(keyStore);
+		for (TrustManager manager : factory.getTrustManagers()) {
+			if (manager instanceof X509TrustManager) {
+				return (X509TrustManager) manager;
+			}
+		}
+		throw new GeneralSecurityException("No X509TrustManager available");
+	}
+
+	static TokenCorpus read(File file) throws IOException, GeneralSecurityException {
+		CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+		List<X509Certificate> caCertificates = new ArrayList<X509Certificate>();
+		List<Token> tokens = new ArrayList<Token>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+		try {
+			String line = in.readLine();
+			if (!HEADER.equals(line)) {
+				throw new IOException(file + " is not a token corpus");
+			}
+			while ((line = in.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				if (tab < 0) {
+					throw new IOException("Malformed line in " + file + ": " + line);
+				}
+				String type = line.substring(0, tab);
+				String value = line.substring(tab + 1);
+				if ("ca".equals(type)) {
+					byte[] der = Base64.getDecoder().decode(value);
+					caCertificates.add((X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(der)));
+				} else {
+					tokens.add(new Token(Kind.valueOf(type), value));
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return new TokenCorpus(Collections.unmodifiableList(caCertificates), Collections.unmodifiableList(tokens));
+	}
+
+	/**
+	 * Generates a corpus and streams it to a file. The kind, nonce, payload and chain shape of each
+	 * token only depend on the seed and its index, so the same options always produce the same mix
+	 * whatever the number of threads. The output is not reproducible byte for byte though: the CA
+	 * and leaf keys are generated anew on each run, and the certificate validity and statement
+	 * timestamps are relative to the current time so that the corpus stays realistic when replayed.
+	 */
+	static class Generator {
+		private int count = 10000;
+		private long seed = 1;
+		private int threads = Runtime.getRuntime().availableProcessors();
+		private int minPayloadBytes = 400;
+		private int maxPayloadBytes = 4000;
+		private int[] intermediates = {0, 1};
+		private double forgedFraction = 0.05;
+		private double expiredFraction = 0.05;
+		private double unsupportedAlgorithmFraction = 0.02;
+		private double nonceReuseFraction = 0.1;
+
+		Generator setCount(int count) {
+			this.count = count;
+			return this;
+		}
+
+		Generator setSeed(long seed) {
+			this.seed = seed;
+			return this;
+		}
+
+		Generator setThreads(int threads) {
+			this.threads = threads;
+			return this;
+		}
+
+		/**
+		 * Sets the range of the size of the JSON payload, padded with extra certificate digests.
+		 */
+		Generator setPayloadBytes(int min, int max) {
+			if (min > max) {
+				throw new IllegalArgumentException("min > max");
+			}
+			this.minPayloadBytes = min;
+			this.maxPayloadBytes = max;
+			return this;
+		}
+
+		/**
+		 * Sets the chain shapes to pick from, as numbers of intermediate CAs.
+		 */
+		Generator setIntermediates(int... intermediates) {
+			this.intermediates = intermediates.clone();
+			return this;
+		}
+
+		Generator setForgedFraction(double forgedFraction) {
+			this.forgedFraction = forgedFraction;
+			return this;
+		}
+
+		Generator setExpiredFraction(double expiredFraction) {
+			this.expiredFraction = expiredFraction;
+			return this;
+		}
+
+		Generator setUnsupportedAlgorithmFraction(double unsupportedAlgorithmFraction) {
+			this.unsupportedAlgorithmFraction = unsupportedAlgorithmFraction;
+			return this;
+		}
+
+		/**
+		 * Sets the fraction of tokens reusing the nonce of another token.
+		 */
+		Generator setNonceReuseFraction(double nonceReuseFraction) {
+			this.nonceReuseFraction = nonceReuseFraction;
+			return this;
+		}
+
+		void write(File file) throws IOException, GeneralSecurityException, InterruptedException {
+			if (forgedFraction + expiredFraction + unsupportedAlgorithmFraction > 1) {
+				throw new IllegalArgumentException("The fractions of invalid tokens add up to more than 1");
+			}
+			long now = System.currentTimeMillis();
+			final FakeAttestationService[] services = new FakeAttestationService[intermediates.length];
+			for (int i = 0; i < intermediates.length; i++) {
+				services[i] = new FakeAttestationService("attest.android.com", intermediates[i],
+						now - TimeUnit.DAYS.toMillis(1), now + TimeUnit.DAYS.toMillis(365));
+			}
+			final FakeAttestationService expired = new FakeAttestationService("attest.android.com", intermediates[0],
+					now - TimeUnit.DAYS.toMillis(30), now - TimeUnit.DAYS.toMillis(1));
+
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF_8), 1 << 16);
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			try {
+				out.write(HEADER);
+				out.write('\n');
+				for (FakeAttestationService service : services) {
+					writeLine(out, "ca", Base64.getEncoder().encodeToString(service.getCaCertificate().getEncoded()));
+				}
+				writeLine(out, "ca", Base64.getEncoder().encodeToString(expired.getCaCertificate().getEncoded()));
+
+				// keep a bounded window of chunks in flight, written in order
+				Deque<Future<List<String>>> window = new ArrayDeque<Future<List<String>>>();
+				for (int start = 0; start < count; start += CHUNK_SIZE) {
+					final int from = start;
+					final int to = Math.min(count, start + CHUNK_SIZE);
+					window.add(pool.submit(new Callable<List<String>>() {
+						@Override
+						public List<String> call() throws Exception {
+							List<String> lines = new ArrayList<String>(to - from);
+							for (int i = from; i < to; i++) {
+								lines.add(generate(i, services, expired));
+							}
+							return lines;
+						}
+					}));
+					if (window.size() >= threads * 4) {
+						writeChunk(out, window.removeFirst());
+					}
+				}
+				while (!window.isEmpty()) {
+					writeChunk(out, window.removeFirst());
+				}
+			} finally {
+				pool.shutdownNow();
+				out.close();
+			}
+		}
+
+		private String generate(int index, FakeAttestationService[] services, FakeAttestationService expired) throws GeneralSecurityException {
+			Random random = random(index);
+			double roll = random.nextDouble();
+			Kind kind;
+			if (roll < forgedFraction) {
+				kind = Kind.FORGED;
+			} else if (roll < forgedFraction + expiredFraction) {
+				kind = Kind.EXPIRED;
+			} else if (roll < forgedFraction + expiredFraction + unsupportedAlgorithmFraction) {
+				kind = Kind.UNSUPPORTED_ALGORITHM;
+			} else {
+				kind = Kind.VALID;
+			}
+
+			int nonceIndex = index;
+			if (index > 0 && random.nextDouble() < nonceReuseFraction) {
+				nonceIndex = random.nextInt(index);
+			}
+			byte[] nonce = new byte[32];
+			random(~nonceIndex).nextBytes(nonce);
+
+			int payloadBytes = minPayloadBytes + random.nextInt(maxPayloadBytes - minPayloadBytes + 1);
+			FakeAttestationService.Payload payload = payload(random, nonce, payloadBytes);
+
+			FakeAttestationService service = kind == Kind.EXPIRED ? expired : services[random.nextInt(services.length)];
+			String algorithm = kind == Kind.UNSUPPORTED_ALGORITHM ? (random.nextBoolean() ? "RS384" : "RS512") : "RS256";
+			String jws = service.attest(payload, algorithm);
+			if (kind == Kind.FORGED) {
+				// swap in a payload the signature was not computed over
+				String other = service.attest(payload(random, nonce, payloadBytes).setCtsProfileMatch(true).setBasicIntegrity(true), algorithm);
+				jws = other.substring(0, other.lastIndexOf('.')) + jws.substring(jws.lastIndexOf('.'));
+			}
+			return kind.name() + '\t' + jws;
+		}
+
+		private FakeAttestationService.Payload payload(Random random, byte[] nonce, int payloadBytes) {
+			// a digest is 44 base64 characters, plus quotes and comma
+			int digests = Math.max(1, (payloadBytes - 250) / 47);
+			List<String> apkCertificateDigests = new ArrayList<String>(digests);
+			byte[] digest = new byte[32];
+			for (int i = 0; i < digests; i++) {
+				random.nextBytes(digest);
+				apkCertificateDigests.add(Base64.getEncoder().encodeToString(digest));
+			}
+			random.nextBytes(digest);
+			boolean ctsProfileMatch = random.nextInt(10) != 0;
+			return new FakeAttestationService.Payload()
+					.setNonce(nonce)
+					.setTimestampMs(System.currentTimeMillis() - random.nextInt(60000))
+					.setApkPackageName("com.example.app" + random.nextInt(100))
+					.setApkCertificateDigestSha256(apkCertificateDigests)
+					.setApkDigestSha256(Base64.getEncoder().encodeToString(digest))
+					.setCtsProfileMatch(ctsProfileMatch)
+					.setBasicIntegrity(ctsProfileMatch || random.nextBoolean())
+					.setAdvice(ctsProfileMatch ? null : "RESTORE_TO_FACTORY_ROM,LOCK_BOOTLOADER");
+		}
+
+		/**
+		 * Returns the random source of a token. Random instances with close seeds start with
+		 * correlated values, so the seed is scrambled first (SplitMix64 finalizer).
+		 */
+		private Random random(long index) {
+			long z = seed * 0x9E3779B97F4A7C15L + index;
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			return new Random(z ^ (z >>> 31));
+		}
+
+		private static void writeChunk(Writer out, Future<List<String>> chunk) throws IOException, GeneralSecurityException, InterruptedException {
+			List<String> lines;
+			try {
+				lines = chunk.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof GeneralSecurityException) {
+					throw (GeneralSecurityException) e.getCause();
+				}
+				throw new IllegalStateException(e.getCause());
+			}
+			for (String line : lines) {
+				out.write(line);
+				out.write('\n');
+			}
+		}
+
+		private static void writeLine(Writer out, String type, String value) throws IOException {
+			out.write(type);
+			out.write('\t');
+			out.write(value);
+			out.write('\n');
+		}
+	}
+}
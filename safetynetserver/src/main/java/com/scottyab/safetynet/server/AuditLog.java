@@ -0,0 +1,15 @@
+package com.scottyab.safetynet.server;
+
+import java.io.IOException;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Receives every statement handled by the {@link VerificationServer}, along with its verdict.
+ *
+ * <p>Implementations may block, e.g. on disk writes: they are called from virtual threads.
+ */
+public interface AuditLog {
+
+	void append(@NonNull String jws, @NonNull Verdict verdict) throws IOException;
+}
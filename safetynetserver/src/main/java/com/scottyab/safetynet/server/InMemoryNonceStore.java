@@ -0,0 +1,50 @@
+package com.scottyab.safetynet.server;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.NonNull;
+
+/**
+ * {@link NonceStore} keeping the nonces in memory for a retention period. Statements older than
+ * the retention period are refused, since their nonce may have been forgotten already.
+ */
+public class InMemoryNonceStore implements NonceStore {
+
+	private static final int PRUNE_INTERVAL = 4096;
+
+	private final long retentionMs;
+	private final ConcurrentHashMap<ByteBuffer, Long> nonces = new ConcurrentHashMap<ByteBuffer, Long>();
+	private final AtomicInteger calls = new AtomicInteger();
+
+	public InMemoryNonceStore(long retentionMs) {
+		if (retentionMs <= 0) {
+			throw new IllegalArgumentException("retentionMs must be positive");
+		}
+		this.retentionMs = retentionMs;
+	}
+
+	@Override
+	public boolean consume(@NonNull byte[] nonce, long timestampMs) {
+		long now = System.currentTimeMillis();
+		if (now - timestampMs > retentionMs) {
+			return false;
+		}
+		if (calls.incrementAndGet() % PRUNE_INTERVAL == 0) {
+			prune(now);
+		}
+		return nonces.putIfAbsent(ByteBuffer.wrap(nonce.clone()), timestampMs) == null;
+	}
+
+	private void prune(long now) {
+		Iterator<Map.Entry<ByteBuffer, Long>> it = nonces.entrySet().iterator();
+		while (it.hasNext()) {
+			if (now - it.next().getValue() > retentionMs) {
+				it.remove();
+			}
+		}
+	}
+}
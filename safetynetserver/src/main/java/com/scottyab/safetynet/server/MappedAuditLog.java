@@ -0,0 +1,819 @@
+package com.scottyab.safetynet.server;
+
+import com.scottyab.safetynet.AttestationStatement;
+import com.scottyab.safetynet.SafetyNetVerificationException;
+import com.scottyab.safetynet.internal.RingBuffer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * {@link AuditLog} appending binary records to memory mapped segment files in a directory.
+ *
+ * <pre>
+ * MappedAuditLog auditLog = new MappedAuditLog.Builder(new File("audit")).open();
+ * server.setAuditLog(auditLog);
+ * ...
+ * Iterator&lt;MappedAuditLog.Record&gt; records = MappedAuditLog.reader(new File("audit")).seek(fromMs);
+ * </pre>
+ *
+ * <p>Verification threads only encode their record and put it in a lock-free ring buffer; a
+ * single writer thread copies the records into the current segment, in the order they were
+ * queued, and forces the segment to disk every {@link Builder#setSyncEveryRecords(int) n records}
+ * or {@link Builder#setSyncIntervalMs(long) n ms}, whichever comes first. With
+ * {@link Builder#setWaitForSync(boolean)}, {@link #append(String, Verdict)} returns only once
+ * its record was forced, and the records queued meanwhile are forced together.
+ *
+ * <p>Segments are named {@code audit-<index>.log}. A segment starts with
+ * <pre>
+ * int   magic, 0x53414c31
+ * int   unused
+ * long  time the first record was written, ms, 0 while empty
+ * </pre>
+ * followed by records:
+ * <pre>
+ * int      length of the record, this field included, 0 after the last record
+ * int      CRC32 of the bytes after it
+ * long     time the record was written, ms, never lower than the previous record's
+ * long     statement timestamp, ms, 0 if the statement could not be parsed
+ * byte     flags: 1 valid, 2 ctsProfileMatch, 4 basicIntegrity, 8 HARDWARE_BACKED evaluation,
+ *          16 cached verdict
+ * byte[16] SHA-256 of the statement nonce, truncated, zeros if none
+ * byte     error code name length, then its ASCII bytes
+ * short    package name length, then its UTF-8 bytes
+ * int      token length, then its UTF-8 bytes, 0 if tokens are not kept
+ * </pre>
+ * all big endian. When the next record doesn't fit in the segment, the writer moves to a new one.
+ * On opening, records are read back until the first one missing or failing its CRC, e.g. torn by
+ * a crash, and appending resumes there.
+ */
+public final class MappedAuditLog implements AuditLog, Closeable {
+
+	private static final int MAGIC = 0x53414c31;
+	private static final int SEGMENT_HEADER_LENGTH = 16;
+	private static final int NONCE_HASH_LENGTH = 16;
+	private static final int RECORD_HEADER_LENGTH = 4 + 4 + 8 + 8 + 1 + NONCE_HASH_LENGTH + 1 + 2 + 4;
+	private static final Pattern SEGMENT_NAME = Pattern.compile("audit-(\\d{10})\\.log");
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+	private static final int FLAG_VALID = 1;
+	private static final int FLAG_CTS_PROFILE_MATCH = 2;
+	private static final int FLAG_BASIC_INTEGRITY = 4;
+	private static final int FLAG_HARDWARE_BACKED = 8;
+	private static final int FLAG_CACHED = 16;
+
+	private final File directory;
+	private final int segmentBytes;
+	private final int syncEveryRecords;
+	private final long syncIntervalNs;
+	private final boolean waitForSync;
+	private final boolean includeTokens;
+
+	private final RingBuffer<byte[]> ring;
+	private final Thread writer;
+	private volatile boolean writerParked;
+	private volatile boolean closed;
+	private volatile IOException failure;
+
+	/* records forced to disk, in queue order; waiters are signalled when it grows */
+	private volatile long synced;
+	private final AtomicInteger waiters = new AtomicInteger();
+	private final ReentrantLock syncLock = new ReentrantLock();
+	private final Condition syncedCondition = syncLock.newCondition();
+
+	/* owned by the writer thread */
+	private int segmentIndex;
+	private FileChannel channel;
+	private MappedByteBuffer segment;
+	private int position;
+	private int syncedPosition;
+	private long lastTimestampMs;
+	private long written;
+	private final CRC32 crc = new CRC32();
+
+	private MappedAuditLog(Builder builder) throws IOException {
+		this.directory = builder.directory;
+		this.segmentBytes = builder.segmentBytes;
+		this.syncEveryRecords = builder.syncEveryRecords;
+		this.syncIntervalNs = TimeUnit.MILLISECONDS.toNanos(builder.syncIntervalMs);
+		this.waitForSync = builder.waitForSync;
+		this.includeTokens = builder.includeTokens;
+		this.ring = new RingBuffer<byte[]>(builder.bufferRecords);
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create " + directory);
+		}
+		List<File> segments = segments(directory);
+		if (segments.isEmpty()) {
+			openSegment(0);
+		} else {
+			recover(segments.get(segments.size() - 1));
+		}
+		writer = Thread.ofPlatform().name("safetynet-audit-writer").daemon(true).unstarted(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		});
+		writer.start();
+	}
+
+	/**
+	 * Queues the record of the verdict, and waits for it to be forced to disk if so configured.
+	 *
+	 * @throws IOException if the writer failed, in which case nothing is written any more
+	 */
+	@Override
+	public void append(@NonNull String jws, @NonNull Verdict verdict) throws IOException {
+		checkOpen();
+		byte[] record = encode(jws, verdict);
+		if (record.length > segmentBytes - SEGMENT_HEADER_LENGTH - 4) {
+			throw new IOException("Record of " + record.length + " bytes larger than a segment");
+		}
+		long sequence;
+		while ((sequence = ring.offer(record)) < 0) {
+			// full, the writer is behind
+			LockSupport.unpark(writer);
+			LockSupport.parkNanos(100000L);
+			checkOpen();
+		}
+		if (writerParked) {
+			LockSupport.unpark(writer);
+		}
+		if (waitForSync) {
+			awaitSynced(sequence + 1);
+		}
+	}
+
+	/**
+	 * Writes and forces the records queued so far, then stops the writer. Stop appending first:
+	 * records appended while closing may not be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while closing the audit log", e);
+		}
+		IOException failure = this.failure;
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		IOException failure = this.failure;
+		if (failure != null) {
+			throw new IOException("Audit log writer failed", failure);
+		}
+		if (closed) {
+			throw new IOException("Audit log closed");
+		}
+	}
+
+	private void awaitSynced(long count) throws IOException {
+		waiters.incrementAndGet();
+		try {
+			if (writerParked) {
+				LockSupport.unpark(writer);
+			}
+			syncLock.lock();
+			try {
+				while (synced < count && failure == null && writer.isAlive()) {
+					syncedCondition.await(100, TimeUnit.MILLISECONDS);
+				}
+			} finally {
+				syncLock.unlock();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the audit log to be synced", e);
+		} finally {
+			waiters.decrementAndGet();
+		}
+		if (synced < count) {
+			checkOpen();
+			throw new IOException("Audit log closed before the record was synced");
+		}
+	}
+
+	private byte[] encode(String jws, Verdict verdict) {
+		AttestationStatement statement = verdict.getStatement();
+		int flags = (verdict.isValid() ? FLAG_VALID : 0) | (verdict.isCached() ? FLAG_CACHED : 0);
+		long statementTimestampMs = 0;
+		byte[] nonceHash = new byte[NONCE_HASH_LENGTH];
+		byte[] packageName = new byte[0];
+		if (statement != null) {
+			flags |= (statement.isCtsProfileMatch() ? FLAG_CTS_PROFILE_MATCH : 0)
+					| (statement.isBasicIntegrity() ? FLAG_BASIC_INTEGRITY : 0)
+					| (statement.hasEvaluationType("HARDWARE_BACKED") ? FLAG_HARDWARE_BACKED : 0);
+			statementTimestampMs = statement.getTimestampMs();
+			if (statement.getNonce() != null) {
+				System.arraycopy(sha256(statement.getNonce()), 0, nonceHash, 0, nonceHash.length);
+			}
+			if (statement.getApkPackageName() != null) {
+				packageName = statement.getApkPackageName().getBytes(UTF_8);
+				if (packageName.length > 0xffff) {
+					packageName = Arrays.copyOf(packageName, 0xffff);
+				}
+			}
+		}
+		byte[] errorCode = verdict.getErrorCode() != null ? verdict.getErrorCode().name().getBytes(US_ASCII) : new byte[0];
+		byte[] token = includeTokens ? jws.getBytes(UTF_8) : new byte[0];
+
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + errorCode.length + packageName.length + token.length);
+		record.putInt(record.capacity())
+				.putInt(0) // CRC, computed by the writer once the time is set
+				.putLong(0) // time, set by the writer
+				.putLong(statementTimestampMs)
+				.put((byte) flags)
+				.put(nonceHash)
+				.put((byte) errorCode.length)
+				.put(errorCode)
+				.putShort((short) packageName.length)
+				.put(packageName)
+				.putInt(token.length)
+				.put(token);
+		return record.array();
+	}
+
+	private void write() {
+		long lastSyncNs = System.nanoTime();
+		long unsynced = 0;
+		try {
+			while (true) {
+				byte[] record = ring.poll();
+				if (record != null) {
+					writeRecord(record);
+					unsynced++;
+					if (unsynced >= syncEveryRecords) {
+						sync();
+						unsynced = 0;
+						lastSyncNs = System.nanoTime();
+					}
+					continue;
+				}
+				// drained: anyone waiting gets the records queued so far forced together
+				if (unsynced > 0 && (waiters.get() > 0 || closed || System.nanoTime() - lastSyncNs >= syncIntervalNs)) {
+					sync();
+					unsynced = 0;
+					lastSyncNs = System.nanoTime();
+					continue;
+				}
+				if (closed) {
+					if (ring.isEmpty()) {
+						break;
+					}
+					continue;
+				}
+				writerParked = true;
+				// append() reads the flag after queuing, so a record queued before it was set is seen here
+				if (ring.isEmpty() && !closed) {
+					long parkNs = unsynced > 0 ? syncIntervalNs - (System.nanoTime() - lastSyncNs) : syncIntervalNs;
+					LockSupport.parkNanos(this, Math.max(parkNs, 1000L));
+				}
+				writerParked = false;
+			}
+			channel.close();
+		} catch (IOException | RuntimeException e) {
+			failure = e instanceof IOException ? (IOException) e : new IOException(e);
+			signalSynced();
+		}
+	}
+
+	private void writeRecord(byte[] record) throws IOException {
+		// keeps room for the 0 length marking the end of the segment
+		if (position + record.length + 4 > segmentBytes) {
+			sync();
+			openSegment(segmentIndex + 1);
+		}
+		long timestampMs = Math.max(lastTimestampMs, System.currentTimeMillis());
+		lastTimestampMs = timestampMs;
+		ByteBuffer.wrap(record).putLong(8, timestampMs);
+		crc.reset();
+		crc.update(record, 8, record.length - 8);
+		ByteBuffer.wrap(record).putInt(4, (int) crc.getValue());
+
+		if (segment.getLong(8) == 0) {
+			segment.putLong(8, timestampMs);
+		}
+		segment.put(position + 4, record, 4, record.length - 4);
+		// the length last, so that a reader doesn't see a record before its content
+		segment.putInt(position, record.length);
+		position += record.length;
+		written++;
+	}
+
+	private void sync() {
+		if (position > syncedPosition) {
+			segment.force(syncedPosition, position - syncedPosition);
+			syncedPosition = position;
+		}
+		synced = written;
+		signalSynced();
+	}
+
+	private void signalSynced() {
+		if (waiters.get() > 0) {
+			syncLock.lock();
+			try {
+				syncedCondition.signalAll();
+			} finally {
+				syncLock.unlock();
+			}
+		}
+	}
+
+	private void openSegment(int index) throws IOException {
+		if (channel != null) {
+			channel.close();
+		}
+		File file = new File(directory, segmentName(index));
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+		segment.putInt(0, MAGIC);
+		segment.force(0, SEGMENT_HEADER_LENGTH);
+		segmentIndex = index;
+		position = SEGMENT_HEADER_LENGTH;
+		syncedPosition = position;
+	}
+
+	/**
+	 * Resumes appending after the last valid record of the segment.
+	 */
+	private void recover(File file) throws IOException {
+		Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+		if (!matcher.matches()) {
+			throw new IllegalStateException(file.getName());
+		}
+		int index = Integer.parseInt(matcher.group(1));
+		if (file.length() != segmentBytes) {
+			// written with another segment size, or damaged: left as is
+			openSegment(index + 1);
+			lastTimestampMs = lastTimestamp(file);
+			return;
+		}
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+		if (segment.getInt(0) != MAGIC) {
+			channel.close();
+			openSegment(index + 1);
+			return;
+		}
+		segmentIndex = index;
+		position = SEGMENT_HEADER_LENGTH;
+		int length;
+		while ((length = validRecordLength(segment, position, crc)) > 0) {
+			lastTimestampMs = segment.getLong(position + 8);
+			position += length;
+		}
+		// a torn record may be followed by older bytes that would pass for records
+		for (int i = position; i < segmentBytes; i++) {
+			if (segment.get(i) != 0) {
+				segment.put(i, (byte) 0);
+			}
+		}
+		segment.force();
+		syncedPosition = position;
+	}
+
+	private static long lastTimestamp(File file) {
+		long last = 0;
+		for (Record record : new Reader(Arrays.asList(file))) {
+			last = record.getTimestampMs();
+		}
+		return last;
+	}
+
+	/**
+	 * Returns the length of the record at the position, or 0 if there is none or it fails its CRC.
+	 */
+	private static int validRecordLength(ByteBuffer segment, int position, CRC32 crc) {
+		if (position > segment.limit() - RECORD_HEADER_LENGTH) {
+			return 0;
+		}
+		int length = segment.getInt(position);
+		if (length < RECORD_HEADER_LENGTH || length > segment.limit() - position) {
+			return 0;
+		}
+		ByteBuffer content = segment.duplicate();
+		content.limit(position + length).position(position + 8);
+		crc.reset();
+		crc.update(content);
+		return (int) crc.getValue() == segment.getInt(position + 4) ? length : 0;
+	}
+
+	private static byte[] sha256(byte[] bytes) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(bytes);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String segmentName(int index) {
+		return String.format("audit-%010d.log", index);
+	}
+
+	/**
+	 * Returns the segment files of the directory, oldest first.
+	 */
+	private static List<File> segments(File directory) {
+		List<File> segments = new ArrayList<File>();
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (SEGMENT_NAME.matcher(file.getName()).matches()) {
+					segments.add(file);
+				}
+			}
+		}
+		// zero padded, so names sort like indexes
+		segments.sort(null);
+		return segments;
+	}
+
+	/**
+	 * Returns a reader of the records written to the directory so far.
+	 */
+	@NonNull
+	public static Reader reader(@NonNull File directory) {
+		return new Reader(segments(directory));
+	}
+
+	/**
+	 * Reads the records of a log, including one being written to by another thread or process.
+	 * Segments are mapped one at a time while iterating. Segments created after the reader are
+	 * not read.
+	 */
+	public static final class Reader implements Iterable<Record> {
+		private final List<File> files;
+
+		Reader(List<File> files) {
+			this.files = files;
+		}
+
+		/**
+		 * Returns the records in the order they were written.
+		 */
+		@NonNull
+		@Override
+		public Iterator<Record> iterator() {
+			return new RecordIterator(files, 0, 0);
+		}
+
+		/**
+		 * Returns the records written at or after the given time, in the order they were written.
+		 * Only the segments that may hold such records are read.
+		 */
+		@NonNull
+		public Iterator<Record> seek(long fromTimestampMs) throws IOException {
+			// segments start with increasing times: the last one starting before the time is the first to read
+			int low = 0;
+			int high = files.size() - 1;
+			int first = 0;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				long start = firstTimestamp(files.get(mid));
+				if (start != 0 && start <= fromTimestampMs) {
+					first = mid;
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+			return new RecordIterator(files, first, fromTimestampMs);
+		}
+
+		private static long firstTimestamp(File file) throws IOException {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_LENGTH);
+				while (header.hasRemaining() && channel.read(header) >= 0) {
+					// reading the header
+				}
+				return header.hasRemaining() || header.getInt(0) != MAGIC ? 0 : header.getLong(8);
+			}
+		}
+	}
+
+	private static final class RecordIterator implements Iterator<Record> {
+		private final List<File> files;
+		private final long fromTimestampMs;
+		private final CRC32 crc = new CRC32();
+		private int fileIndex;
+		private ByteBuffer segment;
+		private int position;
+		private Record next;
+
+		RecordIterator(List<File> files, int fileIndex, long fromTimestampMs) {
+			this.files = files;
+			this.fileIndex = fileIndex;
+			this.fromTimestampMs = fromTimestampMs;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null) {
+				if (segment == null) {
+					if (fileIndex >= files.size()) {
+						return false;
+					}
+					segment = map(files.get(fileIndex++));
+					position = SEGMENT_HEADER_LENGTH;
+				}
+				int length = validRecordLength(segment, position, crc);
+				if (length == 0) {
+					segment = null;
+					continue;
+				}
+				long timestampMs = segment.getLong(position + 8);
+				if (timestampMs >= fromTimestampMs) {
+					next = Record.decode(segment, position);
+				}
+				position += length;
+			}
+			return true;
+		}
+
+		@Override
+		public Record next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Record record = next;
+			next = null;
+			return record;
+		}
+
+		private static ByteBuffer map(File file) {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if (segment.limit() < SEGMENT_HEADER_LENGTH || segment.getInt(0) != MAGIC) {
+					// not a segment, read as empty
+					segment.limit(0);
+				}
+				return segment;
+			} catch (IOException e) {
+				throw new IllegalStateException("Cannot read " + file, e);
+			}
+		}
+	}
+
+	/**
+	 * A verdict read back from the log.
+	 */
+	public static final class Record {
+		private final long timestampMs;
+		private final long statementTimestampMs;
+		private final int flags;
+		private final byte[] nonceHash;
+		private final String errorCode;
+		private final String packageName;
+		private final String jws;
+
+		private Record(long timestampMs, long statementTimestampMs, int flags, byte[] nonceHash, String errorCode, String packageName, String jws) {
+			this.timestampMs = timestampMs;
+			this.statementTimestampMs = statementTimestampMs;
+			this.flags = flags;
+			this.nonceHash = nonceHash;
+			this.errorCode = errorCode;
+			this.packageName = packageName;
+			this.jws = jws;
+		}
+
+		static Record decode(ByteBuffer segment, int position) {
+			ByteBuffer record = segment.duplicate();
+			record.position(position + 8);
+			long timestampMs = record.getLong();
+			long statementTimestampMs = record.getLong();
+			int flags = record.get() & 0xff;
+			byte[] nonceHash = new byte[NONCE_HASH_LENGTH];
+			record.get(nonceHash);
+			byte[] errorCode = new byte[record.get() & 0xff];
+			record.get(errorCode);
+			byte[] packageName = new byte[record.getShort() & 0xffff];
+			record.get(packageName);
+			byte[] token = new byte[record.getInt()];
+			record.get(token);
+			return new Record(timestampMs, statementTimestampMs, flags, nonceHash,
+					errorCode.length > 0 ? new String(errorCode, US_ASCII) : null,
+					new String(packageName, UTF_8),
+					token.length > 0 ? new String(token, UTF_8) : null);
+		}
+
+		/**
+		 * Returns when the record was written.
+		 */
+		public long getTimestampMs() {
+			return timestampMs;
+		}
+
+		/**
+		 * Returns the timestamp of the statement, 0 if it could not be parsed.
+		 */
+		public long getStatementTimestampMs() {
+			return statementTimestampMs;
+		}
+
+		public boolean isValid() {
+			return (flags & FLAG_VALID) != 0;
+		}
+
+		public boolean isCtsProfileMatch() {
+			return (flags & FLAG_CTS_PROFILE_MATCH) != 0;
+		}
+
+		public boolean isBasicIntegrity() {
+			return (flags & FLAG_BASIC_INTEGRITY) != 0;
+		}
+
+		public boolean isHardwareBacked() {
+			return (flags & FLAG_HARDWARE_BACKED) != 0;
+		}
+
+		/**
+		 * Returns whether the verdict was served from a {@code ResultCache}.
+		 */
+		public boolean isCached() {
+			return (flags & FLAG_CACHED) != 0;
+		}
+
+		/**
+		 * Returns whether the statement carried the given nonce.
+		 */
+		public boolean matchesNonce(@NonNull byte[] nonce) {
+			return MessageDigest.isEqual(nonceHash, Arrays.copyOf(sha256(nonce), NONCE_HASH_LENGTH));
+		}
+
+		/**
+		 * Returns why the statement was rejected, null if it was accepted. Names not known to this
+		 * version, from a log written by a later one, are returned as null too, see
+		 * {@link #getErrorCodeName()}.
+		 */
+		@Nullable
+		public SafetyNetVerificationException.ErrorCode getErrorCode() {
+			if (errorCode == null) {
+				return null;
+			}
+			try {
+				return SafetyNetVerificationException.ErrorCode.valueOf(errorCode);
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+		}
+
+		@Nullable
+		public String getErrorCodeName() {
+			return errorCode;
+		}
+
+		/**
+		 * Returns the package name of the statement, empty if it had none.
+		 */
+		@NonNull
+		public String getPackageName() {
+			return packageName;
+		}
+
+		/**
+		 * Returns the statement as submitted, null if tokens are not kept.
+		 */
+		@Nullable
+		public String getJws() {
+			return jws;
+		}
+
+		@Override
+		public String toString() {
+			return "Record{" +
+					"timestampMs=" + timestampMs +
+					", packageName='" + packageName + '\'' +
+					", valid=" + isValid() +
+					", errorCode=" + errorCode +
+					", ctsProfileMatch=" + isCtsProfileMatch() +
+					", basicIntegrity=" + isBasicIntegrity() +
+					", cached=" + isCached() +
+					'}';
+		}
+	}
+
+	public static class Builder {
+		private final File directory;
+		private int segmentBytes = 64 * 1024 * 1024;
+		private int syncEveryRecords = 1024;
+		private long syncIntervalMs = 100;
+		private boolean waitForSync;
+		private boolean includeTokens = true;
+		private int bufferRecords = 8192;
+
+		/**
+		 * @param directory where the segments are, created if needed
+		 */
+		public Builder(@NonNull File directory) {
+			this.directory = directory;
+		}
+
+		/**
+		 * Sets the size of the segment files, 64MB by default.
+		 */
+		public Builder setSegmentBytes(int segmentBytes) {
+			if (segmentBytes < 1024 * 1024) {
+				throw new IllegalArgumentException("segmentBytes must be at least 1MB");
+			}
+			this.segmentBytes = segmentBytes;
+			return this;
+		}
+
+		/**
+		 * Sets after how many records the segment is forced to disk, 1024 by default.
+		 */
+		public Builder setSyncEveryRecords(int syncEveryRecords) {
+			if (syncEveryRecords <= 0) {
+				throw new IllegalArgumentException("syncEveryRecords must be positive");
+			}
+			this.syncEveryRecords = syncEveryRecords;
+			return this;
+		}
+
+		/**
+		 * Sets how long records may stay written but not forced to disk, 100ms by default.
+		 */
+		public Builder setSyncIntervalMs(long syncIntervalMs) {
+			if (syncIntervalMs <= 0) {
+				throw new IllegalArgumentException("syncIntervalMs must be positive");
+			}
+			this.syncIntervalMs = syncIntervalMs;
+			return this;
+		}
+
+		/**
+		 * Sets whether {@link #append(String, Verdict)} waits for its record to be forced to disk,
+		 * false by default.
+		 */
+		public Builder setWaitForSync(boolean waitForSync) {
+			this.waitForSync = waitForSync;
+			return this;
+		}
+
+		/**
+		 * Sets whether the statements themselves are kept, several KB each, true by default.
+		 */
+		public Builder setIncludeTokens(boolean includeTokens) {
+			this.includeTokens = includeTokens;
+			return this;
+		}
+
+		/**
+		 * Sets how many records can be queued for the writer, rounded up to a power of two, 8192
+		 * by default. Appending blocks while the queue is full.
+		 */
+		public Builder setBufferRecords(int bufferRecords) {
+			if (bufferRecords <= 0) {
+				throw new IllegalArgumentException("bufferRecords must be positive");
+			}
+			this.bufferRecords = bufferRecords;
+			return this;
+		}
+
+		/**
+		 * Opens the log, resuming after the last record of the last segment, and starts the writer.
+		 */
+		@NonNull
+		public MappedAuditLog open() throws IOException {
+			return new MappedAuditLog(this);
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package com.scottyab.safetynet.server;
+
+import java.io.IOException;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Records the nonces of accepted statements, so that each statement is accepted only once.
+ *
+ * <p>Implementations may block, e.g. on a remote store: they are called from virtual threads.
+ */
+public interface NonceStore {
+
+	/**
+	 * Marks the nonce as used.
+	 *
+	 * @param timestampMs timestamp of the statement carrying the nonce
+	 * @return false if the nonce was already used, or can't be checked anymore
+	 */
+	boolean consume(@NonNull byte[] nonce, long timestampMs) throws IOException;
+}
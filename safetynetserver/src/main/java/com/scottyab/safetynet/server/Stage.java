@@ -0,0 +1,290 @@
+package com.scottyab.safetynet.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A {@link Flow.Processor} applying a step to each item on an executor, with bounded parallelism
+ * and a bounded number of items held.
+ *
+ * <p>The stage requests from upstream only as many items as it has free slots: an item takes a slot
+ * from its arrival until it is delivered downstream, whether it is waiting for a worker, being
+ * processed or waiting for downstream demand. A slow stage thus slows down all the ones before it,
+ * down to the publisher. Items may be delivered out of order when the parallelism is above 1.
+ */
+final class Stage<T> implements Flow.Processor<T, T> {
+
+	/**
+	 * The work of a stage. Failures are meant to be recorded in the item by {@link #apply(Object)}.
+	 * Should it throw anyway, or the executor reject the item, the item is passed to
+	 * {@link #failed(Object, RuntimeException)} and goes on downstream, so that the stage neither
+	 * loses the item nor the slot it holds.
+	 */
+	interface Step<T> {
+		T apply(T item);
+
+		T failed(T item, RuntimeException e);
+	}
+
+	private final String name;
+	private final Step<T> step;
+	private final Object lock = new Object();
+
+	private int parallelism;
+	private int capacity;
+	private Executor executor;
+
+	private final ArrayDeque<T> pending = new ArrayDeque<T>();
+	private final ArrayDeque<T> ready = new ArrayDeque<T>();
+	private Flow.Subscription upstream;
+	private Flow.Subscriber<? super T> downstream;
+	private int running;
+	private long demand;
+	private long processed;
+	private boolean upstreamDone;
+	private Throwable upstreamError;
+	private boolean cancelled;
+	private boolean terminated;
+	private boolean emitting;
+
+	Stage(String name, Step<T> step, int parallelism, int capacity, Executor executor) {
+		this.name = name;
+		this.step = step;
+		configure(parallelism, capacity, executor);
+	}
+
+	String getName() {
+		return name;
+	}
+
+	void configure(int parallelism, int capacity, Executor executor) {
+		if (parallelism <= 0 || capacity < parallelism) {
+			throw new IllegalArgumentException("parallelism must be positive and capacity at least parallelism");
+		}
+		synchronized (lock) {
+			if (upstream != null) {
+				throw new IllegalStateException("Stage " + name + " already subscribed");
+			}
+			this.parallelism = parallelism;
+			this.capacity = capacity;
+			this.executor = executor;
+		}
+	}
+
+	VerificationPipeline.StageMetrics getMetrics() {
+		synchronized (lock) {
+			return new VerificationPipeline.StageMetrics(name, pending.size(), running, ready.size(), processed);
+		}
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		int request;
+		synchronized (lock) {
+			if (upstream != null || cancelled) {
+				subscription.cancel();
+				return;
+			}
+			upstream = subscription;
+			request = capacity;
+		}
+		subscription.request(request);
+	}
+
+	@Override
+	public void onNext(T item) {
+		synchronized (lock) {
+			if (cancelled) {
+				return;
+			}
+			pending.add(item);
+		}
+		dispatch();
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		synchronized (lock) {
+			upstreamDone = true;
+			upstreamError = throwable;
+		}
+		emit();
+	}
+
+	@Override
+	public void onComplete() {
+		synchronized (lock) {
+			upstreamDone = true;
+		}
+		emit();
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super T> subscriber) {
+		synchronized (lock) {
+			if (downstream != null) {
+				subscriber.onSubscribe(new Flow.Subscription() {
+					@Override
+					public void request(long n) {
+					}
+
+					@Override
+					public void cancel() {
+					}
+				});
+				subscriber.onError(new IllegalStateException("Stage " + name + " already has a subscriber"));
+				return;
+			}
+			downstream = subscriber;
+		}
+		subscriber.onSubscribe(new Flow.Subscription() {
+			@Override
+			public void request(long n) {
+				if (n <= 0) {
+					cancel();
+					subscriber.onError(new IllegalArgumentException("Requested " + n + " items"));
+					return;
+				}
+				synchronized (lock) {
+					demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+				}
+				emit();
+			}
+
+			@Override
+			public void cancel() {
+				Flow.Subscription toCancel;
+				synchronized (lock) {
+					cancelled = true;
+					terminated = true;
+					pending.clear();
+					ready.clear();
+					toCancel = upstream;
+				}
+				if (toCancel != null) {
+					toCancel.cancel();
+				}
+			}
+		});
+		emit();
+	}
+
+	/**
+	 * Hands pending items to workers, up to the parallelism. An item the executor rejects, e.g.
+	 * once it is shut down or its queue is full, is passed to
+	 * {@link Step#failed(Object, RuntimeException)} and goes on downstream like any failed item.
+	 */
+	private void dispatch() {
+		while (true) {
+			List<T> toRun = new ArrayList<T>();
+			Executor executor;
+			synchronized (lock) {
+				while (running < parallelism && !pending.isEmpty()) {
+					toRun.add(pending.poll());
+					running++;
+				}
+				executor = this.executor;
+			}
+			boolean rejected = false;
+			for (final T item : toRun) {
+				try {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							T result = item;
+							try {
+								result = step.apply(item);
+							} catch (RuntimeException e) {
+								result = step.failed(item, e);
+							} finally {
+								finish(result);
+								dispatch();
+								emit();
+							}
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					finish(step.failed(item, e));
+					rejected = true;
+				}
+			}
+			if (!rejected) {
+				return;
+			}
+			// the rejected items freed their slots, which the pending ones may take
+			emit();
+		}
+	}
+
+	/**
+	 * Gives back the slot of a processed item, and queues the item for delivery.
+	 */
+	private void finish(T result) {
+		synchronized (lock) {
+			running--;
+			processed++;
+			if (!cancelled) {
+				ready.add(result);
+			}
+		}
+	}
+
+	/**
+	 * Delivers ready items as far as the downstream demand allows, then the termination signal
+	 * once everything is delivered. Only one thread delivers at a time, as required by
+	 * {@link Flow.Subscriber}.
+	 */
+	private void emit() {
+		synchronized (lock) {
+			if (emitting) {
+				// the emitting thread checks again before giving up
+				return;
+			}
+			emitting = true;
+		}
+		while (true) {
+			List<T> batch = new ArrayList<T>();
+			Flow.Subscriber<? super T> subscriber;
+			Flow.Subscription subscription;
+			boolean complete = false;
+			Throwable error = null;
+			synchronized (lock) {
+				subscriber = downstream;
+				subscription = upstream;
+				if (subscriber != null && !terminated) {
+					while (demand > 0 && !ready.isEmpty()) {
+						batch.add(ready.poll());
+						demand--;
+					}
+					if (upstreamDone && pending.isEmpty() && running == 0 && ready.isEmpty()) {
+						complete = true;
+						error = upstreamError;
+						terminated = true;
+					}
+				}
+				if (batch.isEmpty() && !complete) {
+					emitting = false;
+					return;
+				}
+			}
+			for (T item : batch) {
+				subscriber.onNext(item);
+			}
+			if (!batch.isEmpty() && !complete && subscription != null) {
+				// the delivered items free their slots
+				subscription.request(batch.size());
+			}
+			if (complete) {
+				if (error != null) {
+					subscriber.onError(error);
+				} else {
+					subscriber.onComplete();
+				}
+			}
+		}
+	}
+}
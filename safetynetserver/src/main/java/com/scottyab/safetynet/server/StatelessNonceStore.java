@@ -0,0 +1,31 @@
+package com.scottyab.safetynet.server;
+
+import com.scottyab.safetynet.SafetyNetVerificationException;
+import com.scottyab.safetynet.StatelessNonce;
+
+import androidx.annotation.NonNull;
+
+/**
+ * {@link NonceStore} accepting the nonces issued by a {@link StatelessNonce} without binding,
+ * with no shared store to look them up in. Replays are refused only within the replay window of
+ * the {@link StatelessNonce}, so servers behind a load balancer should route an app to the same
+ * server or accept the remaining window.
+ */
+public class StatelessNonceStore implements NonceStore {
+
+	private final StatelessNonce nonces;
+
+	public StatelessNonceStore(@NonNull StatelessNonce nonces) {
+		this.nonces = nonces;
+	}
+
+	@Override
+	public boolean consume(@NonNull byte[] nonce, long timestampMs) {
+		try {
+			nonces.verify(nonce, null, System.currentTimeMillis());
+			return true;
+		} catch (SafetyNetVerificationException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.scottyab.safetynet.server;
+
+import com.scottyab.safetynet.AttestationStatement;
+import com.scottyab.safetynet.ResultCache;
+import com.scottyab.safetynet.SafetyNetVerificationException;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Outcome of the verification of a statement by the {@link VerificationServer}.
+ */
+public final class Verdict {
+
+	private final AttestationStatement statement;
+	private final SafetyNetVerificationException.ErrorCode errorCode;
+	private final String message;
+	private final boolean cached;
+
+	private Verdict(AttestationStatement statement, SafetyNetVerificationException.ErrorCode errorCode, String message, boolean cached) {
+		this.statement = statement;
+		this.errorCode = errorCode;
+		this.message = message;
+		this.cached = cached;
+	}
+
+	static Verdict accepted(AttestationStatement statement) {
+		return new Verdict(statement, null, null, false);
+	}
+
+	static Verdict rejected(SafetyNetVerificationException e) {
+		return new Verdict(e.getResponse(), e.getErrorCode(), e.getMessage(), false);
+	}
+
+	static Verdict cached(ResultCache.Result result) {
+		return new Verdict(result.getStatement(), result.getErrorCode(), result.getMessage(), true);
+	}
+
+	Verdict asCached() {
+		return new Verdict(statement, errorCode, message, true);
+	}
+
+	public boolean isValid() {
+		return errorCode == null;
+	}
+
+	/**
+	 * Returns the statement, null if it could not be parsed.
+	 */
+	@Nullable
+	public AttestationStatement getStatement() {
+		return statement;
+	}
+
+	/**
+	 * Returns why the statement was rejected, null if it is valid.
+	 */
+	@Nullable
+	public SafetyNetVerificationException.ErrorCode getErrorCode() {
+		return errorCode;
+	}
+
+	@Nullable
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Returns whether the verdict is the one given earlier to the same statement, submitted
+	 * again, e.g. by a client retrying.
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+}
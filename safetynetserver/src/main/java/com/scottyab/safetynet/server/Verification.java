@@ -0,0 +1,42 @@
+package com.scottyab.safetynet.server;
+
+import com.scottyab.safetynet.OfflineVerifier;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A statement going through a {@link VerificationPipeline}, along with a caller defined context,
+ * e.g. the message it was received in.
+ */
+public final class Verification<T> {
+
+	private final String jws;
+	private final T context;
+
+	OfflineVerifier verifier;
+	Verdict verdict;
+
+	public Verification(@NonNull String jws, @Nullable T context) {
+		this.jws = jws;
+		this.context = context;
+	}
+
+	@NonNull
+	public String getJws() {
+		return jws;
+	}
+
+	@Nullable
+	public T getContext() {
+		return context;
+	}
+
+	/**
+	 * Returns the verdict, null until the verification has gone through the whole pipeline.
+	 */
+	@Nullable
+	public Verdict getVerdict() {
+		return verdict;
+	}
+}
@@ -0,0 +1,312 @@
+package com.scottyab.safetynet.server;
+
+import com.scottyab.safetynet.AttestationStatement;
+import com.scottyab.safetynet.JsonWebSignature;
+import com.scottyab.safetynet.OfflineVerifier;
+import com.scottyab.safetynet.PayloadPolicy;
+import com.scottyab.safetynet.SafetyNetVerificationException;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.net.ssl.X509TrustManager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static com.scottyab.safetynet.SafetyNetVerificationException.ErrorCode.INVALID_JWT_RESPONSE;
+import static com.scottyab.safetynet.SafetyNetVerificationException.ErrorCode.PAYLOAD_VALIDATION_FAILED;
+import static com.scottyab.safetynet.SafetyNetVerificationException.ErrorCode.SIGNATURE_VERIFICATION_FAILED;
+
+/**
+ * Verifies a stream of statements in four stages: decode, certificate chain check, signature check
+ * and payload check. Each stage has its own parallelism and a bounded number of items in flight,
+ * and requests items from the previous one only when it has room for them, so a burst slows the
+ * publisher down instead of piling up in memory.
+ *
+ * <pre>
+ * VerificationPipeline&lt;Message&gt; pipeline = new VerificationPipeline&lt;Message&gt;()
+ *         .setStage(VerificationPipeline.SIGNATURE, 8, 64);
+ * publisher.subscribe(pipeline);
+ * pipeline.subscribe(subscriber);
+ * </pre>
+ *
+ * <p>Every statement comes out of the pipeline with its {@link Verification#getVerdict()} set,
+ * invalid statements are not dropped. Statements may come out in a different order than they
+ * went in. The pipeline can be subscribed to a single publisher, once.
+ */
+public class VerificationPipeline<T> implements Flow.Processor<Verification<T>, Verification<T>> {
+
+	public static final String DECODE = "decode";
+	public static final String CHAIN = "chain";
+	public static final String SIGNATURE = "signature";
+	public static final String PAYLOAD = "payload";
+
+	private volatile X509TrustManager trustManager;
+	private volatile PayloadPolicy payloadPolicy;
+	private final List<Stage<Verification<T>>> stages = new ArrayList<Stage<Verification<T>>>();
+	private boolean linked;
+
+	/**
+	 * Creates a pipeline running on the common fork join pool, each stage with a parallelism of
+	 * the number of cores and room for 4 times as many items.
+	 */
+	public VerificationPipeline() {
+		Executor executor = ForkJoinPool.commonPool();
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		stages.add(new Stage<Verification<T>>(DECODE, new VerificationStep() {
+			@Override
+			public Verification<T> apply(Verification<T> item) {
+				return decode(item);
+			}
+		}, parallelism, parallelism * 4, executor));
+		stages.add(new Stage<Verification<T>>(CHAIN, new VerificationStep() {
+			@Override
+			public Verification<T> apply(Verification<T> item) {
+				return checkChain(item);
+			}
+		}, parallelism, parallelism * 4, executor));
+		stages.add(new Stage<Verification<T>>(SIGNATURE, new VerificationStep() {
+			@Override
+			public Verification<T> apply(Verification<T> item) {
+				return checkSignature(item);
+			}
+		}, parallelism, parallelism * 4, executor));
+		stages.add(new Stage<Verification<T>>(PAYLOAD, new VerificationStep() {
+			@Override
+			public Verification<T> apply(Verification<T> item) {
+				return checkPayload(item);
+			}
+		}, parallelism, parallelism * 4, executor));
+	}
+
+	/**
+	 * Configures a stage, before the pipeline is subscribed.
+	 *
+	 * @param stage       one of {@link #DECODE}, {@link #CHAIN}, {@link #SIGNATURE}, {@link #PAYLOAD}
+	 * @param parallelism how many statements the stage processes at once
+	 * @param capacity    how many statements the stage holds at most, at least the parallelism
+	 */
+	public VerificationPipeline<T> setStage(@NonNull String stage, int parallelism, int capacity) {
+		getStage(stage).configure(parallelism, capacity, ForkJoinPool.commonPool());
+		return this;
+	}
+
+	/**
+	 * Like {@link #setStage(String, int, int)}, running the stage on the given executor.
+	 */
+	public VerificationPipeline<T> setStage(@NonNull String stage, int parallelism, int capacity, @NonNull Executor executor) {
+		getStage(stage).configure(parallelism, capacity, executor);
+		return this;
+	}
+
+	/**
+	 * Sets the trust manager the certificate chains are checked with, or null (the default) to
+	 * use the system one.
+	 */
+	public VerificationPipeline<T> setTrustManager(@Nullable X509TrustManager trustManager) {
+		this.trustManager = trustManager;
+		return this;
+	}
+
+	/**
+	 * Sets the checks of the statement content, run in the last stage against the current time,
+	 * or null (the default) for none.
+	 */
+	public VerificationPipeline<T> setPayloadPolicy(@Nullable PayloadPolicy payloadPolicy) {
+		this.payloadPolicy = payloadPolicy;
+		return this;
+	}
+
+	/**
+	 * Returns the current load of each stage, in pipeline order.
+	 */
+	@NonNull
+	public List<StageMetrics> getStageMetrics() {
+		List<StageMetrics> metrics = new ArrayList<StageMetrics>(stages.size());
+		for (Stage<Verification<T>> stage : stages) {
+			metrics.add(stage.getMetrics());
+		}
+		return metrics;
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		synchronized (stages) {
+			if (!linked) {
+				linked = true;
+				for (int i = stages.size() - 1; i > 0; i--) {
+					stages.get(i - 1).subscribe(stages.get(i));
+				}
+			}
+		}
+		stages.get(0).onSubscribe(subscription);
+	}
+
+	@Override
+	public void onNext(Verification<T> item) {
+		stages.get(0).onNext(item);
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		stages.get(0).onError(throwable);
+	}
+
+	@Override
+	public void onComplete() {
+		stages.get(0).onComplete();
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super Verification<T>> subscriber) {
+		stages.get(stages.size() - 1).subscribe(subscriber);
+	}
+
+	private Stage<Verification<T>> getStage(String name) {
+		for (Stage<Verification<T>> stage : stages) {
+			if (stage.getName().equals(name)) {
+				return stage;
+			}
+		}
+		throw new IllegalArgumentException("Unknown stage " + name);
+	}
+
+	private Verification<T> decode(Verification<T> item) {
+		try {
+			item.verifier = OfflineVerifier.from(item.getJws());
+		} catch (SafetyNetVerificationException e) {
+			item.verdict = Verdict.rejected(e);
+		} catch (RuntimeException e) {
+			// malformed token, e.g. bad base64 or JSON
+			item.verdict = Verdict.rejected(new SafetyNetVerificationException(INVALID_JWT_RESPONSE, "Malformed JWS; " + e, null, e));
+		}
+		return item;
+	}
+
+	private Verification<T> checkChain(Verification<T> item) {
+		if (item.verdict != null) {
+			return item;
+		}
+		try {
+			X509TrustManager tm = trustManager;
+			item.verifier.verifyCertificateChain(tm != null ? tm : JsonWebSignature.getDefaultX509TrustManager());
+		} catch (SafetyNetVerificationException e) {
+			item.verdict = Verdict.rejected(e);
+		} catch (GeneralSecurityException e) {
+			item.verdict = Verdict.rejected(new SafetyNetVerificationException(SIGNATURE_VERIFICATION_FAILED, "Cannot load the default trust manager; " + e.getMessage(), null, e));
+		} catch (RuntimeException e) {
+			// malformed certificate chain, e.g. bad base64 or a null x5c entry
+			item.verdict = Verdict.rejected(new SafetyNetVerificationException(INVALID_JWT_RESPONSE, "Malformed JWS; " + e, null, e));
+		}
+		return item;
+	}
+
+	private Verification<T> checkSignature(Verification<T> item) {
+		if (item.verdict != null) {
+			return item;
+		}
+		try {
+			item.verifier.verifySignature();
+		} catch (SafetyNetVerificationException e) {
+			item.verdict = Verdict.rejected(e);
+		} catch (RuntimeException e) {
+			// e.g. a provider failing on an unusual key
+			item.verdict = Verdict.rejected(new SafetyNetVerificationException(SIGNATURE_VERIFICATION_FAILED, "Signature verification failed; " + e, null, e));
+		}
+		return item;
+	}
+
+	private Verification<T> checkPayload(Verification<T> item) {
+		if (item.verdict != null) {
+			return item;
+		}
+		AttestationStatement statement = item.verifier.getAttestationStatement();
+		PayloadPolicy policy = payloadPolicy;
+		try {
+			if (policy != null) {
+				policy.check(statement, null, System.currentTimeMillis());
+			}
+			item.verdict = Verdict.accepted(statement);
+		} catch (SafetyNetVerificationException e) {
+			item.verdict = Verdict.rejected(e);
+		} catch (RuntimeException e) {
+			item.verdict = Verdict.rejected(new SafetyNetVerificationException(PAYLOAD_VALIDATION_FAILED, "Payload check failed; " + e, statement, e));
+		}
+		// the intermediate state is not needed anymore
+		item.verifier = null;
+		return item;
+	}
+
+	/**
+	 * Step rejecting the statement when it throws despite catching the failures it expects.
+	 */
+	private abstract class VerificationStep implements Stage.Step<Verification<T>> {
+		@Override
+		public Verification<T> failed(Verification<T> item, RuntimeException e) {
+			item.verdict = Verdict.rejected(new SafetyNetVerificationException(INVALID_JWT_RESPONSE, "Verification failed; " + e, null, e));
+			item.verifier = null;
+			return item;
+		}
+	}
+
+	/**
+	 * Load of a stage at a point in time.
+	 */
+	public static final class StageMetrics {
+		private final String stage;
+		private final int queued;
+		private final int running;
+		private final int awaitingDemand;
+		private final long processed;
+
+		StageMetrics(String stage, int queued, int running, int awaitingDemand, long processed) {
+			this.stage = stage;
+			this.queued = queued;
+			this.running = running;
+			this.awaitingDemand = awaitingDemand;
+			this.processed = processed;
+		}
+
+		public String getStage() {
+			return stage;
+		}
+
+		/**
+		 * Returns the number of statements waiting for a worker of this stage.
+		 */
+		public int getQueued() {
+			return queued;
+		}
+
+		/**
+		 * Returns the number of statements being processed.
+		 */
+		public int getRunning() {
+			return running;
+		}
+
+		/**
+		 * Returns the number of processed statements waiting for the next stage to request them.
+		 */
+		public int getAwaitingDemand() {
+			return awaitingDemand;
+		}
+
+		/**
+		 * Returns the number of statements processed since the pipeline was created.
+		 */
+		public long getProcessed() {
+			return processed;
+		}
+
+		@Override
+		public String toString() {
+			return stage + "{queued=" + queued + ", running=" + running + ", awaitingDemand=" + awaitingDemand + ", processed=" + processed + "}";
+		}
+	}
+}
@@ -0,0 +1,476 @@
+package com.scottyab.safetynet.server;
+
+import com.google.gson.Gson;
+import com.google.gson.annotations.SerializedName;
+import com.scottyab.safetynet.AttestationStatement;
+import com.scottyab.safetynet.NegativeCache;
+import com.scottyab.safetynet.OfflineVerifier;
+import com.scottyab.safetynet.PayloadPolicy;
+import com.scottyab.safetynet.ResultCache;
+import com.scottyab.safetynet.SafetyNetVerificationException;
+import com.scottyab.safetynet.TenantRegistry;
+import com.scottyab.safetynet.VerdictToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.X509TrustManager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static com.scottyab.safetynet.SafetyNetVerificationException.ErrorCode.INVALID_JWT_RESPONSE;
+import static com.scottyab.safetynet.SafetyNetVerificationException.ErrorCode.PAYLOAD_VALIDATION_FAILED;
+
+/**
+ * Embeddable HTTP endpoint verifying SafetyNet attestation statements with {@link OfflineVerifier}.
+ *
+ * <p>{@code POST /verify} with the JWS as body answers 200 with the verdict as JSON if the statement
+ * is valid, 422 if it isn't, 400 if a {@link NonceStore} is set and the signed statement has no
+ * nonce, and 503 if the verification queue is full. Valid verdicts carry a
+ * {@link VerdictToken} if a signer is set.
+ *
+ * <p>Each request is handled on its own virtual thread, so blocking on the {@link NonceStore} and
+ * the {@link AuditLog} costs no platform thread and tens of thousands of connections can be
+ * served concurrently. The signature check, which is CPU bound, runs on a bounded pool of platform
+ * threads sized to the number of cores.
+ */
+public class VerificationServer {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final Gson GSON = new Gson();
+
+	private final InetSocketAddress address;
+
+	private X509TrustManager trustManager;
+	private PayloadPolicy payloadPolicy;
+	private NonceStore nonceStore;
+	private AuditLog auditLog;
+	private VerdictToken.Signer verdictSigner;
+	private NegativeCache negativeCache;
+	private ResultCache resultCache;
+	private int verifyThreads = Runtime.getRuntime().availableProcessors();
+	private int maxQueuedVerifications = 65536;
+	private int maxTokenBytes = 64 * 1024;
+	private int backlog = 4096;
+
+	private HttpServer server;
+	private ExecutorService requestExecutor;
+	private ThreadPoolExecutor verifyExecutor;
+	private final ConcurrentHashMap<String, CompletableFuture<Verdict>> inFlight = new ConcurrentHashMap<String, CompletableFuture<Verdict>>();
+
+	public VerificationServer(@NonNull InetSocketAddress address) {
+		this.address = address;
+	}
+
+	/**
+	 * Sets the trust manager the certificate chains are checked with, or null (the default) to
+	 * use the system one.
+	 */
+	public VerificationServer setTrustManager(@Nullable X509TrustManager trustManager) {
+		this.trustManager = trustManager;
+		return this;
+	}
+
+	/**
+	 * Sets the checks of the statement content, run against the time the statement is received,
+	 * or null (the default) for none. The nonce is checked by the {@link NonceStore} instead.
+	 */
+	public VerificationServer setPayloadPolicy(@Nullable PayloadPolicy payloadPolicy) {
+		this.payloadPolicy = payloadPolicy;
+		return this;
+	}
+
+	/**
+	 * Sets the store used to refuse statements whose nonce was already used, or null (the default)
+	 * to not check nonces.
+	 */
+	public VerificationServer setNonceStore(@Nullable NonceStore nonceStore) {
+		this.nonceStore = nonceStore;
+		return this;
+	}
+
+	/**
+	 * Sets where verdicts are recorded, or null (the default) to not record them.
+	 */
+	public VerificationServer setAuditLog(@Nullable AuditLog auditLog) {
+		this.auditLog = auditLog;
+		return this;
+	}
+
+	/**
+	 * Sets the signer of the {@link VerdictToken} returned with valid verdicts, for the services
+	 * downstream, or null (the default) to not return one.
+	 */
+	public VerificationServer setVerdictSigner(@Nullable VerdictToken.Signer verdictSigner) {
+		this.verdictSigner = verdictSigner;
+		return this;
+	}
+
+	/**
+	 * Sets the cache of recently rejected statements, so that the ones resent in a loop are
+	 * rejected without checking their signature again, or null (the default) for none. The cache
+	 * must not be shared with verifiers using another trust manager.
+	 */
+	public VerificationServer setNegativeCache(@Nullable NegativeCache negativeCache) {
+		this.negativeCache = negativeCache;
+		return this;
+	}
+
+	/**
+	 * Sets the cache of verdicts given to statements, so that clients retrying the submission of a
+	 * statement get the same verdict without it being verified again nor its nonce being consumed
+	 * again, or null (the default) for none. Such verdicts are marked {@code cached}.
+	 */
+	public VerificationServer setResultCache(@Nullable ResultCache resultCache) {
+		this.resultCache = resultCache;
+		return this;
+	}
+
+	/**
+	 * Sets the number of platform threads checking signatures, by default the number of cores.
+	 */
+	public VerificationServer setVerifyThreads(int verifyThreads) {
+		if (verifyThreads <= 0) {
+			throw new IllegalArgumentException("verifyThreads must be positive");
+		}
+		this.verifyThreads = verifyThreads;
+		return this;
+	}
+
+	/**
+	 * Sets how many statements may wait for a verify thread before requests are answered 503.
+	 */
+	public VerificationServer setMaxQueuedVerifications(int maxQueuedVerifications) {
+		if (maxQueuedVerifications <= 0) {
+			throw new IllegalArgumentException("maxQueuedVerifications must be positive");
+		}
+		this.maxQueuedVerifications = maxQueuedVerifications;
+		return this;
+	}
+
+	/**
+	 * Sets the largest accepted request body, 64KB by default.
+	 */
+	public VerificationServer setMaxTokenBytes(int maxTokenBytes) {
+		this.maxTokenBytes = maxTokenBytes;
+		return this;
+	}
+
+	/**
+	 * Sets the length of the queue of connections not yet accepted.
+	 */
+	public VerificationServer setBacklog(int backlog) {
+		this.backlog = backlog;
+		return this;
+	}
+
+	public synchronized void start() throws IOException {
+		if (server != null) {
+			throw new IllegalStateException("Already started");
+		}
+		OfflineVerifier.warmUp();
+		verifyExecutor = new ThreadPoolExecutor(verifyThreads, verifyThreads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(maxQueuedVerifications),
+				Thread.ofPlatform().name("safetynet-verify-", 0).daemon(true).factory());
+		requestExecutor = Executors.newVirtualThreadPerTaskExecutor();
+		server = HttpServer.create(address, backlog);
+		server.setExecutor(requestExecutor);
+		server.createContext("/verify", new VerifyHandler());
+		server.start();
+	}
+
+	/**
+	 * Stops accepting requests and waits up to the delay for the ones in progress.
+	 */
+	public synchronized void stop(int delaySeconds) {
+		if (server == null) {
+			return;
+		}
+		server.stop(delaySeconds);
+		requestExecutor.shutdown();
+		verifyExecutor.shutdown();
+		server = null;
+	}
+
+	/**
+	 * Returns the address the server listens on, useful when started on port 0.
+	 */
+	public synchronized InetSocketAddress getAddress() {
+		if (server == null) {
+			throw new IllegalStateException("Not started");
+		}
+		return server.getAddress();
+	}
+
+	private Verdict verify(final String jws) throws IOException, InterruptedException {
+		ResultCache resultCache = this.resultCache;
+		if (resultCache == null) {
+			return audit(jws, verifyAndConsumeNonce(jws, null));
+		}
+		ResultCache.Result cached = resultCache.get(jws);
+		if (cached != null) {
+			return audit(jws, Verdict.cached(cached));
+		}
+		// concurrent retries of the statement wait for the first one instead of consuming the nonce
+		CompletableFuture<Verdict> verification = new CompletableFuture<Verdict>();
+		CompletableFuture<Verdict> inProgress = inFlight.putIfAbsent(jws, verification);
+		if (inProgress != null) {
+			try {
+				return audit(jws, inProgress.get().asCached());
+			} catch (ExecutionException e) {
+				// e.g. the verification queue was full, the retry gets the same answer
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		try {
+			// the verification of a retry may have finished between the lookup above and putIfAbsent
+			cached = resultCache.get(jws);
+			Verdict verdict = cached != null ? Verdict.cached(cached) : verifyAndConsumeNonce(jws, resultCache);
+			verification.complete(verdict);
+			return audit(jws, verdict);
+		} catch (IOException | InterruptedException | RuntimeException e) {
+			verification.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(jws, verification);
+		}
+	}
+
+	private Verdict verifyAndConsumeNonce(final String jws, @Nullable ResultCache resultCache) throws IOException, InterruptedException {
+		Future<Verdict> future = verifyExecutor.submit(new Callable<Verdict>() {
+			@Override
+			public Verdict call() {
+				try {
+					OfflineVerifier verifier;
+					NegativeCache negativeCache = VerificationServer.this.negativeCache;
+					if (negativeCache != null) {
+						verifier = negativeCache.verify(jws, trustManager);
+					} else {
+						verifier = OfflineVerifier.from(jws);
+						if (trustManager != null) {
+							verifier.verify(trustManager);
+						} else {
+							verifier.verify();
+						}
+					}
+					AttestationStatement statement = verifier.getAttestationStatement();
+					// a nonce which is not base64 is malformed, and would fail the audit log or signer
+					statement.getNonce();
+					if (payloadPolicy != null) {
+						payloadPolicy.check(statement, null, System.currentTimeMillis());
+					}
+					return Verdict.accepted(statement);
+				} catch (SafetyNetVerificationException e) {
+					return Verdict.rejected(e);
+				} catch (RuntimeException e) {
+					// malformed token, e.g. bad base64 or JSON
+					return Verdict.rejected(new SafetyNetVerificationException(INVALID_JWT_RESPONSE, "Malformed JWS; " + e, null, e));
+				}
+			}
+		});
+		Verdict verdict;
+		try {
+			verdict = future.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+
+		NonceStore nonceStore = this.nonceStore;
+		if (verdict.isValid() && nonceStore != null) {
+			AttestationStatement statement = verdict.getStatement();
+			byte[] nonce = statement.getNonce();
+			if (nonce == null) {
+				throw new BadRequestException("Missing nonce");
+			}
+			if (!nonceStore.consume(nonce, statement.getTimestampMs())) {
+				verdict = Verdict.rejected(new SafetyNetVerificationException(PAYLOAD_VALIDATION_FAILED, "Nonce already used or too old", statement));
+			}
+		}
+		if (resultCache != null) {
+			if (verdict.isValid()) {
+				resultCache.putAccepted(jws, verdict.getStatement());
+			} else {
+				resultCache.putRejected(jws, new SafetyNetVerificationException(verdict.getErrorCode(), verdict.getMessage(), verdict.getStatement()));
+			}
+		}
+		return verdict;
+	}
+
+	private Verdict audit(String jws, Verdict verdict) throws IOException {
+		AuditLog auditLog = this.auditLog;
+		if (auditLog != null) {
+			auditLog.append(jws, verdict);
+		}
+		return verdict;
+	}
+
+	private class VerifyHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (!"POST".equals(exchange.getRequestMethod())) {
+					exchange.getResponseHeaders().set("Allow", "POST");
+					send(exchange, 405, null);
+					return;
+				}
+				String jws = readBody(exchange.getRequestBody());
+				if (jws == null) {
+					send(exchange, 413, null);
+					return;
+				}
+				Verdict verdict;
+				try {
+					verdict = verify(jws.trim());
+				} catch (BadRequestException e) {
+					send(exchange, 400, null);
+					return;
+				} catch (RejectedExecutionException e) {
+					exchange.getResponseHeaders().set("Retry-After", "1");
+					send(exchange, 503, null);
+					return;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					send(exchange, 503, null);
+					return;
+				}
+				VerdictToken.Signer signer = verdictSigner;
+				String verdictToken = verdict.isValid() && signer != null ? signer.signToString(verdict.getStatement()) : null;
+				send(exchange, verdict.isValid() ? 200 : 422, new Response(verdict, verdictToken));
+			} finally {
+				exchange.close();
+			}
+		}
+
+		/**
+		 * Returns the body, or null if it is larger than the limit.
+		 */
+		private String readBody(InputStream in) throws IOException {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				if (body.size() + read > maxTokenBytes) {
+					return null;
+				}
+				body.write(buffer, 0, read);
+			}
+			return new String(body.toByteArray(), UTF_8);
+		}
+
+		private void send(HttpExchange exchange, int status, Response response) throws IOException {
+			if (response == null) {
+				exchange.sendResponseHeaders(status, -1);
+				return;
+			}
+			byte[] json = GSON.toJson(response).getBytes(UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			exchange.sendResponseHeaders(status, json.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(json);
+			out.close();
+		}
+	}
+
+	/**
+	 * A statement which can't be checked at all, e.g. without nonce, answered with a 400.
+	 */
+	private static class BadRequestException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		BadRequestException(String message) {
+			super(message);
+		}
+	}
+
+	@SuppressWarnings("unused")
+	private static class Response {
+		@SerializedName("valid")
+		final boolean valid;
+
+		@SerializedName("errorCode")
+		final String errorCode;
+
+		@SerializedName("message")
+		final String message;
+
+		@SerializedName("statement")
+		final AttestationStatement statement;
+
+		@SerializedName("verdictToken")
+		final String verdictToken;
+
+		@SerializedName("cached")
+		final boolean cached;
+
+		Response(Verdict verdict, String verdictToken) {
+			valid = verdict.isValid();
+			errorCode = verdict.getErrorCode() != null ? verdict.getErrorCode().name() : null;
+			message = verdict.getMessage();
+			statement = verdict.getStatement();
+			this.verdictToken = verdictToken;
+			cached = verdict.isCached();
+		}
+	}
+
+	/**
+	 * Serves {@code /verify} on the given port, trusting the system CAs and refusing statements
+	 * older than 10 minutes or replayed. If a {@link TenantRegistry} config file is given,
+	 * statements must also name one of its apps and be within its freshness window, their digests
+	 * are checked when {@code ctsProfileMatch} is true, and the file is reloaded when it changes.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1 && args.length != 2) {
+			System.err.println("Usage: VerificationServer <port> [tenants.json]");
+			System.exit(1);
+		}
+		VerificationServer server = new VerificationServer(new InetSocketAddress(Integer.parseInt(args[0])))
+				.setNonceStore(new InMemoryNonceStore(TimeUnit.MINUTES.toMillis(10)));
+		if (args.length == 2) {
+			final File config = new File(args[1]);
+			final TenantRegistry tenants = new TenantRegistry();
+			tenants.load(config);
+			server.setPayloadPolicy(new PayloadPolicy.Builder().addRule(tenants).build());
+			ScheduledExecutorService reloader = Executors.newSingleThreadScheduledExecutor(
+					Thread.ofPlatform().name("safetynet-tenants").daemon(true).factory());
+			reloader.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (tenants.loadIfModified(config)) {
+							System.err.println("Reloaded " + tenants.getTenants().size() + " tenants");
+						}
+					} catch (IOException | RuntimeException e) {
+						// keep serving with the tenants loaded last
+						System.err.println("Cannot reload " + config + "; " + e);
+					}
+				}
+			}, 10, 10, TimeUnit.SECONDS);
+		}
+		server.start();
+		System.err.println("Listening on " + server.getAddress());
+	}
+}
@@ -0,0 +1,209 @@
+package com.scottyab.safetynet.server;
+
+import com.google.gson.Gson;
+import com.scottyab.safetynet.AttestationStatement;
+import com.scottyab.safetynet.SafetyNetVerificationException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MappedAuditLogTest {
+
+	private static final int SEGMENT_BYTES = 1024 * 1024;
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("audit").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	private static AttestationStatement statement(String packageName) {
+		return new Gson().fromJson("{\"nonce\":\"AQID\",\"timestampMs\":1234,\"ctsProfileMatch\":true,"
+				+ "\"evaluationType\":\"BASIC,HARDWARE_BACKED\",\"apkPackageName\":\"" + packageName + "\"}", AttestationStatement.class);
+	}
+
+	private MappedAuditLog open() throws IOException {
+		return new MappedAuditLog.Builder(directory).setSegmentBytes(SEGMENT_BYTES).setWaitForSync(true).open();
+	}
+
+	private static String jws(int index, int length) {
+		char[] padding = new char[length];
+		Arrays.fill(padding, 'x');
+		return "jws-" + index + "-" + new String(padding);
+	}
+
+	private List<MappedAuditLog.Record> readAll() {
+		List<MappedAuditLog.Record> records = new ArrayList<MappedAuditLog.Record>();
+		for (MappedAuditLog.Record record : MappedAuditLog.reader(directory)) {
+			records.add(record);
+		}
+		return records;
+	}
+
+	@Test
+	public void readsBackWhatWasAppended() throws Exception {
+		MappedAuditLog log = open();
+		log.append("accepted", Verdict.accepted(statement("com.example.app")));
+		log.append("rejected", Verdict.rejected(new SafetyNetVerificationException(
+				SafetyNetVerificationException.ErrorCode.PAYLOAD_VALIDATION_FAILED, "no", statement("com.example.other"))).asCached());
+		log.append("unparsed", Verdict.rejected(new SafetyNetVerificationException(
+				SafetyNetVerificationException.ErrorCode.INVALID_JWT_RESPONSE, "malformed", null)));
+		log.close();
+
+		List<MappedAuditLog.Record> records = readAll();
+		assertEquals(3, records.size());
+
+		MappedAuditLog.Record accepted = records.get(0);
+		assertTrue(accepted.isValid());
+		assertTrue(accepted.isCtsProfileMatch());
+		assertFalse(accepted.isBasicIntegrity());
+		assertTrue(accepted.isHardwareBacked());
+		assertFalse(accepted.isCached());
+		assertEquals(1234, accepted.getStatementTimestampMs());
+		assertTrue(accepted.matchesNonce(new byte[] { 1, 2, 3 }));
+		assertFalse(accepted.matchesNonce(new byte[] { 1, 2, 4 }));
+		assertNull(accepted.getErrorCode());
+		assertEquals("com.example.app", accepted.getPackageName());
+		assertEquals("accepted", accepted.getJws());
+
+		MappedAuditLog.Record rejected = records.get(1);
+		assertFalse(rejected.isValid());
+		assertTrue(rejected.isCached());
+		assertEquals(SafetyNetVerificationException.ErrorCode.PAYLOAD_VALIDATION_FAILED, rejected.getErrorCode());
+		assertEquals("com.example.other", rejected.getPackageName());
+
+		MappedAuditLog.Record unparsed = records.get(2);
+		assertEquals(SafetyNetVerificationException.ErrorCode.INVALID_JWT_RESPONSE, unparsed.getErrorCode());
+		assertEquals(0, unparsed.getStatementTimestampMs());
+		assertEquals("", unparsed.getPackageName());
+		assertEquals("unparsed", unparsed.getJws());
+
+		assertTrue(accepted.getTimestampMs() <= rejected.getTimestampMs());
+		assertTrue(rejected.getTimestampMs() <= unparsed.getTimestampMs());
+	}
+
+	@Test
+	public void dropsATornRecordWhenReopened() throws Exception {
+		MappedAuditLog log = open();
+		for (int i = 0; i < 3; i++) {
+			log.append(jws(i, 100), Verdict.accepted(statement("com.example.app")));
+		}
+		log.close();
+
+		File segment = directory.listFiles()[0];
+		RandomAccessFile file = new RandomAccessFile(segment, "rw");
+		try {
+			// find the last record, then damage its content as a crash mid-write would
+			long position = 16;
+			long last = position;
+			int length;
+			while ((length = readInt(file, position)) != 0) {
+				last = position;
+				position += length;
+			}
+			assertTrue(last > 16);
+			file.seek(position - 1);
+			int lastByte = file.read();
+			file.seek(position - 1);
+			file.write(lastByte ^ 0xff);
+		} finally {
+			file.close();
+		}
+
+		log = open();
+		log.append(jws(3, 100), Verdict.accepted(statement("com.example.app")));
+		log.close();
+
+		List<MappedAuditLog.Record> records = readAll();
+		assertEquals(3, records.size());
+		assertEquals(jws(0, 100), records.get(0).getJws());
+		assertEquals(jws(1, 100), records.get(1).getJws());
+		assertEquals(jws(3, 100), records.get(2).getJws());
+	}
+
+	private static int readInt(RandomAccessFile file, long position) throws IOException {
+		file.seek(position);
+		return file.readInt();
+	}
+
+	@Test
+	public void movesToANewSegmentWhenARecordDoesNotFit() throws Exception {
+		MappedAuditLog log = open();
+		// about 10 records per segment
+		for (int i = 0; i < 25; i++) {
+			log.append(jws(i, 100 * 1024), Verdict.accepted(statement("com.example.app")));
+		}
+		log.close();
+
+		File[] segments = directory.listFiles();
+		Arrays.sort(segments);
+		assertEquals(3, segments.length);
+		for (int i = 0; i < segments.length; i++) {
+			assertEquals(String.format("audit-%010d.log", i), segments[i].getName());
+			assertEquals(SEGMENT_BYTES, segments[i].length());
+		}
+		List<MappedAuditLog.Record> records = readAll();
+		assertEquals(25, records.size());
+		for (int i = 0; i < records.size(); i++) {
+			assertEquals(jws(i, 100 * 1024), records.get(i).getJws());
+		}
+	}
+
+	@Test
+	public void seeksToTheFirstRecordAtOrAfterATime() throws Exception {
+		MappedAuditLog log = open();
+		for (int i = 0; i < 30; i++) {
+			log.append(jws(i, 100 * 1024), Verdict.accepted(statement("com.example.app")));
+			Thread.sleep(2);
+		}
+		log.close();
+
+		List<MappedAuditLog.Record> all = readAll();
+		assertEquals(30, all.size());
+		for (int from : new int[] { 0, 9, 10, 17, 29 }) {
+			long fromMs = all.get(from).getTimestampMs();
+			int first = from;
+			while (first > 0 && all.get(first - 1).getTimestampMs() >= fromMs) {
+				first--;
+			}
+			List<String> expected = new ArrayList<String>();
+			for (int i = first; i < all.size(); i++) {
+				expected.add(all.get(i).getJws());
+			}
+			List<String> actual = new ArrayList<String>();
+			Iterator<MappedAuditLog.Record> records = MappedAuditLog.reader(directory).seek(fromMs);
+			while (records.hasNext()) {
+				actual.add(records.next().getJws());
+			}
+			assertEquals("from record " + from, expected, actual);
+		}
+		assertFalse(MappedAuditLog.reader(directory).seek(all.get(29).getTimestampMs() + 1).hasNext());
+	}
+}
@@ -0,0 +1,135 @@
+package com.scottyab.safetynet.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StageTest {
+
+	private static final Stage.Step<String> STEP = new Stage.Step<String>() {
+		@Override
+		public String apply(String item) {
+			if (item.startsWith("bad")) {
+				throw new IllegalArgumentException(item);
+			}
+			return "ok " + item;
+		}
+
+		@Override
+		public String failed(String item, RuntimeException e) {
+			return "failed " + (e instanceof RejectedExecutionException ? "rejected " + item : e.getMessage());
+		}
+	};
+
+	/**
+	 * Runs the items through the stage, and returns what came out once it completed.
+	 */
+	private static List<String> run(Stage<String> stage, int count) throws InterruptedException {
+		final List<String> out = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch done = new CountDownLatch(1);
+		stage.subscribe(new Flow.Subscriber<String>() {
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				subscription.request(Long.MAX_VALUE);
+			}
+
+			@Override
+			public void onNext(String item) {
+				out.add(item);
+			}
+
+			@Override
+			public void onError(Throwable throwable) {
+				done.countDown();
+			}
+
+			@Override
+			public void onComplete() {
+				done.countDown();
+			}
+		});
+		try (SubmissionPublisher<String> publisher = new SubmissionPublisher<String>()) {
+			publisher.subscribe(stage);
+			for (int i = 0; i < count; i++) {
+				publisher.submit((i % 3 == 0 ? "good" : "bad") + i);
+			}
+		}
+		assertTrue("stage did not complete", done.await(30, TimeUnit.SECONDS));
+		return out;
+	}
+
+	@Test
+	public void aThrowingStepDoesNotLoseItemsNorSlots() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Stage<String> stage = new Stage<String>("test", STEP, 2, 2, executor);
+			// more failing items than slots, each must give its slot back
+			List<String> out = run(stage, 10);
+
+			assertEquals(10, out.size());
+			assertTrue(out.contains("ok good0"));
+			assertTrue(out.contains("failed bad1"));
+			assertEquals(0, stage.getMetrics().getRunning());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void itemsRejectedByTheExecutorFailWithoutLosingTheirSlots() throws Exception {
+		final ExecutorService workers = Executors.newFixedThreadPool(2);
+		final AtomicInteger executions = new AtomicInteger();
+		try {
+			// rejects every other item, as a saturated executor would
+			Executor executor = new Executor() {
+				@Override
+				public void execute(Runnable command) {
+					if (executions.incrementAndGet() % 2 == 0) {
+						throw new RejectedExecutionException();
+					}
+					workers.execute(command);
+				}
+			};
+			Stage<String> stage = new Stage<String>("test", STEP, 2, 2, executor);
+			List<String> out = run(stage, 10);
+
+			assertEquals(10, out.size());
+			assertEquals(10, executions.get());
+			int rejected = 0;
+			for (String item : out) {
+				if (item.startsWith("failed rejected ")) {
+					rejected++;
+				}
+			}
+			assertEquals(5, rejected);
+			assertEquals(0, stage.getMetrics().getRunning());
+		} finally {
+			workers.shutdownNow();
+		}
+
+	}
+
+	@Test
+	public void aShutDownExecutorFailsEveryItem() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.shutdown();
+		Stage<String> stage = new Stage<String>("test", STEP, 2, 2, executor);
+		assertEquals(Arrays.asList("failed rejected good0", "failed rejected bad1", "failed rejected bad2"), run(stage, 3));
+		assertEquals(0, stage.getMetrics().getRunning());
+	}
+}
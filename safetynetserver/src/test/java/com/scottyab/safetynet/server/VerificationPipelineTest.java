@@ -0,0 +1,92 @@
+package com.scottyab.safetynet.server;
+
+import com.scottyab.safetynet.FakeAttestationService;
+import com.scottyab.safetynet.SafetyNetVerificationException;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VerificationPipelineTest {
+
+	private static String jws(String header) {
+		Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+		return encoder.encodeToString(header.getBytes(StandardCharsets.UTF_8)) + '.'
+				+ encoder.encodeToString("{\"nonce\":\"AQID\",\"timestampMs\":1}".getBytes(StandardCharsets.UTF_8)) + '.'
+				+ encoder.encodeToString(new byte[256]);
+	}
+
+	@Test
+	public void rejectsMalformedCertificateChainsAndKeepsGoing() throws Exception {
+		FakeAttestationService service = new FakeAttestationService();
+		VerificationPipeline<String> pipeline = new VerificationPipeline<String>()
+				.setTrustManager(service.getTrustManager())
+				// a single worker, which must survive the malformed statements
+				.setStage(VerificationPipeline.CHAIN, 1, 1);
+		List<Verification<String>> out = run(pipeline,
+				new Verification<String>(jws("{\"alg\":\"RS256\",\"x5c\":[\"not base64!\"]}"), "bad base64"),
+				new Verification<String>(jws("{\"alg\":\"RS256\",\"x5c\":[null]}"), "null entry"),
+				new Verification<String>(service.attest(new FakeAttestationService.Payload()
+						.setNonce(new byte[] { 1, 2, 3 })
+						.setTimestampMs(System.currentTimeMillis())), "valid"));
+
+		assertEquals(3, out.size());
+		for (Verification<String> verification : out) {
+			if ("valid".equals(verification.getContext())) {
+				assertTrue(verification.getVerdict().isValid());
+			} else {
+				assertEquals(verification.getContext(), SafetyNetVerificationException.ErrorCode.INVALID_JWT_RESPONSE,
+						verification.getVerdict().getErrorCode());
+			}
+		}
+	}
+
+	@SafeVarargs
+	private static List<Verification<String>> run(VerificationPipeline<String> pipeline, Verification<String>... in) throws InterruptedException {
+		final List<Verification<String>> out = new ArrayList<Verification<String>>();
+		final CountDownLatch done = new CountDownLatch(1);
+		pipeline.subscribe(new Flow.Subscriber<Verification<String>>() {
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				subscription.request(Long.MAX_VALUE);
+			}
+
+			@Override
+			public void onNext(Verification<String> item) {
+				synchronized (out) {
+					out.add(item);
+				}
+			}
+
+			@Override
+			public void onError(Throwable throwable) {
+				done.countDown();
+			}
+
+			@Override
+			public void onComplete() {
+				done.countDown();
+			}
+		});
+		try (SubmissionPublisher<Verification<String>> publisher = new SubmissionPublisher<Verification<String>>()) {
+			publisher.subscribe(pipeline);
+			for (Verification<String> verification : in) {
+				publisher.submit(verification);
+			}
+		}
+		assertTrue("pipeline did not complete", done.await(30, TimeUnit.SECONDS));
+		synchronized (out) {
+			return new ArrayList<Verification<String>>(out);
+		}
+	}
+}
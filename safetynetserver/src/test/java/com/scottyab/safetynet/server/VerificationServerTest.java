@@ -0,0 +1,111 @@
+package com.scottyab.safetynet.server;
+
+import com.scottyab.safetynet.FakeAttestationService;
+import com.scottyab.safetynet.ResultCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class VerificationServerTest {
+
+	private FakeAttestationService service;
+	private VerificationServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		service = new FakeAttestationService();
+		server = new VerificationServer(new InetSocketAddress("127.0.0.1", 0))
+				.setTrustManager(service.getTrustManager())
+				.setNonceStore(new InMemoryNonceStore(TimeUnit.MINUTES.toMillis(10)));
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	private FakeAttestationService.Payload payload() {
+		return new FakeAttestationService.Payload()
+				.setTimestampMs(System.currentTimeMillis())
+				.setApkPackageName("com.example.app")
+				.setCtsProfileMatch(true)
+				.setBasicIntegrity(true);
+	}
+
+	@Test
+	public void acceptsAStatementOnceThenRejectsTheReplay() throws Exception {
+		String jws = service.attest(payload().setNonce(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }));
+		assertEquals(200, post(jws));
+		assertEquals(422, post(jws));
+	}
+
+	@Test
+	public void answersBadRequestForAStatementWithoutNonce() throws Exception {
+		assertEquals(400, post(service.attest(payload())));
+	}
+
+	@Test
+	public void rejectsMalformedTokens() throws Exception {
+		assertEquals(422, post("not a jws"));
+		assertEquals(422, post("e30.e30.e30"));
+	}
+
+	@Test
+	public void answersRetriesFromTheResultCache() throws Exception {
+		server.setResultCache(new ResultCache(100, TimeUnit.MINUTES.toMillis(1)));
+		for (int i = 0; i < 20; i++) {
+			final String jws = service.attest(payload().setNonce(new byte[] { 1, 2, 3, 4, 5, 6, 7, (byte) i }));
+			// retries racing the first verification, some arrive after it finished
+			Thread[] threads = new Thread[4];
+			final int[] statuses = new int[threads.length];
+			for (int t = 0; t < threads.length; t++) {
+				final int index = t;
+				threads[t] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							statuses[index] = post(jws);
+						} catch (IOException e) {
+							statuses[index] = -1;
+						}
+					}
+				});
+				threads[t].start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			for (int status : statuses) {
+				assertEquals(200, status);
+			}
+			assertEquals(200, post(jws));
+		}
+	}
+
+	private int post(String body) throws IOException {
+		InetSocketAddress address = server.getAddress();
+		HttpURLConnection connection = (HttpURLConnection) URI.create("http://127.0.0.1:" + address.getPort() + "/verify").toURL().openConnection();
+		try {
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(body.getBytes(StandardCharsets.UTF_8));
+			}
+			return connection.getResponseCode();
+		} finally {
+			connection.disconnect();
+		}
+	}
+}
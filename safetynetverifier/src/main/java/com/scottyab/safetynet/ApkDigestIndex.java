@@ -0,0 +1,641 @@
+package com.scottyab.safetynet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Index of the SHA-256 digests of every APK shipped, to check the {@code apkDigestSha256} of
+ * statements against, compiled into a compact sorted binary form which is searched in place, so
+ * that it can be memory mapped without loading the entries onto the heap.
+ *
+ * <p>Layout (big endian):
+ * <pre>
+ * int    magic ('A' 'D' 'I' 1)
+ * int    entry count n
+ * n entries sorted by digest, as unsigned bytes, each
+ *   byte[32] SHA-256 of the APK
+ *   int      versionCode
+ *   int      offset of the package name in the string table
+ * string table, each package name once as an unsigned short length and its UTF-8 bytes
+ * </pre>
+ *
+ * <p>Indexes are compiled from a directory tree of APKs, hashed in parallel:
+ * <pre>
+ * java com.scottyab.safetynet.ApkDigestIndex &lt;apk directory&gt; &lt;output.idx&gt;
+ * </pre>
+ *
+ * <p>The index is a {@link PayloadPolicy.Rule} requiring the APK digest of statements with
+ * {@code ctsProfileMatch} to be one shipped for their package.
+ */
+public final class ApkDigestIndex implements PayloadPolicy.Rule {
+
+	private static final int MAGIC = 0x41444901;
+	private static final int HEADER_SIZE = 8;
+	private static final int DIGEST_SIZE = 32;
+	private static final int ENTRY_SIZE = DIGEST_SIZE + 8;
+
+	/* mapped in windows so that files over 2GB can be hashed too */
+	private static final long MAP_WINDOW = 64 * 1024 * 1024;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final ByteBuffer buffer;
+	private final int count;
+	private final int stringsStart;
+
+	private ApkDigestIndex(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.count = buffer.getInt(4);
+		this.stringsStart = HEADER_SIZE + ENTRY_SIZE * count;
+	}
+
+	/**
+	 * Wraps a buffer holding a compiled index. The buffer is used in place and must not be
+	 * modified afterwards.
+	 */
+	public static ApkDigestIndex wrap(@NonNull ByteBuffer buffer) throws IOException {
+		buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not an APK digest index");
+		}
+		int count = buffer.getInt(4);
+		if (count < 0 || HEADER_SIZE + (long) ENTRY_SIZE * count > buffer.capacity()) {
+			throw new IOException("Truncated APK digest index");
+		}
+		// lookups read the package names without bound checks
+		long stringsStart = HEADER_SIZE + (long) ENTRY_SIZE * count;
+		for (int i = 0; i < count; i++) {
+			int offset = buffer.getInt(HEADER_SIZE + ENTRY_SIZE * i + DIGEST_SIZE + 4);
+			long stringPos = stringsStart + offset;
+			if (offset < 0 || stringPos + 2 > buffer.capacity()
+					|| stringPos + 2 + (buffer.getShort((int) stringPos) & 0xffff) > buffer.capacity()) {
+				throw new IOException("Damaged APK digest index, entry " + i + " has its package name at " + offset);
+			}
+		}
+		return new ApkDigestIndex(buffer);
+	}
+
+	/**
+	 * Memory maps a file holding a compiled index.
+	 */
+	public static ApkDigestIndex map(@NonNull File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			// the mapping stays valid after the channel is closed
+			return wrap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns the number of APKs in the index.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the APK with the digest, or null if it is not in the index.
+	 */
+	@Nullable
+	public Entry lookup(@NonNull byte[] digest) {
+		if (digest.length != DIGEST_SIZE) {
+			return null;
+		}
+		int index = find(digest);
+		return index >= 0 ? entry(index) : null;
+	}
+
+	/**
+	 * Returns the APK with the base64 encoded digest, as found in {@code apkDigestSha256}, or null
+	 * if it is not in the index or the digest is not valid base64.
+	 */
+	@Nullable
+	public Entry lookup(@NonNull String digest) {
+		try {
+			return lookup(Base64Utils.decode(digest));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private int find(byte[] digest) {
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compare(mid, digest);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	private int compare(int index, byte[] digest) {
+		int pos = HEADER_SIZE + ENTRY_SIZE * index;
+		for (int i = 0; i < DIGEST_SIZE; i++) {
+			int diff = (buffer.get(pos + i) & 0xff) - (digest[i] & 0xff);
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		return 0;
+	}
+
+	private Entry entry(int index) {
+		int pos = HEADER_SIZE + ENTRY_SIZE * index;
+		byte[] digest = new byte[DIGEST_SIZE];
+		for (int i = 0; i < DIGEST_SIZE; i++) {
+			digest[i] = buffer.get(pos + i);
+		}
+		int versionCode = buffer.getInt(pos + DIGEST_SIZE);
+		int stringPos = stringsStart + buffer.getInt(pos + DIGEST_SIZE + 4);
+		byte[] name = new byte[buffer.getShort(stringPos) & 0xffff];
+		for (int i = 0; i < name.length; i++) {
+			name[i] = buffer.get(stringPos + 2 + i);
+		}
+		return new Entry(digest, new String(name, UTF_8), versionCode);
+	}
+
+	@NonNull
+	@Override
+	public String getName() {
+		return "apkDigestSha256";
+	}
+
+	@Override
+	public int getCost() {
+		return 3;
+	}
+
+	@Override
+	public String check(@NonNull AttestationStatement statement, @Nullable byte[] expectedNonce, long referenceTimeMs) {
+		if (!statement.isCtsProfileMatch()) {
+			return null;
+		}
+		String digest = statement.getApkDigestSha256();
+		Entry entry = digest != null ? lookup(digest) : null;
+		if (entry == null) {
+			return "Unknown apkDigest:" + digest;
+		}
+		if (!entry.getPackageName().equalsIgnoreCase(statement.getApkPackageName())) {
+			return "Invalid apkDigest, shipped for:" + entry.getPackageName() + ", received:" + statement.getApkPackageName();
+		}
+		return null;
+	}
+
+	/**
+	 * An APK of the index.
+	 */
+	public static final class Entry {
+		private final byte[] digest;
+		private final String packageName;
+		private final int versionCode;
+
+		Entry(byte[] digest, String packageName, int versionCode) {
+			this.digest = digest;
+			this.packageName = packageName;
+			this.versionCode = versionCode;
+		}
+
+		/**
+		 * Returns the base64 encoded SHA-256 of the APK.
+		 */
+		public String getDigest() {
+			return Base64Utils.encode(digest);
+		}
+
+		public String getPackageName() {
+			return packageName;
+		}
+
+		public int getVersionCode() {
+			return versionCode;
+		}
+
+		@Override
+		public String toString() {
+			return packageName + ":" + versionCode + ":" + getDigest();
+		}
+	}
+
+	/**
+	 * Hashes a file through a memory mapping rather than copying it through a stream buffer,
+	 * the mapped counterpart of {@code Utils.getDigest}.
+	 */
+	public static byte[] digestFile(@NonNull File file, @NonNull String algorithm) throws IOException, NoSuchAlgorithmException {
+		MessageDigest md = MessageDigest.getInstance(algorithm);
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			for (long position = 0; position < size; position += MAP_WINDOW) {
+				md.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position)));
+			}
+		} finally {
+			in.close();
+		}
+		return md.digest();
+	}
+
+	/**
+	 * Compiles an index from APKs.
+	 */
+	public static class Builder {
+		private final List<Entry> entries = new ArrayList<Entry>();
+
+		/**
+		 * Adds an APK, reading its package name and version code from its manifest.
+		 */
+		public Builder addApk(@NonNull File apk) throws IOException {
+			Entry entry = readApk(apk);
+			synchronized (entries) {
+				entries.add(entry);
+			}
+			return this;
+		}
+
+		public Builder add(@NonNull byte[] digest, @NonNull String packageName, int versionCode) {
+			Preconditions.checkArgument(digest.length == DIGEST_SIZE);
+			synchronized (entries) {
+				entries.add(new Entry(digest.clone(), packageName, versionCode));
+			}
+			return this;
+		}
+
+		/**
+		 * Adds every {@code .apk} file of the directory tree, hashing them in parallel on the
+		 * given number of threads.
+		 *
+		 * @throws IOException if an APK cannot be read or is malformed, once all the others are
+		 *                     added
+		 */
+		public Builder addDirectory(@NonNull File directory, int parallelism) throws IOException {
+			Preconditions.checkArgument(parallelism > 0);
+			List<File> apks = new ArrayList<File>();
+			IOException failure = findApks(directory, apks);
+			ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+			try {
+				List<Future<IOException>> results = new ArrayList<Future<IOException>>(apks.size());
+				for (final File apk : apks) {
+					results.add(executor.submit(new Callable<IOException>() {
+						@Override
+						public IOException call() {
+							try {
+								addApk(apk);
+								return null;
+							} catch (IOException e) {
+								return e;
+							} catch (RuntimeException e) {
+								// a malformed APK the manifest parser did not anticipate, skipped too
+								return new IOException("Malformed APK " + apk, e);
+							}
+						}
+					}));
+				}
+				for (Future<IOException> result : results) {
+					IOException e = result.get();
+					if (e != null) {
+						failure = e;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while indexing " + directory);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Error) {
+					throw (Error) e.getCause();
+				}
+				throw new IllegalStateException(e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			return this;
+		}
+
+		/**
+		 * Writes the compiled index. APKs added more than once are written once.
+		 */
+		public void write(@NonNull OutputStream out) throws IOException {
+			List<Entry> sorted;
+			synchronized (entries) {
+				sorted = new ArrayList<Entry>(entries);
+			}
+			Collections.sort(sorted, new Comparator<Entry>() {
+				@Override
+				public int compare(Entry a, Entry b) {
+					for (int i = 0; i < DIGEST_SIZE; i++) {
+						int diff = (a.digest[i] & 0xff) - (b.digest[i] & 0xff);
+						if (diff != 0) {
+							return diff;
+						}
+					}
+					int diff = a.packageName.compareTo(b.packageName);
+					return diff != 0 ? diff : (a.versionCode < b.versionCode ? -1 : (a.versionCode == b.versionCode ? 0 : 1));
+				}
+			});
+			List<Entry> unique = new ArrayList<Entry>(sorted.size());
+			for (Entry entry : sorted) {
+				// the same APK archived under several flavors
+				if (unique.isEmpty() || !MessageDigest.isEqual(unique.get(unique.size() - 1).digest, entry.digest)) {
+					unique.add(entry);
+				}
+			}
+
+			Map<String, Integer> stringOffsets = new HashMap<String, Integer>();
+			List<byte[]> strings = new ArrayList<byte[]>();
+			int stringsSize = 0;
+			DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+			data.writeInt(MAGIC);
+			data.writeInt(unique.size());
+			for (Entry entry : unique) {
+				Integer offset = stringOffsets.get(entry.packageName);
+				if (offset == null) {
+					byte[] name = entry.packageName.getBytes(UTF_8);
+					if (name.length > 0xffff) {
+						throw new IOException("Package name too long: " + entry.packageName);
+					}
+					offset = stringsSize;
+					stringOffsets.put(entry.packageName, offset);
+					strings.add(name);
+					stringsSize += 2 + name.length;
+				}
+				data.write(entry.digest);
+				data.writeInt(entry.versionCode);
+				data.writeInt(offset);
+			}
+			for (byte[] name : strings) {
+				data.writeShort(name.length);
+				data.write(name);
+			}
+			data.flush();
+		}
+	}
+
+	private static Entry readApk(File apk) throws IOException {
+		byte[] digest;
+		try {
+			digest = digestFile(apk, "SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		ZipFile zip = new ZipFile(apk);
+		try {
+			ZipEntry manifest = zip.getEntry("AndroidManifest.xml");
+			if (manifest == null) {
+				throw new IOException("No AndroidManifest.xml in " + apk);
+			}
+			InputStream in = zip.getInputStream(manifest);
+			try {
+				return BinaryManifest.read(apk, readFully(in), digest);
+			} finally {
+				in.close();
+			}
+		} finally {
+			zip.close();
+		}
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		byte[] buffer = new byte[8192];
+		int length = 0;
+		int read;
+		while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+			length += read;
+			if (length == buffer.length) {
+				byte[] larger = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, larger, 0, length);
+				buffer = larger;
+			}
+		}
+		byte[] data = new byte[length];
+		System.arraycopy(buffer, 0, data, 0, length);
+		return data;
+	}
+
+	/**
+	 * Adds the APKs of the directory tree to the list, returning the last directory which could
+	 * not be listed as an exception, or null.
+	 */
+	@Nullable
+	private static IOException findApks(File directory, List<File> apks) {
+		File[] children = directory.listFiles();
+		if (children == null) {
+			return new IOException("Cannot list " + directory);
+		}
+		IOException failure = null;
+		for (File child : children) {
+			if (child.isDirectory()) {
+				IOException e = findApks(child, apks);
+				if (e != null) {
+					failure = e;
+				}
+			} else if (child.getName().endsWith(".apk")) {
+				apks.add(child);
+			}
+		}
+		return failure;
+	}
+
+	/**
+	 * Reads the package name and version code from the start of a compiled (binary XML)
+	 * AndroidManifest.xml.
+	 */
+	private static final class BinaryManifest {
+		private static final int RES_STRING_POOL_TYPE = 0x0001;
+		private static final int RES_XML_TYPE = 0x0003;
+		private static final int RES_XML_START_ELEMENT_TYPE = 0x0102;
+		private static final int RES_XML_RESOURCE_MAP_TYPE = 0x0180;
+		private static final int UTF8_FLAG = 1 << 8;
+		private static final int TYPE_STRING = 0x03;
+		private static final int ATTR_VERSION_CODE = 0x0101021b;
+
+		static Entry read(File apk, byte[] manifest, byte[] digest) throws IOException {
+			ByteBuffer xml = ByteBuffer.wrap(manifest).order(ByteOrder.LITTLE_ENDIAN);
+			try {
+				if ((xml.getShort(0) & 0xffff) != RES_XML_TYPE) {
+					throw new IOException("AndroidManifest.xml is not compiled");
+				}
+				int pos = xml.getShort(2) & 0xffff;
+				String[] strings = null;
+				int[] resourceIds = new int[0];
+				while (pos + 8 <= manifest.length) {
+					int type = xml.getShort(pos) & 0xffff;
+					int size = xml.getInt(pos + 4);
+					if (size < 8) {
+						break;
+					}
+					if (size > manifest.length - pos) {
+						throw new IOException("Malformed AndroidManifest.xml in " + apk + ", chunk at " + pos + " overflows");
+					}
+					if (type == RES_STRING_POOL_TYPE) {
+						strings = readStringPool(apk, xml, pos, size);
+					} else if (type == RES_XML_RESOURCE_MAP_TYPE) {
+						resourceIds = new int[(size - 8) / 4];
+						for (int i = 0; i < resourceIds.length; i++) {
+							resourceIds[i] = xml.getInt(pos + 8 + 4 * i);
+						}
+					} else if (type == RES_XML_START_ELEMENT_TYPE && strings != null) {
+						// the first element is <manifest>
+						return readManifestElement(xml, pos, strings, resourceIds, digest);
+					}
+					pos += size;
+				}
+			} catch (IndexOutOfBoundsException e) {
+				throw new IOException("Malformed AndroidManifest.xml in " + apk, e);
+			}
+			throw new IOException("No <manifest> element in " + apk);
+		}
+
+		private static Entry readManifestElement(ByteBuffer xml, int pos, String[] strings, int[] resourceIds, byte[] digest) throws IOException {
+			int ext = pos + (xml.getShort(pos + 2) & 0xffff);
+			int attributeStart = xml.getShort(ext + 8) & 0xffff;
+			int attributeSize = xml.getShort(ext + 10) & 0xffff;
+			int attributeCount = xml.getShort(ext + 12) & 0xffff;
+			String packageName = null;
+			int versionCode = 0;
+			for (int i = 0; i < attributeCount; i++) {
+				int attr = ext + attributeStart + i * attributeSize;
+				int nameIndex = xml.getInt(attr + 4);
+				int rawValue = xml.getInt(attr + 8);
+				int dataType = xml.get(attr + 15) & 0xff;
+				int data = xml.getInt(attr + 16);
+				String name = nameIndex >= 0 && nameIndex < strings.length ? strings[nameIndex] : null;
+				boolean isVersionCode = "versionCode".equals(name)
+						|| (nameIndex >= 0 && nameIndex < resourceIds.length && resourceIds[nameIndex] == ATTR_VERSION_CODE);
+				if ("package".equals(name)) {
+					int index = rawValue >= 0 ? rawValue : (dataType == TYPE_STRING ? data : -1);
+					packageName = index >= 0 && index < strings.length ? strings[index] : null;
+				} else if (isVersionCode) {
+					versionCode = data;
+				}
+			}
+			if (packageName == null) {
+				throw new IOException("No package attribute in AndroidManifest.xml");
+			}
+			return new Entry(digest, packageName, versionCode);
+		}
+
+		/**
+		 * Reads the strings of the pool, checking the count and offsets against the size of the
+		 * chunk before allocating anything.
+		 */
+		private static String[] readStringPool(File apk, ByteBuffer xml, int pos, int size) throws IOException {
+			if (size < 28) {
+				throw new IOException("Malformed AndroidManifest.xml in " + apk + ", string pool of " + size + " bytes");
+			}
+			int count = xml.getInt(pos + 8);
+			boolean utf8 = (xml.getInt(pos + 16) & UTF8_FLAG) != 0;
+			int stringsOffset = xml.getInt(pos + 20);
+			if (count < 0 || count > (size - 28) / 4 || stringsOffset < 28 + 4 * count || stringsOffset > size) {
+				throw new IOException("Malformed AndroidManifest.xml in " + apk + ", string pool of " + count + " strings from " + stringsOffset + " in " + size + " bytes");
+			}
+			int stringsStart = pos + stringsOffset;
+			int end = pos + size;
+			String[] strings = new String[count];
+			for (int i = 0; i < count; i++) {
+				int offset = xml.getInt(pos + 28 + 4 * i);
+				if (offset < 0 || offset >= end - stringsStart) {
+					throw new IOException("Malformed AndroidManifest.xml in " + apk + ", string " + i + " at " + offset);
+				}
+				int at = stringsStart + offset;
+				if (utf8) {
+					// UTF-16 length then UTF-8 length, each 1 or 2 bytes
+					at += (xml.get(at) & 0x80) != 0 ? 2 : 1;
+					int length = xml.get(at) & 0xff;
+					if ((length & 0x80) != 0) {
+						length = ((length & 0x7f) << 8) | (xml.get(at + 1) & 0xff);
+						at += 2;
+					} else {
+						at += 1;
+					}
+					checkStringEnd(apk, i, at + length, end);
+					byte[] bytes = new byte[length];
+					for (int j = 0; j < length; j++) {
+						bytes[j] = xml.get(at + j);
+					}
+					strings[i] = new String(bytes, UTF_8);
+				} else {
+					int length = xml.getShort(at) & 0xffff;
+					if ((length & 0x8000) != 0) {
+						length = ((length & 0x7fff) << 16) | (xml.getShort(at + 2) & 0xffff);
+						at += 4;
+					} else {
+						at += 2;
+					}
+					checkStringEnd(apk, i, at + 2L * length, end);
+					char[] chars = new char[length];
+					for (int j = 0; j < length; j++) {
+						chars[j] = xml.getChar(at + 2 * j);
+					}
+					strings[i] = new String(chars);
+				}
+			}
+			return strings;
+		}
+
+		private static void checkStringEnd(File apk, int index, long stringEnd, int poolEnd) throws IOException {
+			if (stringEnd > poolEnd) {
+				throw new IOException("Malformed AndroidManifest.xml in " + apk + ", string " + index + " overflows its pool");
+			}
+		}
+	}
+
+	/**
+	 * Build time entry point: indexes the APKs of the directory given as first argument into the
+	 * file given as second argument.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: ApkDigestIndex <apk directory> <output.idx>");
+			System.exit(1);
+		}
+		Builder builder = new Builder().addDirectory(new File(args[0]), Runtime.getRuntime().availableProcessors());
+		OutputStream out = new FileOutputStream(args[1]);
+		try {
+			builder.write(out);
+		} finally {
+			out.close();
+		}
+		System.err.println("Indexed " + ApkDigestIndex.map(new File(args[1])).size() + " APKs");
+	}
+}
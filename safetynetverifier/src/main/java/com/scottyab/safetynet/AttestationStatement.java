@@ -1,7 +1,5 @@
 package com.scottyab.safetynet;
 
-import android.util.Base64;
-
 import com.google.gson.annotations.SerializedName;
 
 import java.util.Arrays;
@@ -55,8 +53,20 @@ public class AttestationStatement extends JsonWebSignature.Payload {
 	@SerializedName("advice")
 	private String advice;
 
+	/**
+	 * Comma separated types of measurements that contributed to the response, e.g.
+	 * {@code BASIC,HARDWARE_BACKED}.
+	 */
+	@SerializedName("evaluationType")
+	private String evaluationType;
+
+	/**
+	 * Returns the decoded nonce, or null if the statement has none.
+	 *
+	 * @throws IllegalArgumentException if the nonce is not valid base64
+	 */
 	public byte[] getNonce() {
-		return Base64.decode(nonce, Base64.NO_WRAP);
+		return nonce != null ? Base64Utils.decode(nonce) : null;
 	}
 
 	public long getTimestampMs() {
@@ -87,6 +97,42 @@ public class AttestationStatement extends JsonWebSignature.Payload {
 		return advice;
 	}
 
+	public String getEvaluationType() {
+		return evaluationType;
+	}
+
+	/**
+	 * Returns whether the comma separated {@code evaluationType} includes the given type, e.g.
+	 * {@code HARDWARE_BACKED}.
+	 */
+	public boolean hasEvaluationType(String type) {
+		String types = evaluationType;
+		if (types == null) {
+			return false;
+		}
+		// look for the type among the comma separated ones without splitting
+		int start = 0;
+		while (start <= types.length()) {
+			int end = types.indexOf(',', start);
+			if (end < 0) {
+				end = types.length();
+			}
+			int from = start;
+			int to = end;
+			while (from < to && types.charAt(from) == ' ') {
+				from++;
+			}
+			while (to > from && types.charAt(to - 1) == ' ') {
+				to--;
+			}
+			if (to - from == type.length() && types.regionMatches(from, type, 0, type.length())) {
+				return true;
+			}
+			start = end + 1;
+		}
+		return false;
+	}
+
 	@Override
 	public String toString() {
 		return "AttestationStatement{" +
@@ -99,6 +145,7 @@ public class AttestationStatement extends JsonWebSignature.Payload {
 				", ctsProfileMatch=" + ctsProfileMatch +
 				", basicIntegrity=" + basicIntegrity +
 				", advice='" + advice + '\'' +
+				", evaluationType='" + evaluationType + '\'' +
 				'}';
 	}
 }
\ No newline at end of file
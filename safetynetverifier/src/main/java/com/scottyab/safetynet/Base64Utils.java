@@ -0,0 +1,119 @@
+package com.scottyab.safetynet;
+
+/**
+ * Base64 codec usable both on Android and on a plain JVM, since neither {@code android.util.Base64}
+ * nor {@code java.util.Base64} is available on both.
+ */
+final class Base64Utils {
+
+	private static final char[] STANDARD = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+	private static final char[] URL_SAFE = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+	/**
+	 * Maps characters of both alphabets to their value, -1 for invalid characters.
+	 */
+	private static final int[] DECODE = new int[128];
+
+	static {
+		for (int i = 0; i < DECODE.length; i++) {
+			DECODE[i] = -1;
+		}
+		for (int i = 0; i < STANDARD.length; i++) {
+			DECODE[STANDARD[i]] = i;
+			DECODE[URL_SAFE[i]] = i;
+		}
+	}
+
+	private Base64Utils() {
+	}
+
+	/**
+	 * Decodes base64 in either the standard or the URL safe alphabet, with or without padding.
+	 * Whitespace is ignored.
+	 *
+	 * @throws IllegalArgumentException if the input is not valid base64
+	 */
+	static byte[] decode(String s) {
+		int length = s.length();
+		while (length > 0 && (s.charAt(length - 1) == '=' || Character.isWhitespace(s.charAt(length - 1)))) {
+			length--;
+		}
+		byte[] out = new byte[length * 3 / 4];
+		int outPos = 0;
+		int bits = 0;
+		int count = 0;
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (Character.isWhitespace(c)) {
+				continue;
+			}
+			int value = c < DECODE.length ? DECODE[c] : -1;
+			if (value < 0) {
+				throw new IllegalArgumentException("bad base-64");
+			}
+			bits = (bits << 6) | value;
+			if (++count == 4) {
+				out[outPos++] = (byte) (bits >> 16);
+				out[outPos++] = (byte) (bits >> 8);
+				out[outPos++] = (byte) bits;
+				bits = 0;
+				count = 0;
+			}
+		}
+		if (count == 1) {
+			throw new IllegalArgumentException("bad base-64");
+		} else if (count == 2) {
+			out[outPos++] = (byte) (bits >> 4);
+		} else if (count == 3) {
+			out[outPos++] = (byte) (bits >> 10);
+			out[outPos++] = (byte) (bits >> 2);
+		}
+		if (outPos == out.length) {
+			return out;
+		}
+		byte[] trimmed = new byte[outPos];
+		System.arraycopy(out, 0, trimmed, 0, outPos);
+		return trimmed;
+	}
+
+	/**
+	 * Encodes in the standard alphabet, with padding and without line wraps.
+	 */
+	static String encode(byte[] data) {
+		return encode(data, STANDARD, true);
+	}
+
+	/**
+	 * Encodes in the URL safe alphabet, without padding nor line wraps, as used by JWS.
+	 */
+	static String encodeUrlSafe(byte[] data) {
+		return encode(data, URL_SAFE, false);
+	}
+
+	private static String encode(byte[] data, char[] alphabet, boolean padding) {
+		StringBuilder out = new StringBuilder((data.length + 2) / 3 * 4);
+		int i = 0;
+		for (; i + 2 < data.length; i += 3) {
+			int bits = ((data[i] & 0xff) << 16) | ((data[i + 1] & 0xff) << 8) | (data[i + 2] & 0xff);
+			out.append(alphabet[bits >> 18])
+					.append(alphabet[(bits >> 12) & 0x3f])
+					.append(alphabet[(bits >> 6) & 0x3f])
+					.append(alphabet[bits & 0x3f]);
+		}
+		int remaining = data.length - i;
+		if (remaining == 1) {
+			int bits = (data[i] & 0xff) << 16;
+			out.append(alphabet[bits >> 18]).append(alphabet[(bits >> 12) & 0x3f]);
+			if (padding) {
+				out.append("==");
+			}
+		} else if (remaining == 2) {
+			int bits = ((data[i] & 0xff) << 16) | ((data[i + 1] & 0xff) << 8);
+			out.append(alphabet[bits >> 18]).append(alphabet[(bits >> 12) & 0x3f]).append(alphabet[(bits >> 6) & 0x3f]);
+			if (padding) {
+				out.append('=');
+			}
+		}
+		return out.toString();
+	}
+}
@@ -0,0 +1,62 @@
+package com.scottyab.safetynet;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import androidx.annotation.Nullable;
+
+/**
+ * An HMAC-SHA256 key and its id, computing MACs with a pool of ready to use {@link Mac} instances.
+ */
+final class HmacKey {
+
+	final int id;
+	private final SecretKeySpec secret;
+
+	/*
+	 * Mac instances are not thread-safe, and initializing one costs more than using it, so the
+	 * threads share one per stripe, created on first use
+	 */
+	private final Stripe[] stripes;
+
+	HmacKey(int id, byte[] secret) {
+		Preconditions.checkArgument(secret.length > 0);
+		this.id = id;
+		this.secret = new SecretKeySpec(secret.clone(), "HmacSHA256");
+		this.stripes = new Stripe[Stripes.count()];
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * Returns the MAC of the first {@code length} bytes of {@code data}, followed by {@code suffix}
+	 * if not null.
+	 */
+	byte[] mac(byte[] data, int length, @Nullable byte[] suffix) {
+		Stripe stripe = stripes[Stripes.index(stripes.length)];
+		synchronized (stripe) {
+			Mac mac = stripe.mac;
+			if (mac == null) {
+				try {
+					mac = Mac.getInstance("HmacSHA256");
+					mac.init(secret);
+				} catch (GeneralSecurityException e) {
+					throw new IllegalStateException(e);
+				}
+				stripe.mac = mac;
+			}
+			mac.update(data, 0, length);
+			if (suffix != null) {
+				mac.update(suffix);
+			}
+			return mac.doFinal();
+		}
+	}
+
+	private static final class Stripe {
+		Mac mac;
+	}
+}
@@ -14,14 +14,14 @@
 
 package com.scottyab.safetynet;
 
-import android.util.Base64;
-
 import com.google.gson.Gson;
 import com.google.gson.annotations.SerializedName;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
+import java.security.PublicKey;
 import java.security.Signature;
 import java.security.cert.X509Certificate;
 import java.util.List;
@@ -52,6 +52,8 @@ import androidx.annotation.NonNull;
  */
 public class JsonWebSignature extends JsonWebToken {
 
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
 	/**
 	 * Bytes of the signature.
 	 */
@@ -75,7 +77,19 @@ public class JsonWebSignature extends JsonWebToken {
 		this.signedContentBytes = Preconditions.checkNotNull(signedContentBytes);
 	}
 
-	private static X509TrustManager getDefaultX509TrustManager() throws GeneralSecurityException {
+	/**
+	 * The system default trust manager, initialized once since loading the trust store is slow.
+	 */
+	private static X509TrustManager defaultX509TrustManager;
+
+	public static synchronized X509TrustManager getDefaultX509TrustManager() throws GeneralSecurityException {
+		if (defaultX509TrustManager == null) {
+			defaultX509TrustManager = createDefaultX509TrustManager();
+		}
+		return defaultX509TrustManager;
+	}
+
+	private static X509TrustManager createDefaultX509TrustManager() throws GeneralSecurityException {
 		TrustManagerFactory factory =
 				TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
 		factory.init((KeyStore) null);
@@ -114,7 +128,7 @@ public class JsonWebSignature extends JsonWebToken {
 	 * @since 1.19.1.
 	 */
 	@NonNull
-	private X509Certificate verifySignature(X509TrustManager trustManager)
+	public final X509Certificate verifySignature(X509TrustManager trustManager)
 			throws GeneralSecurityException {
 		List<String> x509Certificates = getHeader().getX509Certificates();
 		if (x509Certificates == null || x509Certificates.isEmpty()) {
@@ -131,6 +145,41 @@ public class JsonWebSignature extends JsonWebToken {
 				signatureAlg, trustManager, x509Certificates, signatureBytes, signedContentBytes);
 	}
 
+	/**
+	 * Checks that the certificate chain embedded in the signature is trusted, without verifying
+	 * the signature itself.
+	 *
+	 * @return The leaf certificate of the chain.
+	 * @throws GeneralSecurityException if the chain is missing or not trusted
+	 */
+	@NonNull
+	public final X509Certificate verifyCertificateChain(X509TrustManager trustManager)
+			throws GeneralSecurityException {
+		List<String> x509Certificates = getHeader().getX509Certificates();
+		if (x509Certificates == null || x509Certificates.isEmpty()) {
+			throw new GeneralSecurityException("No certificates found in header");
+		}
+		X509Certificate[] certificates = SecurityUtils.parseCertificateChain(x509Certificates);
+		trustManager.checkServerTrusted(certificates, "RSA");
+		return certificates[0];
+	}
+
+	/**
+	 * Verifies the signature of the content with the given public key, typically the one of the
+	 * leaf certificate returned by {@link #verifyCertificateChain(X509TrustManager)}.
+	 *
+	 * <p>Currently only {@code "RS256"} algorithm is verified.
+	 *
+	 * @return whether the signature was verified
+	 */
+	public final boolean verifySignature(PublicKey publicKey) throws GeneralSecurityException {
+		String algorithm = getHeader().getAlgorithm();
+		if (!"RS256".equals(algorithm)) {
+			throw new GeneralSecurityException("Unsupported algorithm " + algorithm);
+		}
+		return SecurityUtils.verify(Signature.getInstance("SHA256withRSA"), publicKey, signatureBytes, signedContentBytes);
+	}
+
 	/**
 	 * Verifies the signature of the content using the certificate chain embedded in the signature.
 	 *
@@ -359,7 +408,7 @@ public class JsonWebSignature extends JsonWebToken {
 			int firstDot = tokenString.indexOf('.');
 			Preconditions.checkArgument(firstDot != -1);
 
-			byte[] headerBytes = Base64.decode(tokenString.substring(0, firstDot), Base64.NO_WRAP | Base64.NO_PADDING | Base64.URL_SAFE);
+			byte[] headerBytes = Base64Utils.decode(tokenString.substring(0, firstDot));
 
 			int secondDot = tokenString.indexOf('.', firstDot + 1);
 			Preconditions.checkArgument(secondDot != -1);
@@ -370,12 +419,12 @@ public class JsonWebSignature extends JsonWebToken {
 			String signature = tokenString.substring(secondDot + 1);
 			String signedContent = tokenString.substring(0, secondDot);
 
-			byte[] payloadBytes = Base64.decode(payload, Base64.NO_WRAP | Base64.NO_PADDING | Base64.URL_SAFE);
-			byte[] signatureBytes = Base64.decode(signature, Base64.NO_WRAP | Base64.NO_PADDING | Base64.URL_SAFE);
-			byte[] signedContentBytes = Utils.getBytes(signedContent);
+			byte[] payloadBytes = Base64Utils.decode(payload);
+			byte[] signatureBytes = Base64Utils.decode(signature);
+			byte[] signedContentBytes = signedContent.getBytes(UTF_8);
 
-			String sHeaderBytes = new String(headerBytes, Utils.UTF_8);
-			String sPayloadBytes = new String(payloadBytes, Utils.UTF_8);
+			String sHeaderBytes = new String(headerBytes, UTF_8);
+			String sPayloadBytes = new String(payloadBytes, UTF_8);
 
 			// parse the header and payload
 			Header header = gson.fromJson(sHeaderBytes, headerClass);
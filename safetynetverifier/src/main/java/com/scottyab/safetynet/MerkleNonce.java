@@ -0,0 +1,171 @@
+package com.scottyab.safetynet;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Binds several caller nonces to a single attestation request.
+ *
+ * <p>When concurrent requests carrying their own nonce are coalesced, the nonce sent to SafetyNet
+ * is the root of a SHA-256 Merkle tree built over the caller nonces. Each caller receives a
+ * {@link Proof} that its nonce is included in that root, which a server can check with
+ * {@link #verify(byte[], Proof, byte[])} against {@link AttestationStatement#getNonce()}.
+ *
+ * <p>Leaves are hashed as {@code SHA-256(0x00 || nonce)} and inner nodes as
+ * {@code SHA-256(0x01 || left || right)}; a node without a sibling is promoted unchanged.
+ */
+public final class MerkleNonce {
+
+	private static final byte LEAF_PREFIX = 0;
+	private static final byte NODE_PREFIX = 1;
+	private static final int HASH_LENGTH = 32;
+
+	private MerkleNonce() {
+	}
+
+	/**
+	 * Returns the Merkle root of the given nonces.
+	 */
+	@NonNull
+	public static byte[] root(@NonNull List<byte[]> nonces) {
+		Preconditions.checkArgument(!nonces.isEmpty());
+		List<byte[]> level = leaves(nonces);
+		while (level.size() > 1) {
+			level = nextLevel(level);
+		}
+		return level.get(0);
+	}
+
+	/**
+	 * Returns the proof that the nonce at {@code index} is included in {@link #root(List)}.
+	 */
+	@NonNull
+	public static Proof proof(@NonNull List<byte[]> nonces, int index) {
+		Preconditions.checkArgument(index >= 0 && index < nonces.size());
+		List<byte[]> siblings = new ArrayList<byte[]>();
+		List<Boolean> siblingOnLeft = new ArrayList<Boolean>();
+		List<byte[]> level = leaves(nonces);
+		while (level.size() > 1) {
+			int sibling = index ^ 1;
+			if (sibling < level.size()) {
+				siblings.add(level.get(sibling));
+				siblingOnLeft.add(sibling < index);
+			}
+			level = nextLevel(level);
+			index >>= 1;
+		}
+		boolean[] left = new boolean[siblingOnLeft.size()];
+		for (int i = 0; i < left.length; i++) {
+			left[i] = siblingOnLeft.get(i);
+		}
+		return new Proof(siblings.toArray(new byte[siblings.size()][]), left);
+	}
+
+	/**
+	 * Checks that {@code nonce} is included in the Merkle tree with the given root.
+	 *
+	 * @param nonce the caller nonce
+	 * @param proof the proof returned for that nonce
+	 * @param root  the nonce of the attestation statement
+	 */
+	public static boolean verify(@NonNull byte[] nonce, @NonNull Proof proof, @NonNull byte[] root) {
+		byte[] hash = hash(LEAF_PREFIX, nonce, null);
+		for (int i = 0; i < proof.siblings.length; i++) {
+			hash = proof.siblingOnLeft[i]
+					? hash(NODE_PREFIX, proof.siblings[i], hash)
+					: hash(NODE_PREFIX, hash, proof.siblings[i]);
+		}
+		return MessageDigest.isEqual(hash, root);
+	}
+
+	private static List<byte[]> leaves(List<byte[]> nonces) {
+		List<byte[]> leaves = new ArrayList<byte[]>(nonces.size());
+		for (byte[] nonce : nonces) {
+			leaves.add(hash(LEAF_PREFIX, nonce, null));
+		}
+		return leaves;
+	}
+
+	private static List<byte[]> nextLevel(List<byte[]> level) {
+		List<byte[]> next = new ArrayList<byte[]>((level.size() + 1) / 2);
+		for (int i = 0; i < level.size(); i += 2) {
+			if (i + 1 < level.size()) {
+				next.add(hash(NODE_PREFIX, level.get(i), level.get(i + 1)));
+			} else {
+				next.add(level.get(i));
+			}
+		}
+		return next;
+	}
+
+	private static byte[] hash(byte prefix, byte[] first, byte[] second) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		md.update(prefix);
+		md.update(first);
+		if (second != null) {
+			md.update(second);
+		}
+		return md.digest();
+	}
+
+	/**
+	 * Inclusion proof of a caller nonce, made of the sibling hashes from the leaf up to the root.
+	 */
+	public static final class Proof {
+
+		private final byte[][] siblings;
+		private final boolean[] siblingOnLeft;
+
+		Proof(byte[][] siblings, boolean[] siblingOnLeft) {
+			this.siblings = siblings;
+			this.siblingOnLeft = siblingOnLeft;
+		}
+
+		/**
+		 * Serializes the proof, e.g. to send it to a server along with the attestation: one
+		 * byte with the number of siblings, then for each sibling one byte set to 1 if it is
+		 * on the left followed by its 32 bytes hash.
+		 */
+		@NonNull
+		public byte[] toByteArray() {
+			byte[] out = new byte[1 + siblings.length * (1 + HASH_LENGTH)];
+			out[0] = (byte) siblings.length;
+			int pos = 1;
+			for (int i = 0; i < siblings.length; i++) {
+				out[pos++] = (byte) (siblingOnLeft[i] ? 1 : 0);
+				System.arraycopy(siblings[i], 0, out, pos, HASH_LENGTH);
+				pos += HASH_LENGTH;
+			}
+			return out;
+		}
+
+		/**
+		 * Parses a proof serialized with {@link #toByteArray()}.
+		 */
+		@NonNull
+		public static Proof fromByteArray(@NonNull byte[] data) {
+			Preconditions.checkArgument(data.length > 0);
+			int count = data[0] & 0xff;
+			Preconditions.checkArgument(data.length == 1 + count * (1 + HASH_LENGTH));
+			byte[][] siblings = new byte[count][];
+			boolean[] siblingOnLeft = new boolean[count];
+			int pos = 1;
+			for (int i = 0; i < count; i++) {
+				siblingOnLeft[i] = data[pos++] != 0;
+				siblings[i] = new byte[HASH_LENGTH];
+				System.arraycopy(data, pos, siblings[i], 0, HASH_LENGTH);
+				pos += HASH_LENGTH;
+			}
+			return new Proof(siblings, siblingOnLeft);
+		}
+	}
+}
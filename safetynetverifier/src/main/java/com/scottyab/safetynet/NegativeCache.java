@@ -0,0 +1,300 @@
+package com.scottyab.safetynet;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.X509TrustManager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static com.scottyab.safetynet.SafetyNetVerificationException.ErrorCode.INVALID_CERTIFICATE_ISSUER;
+import static com.scottyab.safetynet.SafetyNetVerificationException.ErrorCode.INVALID_JWT_RESPONSE;
+import static com.scottyab.safetynet.SafetyNetVerificationException.ErrorCode.SIGNATURE_VERIFICATION_FAILED;
+
+/**
+ * Remembers recently rejected statements, so that clients resending the same forged or expired
+ * statement in a loop are rejected before it is parsed or any signature is checked.
+ *
+ * <pre>
+ * NegativeCache cache = new NegativeCache(10000, TimeUnit.MINUTES.toMillis(1));
+ * OfflineVerifier verifier = cache.verify(jws, trustManager);
+ * </pre>
+ *
+ * <p>Rejections are remembered by the SHA-256 of the whole statement and, when the leaf
+ * certificate is not issued to attest.android.com, by the SHA-256 of the JWS header carrying the
+ * chain, so that other statements signed with the same chain are rejected too. A chain which is
+ * not trusted is not remembered that way, as that may be caused by the clock, a revocation check
+ * or the trust manager rather than by the chain. Entries expire after the TTL and the
+ * least recently used ones are evicted once the cache is full.
+ *
+ * <p>Every {@link #setSampleInterval(int) n-th} hit is verified anyway: if it passes, the hit is
+ * counted as a false positive and forgotten. This also bounds how long a rejection caused by a
+ * transient condition, e.g. a trust manager being updated, is served from the cache.
+ *
+ * <p>The cache is tied to the trust manager statements are verified with: use one cache per
+ * trust manager.
+ */
+public final class NegativeCache {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final long ttlMs;
+	private final SegmentedLruCache<Entry> entries;
+	private volatile int sampleInterval = 1024;
+
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong sampledHits = new AtomicLong();
+	private final AtomicLong falsePositives = new AtomicLong();
+	private final AtomicLong insertions = new AtomicLong();
+
+	/**
+	 * @param capacity how many rejected statements and chains are remembered
+	 * @param ttlMs    how long they are
+	 */
+	public NegativeCache(int capacity, long ttlMs) {
+		Preconditions.checkArgument(capacity > 0 && ttlMs > 0);
+		this.ttlMs = ttlMs;
+		this.entries = new SegmentedLruCache<Entry>(capacity);
+	}
+
+	/**
+	 * Sets how often hits are verified anyway to count false positives, every 1024th by default,
+	 * 0 to never.
+	 */
+	public NegativeCache setSampleInterval(int sampleInterval) {
+		Preconditions.checkArgument(sampleInterval >= 0);
+		this.sampleInterval = sampleInterval;
+		return this;
+	}
+
+	/**
+	 * Verifies the statement like {@link OfflineVerifier#verify(X509TrustManager)}, unless it or
+	 * its certificate chain was rejected recently.
+	 *
+	 * @param trustManager the trust manager, or null for the system one
+	 * @return the verifier of the statement, verified
+	 */
+	@NonNull
+	public OfflineVerifier verify(@NonNull String jws, @Nullable X509TrustManager trustManager) throws SafetyNetVerificationException {
+		long now = System.currentTimeMillis();
+		long[][] keys = keys(jws);
+		long[] chainKey = keys[0];
+		long[] tokenKey = keys[1];
+
+		lookups.incrementAndGet();
+		Entry cached = get(tokenKey, now);
+		if (cached == null && chainKey != null) {
+			cached = get(chainKey, now);
+		}
+		boolean sampled = false;
+		if (cached != null) {
+			long hit = hits.incrementAndGet();
+			int interval = sampleInterval;
+			sampled = interval > 0 && hit % interval == 0;
+			if (!sampled) {
+				throw new SafetyNetVerificationException(cached.errorCode, "Statement rejected recently: " + cached.message, null);
+			}
+			sampledHits.incrementAndGet();
+		}
+
+		OfflineVerifier verifier;
+		try {
+			verifier = OfflineVerifier.from(jws);
+			X509TrustManager tm = trustManager != null ? trustManager : JsonWebSignature.getDefaultX509TrustManager();
+			verifier.verifyCertificateChain(tm);
+		} catch (SafetyNetVerificationException e) {
+			if (e.getErrorCode() == INVALID_CERTIFICATE_ISSUER && chainKey != null) {
+				put(chainKey, e, now);
+			}
+			put(tokenKey, e, now);
+			throw e;
+		} catch (GeneralSecurityException e) {
+			throw new SafetyNetVerificationException(SIGNATURE_VERIFICATION_FAILED, "Cannot load the default trust manager; " + e.getMessage(), null, e);
+		} catch (RuntimeException e) {
+			// malformed token, e.g. bad base64 or JSON
+			SafetyNetVerificationException rejection = new SafetyNetVerificationException(INVALID_JWT_RESPONSE, "Malformed JWS; " + e, null, e);
+			put(tokenKey, rejection, now);
+			throw rejection;
+		}
+		try {
+			verifier.verifySignature();
+		} catch (SafetyNetVerificationException e) {
+			put(tokenKey, e, now);
+			throw e;
+		}
+		if (sampled) {
+			falsePositives.incrementAndGet();
+			remove(tokenKey);
+			if (chainKey != null) {
+				remove(chainKey);
+			}
+		}
+		return verifier;
+	}
+
+	/**
+	 * Forgets every rejection, e.g. after the trust manager changed.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	@NonNull
+	public Stats getStats() {
+		return new Stats(lookups.get(), hits.get(), sampledHits.get(), falsePositives.get(), insertions.get(), entries.getEvictions(), entries.size());
+	}
+
+	private Entry get(long[] key, long now) {
+		return entries.get(key[0], key[1], now);
+	}
+
+	private void put(long[] key, SafetyNetVerificationException e, long now) {
+		entries.put(key[0], key[1], new Entry(e.getErrorCode(), shortMessage(e.getMessage())), now + ttlMs);
+		insertions.incrementAndGet();
+	}
+
+	private void remove(long[] key) {
+		entries.remove(key[0], key[1]);
+	}
+
+	/**
+	 * Returns the message without the statement most messages carry, which is several KB.
+	 */
+	private static String shortMessage(String message) {
+		if (message == null) {
+			return null;
+		}
+		int response = message.indexOf(", response");
+		return response > 0 ? message.substring(0, response) : (message.length() > 200 ? message.substring(0, 200) : message);
+	}
+
+	/**
+	 * Returns the key of the header, null if there is no header, followed by the key of the
+	 * whole statement, hashing the statement once.
+	 */
+	private static long[][] keys(String jws) {
+		byte[] bytes = jws.getBytes(UTF_8);
+		int headerEnd = jws.indexOf('.');
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			long[] chainKey = null;
+			int hashed = 0;
+			if (headerEnd > 0) {
+				digest.update(bytes, 0, headerEnd);
+				hashed = headerEnd;
+				try {
+					chainKey = key(((MessageDigest) digest.clone()).digest());
+				} catch (CloneNotSupportedException e) {
+					MessageDigest header = MessageDigest.getInstance("SHA-256");
+					header.update(bytes, 0, headerEnd);
+					chainKey = key(header.digest());
+				}
+			}
+			digest.update(bytes, hashed, bytes.length - hashed);
+			return new long[][]{chainKey, key(digest.digest())};
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the first 128 bits of a SHA-256, as the high and low halves.
+	 */
+	private static long[] key(byte[] hash) {
+		long high = 0;
+		long low = 0;
+		for (int i = 0; i < 8; i++) {
+			high = (high << 8) | (hash[i] & 0xff);
+			low = (low << 8) | (hash[8 + i] & 0xff);
+		}
+		return new long[]{high, low};
+	}
+
+	private static final class Entry {
+		final SafetyNetVerificationException.ErrorCode errorCode;
+		final String message;
+
+		Entry(SafetyNetVerificationException.ErrorCode errorCode, String message) {
+			this.errorCode = errorCode;
+			this.message = message;
+		}
+	}
+
+	/**
+	 * Counters of the cache.
+	 */
+	public static final class Stats {
+		private final long lookups;
+		private final long hits;
+		private final long sampledHits;
+		private final long falsePositives;
+		private final long insertions;
+		private final long evictions;
+		private final int size;
+
+		Stats(long lookups, long hits, long sampledHits, long falsePositives, long insertions, long evictions, int size) {
+			this.lookups = lookups;
+			this.hits = hits;
+			this.sampledHits = sampledHits;
+			this.falsePositives = falsePositives;
+			this.insertions = insertions;
+			this.evictions = evictions;
+			this.size = size;
+		}
+
+		public long getLookups() {
+			return lookups;
+		}
+
+		/**
+		 * Returns how many statements were found in the cache, including the sampled ones.
+		 */
+		public long getHits() {
+			return hits;
+		}
+
+		/**
+		 * Returns how many hits were verified anyway.
+		 */
+		public long getSampledHits() {
+			return sampledHits;
+		}
+
+		/**
+		 * Returns how many sampled hits turned out to be valid statements.
+		 */
+		public long getFalsePositives() {
+			return falsePositives;
+		}
+
+		public long getInsertions() {
+			return insertions;
+		}
+
+		public long getEvictions() {
+			return evictions;
+		}
+
+		public int getSize() {
+			return size;
+		}
+
+		@Override
+		public String toString() {
+			return "Stats{" +
+					"lookups=" + lookups +
+					", hits=" + hits +
+					", sampledHits=" + sampledHits +
+					", falsePositives=" + falsePositives +
+					", insertions=" + insertions +
+					", evictions=" + evictions +
+					", size=" + size +
+					'}';
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package com.scottyab.safetynet;
+
+import com.scottyab.safetynet.internal.RingBuffer;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Generates random nonces at a high rate from many threads.
+ *
+ * <p>A single {@link SecureRandom} is synchronized, so threads drawing nonces from a shared one
+ * contend for its lock. Instead the threads are spread over a fixed pool of DRBG instances, a few
+ * per processor, each reseeded from the system source after every
+ * {@link Builder#setReseedIntervalBytes(long) interval}. The pool doesn't grow with the number of
+ * threads, so a thread per request, virtual or not, costs no DRBG of its own.
+ *
+ * <p>With {@link Builder#setPrefetch(int)}, a background thread also generates nonces ahead of
+ * time, in batches, into a lock-free ring buffer that {@link #next()} takes them from; the
+ * calling thread generates its nonce itself only if the ring is empty.
+ */
+public final class NonceGenerator {
+
+	/* nonces generated at once when prefetching */
+	private static final int BATCH_SIZE = 64;
+
+	private static final int BLOCK_SIZE = 4096;
+
+	private final int nonceLength;
+	private final long reseedIntervalBytes;
+	private final SecureRandom seedSource = new SecureRandom();
+	private final Drbg[] drbgs;
+
+	private final RingBuffer<byte[]> ring;
+	private final Thread filler;
+	private volatile boolean fillerParked;
+	private volatile boolean closed;
+
+	private NonceGenerator(Builder builder) {
+		this.nonceLength = builder.nonceLength;
+		this.reseedIntervalBytes = builder.reseedIntervalBytes;
+		this.drbgs = new Drbg[Stripes.count()];
+		for (int i = 0; i < drbgs.length; i++) {
+			drbgs[i] = new Drbg();
+		}
+		if (builder.prefetch > 0) {
+			ring = new RingBuffer<byte[]>(builder.prefetch);
+			filler = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					fill();
+				}
+			}, "safetynet-nonce-prefetch");
+			filler.setDaemon(true);
+			filler.start();
+		} else {
+			ring = null;
+			filler = null;
+		}
+	}
+
+	public int getNonceLength() {
+		return nonceLength;
+	}
+
+	/**
+	 * Returns a new nonce.
+	 */
+	@NonNull
+	public byte[] next() {
+		RingBuffer<byte[]> ring = this.ring;
+		if (ring != null) {
+			byte[] nonce = ring.poll();
+			if (fillerParked && ring.size() <= ring.capacity() / 2) {
+				LockSupport.unpark(filler);
+			}
+			if (nonce != null) {
+				return nonce;
+			}
+		}
+		byte[] nonce = new byte[nonceLength];
+		nextBytes(nonce);
+		return nonce;
+	}
+
+	/**
+	 * Fills the array with random bytes from the DRBG of the calling thread's stripe.
+	 */
+	public void nextBytes(@NonNull byte[] bytes) {
+		Drbg drbg = drbgs[Stripes.index(drbgs.length)];
+		synchronized (drbg) {
+			drbg.nextBytes(bytes);
+		}
+	}
+
+	/**
+	 * Stops the prefetching thread, if any. Nonces are still generated on the calling thread.
+	 */
+	public void close() {
+		closed = true;
+		if (filler != null) {
+			LockSupport.unpark(filler);
+		}
+	}
+
+	private void fill() {
+		byte[] batch = new byte[BATCH_SIZE * nonceLength];
+		int next = BATCH_SIZE;
+		while (!closed) {
+			if (ring.size() >= ring.capacity()) {
+				fillerParked = true;
+				// checked again after publishing the flag, so that a wake up is not missed
+				if (ring.size() >= ring.capacity() && !closed) {
+					LockSupport.parkNanos(this, 100000000L);
+				}
+				fillerParked = false;
+				continue;
+			}
+			if (next == BATCH_SIZE) {
+				nextBytes(batch);
+				next = 0;
+			}
+			byte[] nonce = new byte[nonceLength];
+			System.arraycopy(batch, next * nonceLength, nonce, 0, nonceLength);
+			if (ring.offer(nonce) >= 0) {
+				next++;
+			}
+		}
+	}
+
+	/**
+	 * A DRBG shared by the threads of a stripe, guarded by its monitor. Random bytes are drawn a
+	 * block at a time, since each call to the DRBG costs about as much as generating a few hundred
+	 * bytes.
+	 */
+	private final class Drbg {
+		private final SecureRandom random = newDrbg();
+		private final byte[] block = new byte[BLOCK_SIZE];
+		private int position = BLOCK_SIZE;
+		private long bytesSinceReseed;
+
+		void nextBytes(byte[] bytes) {
+			if (bytes.length >= BLOCK_SIZE) {
+				generate(bytes);
+				return;
+			}
+			int copied = 0;
+			while (copied < bytes.length) {
+				if (position == BLOCK_SIZE) {
+					generate(block);
+					position = 0;
+				}
+				int length = Math.min(bytes.length - copied, BLOCK_SIZE - position);
+				System.arraycopy(block, position, bytes, copied, length);
+				// the bytes handed out don't stay around in the block
+				Arrays.fill(block, position, position + length, (byte) 0);
+				position += length;
+				copied += length;
+			}
+		}
+
+		private void generate(byte[] bytes) {
+			if (bytesSinceReseed >= reseedIntervalBytes) {
+				byte[] seed = new byte[32];
+				// the shared source is only locked once per interval
+				seedSource.nextBytes(seed);
+				random.setSeed(seed);
+				bytesSinceReseed = 0;
+			}
+			random.nextBytes(bytes);
+			bytesSinceReseed += bytes.length;
+		}
+	}
+
+	/**
+	 * Returns the NIST SP 800-90A DRBG where available (Java 9), SHA1PRNG otherwise (Android and
+	 * older JVMs), both seeded from the system source on first use.
+	 */
+	private static SecureRandom newDrbg() {
+		try {
+			return SecureRandom.getInstance("DRBG");
+		} catch (NoSuchAlgorithmException e) {
+			try {
+				return SecureRandom.getInstance("SHA1PRNG");
+			} catch (NoSuchAlgorithmException e2) {
+				return new SecureRandom();
+			}
+		}
+	}
+
+	public static class Builder {
+		private int nonceLength = 32;
+		private long reseedIntervalBytes = 1024 * 1024;
+		private int prefetch;
+
+		/**
+		 * Sets the length of the nonces returned by {@link #next()}, 32 bytes by default.
+		 */
+		public Builder setNonceLength(int nonceLength) {
+			Preconditions.checkArgument(nonceLength > 0);
+			this.nonceLength = nonceLength;
+			return this;
+		}
+
+		/**
+		 * Sets how many bytes are drawn from each DRBG before reseeding it, 1MB by default.
+		 */
+		public Builder setReseedIntervalBytes(long reseedIntervalBytes) {
+			Preconditions.checkArgument(reseedIntervalBytes > 0);
+			this.reseedIntervalBytes = reseedIntervalBytes;
+			return this;
+		}
+
+		/**
+		 * Sets how many nonces are generated ahead of time on a background thread, rounded up to
+		 * a power of two, 0 (the default) for none.
+		 */
+		public Builder setPrefetch(int prefetch) {
+			Preconditions.checkArgument(prefetch >= 0);
+			this.prefetch = prefetch;
+			return this;
+		}
+
+		public NonceGenerator build() {
+			return new NonceGenerator(this);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package com.scottyab.safetynet;
+
+import com.google.gson.Gson;
+import com.scottyab.safetynet.internal.cz.msebera.android.httpclient.conn.ssl.DefaultHostnameVerifier;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.SSLException;
+import javax.net.ssl.X509TrustManager;
+
+import static com.scottyab.safetynet.SafetyNetVerificationException.ErrorCode.INVALID_CERTIFICATE_ISSUER;
+import static com.scottyab.safetynet.SafetyNetVerificationException.ErrorCode.INVALID_JWT_RESPONSE;
+import static com.scottyab.safetynet.SafetyNetVerificationException.ErrorCode.SIGNATURE_VERIFICATION_FAILED;
+
+/**
+ * Verifies a SafetyNet attestation JWS without contacting Google: checks the signature, that the
+ * certificate chain is trusted and that the leaf certificate is issued to attest.android.com.
+ *
+ * <p>Has no Android dependency, so it can run on a server as well.
+ */
+public class OfflineVerifier {
+
+	/* Gson caches its reflective type adapters per instance, so share one */
+	private static final Gson GSON = new Gson();
+
+	private final JsonWebSignature jws;
+	private final String signedAttestationStatement;
+
+	private X509Certificate verifiedLeafCertificate;
+
+	public static OfflineVerifier from(String signedAttestationStatement) throws SafetyNetVerificationException {
+		try {
+			JsonWebSignature jws = JsonWebSignature.parser(GSON)
+					.setPayloadClass(AttestationStatement.class)
+					.parse(signedAttestationStatement);
+			return new OfflineVerifier(signedAttestationStatement, jws);
+		} catch (IOException e) {
+			throw new SafetyNetVerificationException(INVALID_JWT_RESPONSE, "AttestationStatement is not valid JWS format: '" + signedAttestationStatement + "'", null, e);
+		}
+	}
+
+	private OfflineVerifier(String signedAttestationStatement, JsonWebSignature jws) {
+		this.signedAttestationStatement = signedAttestationStatement;
+		this.jws = jws;
+	}
+
+	/**
+	 * Builds the Gson type adapters used for parsing ahead of time.
+	 */
+	public static void warmUp() {
+		GSON.getAdapter(JsonWebSignature.Header.class);
+		GSON.getAdapter(AttestationStatement.class);
+	}
+
+	public AttestationStatement getAttestationStatement() {
+		return (AttestationStatement) jws.getPayload();
+	}
+
+	/**
+	 * Verifies the statement, trusting the certificate chains trusted by the system.
+	 */
+	public void verify() throws SafetyNetVerificationException {
+		X509TrustManager trustManager;
+		try {
+			trustManager = JsonWebSignature.getDefaultX509TrustManager();
+		} catch (GeneralSecurityException e) {
+			throw new SafetyNetVerificationException(SIGNATURE_VERIFICATION_FAILED, "Cannot load the default trust manager; " + e.getMessage(), null, e);
+		}
+		verify(trustManager);
+	}
+
+	/**
+	 * Verifies the statement, trusting the certificate chains trusted by the given trust manager.
+	 */
+	public void verify(X509TrustManager trustManager) throws SafetyNetVerificationException {
+		// Verify the signature of the JWS and retrieve the signature certificate.
+		X509Certificate cert;
+		try {
+			cert = jws.verifySignature(trustManager);
+		} catch (GeneralSecurityException e) {
+			throw new SafetyNetVerificationException(SIGNATURE_VERIFICATION_FAILED, "Signature verification failed, response: " + signedAttestationStatement + "; " + e.getMessage(), null, e);
+		}
+
+		verifyHostname(cert);
+	}
+
+	/**
+	 * First half of {@link #verify(X509TrustManager)}, for callers running the checks as separate
+	 * steps: checks that the certificate chain is trusted and issued to attest.android.com.
+	 * Must be followed by {@link #verifySignature()}.
+	 */
+	public void verifyCertificateChain(X509TrustManager trustManager) throws SafetyNetVerificationException {
+		X509Certificate cert;
+		try {
+			cert = jws.verifyCertificateChain(trustManager);
+		} catch (GeneralSecurityException e) {
+			throw new SafetyNetVerificationException(SIGNATURE_VERIFICATION_FAILED, "Certificate chain verification failed, response: " + signedAttestationStatement + "; " + e.getMessage(), null, e);
+		}
+		verifyHostname(cert);
+		verifiedLeafCertificate = cert;
+	}
+
+	/**
+	 * Second half of {@link #verify(X509TrustManager)}: checks the signature with the leaf
+	 * certificate of the chain checked by {@link #verifyCertificateChain(X509TrustManager)}.
+	 *
+	 * @throws IllegalStateException if the certificate chain was not verified first
+	 */
+	public void verifySignature() throws SafetyNetVerificationException {
+		X509Certificate leafCertificate = verifiedLeafCertificate;
+		if (leafCertificate == null) {
+			throw new IllegalStateException("verifyCertificateChain() must succeed first");
+		}
+		verifySignature(leafCertificate);
+	}
+
+	private void verifySignature(X509Certificate leafCertificate) throws SafetyNetVerificationException {
+		boolean verified;
+		GeneralSecurityException cause = null;
+		try {
+			verified = jws.verifySignature(leafCertificate.getPublicKey());
+		} catch (GeneralSecurityException e) {
+			verified = false;
+			cause = e;
+		}
+		if (!verified) {
+			throw new SafetyNetVerificationException(SIGNATURE_VERIFICATION_FAILED, "Signature verification failed, response: " + signedAttestationStatement, null, cause);
+		}
+	}
+
+	private void verifyHostname(X509Certificate cert) throws SafetyNetVerificationException {
+		try {
+			// Check that the hostname matches the certificate. No public suffix list: CAs may only
+			// issue *.android.com as a wildcard for this host, and android.com is not a public suffix.
+			new DefaultHostnameVerifier().verify("attest.android.com", cert);
+		} catch (SSLException e) {
+			throw new SafetyNetVerificationException(INVALID_CERTIFICATE_ISSUER, "Certificate isn't issued for the hostname attest.android.com, response:" + signedAttestationStatement, null, e);
+		}
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,1034 @@
+package com.scottyab.safetynet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Columnar file of verdicts, for analytics scanning months of them, e.g. the share of devices
+ * failing {@code ctsProfileMatch} per package per day.
+ *
+ * <pre>
+ * OutcomeColumns.Writer writer = new OutcomeColumns.Writer(file);
+ * writer.add(System.currentTimeMillis(), statement, null);
+ * writer.close();
+ *
+ * OutcomeColumns.Reader reader = new OutcomeColumns.Reader(file);
+ * Map&lt;String, Long&gt; failing = reader.countBy(Column.PACKAGE_NAME, Filter.and(
+ *         Filter.between(fromMs, toMs), Filter.isFalse(Column.CTS_PROFILE_MATCH)));
+ * </pre>
+ *
+ * <p>Verdicts are stored in row groups of {@link Writer#setRowGroupSize(int) 64K rows}, each
+ * column of a group encoded on its own: timestamps as varint deltas, booleans as bitmaps, strings
+ * as a dictionary of the group's distinct values followed by bit-packed indexes into it. Queries
+ * only read the columns they use, skip the groups whose time range or dictionaries can't match,
+ * and evaluate filters a column at a time over the whole group into selection bitmaps, without
+ * creating any object per row.
+ *
+ * <p>Layout, all big endian:
+ * <pre>
+ * int      magic, 0x534e4f43
+ * byte     version (1)
+ * row groups, until the end of the file:
+ *   int    row count
+ *   long   lowest timestamp
+ *   long   highest timestamp
+ *   int[]  length of each column chunk, in {@link Column} order
+ *   bytes  column chunks, in {@link Column} order
+ * timestamp chunk: zigzag varint of each timestamp minus the previous one, the first minus the
+ *   lowest timestamp
+ * boolean chunk: one bit per row, lowest bit first
+ * string chunk: varint dictionary size, each value as varint length and UTF-8 bytes, then byte
+ *   bit width, then per row the index of its value, 0 for null, 1 for the first value of the
+ *   dictionary, in that many bits, lowest bit first
+ * </pre>
+ */
+public final class OutcomeColumns {
+
+	private static final int MAGIC = 0x534e4f43;
+	private static final byte VERSION = 1;
+	private static final int FILE_HEADER_LENGTH = 5;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/* refuses row groups claiming more, rather than allocating them */
+	private static final int MAX_ROW_GROUP_SIZE = 1 << 24;
+
+	private OutcomeColumns() {
+	}
+
+	/**
+	 * The columns, in file order.
+	 */
+	public enum Column {
+		/**
+		 * Time of the verdict, as given to {@link Writer#add(long, AttestationStatement, SafetyNetVerificationException.ErrorCode)}.
+		 */
+		TIMESTAMP(Type.TIMESTAMP),
+		CTS_PROFILE_MATCH(Type.BOOLEAN),
+		BASIC_INTEGRITY(Type.BOOLEAN),
+		ADVICE(Type.STRING),
+		EVALUATION_TYPE(Type.STRING),
+		PACKAGE_NAME(Type.STRING),
+		APK_DIGEST_SHA256(Type.STRING),
+		/**
+		 * Name of the {@link SafetyNetVerificationException.ErrorCode}, null for accepted statements.
+		 */
+		ERROR_CODE(Type.STRING);
+
+		final Type type;
+
+		Column(Type type) {
+			this.type = type;
+		}
+
+		@Nullable
+		String stringValue(AttestationStatement statement, SafetyNetVerificationException.ErrorCode errorCode) {
+			if (this == ERROR_CODE) {
+				return errorCode != null ? errorCode.name() : null;
+			}
+			if (statement == null) {
+				return null;
+			}
+			switch (this) {
+				case ADVICE:
+					return statement.getAdvice();
+				case EVALUATION_TYPE:
+					return statement.getEvaluationType();
+				case PACKAGE_NAME:
+					return statement.getApkPackageName();
+				case APK_DIGEST_SHA256:
+					return statement.getApkDigestSha256();
+				default:
+					throw new IllegalStateException(name());
+			}
+		}
+	}
+
+	enum Type {
+		TIMESTAMP, BOOLEAN, STRING
+	}
+
+	private static final Column[] COLUMNS = Column.values();
+	private static final int GROUP_HEADER_LENGTH = 4 + 8 + 8 + 4 * COLUMNS.length;
+
+	/**
+	 * Writes verdicts to a file. Not thread-safe.
+	 */
+	public static final class Writer implements Closeable {
+		private final OutputStream out;
+		private int rowGroupSize = 64 * 1024;
+
+		private int rows;
+		private long[] timestamps;
+		private long[][] booleans;
+		private int[][] ids;
+		private List<Map<String, Integer>> dictionaries;
+		private boolean closed;
+
+		/**
+		 * Creates the file, replacing it if it exists.
+		 */
+		public Writer(@NonNull File file) throws IOException {
+			this(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+		}
+
+		public Writer(@NonNull OutputStream out) throws IOException {
+			this.out = out;
+			ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_LENGTH);
+			header.putInt(MAGIC).put(VERSION);
+			out.write(header.array());
+		}
+
+		/**
+		 * Sets how many verdicts are stored per row group, 65536 by default. Takes effect from the
+		 * next group.
+		 */
+		public Writer setRowGroupSize(int rowGroupSize) {
+			Preconditions.checkArgument(rowGroupSize > 0 && rowGroupSize <= MAX_ROW_GROUP_SIZE);
+			this.rowGroupSize = rowGroupSize;
+			return this;
+		}
+
+		/**
+		 * Adds an accepted statement, at its own timestamp.
+		 */
+		public void add(@NonNull AttestationStatement statement) throws IOException {
+			add(statement.getTimestampMs(), statement, null);
+		}
+
+		/**
+		 * Adds a verdict.
+		 *
+		 * @param timestampMs time of the verdict, timestamps increasing in the order verdicts are
+		 *                    added compress best
+		 * @param statement   the statement, null if it could not be parsed
+		 * @param errorCode   why the statement was rejected, null if it was accepted
+		 */
+		public void add(long timestampMs, @Nullable AttestationStatement statement, @Nullable SafetyNetVerificationException.ErrorCode errorCode) throws IOException {
+			if (closed) {
+				throw new IOException("Writer closed");
+			}
+			if (timestamps == null) {
+				startGroup();
+			}
+			int row = rows++;
+			for (int c = 0; c < COLUMNS.length; c++) {
+				Column column = COLUMNS[c];
+				switch (column.type) {
+					case TIMESTAMP:
+						timestamps[row] = timestampMs;
+						break;
+					case BOOLEAN:
+						boolean value = statement != null
+								&& (column == Column.CTS_PROFILE_MATCH ? statement.isCtsProfileMatch() : statement.isBasicIntegrity());
+						if (value) {
+							booleans[c][row >>> 6] |= 1L << row;
+						}
+						break;
+					case STRING:
+						ids[c][row] = id(dictionaries.get(c), column.stringValue(statement, errorCode));
+						break;
+				}
+			}
+			if (rows == timestamps.length) {
+				writeGroup();
+			}
+		}
+
+		/**
+		 * Writes the verdicts added since the last group as a group and closes the file.
+		 */
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				if (rows > 0) {
+					writeGroup();
+				}
+			} finally {
+				out.close();
+			}
+		}
+
+		private static int id(Map<String, Integer> dictionary, String value) {
+			if (value == null) {
+				return 0;
+			}
+			Integer id = dictionary.get(value);
+			if (id == null) {
+				id = dictionary.size() + 1;
+				dictionary.put(value, id);
+			}
+			return id;
+		}
+
+		private void startGroup() {
+			int size = rowGroupSize;
+			timestamps = new long[size];
+			booleans = new long[COLUMNS.length][];
+			ids = new int[COLUMNS.length][];
+			dictionaries = new ArrayList<Map<String, Integer>>(COLUMNS.length);
+			for (int c = 0; c < COLUMNS.length; c++) {
+				if (COLUMNS[c].type == Type.BOOLEAN) {
+					booleans[c] = new long[(size + 63) >>> 6];
+				} else if (COLUMNS[c].type == Type.STRING) {
+					ids[c] = new int[size];
+				}
+				dictionaries.add(COLUMNS[c].type == Type.STRING ? new HashMap<String, Integer>() : null);
+			}
+			rows = 0;
+		}
+
+		private void writeGroup() throws IOException {
+			long min = Long.MAX_VALUE;
+			long max = Long.MIN_VALUE;
+			for (int i = 0; i < rows; i++) {
+				min = Math.min(min, timestamps[i]);
+				max = Math.max(max, timestamps[i]);
+			}
+			byte[][] chunks = new byte[COLUMNS.length][];
+			for (int c = 0; c < COLUMNS.length; c++) {
+				switch (COLUMNS[c].type) {
+					case TIMESTAMP:
+						chunks[c] = encodeTimestamps(timestamps, rows, min);
+						break;
+					case BOOLEAN:
+						chunks[c] = encodeBooleans(booleans[c], rows);
+						break;
+					case STRING:
+						chunks[c] = encodeStrings(dictionaries.get(c), ids[c], rows);
+						break;
+				}
+			}
+			ByteBuffer header = ByteBuffer.allocate(GROUP_HEADER_LENGTH);
+			header.putInt(rows).putLong(min).putLong(max);
+			for (byte[] chunk : chunks) {
+				header.putInt(chunk.length);
+			}
+			out.write(header.array());
+			for (byte[] chunk : chunks) {
+				out.write(chunk);
+			}
+			// a new group, possibly of another size, on the next add
+			timestamps = null;
+			rows = 0;
+		}
+
+		private static byte[] encodeTimestamps(long[] timestamps, int rows, long min) {
+			Chunk chunk = new Chunk(rows * 2);
+			long previous = min;
+			for (int i = 0; i < rows; i++) {
+				long delta = timestamps[i] - previous;
+				chunk.writeVarint((delta << 1) ^ (delta >> 63));
+				previous = timestamps[i];
+			}
+			return chunk.toByteArray();
+		}
+
+		private static byte[] encodeBooleans(long[] words, int rows) {
+			byte[] bytes = new byte[(rows + 7) >>> 3];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = (byte) (words[i >>> 3] >>> ((i & 7) << 3));
+			}
+			return bytes;
+		}
+
+		private static byte[] encodeStrings(Map<String, Integer> dictionary, int[] ids, int rows) {
+			String[] values = new String[dictionary.size()];
+			for (Map.Entry<String, Integer> entry : dictionary.entrySet()) {
+				values[entry.getValue() - 1] = entry.getKey();
+			}
+			Chunk chunk = new Chunk(64 + rows);
+			chunk.writeVarint(values.length);
+			for (String value : values) {
+				byte[] bytes = value.getBytes(UTF_8);
+				chunk.writeVarint(bytes.length);
+				chunk.write(bytes, 0, bytes.length);
+			}
+			int bitWidth = 32 - Integer.numberOfLeadingZeros(values.length);
+			chunk.write(bitWidth);
+			long bits = 0;
+			int pending = 0;
+			for (int i = 0; i < rows; i++) {
+				bits |= (long) ids[i] << pending;
+				pending += bitWidth;
+				while (pending >= 8) {
+					chunk.write((int) bits & 0xff);
+					bits >>>= 8;
+					pending -= 8;
+				}
+			}
+			if (pending > 0) {
+				chunk.write((int) bits & 0xff);
+			}
+			return chunk.toByteArray();
+		}
+	}
+
+	/**
+	 * Runs queries over a file. Thread-safe.
+	 */
+	public static final class Reader implements Closeable {
+		private final FileInputStream in;
+		private final FileChannel channel;
+		private final List<GroupHeader> groups = new ArrayList<GroupHeader>();
+		private final long rowCount;
+
+		/**
+		 * Opens the file and reads where its row groups are, but none of their columns.
+		 */
+		public Reader(@NonNull File file) throws IOException {
+			in = new FileInputStream(file);
+			channel = in.getChannel();
+			try {
+				ByteBuffer header = read(0, FILE_HEADER_LENGTH);
+				if (header.getInt() != MAGIC || header.get() != VERSION) {
+					throw new IOException("Not a verdict columns file: " + file);
+				}
+				long position = FILE_HEADER_LENGTH;
+				long size = channel.size();
+				long rows = 0;
+				while (position < size) {
+					GroupHeader group = new GroupHeader(read(position, GROUP_HEADER_LENGTH), position + GROUP_HEADER_LENGTH);
+					position = group.end;
+					if (position > size) {
+						throw new IOException("Truncated row group at " + group.offsets[0]);
+					}
+					groups.add(group);
+					rows += group.rows;
+				}
+				rowCount = rows;
+			} catch (IOException | RuntimeException e) {
+				in.close();
+				throw e;
+			}
+		}
+
+		public long getRowCount() {
+			return rowCount;
+		}
+
+		/**
+		 * Returns how many verdicts match the filter.
+		 */
+		public long count(@NonNull Filter filter) throws IOException {
+			long count = 0;
+			for (GroupHeader header : groups) {
+				if (!filter.mayMatch(header)) {
+					continue;
+				}
+				Group group = new Group(header);
+				for (long word : filter.select(group)) {
+					count += Long.bitCount(word);
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * Returns how many verdicts matching the filter there are per value of the column, the
+		 * values of boolean columns being "true" and "false", and null counting as a value.
+		 *
+		 * @throws IllegalArgumentException for {@link Column#TIMESTAMP}, see {@link #countByTime(long, Filter)}
+		 */
+		@NonNull
+		public Map<String, Long> countBy(@NonNull Column column, @NonNull Filter filter) throws IOException {
+			Preconditions.checkArgument(column.type != Type.TIMESTAMP);
+			Map<String, Long> counts = new HashMap<String, Long>();
+			for (GroupHeader header : groups) {
+				if (!filter.mayMatch(header)) {
+					continue;
+				}
+				Group group = new Group(header);
+				long[] selection = filter.select(group);
+				if (column.type == Type.BOOLEAN) {
+					long[] values = group.booleans(column);
+					long trues = 0;
+					long all = 0;
+					for (int w = 0; w < selection.length; w++) {
+						trues += Long.bitCount(selection[w] & values[w]);
+						all += Long.bitCount(selection[w]);
+					}
+					add(counts, "true", trues);
+					add(counts, "false", all - trues);
+				} else {
+					Strings strings = group.strings(column);
+					long[] perId = new long[strings.dictionary.length];
+					int[] ids = strings.ids;
+					for (int w = 0; w < selection.length; w++) {
+						long word = selection[w];
+						while (word != 0) {
+							perId[ids[(w << 6) + Long.numberOfTrailingZeros(word)]]++;
+							word &= word - 1;
+						}
+					}
+					for (int id = 0; id < perId.length; id++) {
+						if (perId[id] > 0) {
+							add(counts, strings.dictionary[id], perId[id]);
+						}
+					}
+				}
+			}
+			return counts;
+		}
+
+		/**
+		 * Returns how many verdicts matching the filter there are per period of time, keyed by the
+		 * start of the period, e.g. per day with {@code TimeUnit.DAYS.toMillis(1)}.
+		 */
+		@NonNull
+		public SortedMap<Long, Long> countByTime(long bucketMs, @NonNull Filter filter) throws IOException {
+			Preconditions.checkArgument(bucketMs > 0);
+			SortedMap<Long, Long> counts = new TreeMap<Long, Long>();
+			for (GroupHeader header : groups) {
+				if (!filter.mayMatch(header)) {
+					continue;
+				}
+				Group group = new Group(header);
+				long[] selection = filter.select(group);
+				long[] timestamps = group.timestamps();
+				// consecutive rows mostly fall in the same period: counted before touching the map
+				long bucket = Long.MIN_VALUE;
+				long count = 0;
+				for (int w = 0; w < selection.length; w++) {
+					long word = selection[w];
+					while (word != 0) {
+						long timestamp = timestamps[(w << 6) + Long.numberOfTrailingZeros(word)];
+						long rowBucket = timestamp - (((timestamp % bucketMs) + bucketMs) % bucketMs);
+						if (rowBucket != bucket) {
+							if (count > 0) {
+								add(counts, bucket, count);
+							}
+							bucket = rowBucket;
+							count = 0;
+						}
+						count++;
+						word &= word - 1;
+					}
+				}
+				if (count > 0) {
+					add(counts, bucket, count);
+				}
+			}
+			return counts;
+		}
+
+		/**
+		 * Passes each row group to the visitor, with the rows matching the filter, for aggregates
+		 * not covered by the other methods. Groups that can't match are skipped.
+		 */
+		public void scan(@NonNull Filter filter, @NonNull BatchVisitor visitor) throws IOException {
+			for (GroupHeader header : groups) {
+				if (!filter.mayMatch(header)) {
+					continue;
+				}
+				Group group = new Group(header);
+				visitor.visit(new Batch(group, filter.select(group)));
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+
+		private static <K> void add(Map<K, Long> counts, K key, long count) {
+			Long previous = counts.get(key);
+			counts.put(key, previous != null ? previous + count : count);
+		}
+
+		private ByteBuffer read(long position, int length) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, position + buffer.position()) < 0) {
+					throw new EOFException("Truncated file at " + (position + buffer.position()));
+				}
+			}
+			buffer.flip();
+			return buffer;
+		}
+
+		/**
+		 * A row group being queried, decoding the columns it is asked for once each.
+		 */
+		final class Group {
+			final GroupHeader header;
+			private long[] timestamps;
+			private final long[][] booleans = new long[COLUMNS.length][];
+			private final Strings[] strings = new Strings[COLUMNS.length];
+
+			Group(GroupHeader header) {
+				this.header = header;
+			}
+
+			int words() {
+				return (header.rows + 63) >>> 6;
+			}
+
+			long[] timestamps() throws IOException {
+				if (timestamps == null) {
+					ByteBuffer chunk = read(Column.TIMESTAMP);
+					long[] values = new long[header.rows];
+					long previous = header.min;
+					for (int i = 0; i < values.length; i++) {
+						long zigzag = readVarint(chunk);
+						previous += (zigzag >>> 1) ^ -(zigzag & 1);
+						values[i] = previous;
+					}
+					timestamps = values;
+				}
+				return timestamps;
+			}
+
+			long[] booleans(Column column) throws IOException {
+				int c = column.ordinal();
+				if (booleans[c] == null) {
+					ByteBuffer chunk = read(column);
+					int bytes = (header.rows + 7) >>> 3;
+					if (chunk.remaining() < bytes) {
+						throw new IOException("Damaged " + column + " column, " + chunk.remaining() + " bytes for " + header.rows + " rows");
+					}
+					long[] words = new long[words()];
+					for (int i = 0; i < bytes; i++) {
+						words[i >>> 3] |= (chunk.get() & 0xffL) << ((i & 7) << 3);
+					}
+					booleans[c] = words;
+				}
+				return booleans[c];
+			}
+
+			Strings strings(Column column) throws IOException {
+				int c = column.ordinal();
+				if (strings[c] == null) {
+					strings[c] = new Strings(read(column), header.rows);
+				}
+				return strings[c];
+			}
+
+			private ByteBuffer read(Column column) throws IOException {
+				int c = column.ordinal();
+				return Reader.this.read(header.offsets[c], header.lengths[c]);
+			}
+		}
+	}
+
+	/**
+	 * Where a row group and its column chunks are, and its time range.
+	 */
+	static final class GroupHeader {
+		final int rows;
+		final long min;
+		final long max;
+		final long[] offsets = new long[COLUMNS.length];
+		final int[] lengths = new int[COLUMNS.length];
+		final long end;
+
+		GroupHeader(ByteBuffer header, long position) throws IOException {
+			rows = header.getInt();
+			min = header.getLong();
+			max = header.getLong();
+			if (rows <= 0 || rows > MAX_ROW_GROUP_SIZE) {
+				throw new IOException("Damaged row group at " + (position - GROUP_HEADER_LENGTH));
+			}
+			for (int c = 0; c < COLUMNS.length; c++) {
+				lengths[c] = header.getInt();
+				if (lengths[c] < 0) {
+					throw new IOException("Damaged row group at " + (position - GROUP_HEADER_LENGTH));
+				}
+				offsets[c] = position;
+				position += lengths[c];
+			}
+			end = position;
+		}
+	}
+
+	/**
+	 * A decoded string column chunk: the dictionary, null first, and the index of each row's value.
+	 */
+	static final class Strings {
+		final String[] dictionary;
+		final int[] ids;
+
+		Strings(ByteBuffer chunk, int rows) throws IOException {
+			long declared = readVarint(chunk);
+			if (declared < 0 || declared > rows) {
+				throw new IOException("Damaged dictionary of " + declared + " values");
+			}
+			int size = (int) declared;
+			dictionary = new String[size + 1];
+			for (int i = 1; i <= size; i++) {
+				long length = readVarint(chunk);
+				if (length < 0 || length > chunk.remaining()) {
+					throw new IOException("Damaged dictionary value of " + length + " bytes, " + chunk.remaining() + " left");
+				}
+				byte[] bytes = new byte[(int) length];
+				chunk.get(bytes);
+				dictionary[i] = new String(bytes, UTF_8);
+			}
+			if (!chunk.hasRemaining()) {
+				throw new IOException("Truncated dictionary");
+			}
+			int bitWidth = chunk.get();
+			// as written: just wide enough for the largest index
+			if (bitWidth != 32 - Integer.numberOfLeadingZeros(size)) {
+				throw new IOException("Damaged bit width " + bitWidth + " for " + size + " values");
+			}
+			if (((long) rows * bitWidth + 7) >>> 3 > chunk.remaining()) {
+				throw new IOException("Truncated dictionary indexes");
+			}
+			ids = new int[rows];
+			int mask = (1 << bitWidth) - 1;
+			long bits = 0;
+			int available = 0;
+			for (int i = 0; i < rows; i++) {
+				while (available < bitWidth) {
+					bits |= (chunk.get() & 0xffL) << available;
+					available += 8;
+				}
+				int id = (int) bits & mask;
+				if (id > size) {
+					throw new IOException("Damaged dictionary index " + id);
+				}
+				ids[i] = id;
+				bits >>>= bitWidth;
+				available -= bitWidth;
+			}
+		}
+
+		/**
+		 * Returns the index of the value, 0 for null, -1 if not in the dictionary.
+		 */
+		int indexOf(String value) {
+			if (value == null) {
+				return 0;
+			}
+			for (int i = 1; i < dictionary.length; i++) {
+				if (value.equals(dictionary[i])) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * The rows of a row group matching a filter, given to a {@link BatchVisitor}. Columns are
+	 * decoded when first asked for.
+	 */
+	public static final class Batch {
+		private final Reader.Group group;
+		private final long[] selection;
+
+		Batch(Reader.Group group, long[] selection) {
+			this.group = group;
+			this.selection = selection;
+		}
+
+		/**
+		 * Returns how many rows the group has, selected or not.
+		 */
+		public int getRows() {
+			return group.header.rows;
+		}
+
+		/**
+		 * Returns the index of the next selected row from the given one, or -1 if there is none.
+		 *
+		 * <pre>
+		 * for (int row = batch.nextSelected(0); row >= 0; row = batch.nextSelected(row + 1)) {
+		 * </pre>
+		 */
+		public int nextSelected(int from) {
+			int w = from >>> 6;
+			if (w >= selection.length) {
+				return -1;
+			}
+			long word = selection[w] & (-1L << from);
+			while (word == 0) {
+				if (++w == selection.length) {
+					return -1;
+				}
+				word = selection[w];
+			}
+			return (w << 6) + Long.numberOfTrailingZeros(word);
+		}
+
+		/**
+		 * Returns the timestamp of every row, selected or not.
+		 */
+		@NonNull
+		public long[] getTimestamps() throws IOException {
+			return group.timestamps();
+		}
+
+		public boolean getBoolean(@NonNull Column column, int row) throws IOException {
+			Preconditions.checkArgument(column.type == Type.BOOLEAN);
+			return (group.booleans(column)[row >>> 6] & (1L << row)) != 0;
+		}
+
+		/**
+		 * Returns the dictionary of the column in this group, null first, which
+		 * {@link #getStringIds(Column)} indexes into.
+		 */
+		@NonNull
+		public String[] getDictionary(@NonNull Column column) throws IOException {
+			Preconditions.checkArgument(column.type == Type.STRING);
+			return group.strings(column).dictionary;
+		}
+
+		/**
+		 * Returns the index into the dictionary of every row's value, selected or not.
+		 */
+		@NonNull
+		public int[] getStringIds(@NonNull Column column) throws IOException {
+			Preconditions.checkArgument(column.type == Type.STRING);
+			return group.strings(column).ids;
+		}
+	}
+
+	/**
+	 * Receives the rows of each row group matching a filter, see
+	 * {@link Reader#scan(Filter, BatchVisitor)}.
+	 */
+	public interface BatchVisitor {
+		void visit(@NonNull Batch batch) throws IOException;
+	}
+
+	/**
+	 * Condition on the columns of a verdict, evaluated over a whole row group at once.
+	 */
+	public abstract static class Filter {
+
+		Filter() {
+		}
+
+		/**
+		 * Returns false if no row of the group can match, from its header only.
+		 */
+		boolean mayMatch(GroupHeader header) {
+			return true;
+		}
+
+		/**
+		 * Returns the bitmap of the rows of the group matching, bits past the last row clear.
+		 */
+		abstract long[] select(Reader.Group group) throws IOException;
+
+		/**
+		 * Matches every verdict.
+		 */
+		@NonNull
+		public static Filter all() {
+			return new Filter() {
+				@Override
+				long[] select(Reader.Group group) {
+					long[] selection = new long[group.words()];
+					Arrays.fill(selection, -1L);
+					clearTail(selection, group.header.rows);
+					return selection;
+				}
+			};
+		}
+
+		/**
+		 * Matches the verdicts with a timestamp from {@code fromMs}, inclusive, to {@code toMs},
+		 * exclusive.
+		 */
+		@NonNull
+		public static Filter between(final long fromMs, final long toMs) {
+			return new Filter() {
+				@Override
+				boolean mayMatch(GroupHeader header) {
+					return header.max >= fromMs && header.min < toMs;
+				}
+
+				@Override
+				long[] select(Reader.Group group) throws IOException {
+					long[] selection = new long[group.words()];
+					if (group.header.min >= fromMs && group.header.max < toMs) {
+						// the whole group is in range, no need to decode its timestamps
+						Arrays.fill(selection, -1L);
+						clearTail(selection, group.header.rows);
+						return selection;
+					}
+					long[] timestamps = group.timestamps();
+					for (int i = 0; i < timestamps.length; i++) {
+						if (timestamps[i] >= fromMs && timestamps[i] < toMs) {
+							selection[i >>> 6] |= 1L << i;
+						}
+					}
+					return selection;
+				}
+			};
+		}
+
+		/**
+		 * Matches the verdicts for which the boolean column is true.
+		 */
+		@NonNull
+		public static Filter isTrue(@NonNull Column column) {
+			return is(column, true);
+		}
+
+		/**
+		 * Matches the verdicts for which the boolean column is false, which includes statements
+		 * that could not be parsed.
+		 */
+		@NonNull
+		public static Filter isFalse(@NonNull Column column) {
+			return is(column, false);
+		}
+
+		private static Filter is(final Column column, final boolean expected) {
+			Preconditions.checkArgument(column.type == Type.BOOLEAN);
+			return new Filter() {
+				@Override
+				long[] select(Reader.Group group) throws IOException {
+					long[] values = group.booleans(column);
+					long[] selection = new long[values.length];
+					for (int w = 0; w < values.length; w++) {
+						selection[w] = expected ? values[w] : ~values[w];
+					}
+					clearTail(selection, group.header.rows);
+					return selection;
+				}
+			};
+		}
+
+		/**
+		 * Matches the verdicts for which the string column equals the value, or is null if the
+		 * value is null.
+		 */
+		@NonNull
+		public static Filter equalTo(@NonNull final Column column, @Nullable final String value) {
+			Preconditions.checkArgument(column.type == Type.STRING);
+			return new Filter() {
+				@Override
+				long[] select(Reader.Group group) throws IOException {
+					Strings strings = group.strings(column);
+					long[] selection = new long[group.words()];
+					int id = strings.indexOf(value);
+					if (id < 0) {
+						// not in the group's dictionary: compared once instead of per row
+						return selection;
+					}
+					int[] ids = strings.ids;
+					for (int i = 0; i < ids.length; i++) {
+						if (ids[i] == id) {
+							selection[i >>> 6] |= 1L << i;
+						}
+					}
+					return selection;
+				}
+			};
+		}
+
+		/**
+		 * Matches the verdicts matching all the filters. Columns are only read for the groups
+		 * where the filters before them matched rows.
+		 */
+		@NonNull
+		public static Filter and(@NonNull final Filter... filters) {
+			return new Filter() {
+				@Override
+				boolean mayMatch(GroupHeader header) {
+					for (Filter filter : filters) {
+						if (!filter.mayMatch(header)) {
+							return false;
+						}
+					}
+					return true;
+				}
+
+				@Override
+				long[] select(Reader.Group group) throws IOException {
+					long[] selection = all().select(group);
+					for (Filter filter : filters) {
+						long[] other = filter.select(group);
+						long any = 0;
+						for (int w = 0; w < selection.length; w++) {
+							selection[w] &= other[w];
+							any |= selection[w];
+						}
+						if (any == 0) {
+							break;
+						}
+					}
+					return selection;
+				}
+			};
+		}
+
+		/**
+		 * Matches the verdicts matching any of the filters.
+		 */
+		@NonNull
+		public static Filter or(@NonNull final Filter... filters) {
+			return new Filter() {
+				@Override
+				boolean mayMatch(GroupHeader header) {
+					for (Filter filter : filters) {
+						if (filter.mayMatch(header)) {
+							return true;
+						}
+					}
+					return false;
+				}
+
+				@Override
+				long[] select(Reader.Group group) throws IOException {
+					long[] selection = new long[group.words()];
+					for (Filter filter : filters) {
+						if (!filter.mayMatch(group.header)) {
+							continue;
+						}
+						long[] other = filter.select(group);
+						for (int w = 0; w < selection.length; w++) {
+							selection[w] |= other[w];
+						}
+					}
+					return selection;
+				}
+			};
+		}
+
+		/**
+		 * Matches the verdicts not matching the filter.
+		 */
+		@NonNull
+		public static Filter not(@NonNull final Filter filter) {
+			return new Filter() {
+				@Override
+				long[] select(Reader.Group group) throws IOException {
+					long[] selection = filter.mayMatch(group.header) ? filter.select(group) : new long[group.words()];
+					for (int w = 0; w < selection.length; w++) {
+						selection[w] = ~selection[w];
+					}
+					clearTail(selection, group.header.rows);
+					return selection;
+				}
+			};
+		}
+
+		static void clearTail(long[] selection, int rows) {
+			if ((rows & 63) != 0) {
+				selection[selection.length - 1] &= (1L << rows) - 1;
+			}
+		}
+	}
+
+	static long readVarint(ByteBuffer buffer) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (!buffer.hasRemaining()) {
+				throw new EOFException("Truncated varint");
+			}
+			int b = buffer.get();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Damaged varint");
+	}
+
+	/**
+	 * A column chunk being encoded.
+	 */
+	private static final class Chunk extends ByteArrayOutputStream {
+		Chunk(int size) {
+			super(size);
+		}
+
+		void writeVarint(long value) {
+			while ((value & ~0x7fL) != 0) {
+				write((int) (value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			write((int) value);
+		}
+	}
+}
@@ -0,0 +1,436 @@
+package com.scottyab.safetynet;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static com.scottyab.safetynet.SafetyNetVerificationException.ErrorCode.PAYLOAD_VALIDATION_FAILED;
+
+/**
+ * Checks of the content of a verified {@link AttestationStatement}, e.g. which app requested it and
+ * what the device verdicts are.
+ *
+ * <pre>
+ * PayloadPolicy policy = new PayloadPolicy.Builder()
+ *         .setTimestampWindow(TimeUnit.MINUTES.toMillis(10), TimeUnit.MINUTES.toMillis(2))
+ *         .allowPackages("com.example.app")
+ *         .allowCertificateDigests(digests)
+ *         .requireCtsProfileMatch()
+ *         .build();
+ * policy.check(statement, expectedNonce, System.currentTimeMillis());
+ * </pre>
+ *
+ * <p>The rules are sorted once, when the policy is built, from the cheapest to the most expensive,
+ * and the evaluation stops at the first failing one. Each rule counts how many statements it
+ * evaluated and rejected, see {@link #getRuleStats()}. Policies are immutable and thread-safe.
+ *
+ * <p>The APK information in a statement can only be trusted if the device matches a CTS profile,
+ * so the package and certificate rules only apply to statements with {@code ctsProfileMatch}.
+ */
+public final class PayloadPolicy {
+
+	/**
+	 * A check of the statement. Rules may be shared by several policies.
+	 */
+	public interface Rule {
+		/**
+		 * Returns the name the rule is reported under by {@link #getRuleStats()}.
+		 */
+		@NonNull
+		String getName();
+
+		/**
+		 * Returns the relative cost of the rule, cheaper rules are evaluated first. The built-in
+		 * rules cost from 0 (a field comparison) to 3 (a lookup per certificate digest).
+		 */
+		int getCost();
+
+		/**
+		 * @param expectedNonce   the nonce the statement must carry, null if not checked
+		 * @param referenceTimeMs when the statement was requested or received
+		 * @return null if the statement passes, the reason it fails otherwise
+		 */
+		@Nullable
+		String check(@NonNull AttestationStatement statement, @Nullable byte[] expectedNonce, long referenceTimeMs);
+	}
+
+	private final Rule[] rules;
+	private final AtomicLong[] evaluated;
+	private final AtomicLong[] rejected;
+
+	private PayloadPolicy(List<Rule> rules) {
+		List<Rule> sorted = new ArrayList<Rule>(rules);
+		// stable, so rules of the same cost keep the order they were added in
+		Collections.sort(sorted, new Comparator<Rule>() {
+			@Override
+			public int compare(Rule a, Rule b) {
+				return a.getCost() < b.getCost() ? -1 : (a.getCost() == b.getCost() ? 0 : 1);
+			}
+		});
+		this.rules = sorted.toArray(new Rule[sorted.size()]);
+		this.evaluated = new AtomicLong[this.rules.length];
+		this.rejected = new AtomicLong[this.rules.length];
+		for (int i = 0; i < this.rules.length; i++) {
+			evaluated[i] = new AtomicLong();
+			rejected[i] = new AtomicLong();
+		}
+	}
+
+	/**
+	 * Checks the statement against every rule.
+	 *
+	 * @param expectedNonce   the nonce the statement must carry, or null to not check it
+	 * @param referenceTimeMs the time the statement timestamp is compared to, typically when it
+	 *                        was requested
+	 * @throws SafetyNetVerificationException with {@code PAYLOAD_VALIDATION_FAILED} at the first
+	 *                                        failing rule
+	 */
+	public void check(@NonNull AttestationStatement statement, @Nullable byte[] expectedNonce, long referenceTimeMs) throws SafetyNetVerificationException {
+		for (int i = 0; i < rules.length; i++) {
+			evaluated[i].incrementAndGet();
+			String failure = rules[i].check(statement, expectedNonce, referenceTimeMs);
+			if (failure != null) {
+				rejected[i].incrementAndGet();
+				throw new SafetyNetVerificationException(PAYLOAD_VALIDATION_FAILED, failure, statement);
+			}
+		}
+	}
+
+	/**
+	 * Returns the counters of each rule, in evaluation order.
+	 */
+	@NonNull
+	public List<RuleStats> getRuleStats() {
+		List<RuleStats> stats = new ArrayList<RuleStats>(rules.length);
+		for (int i = 0; i < rules.length; i++) {
+			stats.add(new RuleStats(rules[i].getName(), evaluated[i].get(), rejected[i].get()));
+		}
+		return stats;
+	}
+
+	/**
+	 * Counters of a rule.
+	 */
+	public static final class RuleStats {
+		private final String name;
+		private final long evaluated;
+		private final long rejected;
+
+		RuleStats(String name, long evaluated, long rejected) {
+			this.name = name;
+			this.evaluated = evaluated;
+			this.rejected = rejected;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns how many statements the rule was evaluated on.
+		 */
+		public long getEvaluated() {
+			return evaluated;
+		}
+
+		/**
+		 * Returns how many statements the rule rejected.
+		 */
+		public long getRejected() {
+			return rejected;
+		}
+
+		@Override
+		public String toString() {
+			return name + "{evaluated=" + evaluated + ", rejected=" + rejected + "}";
+		}
+	}
+
+	public static class Builder {
+		private final List<Rule> rules = new ArrayList<Rule>();
+
+		public Builder() {
+			// the nonce is checked whenever the caller expects one
+			rules.add(new NonceRule());
+		}
+
+		/**
+		 * Requires the statement timestamp to be at most {@code maxAgeMs} before and
+		 * {@code maxSkewMs} after the reference time passed to
+		 * {@link PayloadPolicy#check(AttestationStatement, byte[], long)}.
+		 */
+		public Builder setTimestampWindow(long maxAgeMs, long maxSkewMs) {
+			Preconditions.checkArgument(maxAgeMs >= 0 && maxSkewMs >= 0);
+			return addRule(new TimestampRule(maxAgeMs, maxSkewMs));
+		}
+
+		/**
+		 * Requires the statement to come from one of the packages, compared ignoring case.
+		 */
+		public Builder allowPackages(@NonNull String... packageNames) {
+			return allowPackages(Arrays.asList(packageNames));
+		}
+
+		public Builder allowPackages(@NonNull Collection<String> packageNames) {
+			Set<String> allowed = new HashSet<String>();
+			for (String packageName : packageNames) {
+				allowed.add(packageName.toLowerCase(Locale.US));
+			}
+			return addRule(new PackageRule(allowed));
+		}
+
+		/**
+		 * Requires the APK certificate digests of the statement to be exactly the given base64
+		 * encoded SHA-256 digests, in any order.
+		 */
+		public Builder allowCertificateDigests(@NonNull Collection<String> digests) {
+			return addRule(new CertificateDigestRule(new HashSet<String>(digests), false));
+		}
+
+		/**
+		 * Requires every APK certificate digest of the statement to be one of the given base64
+		 * encoded SHA-256 digests, e.g. to accept both the old and the new certificate while the
+		 * signing key is rotated.
+		 */
+		public Builder allowCertificateDigestsAmong(@NonNull Collection<String> digests) {
+			return addRule(new CertificateDigestRule(new HashSet<String>(digests), true));
+		}
+
+		public Builder requireCtsProfileMatch() {
+			return addRule(new CtsProfileMatchRule());
+		}
+
+		public Builder requireBasicIntegrity() {
+			return addRule(new BasicIntegrityRule());
+		}
+
+		/**
+		 * Requires the statement {@code evaluationType} to include the given type, e.g.
+		 * {@code HARDWARE_BACKED}.
+		 */
+		public Builder requireEvaluationType(@NonNull String evaluationType) {
+			return addRule(new EvaluationTypeRule(evaluationType));
+		}
+
+		public Builder addRule(@NonNull Rule rule) {
+			rules.add(Preconditions.checkNotNull(rule));
+			return this;
+		}
+
+		public PayloadPolicy build() {
+			return new PayloadPolicy(rules);
+		}
+	}
+
+	private static final class NonceRule implements Rule {
+		@NonNull
+		@Override
+		public String getName() {
+			return "nonce";
+		}
+
+		@Override
+		public int getCost() {
+			return 2;
+		}
+
+		@Override
+		public String check(@NonNull AttestationStatement statement, @Nullable byte[] expectedNonce, long referenceTimeMs) {
+			if (expectedNonce == null) {
+				return null;
+			}
+			byte[] nonce;
+			try {
+				nonce = statement.getNonce();
+			} catch (RuntimeException e) {
+				return "Invalid nonce, not base64";
+			}
+			if (nonce == null) {
+				return "Missing nonce";
+			}
+			if (!MessageDigest.isEqual(expectedNonce, nonce)) {
+				return "Invalid nonce, expected:" + Base64Utils.encode(expectedNonce) + ", received:" + Base64Utils.encode(nonce);
+			}
+			return null;
+		}
+	}
+
+	private static final class TimestampRule implements Rule {
+		private final long maxAgeMs;
+		private final long maxSkewMs;
+
+		TimestampRule(long maxAgeMs, long maxSkewMs) {
+			this.maxAgeMs = maxAgeMs;
+			this.maxSkewMs = maxSkewMs;
+		}
+
+		@NonNull
+		@Override
+		public String getName() {
+			return "timestamp";
+		}
+
+		@Override
+		public int getCost() {
+			return 0;
+		}
+
+		@Override
+		public String check(@NonNull AttestationStatement statement, @Nullable byte[] expectedNonce, long referenceTimeMs) {
+			long delta = statement.getTimestampMs() - referenceTimeMs;
+			if (delta > maxSkewMs) {
+				return "Timestamp of response is " + delta + "ms after the request, exceeds permitted duration of '" + maxSkewMs + "'";
+			}
+			if (-delta > maxAgeMs) {
+				return "Timestamp of response is " + (-delta) + "ms before the reference time, exceeds permitted age of '" + maxAgeMs + "'";
+			}
+			return null;
+		}
+	}
+
+	private static final class CtsProfileMatchRule implements Rule {
+		@NonNull
+		@Override
+		public String getName() {
+			return "ctsProfileMatch";
+		}
+
+		@Override
+		public int getCost() {
+			return 0;
+		}
+
+		@Override
+		public String check(@NonNull AttestationStatement statement, @Nullable byte[] expectedNonce, long referenceTimeMs) {
+			return statement.isCtsProfileMatch() ? null : "ctsProfileMatch is false, advice: " + statement.getAdvice();
+		}
+	}
+
+	private static final class BasicIntegrityRule implements Rule {
+		@NonNull
+		@Override
+		public String getName() {
+			return "basicIntegrity";
+		}
+
+		@Override
+		public int getCost() {
+			return 0;
+		}
+
+		@Override
+		public String check(@NonNull AttestationStatement statement, @Nullable byte[] expectedNonce, long referenceTimeMs) {
+			return statement.isBasicIntegrity() ? null : "basicIntegrity is false, advice: " + statement.getAdvice();
+		}
+	}
+
+	private static final class EvaluationTypeRule implements Rule {
+		private final String required;
+
+		EvaluationTypeRule(String required) {
+			this.required = required;
+		}
+
+		@NonNull
+		@Override
+		public String getName() {
+			return "evaluationType";
+		}
+
+		@Override
+		public int getCost() {
+			return 1;
+		}
+
+		@Override
+		public String check(@NonNull AttestationStatement statement, @Nullable byte[] expectedNonce, long referenceTimeMs) {
+			if (statement.hasEvaluationType(required)) {
+				return null;
+			}
+			return "Invalid evaluationType, expected:" + required + ", received:" + statement.getEvaluationType();
+		}
+	}
+
+	private static final class PackageRule implements Rule {
+		private final Set<String> allowed;
+
+		PackageRule(Set<String> allowed) {
+			this.allowed = allowed;
+		}
+
+		@NonNull
+		@Override
+		public String getName() {
+			return "apkPackageName";
+		}
+
+		@Override
+		public int getCost() {
+			return 1;
+		}
+
+		@Override
+		public String check(@NonNull AttestationStatement statement, @Nullable byte[] expectedNonce, long referenceTimeMs) {
+			if (!statement.isCtsProfileMatch()) {
+				return null;
+			}
+			String packageName = statement.getApkPackageName();
+			if (packageName == null || !allowed.contains(packageName.toLowerCase(Locale.US))) {
+				return "Invalid packageName, expected one of:" + allowed + ", received:" + packageName;
+			}
+			return null;
+		}
+	}
+
+	private static final class CertificateDigestRule implements Rule {
+		private final Set<String> allowed;
+		private final boolean subset;
+
+		CertificateDigestRule(Set<String> allowed, boolean subset) {
+			this.allowed = allowed;
+			this.subset = subset;
+		}
+
+		@NonNull
+		@Override
+		public String getName() {
+			return "apkCertificateDigestSha256";
+		}
+
+		@Override
+		public int getCost() {
+			return 3;
+		}
+
+		@Override
+		public String check(@NonNull AttestationStatement statement, @Nullable byte[] expectedNonce, long referenceTimeMs) {
+			if (!statement.isCtsProfileMatch()) {
+				return null;
+			}
+			String[] digests = statement.getApkCertificateDigestSha256();
+			boolean valid = digests != null && digests.length > 0;
+			for (int i = 0; valid && i < digests.length; i++) {
+				valid = allowed.contains(digests[i]);
+			}
+			if (valid && !subset) {
+				// every digest is allowed, so the sets are equal if none of the allowed is missing
+				valid = new HashSet<String>(Arrays.asList(digests)).size() == allowed.size();
+			}
+			if (!valid) {
+				return "Invalid apkCertificateDigest, expected:" + allowed + ", received:" + Arrays.toString(digests);
+			}
+			return null;
+		}
+	}
+}
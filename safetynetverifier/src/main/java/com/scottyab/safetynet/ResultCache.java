@@ -0,0 +1,231 @@
+package com.scottyab.safetynet;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Remembers the outcome of verifying a statement, so that a client retrying the submission of a
+ * byte-identical statement gets the same outcome without the statement being parsed or its
+ * signature checked again.
+ *
+ * <p>Statements are looked up by a 128-bit MurmurHash3 of the whole statement, seeded randomly per
+ * cache, and a hit is only returned if the statement is equal to the cached one, so a collision
+ * can't make a statement inherit the outcome of another. Accepted statements are kept until
+ * their {@code timestampMs} is older than the freshness window, rejected ones for the freshness
+ * window after they were rejected, and the least recently used ones are evicted once the cache
+ * holds {@code maxEntries}.
+ *
+ * <p>Callers consuming nonces should only do so on a miss: a hit is the same submission again,
+ * not a second use of the nonce.
+ */
+public final class ResultCache {
+
+	private final long freshnessMs;
+	private final long seed;
+	private final SegmentedLruCache<Result> results;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param maxEntries  how many outcomes are remembered
+	 * @param freshnessMs how long after their timestamp statements are remembered
+	 */
+	public ResultCache(int maxEntries, long freshnessMs) {
+		Preconditions.checkArgument(maxEntries > 0 && freshnessMs > 0);
+		this.freshnessMs = freshnessMs;
+		this.seed = new SecureRandom().nextLong();
+		this.results = new SegmentedLruCache<Result>(maxEntries);
+	}
+
+	/**
+	 * Returns the outcome of the statement, or null if it is not cached.
+	 */
+	@Nullable
+	public Result get(@NonNull String jws) {
+		return get(jws, System.currentTimeMillis());
+	}
+
+	@Nullable
+	public Result get(@NonNull String jws, long nowMs) {
+		long[] hash = murmur3x64x128(jws, seed);
+		Result result = results.get(hash[0], hash[1], nowMs);
+		if (result == null || !result.jws.equals(jws)) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return result;
+	}
+
+	/**
+	 * Records that the statement was accepted.
+	 */
+	public void putAccepted(@NonNull String jws, @NonNull AttestationStatement statement) {
+		put(new Result(jws, statement, null, null), statement.getTimestampMs() + freshnessMs);
+	}
+
+	/**
+	 * Records that the statement was rejected.
+	 */
+	public void putRejected(@NonNull String jws, @NonNull SafetyNetVerificationException rejection) {
+		put(new Result(jws, rejection.getResponse(), rejection.getErrorCode(), rejection.getMessage()), System.currentTimeMillis() + freshnessMs);
+	}
+
+	private void put(Result result, long expiresAtMs) {
+		if (expiresAtMs <= System.currentTimeMillis()) {
+			return;
+		}
+		long[] hash = murmur3x64x128(result.jws, seed);
+		results.put(hash[0], hash[1], result, expiresAtMs);
+	}
+
+	/**
+	 * Returns how many lookups found the statement.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns how many outcomes were evicted before they expired to keep within maxEntries.
+	 */
+	public long getEvictions() {
+		return results.getEvictions();
+	}
+
+	/**
+	 * MurmurHash3 x64 128 over the low byte of each char, which for a JWS, ASCII only, is the
+	 * same as over its UTF-8 encoding without encoding it.
+	 */
+	static long[] murmur3x64x128(String s, long seed) {
+		final long c1 = 0x87c37b91114253d5L;
+		final long c2 = 0x4cf5ad432745937fL;
+		int length = s.length();
+		long h1 = seed;
+		long h2 = seed;
+		int blocks = length / 16;
+		for (int i = 0; i < blocks; i++) {
+			long k1 = getLong(s, i * 16);
+			long k2 = getLong(s, i * 16 + 8);
+			k1 *= c1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= c2;
+			h1 ^= k1;
+			h1 = Long.rotateLeft(h1, 27);
+			h1 += h2;
+			h1 = h1 * 5 + 0x52dce729;
+			k2 *= c2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= c1;
+			h2 ^= k2;
+			h2 = Long.rotateLeft(h2, 31);
+			h2 += h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+		long k1 = 0;
+		long k2 = 0;
+		int tail = blocks * 16;
+		for (int i = length - tail - 1; i >= 8; i--) {
+			k2 = (k2 << 8) | (s.charAt(tail + i) & 0xff);
+		}
+		for (int i = Math.min(length - tail, 8) - 1; i >= 0; i--) {
+			k1 = (k1 << 8) | (s.charAt(tail + i) & 0xff);
+		}
+		if (length - tail > 8) {
+			k2 *= c2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= c1;
+			h2 ^= k2;
+		}
+		if (length - tail > 0) {
+			k1 *= c1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= c2;
+			h1 ^= k1;
+		}
+		h1 ^= length;
+		h2 ^= length;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix64(h1);
+		h2 = fmix64(h2);
+		h1 += h2;
+		h2 += h1;
+		return new long[]{h1, h2};
+	}
+
+	private static long getLong(String s, int offset) {
+		long value = 0;
+		for (int i = 7; i >= 0; i--) {
+			value = (value << 8) | (s.charAt(offset + i) & 0xff);
+		}
+		return value;
+	}
+
+	private static long fmix64(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	/**
+	 * The cached outcome of a statement.
+	 */
+	public static final class Result {
+		private final String jws;
+		private final AttestationStatement statement;
+		private final SafetyNetVerificationException.ErrorCode errorCode;
+		private final String message;
+
+		Result(String jws, AttestationStatement statement, SafetyNetVerificationException.ErrorCode errorCode, String message) {
+			this.jws = jws;
+			this.statement = statement;
+			this.errorCode = errorCode;
+			this.message = message;
+		}
+
+		public boolean isValid() {
+			return errorCode == null;
+		}
+
+		/**
+		 * Returns the statement, null if it was rejected before it could be parsed.
+		 */
+		@Nullable
+		public AttestationStatement getStatement() {
+			return statement;
+		}
+
+		/**
+		 * Returns why the statement was rejected, null if it was accepted.
+		 */
+		@Nullable
+		public SafetyNetVerificationException.ErrorCode getErrorCode() {
+			return errorCode;
+		}
+
+		@Nullable
+		public String getMessage() {
+			return message;
+		}
+
+		/**
+		 * Returns the rejection as an exception, null if the statement was accepted.
+		 */
+		@Nullable
+		public SafetyNetVerificationException toException() {
+			return errorCode != null ? new SafetyNetVerificationException(errorCode, message, statement) : null;
+		}
+	}
+}
@@ -1,9 +1,5 @@
 package com.scottyab.safetynet;
 
-import android.net.http.X509TrustManagerExtensions;
-import android.os.Build.VERSION;
-import android.util.Base64;
-
 import java.io.ByteArrayInputStream;
 import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
@@ -68,11 +64,29 @@ final class SecurityUtils {
 			byte[] signatureBytes,
 			byte[] contentBytes)
 			throws GeneralSecurityException {
+		X509Certificate[] certificates = parseCertificateChain(certChainBase64);
+
+		trustManager.checkServerTrusted(certificates, "RSA");
+
+		PublicKey pubKey = certificates[0].getPublicKey();
+		if (verify(signatureAlgorithm, pubKey, signatureBytes, contentBytes)) {
+			return certificates[0];
+		}
+		throw new SignatureException("Verification failed");
+	}
+
+	/**
+	 * Parses a certificate chain.
+	 *
+	 * @param certChainBase64 base64 encoded DER certificates
+	 */
+	@NonNull
+	static X509Certificate[] parseCertificateChain(List<String> certChainBase64) throws GeneralSecurityException {
 		CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
 		X509Certificate[] certificates = new X509Certificate[certChainBase64.size()];
 		int currentCert = 0;
 		for (String certBase64 : certChainBase64) {
-			byte[] certDer = Base64.decode(certBase64, Base64.NO_WRAP);
+			byte[] certDer = Base64Utils.decode(certBase64);
 			ByteArrayInputStream bis = new ByteArrayInputStream(certDer);
 			Certificate cert = certificateFactory.generateCertificate(bis);
 			if (!(cert instanceof X509Certificate)) {
@@ -80,19 +94,7 @@ final class SecurityUtils {
 			}
 			certificates[currentCert++] = (X509Certificate) cert;
 		}
-
-		if (VERSION.SDK_INT >= 17) {
-			X509TrustManagerExtensions tme = new X509TrustManagerExtensions(trustManager);
-			tme.checkServerTrusted(certificates, "RSA", "attest.android.com");
-		} else {
-			trustManager.checkServerTrusted(certificates, "RSA");
-		}
-
-		PublicKey pubKey = certificates[0].getPublicKey();
-		if (verify(signatureAlgorithm, pubKey, signatureBytes, contentBytes)) {
-			return certificates[0];
-		}
-		throw new SignatureException("Verification failed");
+		return certificates;
 	}
 
 }
@@ -0,0 +1,160 @@
+package com.scottyab.safetynet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Values keyed by a 128-bit hash, which expire at a time given when they are put. The cache is
+ * split into segments, each in least recently used order and guarded by its own monitor, and the
+ * least recently used value of a segment is evicted once the segment is full.
+ *
+ * <p>Keys are expected to be uniformly distributed, e.g. a cryptographic or seeded hash: the top
+ * bits of {@code low} pick the segment.
+ */
+final class SegmentedLruCache<V> {
+
+	static final int SEGMENTS = 16;
+
+	private final Segment<V>[] segments;
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param maxEntries how many values are kept, rounded up to a multiple of {@link #SEGMENTS}
+	 */
+	@SuppressWarnings("unchecked")
+	SegmentedLruCache(int maxEntries) {
+		Preconditions.checkArgument(maxEntries > 0);
+		int segmentCapacity = Math.max(1, (maxEntries + SEGMENTS - 1) / SEGMENTS);
+		segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment<V>(segmentCapacity, evictions);
+		}
+	}
+
+	/**
+	 * Returns the value, or null if there is none or it expired at or before nowMs, in which case
+	 * it is removed.
+	 */
+	@Nullable
+	V get(long high, long low, long nowMs) {
+		Key key = new Key(high, low);
+		Segment<V> segment = segment(low);
+		synchronized (segment) {
+			Node<V> node = segment.get(key);
+			if (node == null) {
+				return null;
+			}
+			if (node.expiresAtMs <= nowMs) {
+				segment.remove(key);
+				return null;
+			}
+			return node.value;
+		}
+	}
+
+	void put(long high, long low, V value, long expiresAtMs) {
+		Node<V> node = new Node<V>(value, expiresAtMs);
+		Segment<V> segment = segment(low);
+		synchronized (segment) {
+			segment.put(new Key(high, low), node);
+		}
+	}
+
+	void remove(long high, long low) {
+		Segment<V> segment = segment(low);
+		synchronized (segment) {
+			segment.remove(new Key(high, low));
+		}
+	}
+
+	void clear() {
+		for (Segment<V> segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * Returns how many values are held, expired ones included until they are looked up or evicted.
+	 */
+	int size() {
+		int size = 0;
+		for (Segment<V> segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns how many values were evicted to keep within maxEntries.
+	 */
+	long getEvictions() {
+		return evictions.get();
+	}
+
+	private Segment<V> segment(long low) {
+		return segments[(int) (low >>> 60) & (SEGMENTS - 1)];
+	}
+
+	private static final class Key {
+		final long high;
+		final long low;
+
+		Key(long high, long low) {
+			this.high = high;
+			this.low = low;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return high == other.high && low == other.low;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (high ^ (high >>> 32));
+		}
+	}
+
+	private static final class Node<V> {
+		final V value;
+		final long expiresAtMs;
+
+		Node(V value, long expiresAtMs) {
+			this.value = value;
+			this.expiresAtMs = expiresAtMs;
+		}
+	}
+
+	private static final class Segment<V> extends LinkedHashMap<Key, Node<V>> {
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+		private final AtomicLong evictions;
+
+		Segment(int capacity, AtomicLong evictions) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+			this.evictions = evictions;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Node<V>> eldest) {
+			if (size() > capacity) {
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,261 @@
+package com.scottyab.safetynet;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static com.scottyab.safetynet.SafetyNetVerificationException.ErrorCode.PAYLOAD_VALIDATION_FAILED;
+
+/**
+ * Nonces which the server that issued them can check without remembering them: a nonce carries
+ * its issue time and an HMAC-SHA256 over it, so checking one takes no lookup in a shared store.
+ *
+ * <p>Layout:
+ * <pre>
+ * byte     version (1)
+ * int      key id, big endian
+ * long     issue time in ms, big endian
+ * byte[16] random salt
+ * byte[32] HMAC-SHA256(key, version || key id || issue time || salt || SHA-256(binding))
+ * </pre>
+ *
+ * The binding, e.g. the user or the request the attestation is for, is not carried by the nonce,
+ * so a nonce issued for one request is refused for another.
+ *
+ * <p>Keys are rotated with {@link #rotate(int, byte[])}: nonces are then issued with the new key
+ * while the ones issued with the previous keys are still accepted, until these are
+ * {@link #retire(int) retired}.
+ *
+ * <p>A valid nonce can be used several times until it expires, unless a replay window is set
+ * with {@link #setReplayWindow(int)}. The window remembers the last nonces checked; once it is
+ * full, nonces issued before the oldest one it forgot are refused rather than possibly replayed.
+ *
+ * <p>As a {@link PayloadPolicy.Rule}, it checks the nonce of statements without binding, against
+ * the reference time. It is evaluated last, since with a replay window checking a nonce uses it.
+ */
+public final class StatelessNonce implements PayloadPolicy.Rule {
+
+	private static final byte VERSION = 1;
+	private static final int SALT_LENGTH = 16;
+	private static final int MAC_LENGTH = 32;
+	private static final int SIGNED_LENGTH = 1 + 4 + 8 + SALT_LENGTH;
+
+	/**
+	 * Length of the nonces, in bytes.
+	 */
+	public static final int NONCE_LENGTH = SIGNED_LENGTH + MAC_LENGTH;
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private final long validityMs;
+	private final long maxSkewMs;
+	private final NonceGenerator saltGenerator = new NonceGenerator.Builder().setNonceLength(SALT_LENGTH).build();
+
+	/* replaced, never modified, once published */
+	private volatile Map<Integer, HmacKey> keys;
+	private volatile HmacKey currentKey;
+
+	private volatile int replayWindowSize;
+	private LinkedHashMap<ByteBuffer, Long> replayWindow;
+	private long replayFloorMs = Long.MIN_VALUE;
+
+	/**
+	 * @param keyId      id of the key, carried by the nonces to find the key they are checked with
+	 * @param key        HMAC key, at least 32 random bytes
+	 * @param validityMs how long after being issued nonces are accepted
+	 */
+	public StatelessNonce(int keyId, @NonNull byte[] key, long validityMs) {
+		this(keyId, key, validityMs, 0);
+	}
+
+	/**
+	 * @param maxSkewMs how far in the future the issue time of nonces is accepted, when servers
+	 *                  sharing the keys have clocks apart
+	 */
+	public StatelessNonce(int keyId, @NonNull byte[] key, long validityMs, long maxSkewMs) {
+		Preconditions.checkArgument(validityMs > 0 && maxSkewMs >= 0);
+		this.validityMs = validityMs;
+		this.maxSkewMs = maxSkewMs;
+		HmacKey current = new HmacKey(keyId, key);
+		this.keys = Collections.singletonMap(keyId, current);
+		this.currentKey = current;
+	}
+
+	/**
+	 * Issues nonces with the given key from now on, still accepting those issued with the
+	 * previous keys.
+	 */
+	public synchronized void rotate(int keyId, @NonNull byte[] key) {
+		HmacKey current = new HmacKey(keyId, key);
+		Map<Integer, HmacKey> rotated = new HashMap<Integer, HmacKey>(keys);
+		rotated.put(keyId, current);
+		keys = Collections.unmodifiableMap(rotated);
+		currentKey = current;
+	}
+
+	/**
+	 * Refuses the nonces issued with the key from now on.
+	 *
+	 * @throws IllegalArgumentException if the key is the one nonces are issued with
+	 */
+	public synchronized void retire(int keyId) {
+		Preconditions.checkArgument(keyId != currentKey.id);
+		if (keys.containsKey(keyId)) {
+			Map<Integer, HmacKey> retired = new HashMap<Integer, HmacKey>(keys);
+			retired.remove(keyId);
+			keys = Collections.unmodifiableMap(retired);
+		}
+	}
+
+	/**
+	 * Sets how many of the last checked nonces are remembered to refuse them if used again, 0
+	 * (the default) to accept a nonce until it expires.
+	 */
+	public StatelessNonce setReplayWindow(int size) {
+		Preconditions.checkArgument(size >= 0);
+		synchronized (this) {
+			replayWindowSize = size;
+			replayWindow = size > 0 ? new LinkedHashMap<ByteBuffer, Long>() : null;
+			replayFloorMs = Long.MIN_VALUE;
+		}
+		return this;
+	}
+
+	/**
+	 * Issues a nonce bound to the given data, null for none.
+	 */
+	@NonNull
+	public byte[] issue(@Nullable byte[] binding) {
+		return issue(binding, System.currentTimeMillis());
+	}
+
+	@NonNull
+	public byte[] issue(@Nullable byte[] binding, long nowMs) {
+		HmacKey key = currentKey;
+		ByteBuffer nonce = ByteBuffer.allocate(NONCE_LENGTH);
+		nonce.put(VERSION).putInt(key.id).putLong(nowMs);
+		nonce.put(saltGenerator.next());
+		nonce.put(mac(key, nonce.array(), bindingHash(binding)));
+		return nonce.array();
+	}
+
+	/**
+	 * Checks the nonce was issued by this server for the binding, and is not expired nor replayed.
+	 *
+	 * @throws SafetyNetVerificationException with {@code PAYLOAD_VALIDATION_FAILED} if it isn't
+	 */
+	public void verify(@Nullable byte[] nonce, @Nullable byte[] binding, long nowMs) throws SafetyNetVerificationException {
+		String failure = checkNonce(nonce, binding, nowMs);
+		if (failure != null) {
+			throw new SafetyNetVerificationException(PAYLOAD_VALIDATION_FAILED, failure, null);
+		}
+	}
+
+	/**
+	 * Returns null if the nonce is valid, the reason it is not otherwise.
+	 */
+	@Nullable
+	private String checkNonce(@Nullable byte[] nonce, @Nullable byte[] binding, long nowMs) {
+		if (nonce == null || nonce.length != NONCE_LENGTH || nonce[0] != VERSION) {
+			return "Invalid nonce, not issued by this server";
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(nonce);
+		HmacKey key = keys.get(buffer.getInt(1));
+		if (key == null) {
+			return "Invalid nonce, unknown or retired key " + buffer.getInt(1);
+		}
+		byte[] mac = new byte[MAC_LENGTH];
+		System.arraycopy(nonce, SIGNED_LENGTH, mac, 0, MAC_LENGTH);
+		// constant time, so that the MAC can't be guessed byte by byte
+		if (!MessageDigest.isEqual(mac, mac(key, nonce, bindingHash(binding)))) {
+			return "Invalid nonce, bad MAC or binding";
+		}
+		long issuedAtMs = buffer.getLong(5);
+		if (issuedAtMs - nowMs > maxSkewMs) {
+			return "Invalid nonce, issued " + (issuedAtMs - nowMs) + "ms in the future";
+		}
+		if (nowMs - issuedAtMs > validityMs) {
+			return "Invalid nonce, expired " + (nowMs - issuedAtMs - validityMs) + "ms ago";
+		}
+		if (replayWindowSize > 0 && !markUsed(mac, issuedAtMs, nowMs)) {
+			return "Invalid nonce, already used";
+		}
+		return null;
+	}
+
+	/**
+	 * Records the nonce in the replay window, returns false if it was already used or can't be
+	 * told apart from a replay anymore.
+	 */
+	private synchronized boolean markUsed(byte[] mac, long issuedAtMs, long nowMs) {
+		LinkedHashMap<ByteBuffer, Long> window = replayWindow;
+		if (window == null) {
+			return true;
+		}
+		if (issuedAtMs <= replayFloorMs) {
+			return false;
+		}
+		if (window.put(ByteBuffer.wrap(mac), issuedAtMs) != null) {
+			return false;
+		}
+		Iterator<Long> it = window.values().iterator();
+		while (it.hasNext()) {
+			long eldestIssuedAtMs = it.next();
+			if (nowMs - eldestIssuedAtMs > validityMs) {
+				// expired, refused anyway
+				it.remove();
+			} else if (window.size() > replayWindowSize) {
+				replayFloorMs = Math.max(replayFloorMs, eldestIssuedAtMs);
+				it.remove();
+			} else {
+				break;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the MAC of the signed part of the nonce and the binding hash.
+	 */
+	private static byte[] mac(HmacKey key, byte[] nonce, byte[] bindingHash) {
+		return key.mac(nonce, SIGNED_LENGTH, bindingHash);
+	}
+
+	private static byte[] bindingHash(@Nullable byte[] binding) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(binding != null ? binding : EMPTY);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@NonNull
+	@Override
+	public String getName() {
+		return "statelessNonce";
+	}
+
+	@Override
+	public int getCost() {
+		return 4;
+	}
+
+	@Override
+	public String check(@NonNull AttestationStatement statement, @Nullable byte[] expectedNonce, long referenceTimeMs) {
+		byte[] nonce;
+		try {
+			nonce = statement.getNonce();
+		} catch (RuntimeException e) {
+			return "Invalid nonce, not base64";
+		}
+		return checkNonce(nonce, null, referenceTimeMs);
+	}
+}
@@ -0,0 +1,36 @@
+package com.scottyab.safetynet;
+
+/**
+ * Spreads threads over a fixed number of stripes, so that objects which are not thread-safe can be
+ * pooled, one per stripe, and shared with little contention. Unlike a {@link ThreadLocal}, the
+ * pool doesn't grow with the number of threads, which matters with a thread, possibly virtual,
+ * per request.
+ */
+final class Stripes {
+
+	private static final int MAX_COUNT = 256;
+
+	private Stripes() {
+	}
+
+	/**
+	 * Returns how many stripes to use, a power of two of at least 4 per processor.
+	 */
+	static int count() {
+		int count = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+		return Math.min(count, MAX_COUNT);
+	}
+
+	/**
+	 * Returns the stripe of the calling thread.
+	 *
+	 * @param count the number of stripes, as returned by {@link #count()}
+	 */
+	// getId() is deprecated for threadId() since Java 19, which Android and Java 7 don't have
+	@SuppressWarnings("deprecation")
+	static int index(int count) {
+		// thread ids are mostly sequential, the multiplication spreads them over the top bits
+		long hash = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+		return (int) (hash >>> (64 - Integer.numberOfTrailingZeros(count)));
+	}
+}
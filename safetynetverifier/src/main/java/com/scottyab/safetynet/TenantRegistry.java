@@ -0,0 +1,406 @@
+package com.scottyab.safetynet;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * The apps statements are verified for when serving several of them from one backend, keyed by
+ * package name, each with its allowed APK certificate digests, APK digests and freshness window.
+ *
+ * <p>The registry is a {@link PayloadPolicy.Rule}, so it is used by adding it to a policy:
+ *
+ * <pre>
+ * TenantRegistry tenants = new TenantRegistry();
+ * tenants.load(new File("tenants.json"));
+ * PayloadPolicy policy = new PayloadPolicy.Builder()
+ *         .requireCtsProfileMatch()
+ *         .addRule(tenants)
+ *         .build();
+ * </pre>
+ *
+ * <p>The tenants are held in an immutable index which updates replace as a whole, so lookups take
+ * no lock and always see a consistent set of tenants, and the registry can be reloaded while
+ * statements are being verified. Every statement must name a known package and be within its
+ * tenant's freshness window, but the digests are only compared for statements with
+ * {@code ctsProfileMatch}, since the APK information of the others cannot be trusted.
+ *
+ * <p>The config file is JSON:
+ *
+ * <pre>
+ * {"tenants": [{
+ *     "packageName": "com.example.app",
+ *     "certificateDigests": ["base64 SHA-256", ...],
+ *     "apkDigests": ["base64 SHA-256", ...],
+ *     "maxAgeMs": 600000,
+ *     "maxSkewMs": 120000
+ * }]}
+ * </pre>
+ *
+ * {@code apkDigests}, {@code maxAgeMs} and {@code maxSkewMs} are optional, an absent or empty
+ * {@code apkDigests} allows any APK. The APK must be signed with exactly the
+ * {@code certificateDigests}, or with any of them if they are given as
+ * {@code certificateDigestsAmong} instead, as with
+ * {@link PayloadPolicy.Builder#allowCertificateDigestsAmong(Collection)}.
+ */
+public final class TenantRegistry implements PayloadPolicy.Rule {
+
+	private static final Gson GSON = new Gson();
+
+	/* replaced, never modified, once published */
+	private volatile Map<String, Tenant> tenants = Collections.emptyMap();
+
+	private long loadedLastModified = -1;
+	private long loadedLength = -1;
+
+	/**
+	 * Returns the tenant of the package, compared ignoring case, or null if there is none.
+	 */
+	@Nullable
+	public Tenant getTenant(@Nullable String packageName) {
+		if (packageName == null) {
+			return null;
+		}
+		return tenants.get(packageName.toLowerCase(Locale.US));
+	}
+
+	@NonNull
+	public Collection<Tenant> getTenants() {
+		return tenants.values();
+	}
+
+	/**
+	 * Replaces all the tenants.
+	 *
+	 * @throws IllegalArgumentException if two tenants have the same package name
+	 */
+	public synchronized void setTenants(@NonNull Collection<Tenant> tenants) {
+		Map<String, Tenant> index = new HashMap<String, Tenant>(tenants.size() * 2);
+		for (Tenant tenant : tenants) {
+			if (index.put(tenant.key, tenant) != null) {
+				throw new IllegalArgumentException("Duplicate tenant " + tenant.packageName);
+			}
+		}
+		this.tenants = Collections.unmodifiableMap(index);
+	}
+
+	/**
+	 * Adds the tenant, replacing the one of the same package if any.
+	 */
+	public synchronized void putTenant(@NonNull Tenant tenant) {
+		Map<String, Tenant> index = new HashMap<String, Tenant>(tenants);
+		index.put(tenant.key, tenant);
+		this.tenants = Collections.unmodifiableMap(index);
+	}
+
+	public synchronized void removeTenant(@NonNull String packageName) {
+		String key = packageName.toLowerCase(Locale.US);
+		if (tenants.containsKey(key)) {
+			Map<String, Tenant> index = new HashMap<String, Tenant>(tenants);
+			index.remove(key);
+			this.tenants = Collections.unmodifiableMap(index);
+		}
+	}
+
+	/**
+	 * Replaces all the tenants with the ones of the config. If it cannot be read or parsed, the
+	 * tenants are left unchanged.
+	 */
+	public void load(@NonNull Reader config) throws IOException {
+		setTenants(parse(config));
+	}
+
+	/**
+	 * Replaces all the tenants with the ones of the config file. If it cannot be read or parsed,
+	 * the tenants are left unchanged.
+	 */
+	public synchronized void load(@NonNull File config) throws IOException {
+		long lastModified = config.lastModified();
+		long length = config.length();
+		Reader reader = new InputStreamReader(new FileInputStream(config), "UTF-8");
+		try {
+			setTenants(parse(reader));
+		} finally {
+			reader.close();
+		}
+		loadedLastModified = lastModified;
+		loadedLength = length;
+	}
+
+	/**
+	 * Loads the config file if it changed since it was last loaded, meant to be polled.
+	 *
+	 * @return true if the tenants were reloaded
+	 */
+	public synchronized boolean loadIfModified(@NonNull File config) throws IOException {
+		if (config.lastModified() == loadedLastModified && config.length() == loadedLength) {
+			return false;
+		}
+		load(config);
+		return true;
+	}
+
+	private static List<Tenant> parse(Reader reader) throws IOException {
+		Config config;
+		try {
+			config = GSON.fromJson(reader, Config.class);
+		} catch (JsonParseException e) {
+			throw new IOException("Invalid tenant config; " + e.getMessage(), e);
+		}
+		if (config == null || config.tenants == null) {
+			throw new IOException("Invalid tenant config; no tenants");
+		}
+		List<Tenant> tenants = new ArrayList<Tenant>(config.tenants.length);
+		Set<String> keys = new HashSet<String>();
+		for (TenantConfig tenant : config.tenants) {
+			String[] certificateDigests = tenant.certificateDigests != null ? tenant.certificateDigests : tenant.certificateDigestsAmong;
+			if (tenant.packageName == null || certificateDigests == null || certificateDigests.length == 0
+					|| (tenant.certificateDigests != null && tenant.certificateDigestsAmong != null)) {
+				throw new IOException("Invalid tenant config; packageName and either certificateDigests or certificateDigestsAmong are required");
+			}
+			Tenant.Builder builder = new Tenant.Builder(tenant.packageName);
+			if (tenant.certificateDigests != null) {
+				builder.allowCertificateDigests(Arrays.asList(certificateDigests));
+			} else {
+				builder.allowCertificateDigestsAmong(Arrays.asList(certificateDigests));
+			}
+			if (tenant.apkDigests != null) {
+				builder.allowApkDigests(Arrays.asList(tenant.apkDigests));
+			}
+			try {
+				if (tenant.maxAgeMs != null || tenant.maxSkewMs != null) {
+					builder.setTimestampWindow(tenant.maxAgeMs != null ? tenant.maxAgeMs : Long.MAX_VALUE,
+							tenant.maxSkewMs != null ? tenant.maxSkewMs : Long.MAX_VALUE);
+				}
+				tenants.add(builder.build());
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Invalid tenant config; " + e.getMessage() + " for " + tenant.packageName, e);
+			}
+			if (!keys.add(tenants.get(tenants.size() - 1).key)) {
+				throw new IOException("Invalid tenant config; duplicate tenant " + tenant.packageName);
+			}
+		}
+		return tenants;
+	}
+
+	@NonNull
+	@Override
+	public String getName() {
+		return "tenant";
+	}
+
+	@Override
+	public int getCost() {
+		return 3;
+	}
+
+	@Override
+	public String check(@NonNull AttestationStatement statement, @Nullable byte[] expectedNonce, long referenceTimeMs) {
+		Tenant tenant = getTenant(statement.getApkPackageName());
+		if (tenant == null) {
+			return "Unknown packageName:" + statement.getApkPackageName();
+		}
+		return tenant.check(statement, referenceTimeMs);
+	}
+
+	/**
+	 * An app and what its statements must match. Immutable.
+	 */
+	public static final class Tenant {
+		private final String packageName;
+		private final String key;
+		private final Set<String> certificateDigests;
+		private final boolean certificateDigestsAmong;
+		private final Set<String> apkDigests;
+		private final long maxAgeMs;
+		private final long maxSkewMs;
+
+		private Tenant(Builder builder) {
+			packageName = builder.packageName;
+			key = packageName.toLowerCase(Locale.US);
+			certificateDigests = Collections.unmodifiableSet(new HashSet<String>(builder.certificateDigests));
+			certificateDigestsAmong = builder.certificateDigestsAmong;
+			apkDigests = Collections.unmodifiableSet(new HashSet<String>(builder.apkDigests));
+			maxAgeMs = builder.maxAgeMs;
+			maxSkewMs = builder.maxSkewMs;
+		}
+
+		public String getPackageName() {
+			return packageName;
+		}
+
+		public Set<String> getCertificateDigests() {
+			return certificateDigests;
+		}
+
+		/**
+		 * Returns true if the APK may be signed with any of the certificate digests, rather than
+		 * with exactly them.
+		 */
+		public boolean isCertificateDigestsAmong() {
+			return certificateDigestsAmong;
+		}
+
+		/**
+		 * Returns the allowed APK digests, empty if any APK is allowed.
+		 */
+		public Set<String> getApkDigests() {
+			return apkDigests;
+		}
+
+		public long getMaxAgeMs() {
+			return maxAgeMs;
+		}
+
+		public long getMaxSkewMs() {
+			return maxSkewMs;
+		}
+
+		private String check(AttestationStatement statement, long referenceTimeMs) {
+			long delta = statement.getTimestampMs() - referenceTimeMs;
+			if (delta > maxSkewMs) {
+				return "Timestamp of response is " + delta + "ms after the reference time, exceeds permitted duration of '" + maxSkewMs + "' for " + packageName;
+			}
+			if (-delta > maxAgeMs) {
+				return "Timestamp of response is " + (-delta) + "ms before the reference time, exceeds permitted age of '" + maxAgeMs + "' for " + packageName;
+			}
+			if (!statement.isCtsProfileMatch()) {
+				return null;
+			}
+			String[] digests = statement.getApkCertificateDigestSha256();
+			boolean valid = digests != null && digests.length > 0;
+			for (int i = 0; valid && i < digests.length; i++) {
+				valid = certificateDigests.contains(digests[i]);
+			}
+			if (valid && !certificateDigestsAmong) {
+				// every digest is allowed, so the sets are equal if none of the allowed is missing
+				valid = new HashSet<String>(Arrays.asList(digests)).size() == certificateDigests.size();
+			}
+			if (!valid) {
+				return "Invalid apkCertificateDigest for " + packageName + ", expected:" + certificateDigests + ", received:" + Arrays.toString(digests);
+			}
+			if (!apkDigests.isEmpty() && !apkDigests.contains(statement.getApkDigestSha256())) {
+				return "Invalid apkDigest for " + packageName + ", received:" + statement.getApkDigestSha256();
+			}
+			return null;
+		}
+
+		@Override
+		public String toString() {
+			return "Tenant{" +
+					"packageName='" + packageName + '\'' +
+					", certificateDigests=" + certificateDigests +
+					", certificateDigestsAmong=" + certificateDigestsAmong +
+					", apkDigests=" + apkDigests +
+					", maxAgeMs=" + maxAgeMs +
+					", maxSkewMs=" + maxSkewMs +
+					'}';
+		}
+
+		public static class Builder {
+			private final String packageName;
+			private final Set<String> certificateDigests = new HashSet<String>();
+			private boolean certificateDigestsAmong;
+			private final Set<String> apkDigests = new HashSet<String>();
+			private long maxAgeMs = Long.MAX_VALUE;
+			private long maxSkewMs = Long.MAX_VALUE;
+
+			public Builder(@NonNull String packageName) {
+				this.packageName = Preconditions.checkNotNull(packageName);
+			}
+
+			/**
+			 * Adds base64 encoded SHA-256 digests of the certificates the APK must be signed with,
+			 * all of them and no other, in any order.
+			 */
+			public Builder allowCertificateDigests(@NonNull Collection<String> digests) {
+				certificateDigests.addAll(digests);
+				return this;
+			}
+
+			/**
+			 * Adds base64 encoded SHA-256 digests of certificates the APK may be signed with, and
+			 * only requires every certificate of the APK to be one of the digests added, e.g. to
+			 * accept both the old and the new certificate while the signing key is rotated.
+			 */
+			public Builder allowCertificateDigestsAmong(@NonNull Collection<String> digests) {
+				certificateDigests.addAll(digests);
+				certificateDigestsAmong = true;
+				return this;
+			}
+
+			/**
+			 * Adds base64 encoded SHA-256 digests of the APKs allowed, by default any is.
+			 */
+			public Builder allowApkDigests(@NonNull Collection<String> digests) {
+				apkDigests.addAll(digests);
+				return this;
+			}
+
+			/**
+			 * Requires the statement timestamp to be at most {@code maxAgeMs} before and
+			 * {@code maxSkewMs} after the reference time, by default it is not checked.
+			 */
+			public Builder setTimestampWindow(long maxAgeMs, long maxSkewMs) {
+				Preconditions.checkArgument(maxAgeMs >= 0 && maxSkewMs >= 0);
+				this.maxAgeMs = maxAgeMs;
+				this.maxSkewMs = maxSkewMs;
+				return this;
+			}
+
+			/**
+			 * @throws IllegalArgumentException if no certificate digest was added
+			 */
+			public Tenant build() {
+				if (certificateDigests.isEmpty()) {
+					throw new IllegalArgumentException("No certificate digest allowed for " + packageName);
+				}
+				return new Tenant(this);
+			}
+		}
+	}
+
+	private static class Config {
+		@SerializedName("tenants")
+		TenantConfig[] tenants;
+	}
+
+	private static class TenantConfig {
+		@SerializedName("packageName")
+		String packageName;
+
+		@SerializedName("certificateDigests")
+		String[] certificateDigests;
+
+		@SerializedName("certificateDigestsAmong")
+		String[] certificateDigestsAmong;
+
+		@SerializedName("apkDigests")
+		String[] apkDigests;
+
+		@SerializedName("maxAgeMs")
+		Long maxAgeMs;
+
+		@SerializedName("maxSkewMs")
+		Long maxSkewMs;
+	}
+}
@@ -0,0 +1,488 @@
+package com.scottyab.safetynet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Compact storage of raw statements, e.g. to keep them for re-verification.
+ *
+ * <pre>
+ * try (TokenArchive.Writer writer = new TokenArchive.Writer(new FileOutputStream(file), true)) {
+ *     writer.append(jws);
+ * }
+ * try (TokenArchive.Reader reader = new TokenArchive.Reader(new FileInputStream(file))) {
+ *     for (String jws = reader.next(); jws != null; jws = reader.next()) {
+ *         OfflineVerifier.from(jws).verify();
+ *     }
+ * }
+ * </pre>
+ *
+ * <p>Most of a statement is its JWS header, which carries the certificate chain and is the same for
+ * every statement signed with that chain. Each distinct header is stored once, the first time it
+ * is seen, and statements refer to it by its index. Payloads and signatures are stored decoded
+ * from base64, unless they are not in the canonical form that would encode back to the same
+ * string, so that the statements read back are the very same strings that were appended.
+ *
+ * <p>Layout:
+ * <pre>
+ * int      magic, 0x534e5441
+ * byte     version (1)
+ * byte     flags: 1 blocks are deflated
+ * blocks, until the end of the stream:
+ *   int    length of the entries, uncompressed
+ *   int    length of the block as stored
+ *   int    CRC32 of the entries, uncompressed
+ *   bytes  entries, deflated on their own if so flagged
+ * entries, lengths and indexes as unsigned LEB128 varints:
+ *   0 varint length, bytes: header added to the dictionary, its index is the count of headers
+ *                           before it
+ *   1 varint header index, byte part forms, then the payload and the signature, each as varint
+ *     length and bytes: statement; form bit 0 tells the payload is decoded, bit 1 the signature
+ *   2 varint length, bytes: statement stored as is, UTF-8, e.g. because it is not a JWS
+ * </pre>
+ * Entries are buffered into blocks of about {@link Writer#setBlockBytes(int) 256KB}, so that
+ * deflate can also share the JSON keys of successive payloads.
+ */
+public final class TokenArchive {
+
+	private static final int MAGIC = 0x534e5441;
+	private static final byte VERSION = 1;
+	private static final int FLAG_DEFLATE = 1;
+
+	private static final int ENTRY_HEADER = 0;
+	private static final int ENTRY_STATEMENT = 1;
+	private static final int ENTRY_RAW = 2;
+
+	private static final int FORM_PAYLOAD_DECODED = 1;
+	private static final int FORM_SIGNATURE_DECODED = 2;
+
+	/* refuses blocks claiming more, rather than allocating them */
+	private static final int MAX_BLOCK_BYTES = 64 * 1024 * 1024;
+	/* refuses archives with larger header dictionaries, rather than keeping them in memory */
+	private static final int MAX_HEADERS = 1024 * 1024;
+	private static final long MAX_HEADER_BYTES = 256 * 1024 * 1024;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private TokenArchive() {
+	}
+
+	/**
+	 * Appends statements to a stream. Not thread-safe.
+	 */
+	public static final class Writer implements Closeable, Flushable {
+		private final OutputStream out;
+		private final Deflater deflater;
+		private final Map<String, Integer> headers = new HashMap<String, Integer>();
+		private final Block block = new Block();
+		private final CRC32 crc = new CRC32();
+		private int blockBytes = 256 * 1024;
+		private int maxHeaders = 4096;
+		private long maxHeaderBytes = 16 * 1024 * 1024;
+		private long headerBytes;
+		private long statements;
+		private long bytesIn;
+		private long bytesOut;
+		private boolean closed;
+
+		/**
+		 * Writes the archive header to the stream right away.
+		 *
+		 * @param compress whether blocks are deflated
+		 */
+		public Writer(@NonNull OutputStream out, boolean compress) throws IOException {
+			this.out = out;
+			this.deflater = compress ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : null;
+			byte[] header = new byte[6];
+			putInt(header, 0, MAGIC);
+			header[4] = VERSION;
+			header[5] = (byte) (compress ? FLAG_DEFLATE : 0);
+			out.write(header);
+			bytesOut += header.length;
+		}
+
+		/**
+		 * Sets how many bytes of entries are buffered before being written as a block, 256KB by
+		 * default. Larger blocks compress better, and lose more statements if the writer is not
+		 * closed.
+		 */
+		public Writer setBlockBytes(int blockBytes) {
+			Preconditions.checkArgument(blockBytes > 0 && blockBytes <= MAX_BLOCK_BYTES / 2);
+			this.blockBytes = blockBytes;
+			return this;
+		}
+
+		/**
+		 * Sets how many distinct headers are kept in the dictionary, 4096 by default. Statements
+		 * with other headers, e.g. forged ones each with its own chain, are stored as is.
+		 */
+		public Writer setMaxHeaders(int maxHeaders) {
+			Preconditions.checkArgument(maxHeaders >= 0 && maxHeaders <= MAX_HEADERS);
+			this.maxHeaders = maxHeaders;
+			return this;
+		}
+
+		/**
+		 * Sets how many bytes of headers are kept in the dictionary, 16MB by default, which the
+		 * reader keeps in memory too. Statements with other headers are stored as is.
+		 */
+		public Writer setMaxHeaderBytes(long maxHeaderBytes) {
+			Preconditions.checkArgument(maxHeaderBytes >= 0 && maxHeaderBytes <= MAX_HEADER_BYTES);
+			this.maxHeaderBytes = maxHeaderBytes;
+			return this;
+		}
+
+		public void append(@NonNull String jws) throws IOException {
+			if (closed) {
+				throw new IOException("Archive closed");
+			}
+			int headerEnd = jws.indexOf('.');
+			int payloadEnd = headerEnd > 0 ? jws.indexOf('.', headerEnd + 1) : -1;
+			Integer headerIndex = null;
+			if (payloadEnd > 0 && jws.indexOf('.', payloadEnd + 1) < 0) {
+				String header = jws.substring(0, headerEnd);
+				headerIndex = headers.get(header);
+				if (headerIndex == null && headers.size() < maxHeaders) {
+					byte[] bytes = header.getBytes(UTF_8);
+					if (headerBytes + bytes.length <= maxHeaderBytes) {
+						headerIndex = headers.size();
+						headers.put(header, headerIndex);
+						headerBytes += bytes.length;
+						block.write(ENTRY_HEADER);
+						block.writeLengthPrefixed(bytes);
+					}
+				}
+			}
+			if (headerIndex != null) {
+				byte[] payload = decodeIfCanonical(jws.substring(headerEnd + 1, payloadEnd));
+				byte[] signature = decodeIfCanonical(jws.substring(payloadEnd + 1));
+				int form = (payload != null ? FORM_PAYLOAD_DECODED : 0) | (signature != null ? FORM_SIGNATURE_DECODED : 0);
+				block.write(ENTRY_STATEMENT);
+				block.writeVarint(headerIndex);
+				block.write(form);
+				block.writeLengthPrefixed(payload != null ? payload : jws.substring(headerEnd + 1, payloadEnd).getBytes(UTF_8));
+				block.writeLengthPrefixed(signature != null ? signature : jws.substring(payloadEnd + 1).getBytes(UTF_8));
+			} else {
+				block.write(ENTRY_RAW);
+				block.writeLengthPrefixed(jws.getBytes(UTF_8));
+			}
+			statements++;
+			bytesIn += jws.length();
+			if (block.size() >= blockBytes) {
+				writeBlock();
+			}
+		}
+
+		/**
+		 * Writes the statements appended so far as a block, even if smaller than the block size.
+		 */
+		@Override
+		public void flush() throws IOException {
+			if (block.size() > 0) {
+				writeBlock();
+			}
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			try {
+				flush();
+			} finally {
+				closed = true;
+				if (deflater != null) {
+					deflater.end();
+				}
+				out.close();
+			}
+		}
+
+		/**
+		 * Returns how many statements were appended.
+		 */
+		public long getStatements() {
+			return statements;
+		}
+
+		/**
+		 * Returns the total length of the statements appended.
+		 */
+		public long getBytesIn() {
+			return bytesIn;
+		}
+
+		/**
+		 * Returns how many bytes were written to the stream so far, the statements still buffered
+		 * excluded.
+		 */
+		public long getBytesOut() {
+			return bytesOut;
+		}
+
+		private void writeBlock() throws IOException {
+			byte[] entries = block.buffer();
+			int length = block.size();
+			crc.reset();
+			crc.update(entries, 0, length);
+			byte[] stored = entries;
+			int storedLength = length;
+			if (deflater != null) {
+				deflater.reset();
+				deflater.setInput(entries, 0, length);
+				deflater.finish();
+				ByteArrayOutputStream deflated = new ByteArrayOutputStream(length / 4 + 64);
+				byte[] chunk = new byte[16 * 1024];
+				while (!deflater.finished()) {
+					int n = deflater.deflate(chunk);
+					deflated.write(chunk, 0, n);
+				}
+				stored = deflated.toByteArray();
+				storedLength = stored.length;
+			}
+			byte[] header = new byte[12];
+			putInt(header, 0, length);
+			putInt(header, 4, storedLength);
+			putInt(header, 8, (int) crc.getValue());
+			out.write(header);
+			out.write(stored, 0, storedLength);
+			bytesOut += header.length + storedLength;
+			block.reset();
+		}
+
+		/**
+		 * Returns the decoded part, or null if decoding it would not give it back byte for byte.
+		 */
+		@Nullable
+		private static byte[] decodeIfCanonical(String part) {
+			byte[] decoded;
+			try {
+				decoded = Base64Utils.decode(part);
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+			return Base64Utils.encodeUrlSafe(decoded).equals(part) ? decoded : null;
+		}
+	}
+
+	/**
+	 * Reads the statements of an archive back, in the order they were appended. Not thread-safe.
+	 */
+	public static final class Reader implements Closeable {
+		private final DataInputStream in;
+		private final Inflater inflater;
+		private final List<String> headers = new ArrayList<String>();
+		private long headerBytes;
+		private final CRC32 crc = new CRC32();
+		private byte[] entries = new byte[0];
+		private int position;
+		private int limit;
+
+		/**
+		 * Reads the archive header from the stream right away.
+		 *
+		 * @throws IOException if the stream is not an archive
+		 */
+		public Reader(@NonNull InputStream in) throws IOException {
+			this.in = new DataInputStream(in);
+			if (this.in.readInt() != MAGIC) {
+				throw new IOException("Not a token archive");
+			}
+			int version = this.in.readUnsignedByte();
+			if (version != VERSION) {
+				throw new IOException("Unsupported token archive version " + version);
+			}
+			int flags = this.in.readUnsignedByte();
+			this.inflater = (flags & FLAG_DEFLATE) != 0 ? new Inflater(true) : null;
+		}
+
+		/**
+		 * Returns the next statement, exactly as it was appended, or null at the end of the archive.
+		 *
+		 * @throws IOException if the archive is truncated or damaged
+		 */
+		@Nullable
+		public String next() throws IOException {
+			while (true) {
+				if (position == limit && !readBlock()) {
+					return null;
+				}
+				int type = entries[position++] & 0xff;
+				switch (type) {
+					case ENTRY_HEADER:
+						byte[] header = readBytes();
+						headerBytes += header.length;
+						if (headers.size() >= MAX_HEADERS || headerBytes > MAX_HEADER_BYTES) {
+							throw new IOException("Damaged archive, more than " + MAX_HEADERS + " headers or " + MAX_HEADER_BYTES + " bytes of headers");
+						}
+						headers.add(new String(header, UTF_8));
+						break;
+					case ENTRY_STATEMENT:
+						int headerIndex = readVarint();
+						if (headerIndex >= headers.size()) {
+							throw new IOException("Unknown header " + headerIndex);
+						}
+						int form = readByte();
+						byte[] payload = readBytes();
+						byte[] signature = readBytes();
+						return headers.get(headerIndex)
+								+ '.' + ((form & FORM_PAYLOAD_DECODED) != 0 ? Base64Utils.encodeUrlSafe(payload) : new String(payload, UTF_8))
+								+ '.' + ((form & FORM_SIGNATURE_DECODED) != 0 ? Base64Utils.encodeUrlSafe(signature) : new String(signature, UTF_8));
+					case ENTRY_RAW:
+						return new String(readBytes(), UTF_8);
+					default:
+						throw new IOException("Unknown entry type " + type);
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (inflater != null) {
+				inflater.end();
+			}
+			in.close();
+		}
+
+		/**
+		 * Returns false at the end of the stream.
+		 */
+		private boolean readBlock() throws IOException {
+			int length;
+			try {
+				length = in.readInt();
+			} catch (EOFException e) {
+				return false;
+			}
+			int storedLength = in.readInt();
+			int checksum = in.readInt();
+			if (length <= 0 || length > MAX_BLOCK_BYTES || storedLength <= 0 || storedLength > MAX_BLOCK_BYTES) {
+				throw new IOException("Damaged block, length " + length + ", stored " + storedLength);
+			}
+			byte[] stored = new byte[storedLength];
+			in.readFully(stored);
+			if (inflater == null) {
+				if (storedLength != length) {
+					throw new IOException("Damaged block, length " + length + ", stored " + storedLength);
+				}
+				entries = stored;
+			} else {
+				// one more byte than expected, to tell a block inflating to more
+				if (entries.length <= length) {
+					entries = new byte[length + 1];
+				}
+				inflater.reset();
+				inflater.setInput(stored);
+				int inflated = 0;
+				try {
+					while (!inflater.finished()) {
+						int n = inflater.inflate(entries, inflated, length + 1 - inflated);
+						if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+							throw new IOException("Damaged block, deflated data truncated or needing a dictionary");
+						}
+						inflated += n;
+						if (inflated > length) {
+							throw new IOException("Damaged block, longer than " + length);
+						}
+					}
+				} catch (DataFormatException e) {
+					throw new IOException("Damaged block", e);
+				}
+				if (inflated != length || inflater.getRemaining() != 0) {
+					throw new IOException("Damaged block, inflated " + inflated + " of " + length + ", " + inflater.getRemaining() + " bytes left over");
+				}
+			}
+			crc.reset();
+			crc.update(entries, 0, length);
+			if ((int) crc.getValue() != checksum) {
+				throw new IOException("Damaged block, CRC mismatch");
+			}
+			position = 0;
+			limit = length;
+			return true;
+		}
+
+		private int readByte() throws IOException {
+			if (position >= limit) {
+				throw new IOException("Damaged block, entry truncated");
+			}
+			return entries[position++] & 0xff;
+		}
+
+		private int readVarint() throws IOException {
+			int value = 0;
+			for (int shift = 0; shift < 32; shift += 7) {
+				int b = readByte();
+				value |= (b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IOException("Damaged block, varint too long");
+		}
+
+		private byte[] readBytes() throws IOException {
+			int length = readVarint();
+			if (length < 0 || length > limit - position) {
+				throw new IOException("Damaged block, entry truncated");
+			}
+			byte[] bytes = new byte[length];
+			System.arraycopy(entries, position, bytes, 0, length);
+			position += length;
+			return bytes;
+		}
+	}
+
+	/**
+	 * Entries of the block being written, in a buffer that is reused from block to block.
+	 */
+	private static final class Block extends ByteArrayOutputStream {
+		Block() {
+			super(64 * 1024);
+		}
+
+		byte[] buffer() {
+			return buf;
+		}
+
+		void writeVarint(int value) {
+			while ((value & ~0x7f) != 0) {
+				write((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			write(value);
+		}
+
+		void writeLengthPrefixed(byte[] bytes) {
+			writeVarint(bytes.length);
+			write(bytes, 0, bytes.length);
+		}
+	}
+
+	private static void putInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+}
@@ -0,0 +1,276 @@
+package com.scottyab.safetynet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static com.scottyab.safetynet.SafetyNetVerificationException.ErrorCode.INVALID_JWT_RESPONSE;
+import static com.scottyab.safetynet.SafetyNetVerificationException.ErrorCode.SIGNATURE_VERIFICATION_FAILED;
+
+/**
+ * Compact, signed summary of a verified {@link AttestationStatement}, for services downstream of
+ * the one verifying statements: checking one takes an HMAC instead of an RSA signature and a
+ * certificate chain, and it is 62 bytes (83 characters in its string form) instead of several KB.
+ *
+ * <pre>
+ * // where statements are verified
+ * VerdictToken.Signer signer = new VerdictToken.Signer(keyId, key);
+ * String token = signer.signToString(verifier.getAttestationStatement());
+ *
+ * // downstream
+ * VerdictToken verdict = new VerdictToken.Verifier(keyId, key).verify(token);
+ * if (!verdict.matchesPackageName("com.example.app") || !verdict.matchesNonce(nonce)) ...
+ * </pre>
+ *
+ * <p>Layout:
+ * <pre>
+ * byte     version (1)
+ * int      key id, big endian
+ * byte     flags: 1 ctsProfileMatch, 2 basicIntegrity, 4 HARDWARE_BACKED evaluation
+ * long     statement timestamp in ms, big endian
+ * byte[16] SHA-256 of the statement nonce, truncated
+ * byte[16] SHA-256 of the statement package name in lower case, truncated
+ * byte[16] HMAC-SHA256 of all the above, truncated
+ * </pre>
+ *
+ * The package name is hashed rather than embedded so that the size doesn't depend on it, so the
+ * token can only be checked against an expected package name, not read.
+ *
+ * The string form is the URL safe base64 of the bytes, without padding, so it fits in a header.
+ */
+public final class VerdictToken {
+
+	private static final byte VERSION = 1;
+	private static final int FLAG_CTS_PROFILE_MATCH = 1;
+	private static final int FLAG_BASIC_INTEGRITY = 2;
+	private static final int FLAG_HARDWARE_BACKED = 4;
+	private static final int HASH_LENGTH = 16;
+	private static final int MAC_LENGTH = 16;
+	private static final int LENGTH = 1 + 4 + 1 + 8 + HASH_LENGTH + HASH_LENGTH + MAC_LENGTH;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final int keyId;
+	private final int flags;
+	private final long timestampMs;
+	private final byte[] nonceHash;
+	private final byte[] packageNameHash;
+
+	private VerdictToken(int keyId, int flags, long timestampMs, byte[] nonceHash, byte[] packageNameHash) {
+		this.keyId = keyId;
+		this.flags = flags;
+		this.timestampMs = timestampMs;
+		this.nonceHash = nonceHash;
+		this.packageNameHash = packageNameHash;
+	}
+
+	/**
+	 * Returns the id of the key the token was signed with.
+	 */
+	public int getKeyId() {
+		return keyId;
+	}
+
+	public boolean isCtsProfileMatch() {
+		return (flags & FLAG_CTS_PROFILE_MATCH) != 0;
+	}
+
+	public boolean isBasicIntegrity() {
+		return (flags & FLAG_BASIC_INTEGRITY) != 0;
+	}
+
+	/**
+	 * Returns whether the statement {@code evaluationType} included {@code HARDWARE_BACKED}.
+	 */
+	public boolean isHardwareBacked() {
+		return (flags & FLAG_HARDWARE_BACKED) != 0;
+	}
+
+	/**
+	 * Returns the timestamp of the statement, not of the token.
+	 */
+	public long getTimestampMs() {
+		return timestampMs;
+	}
+
+	/**
+	 * Returns whether the statement came from the given package, compared ignoring case.
+	 */
+	public boolean matchesPackageName(@NonNull String packageName) {
+		return MessageDigest.isEqual(packageNameHash, packageNameHash(packageName));
+	}
+
+	/**
+	 * Returns whether the statement carried the given nonce.
+	 */
+	public boolean matchesNonce(@NonNull byte[] nonce) {
+		return MessageDigest.isEqual(nonceHash, nonceHash(nonce));
+	}
+
+	@Override
+	public String toString() {
+		return "VerdictToken{" +
+				"keyId=" + keyId +
+				", ctsProfileMatch=" + isCtsProfileMatch() +
+				", basicIntegrity=" + isBasicIntegrity() +
+				", hardwareBacked=" + isHardwareBacked() +
+				", timestampMs=" + timestampMs +
+				'}';
+	}
+
+	private static byte[] nonceHash(@Nullable byte[] nonce) {
+		return hash(nonce != null ? nonce : new byte[0]);
+	}
+
+	private static byte[] packageNameHash(@Nullable String packageName) {
+		return hash(packageName != null ? packageName.toLowerCase(Locale.US).getBytes(UTF_8) : new byte[0]);
+	}
+
+	private static byte[] hash(byte[] data) {
+		byte[] hash;
+		try {
+			hash = MessageDigest.getInstance("SHA-256").digest(data);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		byte[] truncated = new byte[HASH_LENGTH];
+		System.arraycopy(hash, 0, truncated, 0, HASH_LENGTH);
+		return truncated;
+	}
+
+	private static byte[] mac(HmacKey key, byte[] token, int length) {
+		byte[] full = key.mac(token, length, null);
+		byte[] truncated = new byte[MAC_LENGTH];
+		System.arraycopy(full, 0, truncated, 0, MAC_LENGTH);
+		return truncated;
+	}
+
+	/**
+	 * Turns verified statements into tokens. Thread-safe.
+	 */
+	public static final class Signer {
+		private final HmacKey key;
+
+		/**
+		 * @param keyId id of the key, carried by the tokens to find the key they are checked with
+		 * @param key   HMAC key, at least 32 random bytes, shared with the {@link Verifier}s
+		 */
+		public Signer(int keyId, @NonNull byte[] key) {
+			this.key = new HmacKey(keyId, key);
+		}
+
+		/**
+		 * Returns the token of the statement, which must have been verified.
+		 */
+		@NonNull
+		public byte[] sign(@NonNull AttestationStatement statement) {
+			int flags = (statement.isCtsProfileMatch() ? FLAG_CTS_PROFILE_MATCH : 0)
+					| (statement.isBasicIntegrity() ? FLAG_BASIC_INTEGRITY : 0)
+					| (statement.hasEvaluationType("HARDWARE_BACKED") ? FLAG_HARDWARE_BACKED : 0);
+			ByteBuffer token = ByteBuffer.allocate(LENGTH);
+			token.put(VERSION)
+					.putInt(key.id)
+					.put((byte) flags)
+					.putLong(statement.getTimestampMs())
+					.put(nonceHash(statement.getNonce()))
+					.put(packageNameHash(statement.getApkPackageName()));
+			token.put(mac(key, token.array(), token.position()));
+			return token.array();
+		}
+
+		/**
+		 * Returns the token in its string form.
+		 */
+		@NonNull
+		public String signToString(@NonNull AttestationStatement statement) {
+			return Base64Utils.encodeUrlSafe(sign(statement));
+		}
+	}
+
+	/**
+	 * Checks tokens signed by a {@link Signer}. Thread-safe; keys can be added and removed while
+	 * tokens are checked.
+	 */
+	public static final class Verifier {
+		/* replaced, never modified, once published */
+		private volatile Map<Integer, HmacKey> keys = Collections.emptyMap();
+
+		public Verifier(int keyId, @NonNull byte[] key) {
+			addKey(keyId, key);
+		}
+
+		/**
+		 * Accepts the tokens signed with the key, e.g. when the signers rotate to it.
+		 */
+		public synchronized Verifier addKey(int keyId, @NonNull byte[] key) {
+			Map<Integer, HmacKey> added = new HashMap<Integer, HmacKey>(keys);
+			added.put(keyId, new HmacKey(keyId, key));
+			keys = Collections.unmodifiableMap(added);
+			return this;
+		}
+
+		public synchronized Verifier removeKey(int keyId) {
+			Map<Integer, HmacKey> removed = new HashMap<Integer, HmacKey>(keys);
+			removed.remove(keyId);
+			keys = Collections.unmodifiableMap(removed);
+			return this;
+		}
+
+		/**
+		 * Checks the signature of the token in its string form and decodes it.
+		 *
+		 * @throws SafetyNetVerificationException with {@code INVALID_JWT_RESPONSE} if the token is
+		 *                                        malformed, {@code SIGNATURE_VERIFICATION_FAILED}
+		 *                                        if its signature is not valid
+		 */
+		@NonNull
+		public VerdictToken verify(@NonNull String token) throws SafetyNetVerificationException {
+			byte[] bytes;
+			try {
+				bytes = Base64Utils.decode(token);
+			} catch (IllegalArgumentException e) {
+				throw new SafetyNetVerificationException(INVALID_JWT_RESPONSE, "Verdict token is not base64", null, e);
+			}
+			return verify(bytes);
+		}
+
+		/**
+		 * Checks the signature of the token and decodes it.
+		 *
+		 * @throws SafetyNetVerificationException with {@code INVALID_JWT_RESPONSE} if the token is
+		 *                                        malformed, {@code SIGNATURE_VERIFICATION_FAILED}
+		 *                                        if its signature is not valid
+		 */
+		@NonNull
+		public VerdictToken verify(@Nullable byte[] token) throws SafetyNetVerificationException {
+			if (token == null || token.length != LENGTH || token[0] != VERSION) {
+				throw new SafetyNetVerificationException(INVALID_JWT_RESPONSE, "Malformed verdict token", null);
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(token);
+			int keyId = buffer.getInt(1);
+			HmacKey key = keys.get(keyId);
+			if (key == null) {
+				throw new SafetyNetVerificationException(SIGNATURE_VERIFICATION_FAILED, "Verdict token signed with unknown key " + keyId, null);
+			}
+			int signedLength = LENGTH - MAC_LENGTH;
+			byte[] signature = new byte[MAC_LENGTH];
+			System.arraycopy(token, signedLength, signature, 0, MAC_LENGTH);
+			if (!MessageDigest.isEqual(signature, mac(key, token, signedLength))) {
+				throw new SafetyNetVerificationException(SIGNATURE_VERIFICATION_FAILED, "Invalid verdict token signature", null);
+			}
+			byte[] nonceHash = new byte[HASH_LENGTH];
+			System.arraycopy(token, 14, nonceHash, 0, HASH_LENGTH);
+			byte[] packageNameHash = new byte[HASH_LENGTH];
+			System.arraycopy(token, 14 + HASH_LENGTH, packageNameHash, 0, HASH_LENGTH);
+			return new VerdictToken(keyId, token[5] & 0xff, buffer.getLong(6), nonceHash, packageNameHash);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package com.scottyab.safetynet.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Bounded multi-producer multi-consumer queue without locks: each slot has a sequence number
+ * telling whether it is ready to be written or read for a given lap of the ring.
+ *
+ * <p>Shared by the nonce prefetching and the server's audit log, not part of the API.
+ */
+public final class RingBuffer<T> {
+	private final int mask;
+	private final AtomicReferenceArray<T> slots;
+	private final AtomicLongArray sequences;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * @param capacity rounded up to a power of two, at least 2
+	 */
+	public RingBuffer(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		if (size < 2) {
+			size = 2;
+		}
+		mask = size - 1;
+		slots = new AtomicReferenceArray<T>(size);
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	public int capacity() {
+		return mask + 1;
+	}
+
+	public int size() {
+		return (int) Math.max(0, tail.get() - head.get());
+	}
+
+	public boolean isEmpty() {
+		return tail.get() == head.get();
+	}
+
+	/**
+	 * Returns the position of the value in the queue, counting from 0 for the first value ever
+	 * offered, or -1 if the queue is full.
+	 */
+	public long offer(@NonNull T value) {
+		long pos = tail.get();
+		while (true) {
+			int index = (int) pos & mask;
+			long diff = sequences.get(index) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					slots.set(index, value);
+					sequences.lazySet(index, pos + 1);
+					return pos;
+				}
+				pos = tail.get();
+			} else if (diff < 0) {
+				return -1;
+			} else {
+				pos = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Returns the oldest value, or null if the queue is empty.
+	 */
+	@Nullable
+	public T poll() {
+		long pos = head.get();
+		while (true) {
+			int index = (int) pos & mask;
+			long diff = sequences.get(index) - (pos + 1);
+			if (diff == 0) {
+				if (head.compareAndSet(pos, pos + 1)) {
+					T value = slots.get(index);
+					slots.set(index, null);
+					sequences.lazySet(index, pos + mask + 1);
+					return value;
+				}
+				pos = head.get();
+			} else if (diff < 0) {
+				return null;
+			} else {
+				pos = head.get();
+			}
+		}
+	}
+}
@@ -30,8 +30,6 @@ package com.scottyab.safetynet.internal.cz.msebera.android.httpclient.conn.ssl;
 import com.scottyab.safetynet.internal.cz.msebera.android.httpclient.conn.util.InetAddressUtils;
 import com.scottyab.safetynet.internal.cz.msebera.android.httpclient.conn.util.PublicSuffixMatcher;
 
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
@@ -124,13 +122,16 @@ public final class DefaultHostnameVerifier implements HostnameVerifier {
     }
 
     static void matchIPv6Address(final String host, final List<String> subjectAlts) throws SSLException {
-        final String normalisedHost = normaliseAddress(host);
-        for (int i = 0; i < subjectAlts.size(); i++) {
-            final String subjectAlt = subjectAlts.get(i);
-            final String normalizedSubjectAlt
-		            = normaliseAddress(subjectAlt);
-            if (normalisedHost.equals(normalizedSubjectAlt)) {
-                return;
+        final long[] normalisedHost = new long[2];
+        if (InetAddressUtils.parseIPv6Address(host, normalisedHost)) {
+            final long[] normalizedSubjectAlt = new long[2];
+            for (int i = 0; i < subjectAlts.size(); i++) {
+                final String subjectAlt = subjectAlts.get(i);
+                if (InetAddressUtils.parseIPv6Address(subjectAlt, normalizedSubjectAlt)
+                        && normalisedHost[0] == normalizedSubjectAlt[0]
+                        && normalisedHost[1] == normalizedSubjectAlt[1]) {
+                    return;
+                }
             }
         }
         throw new SSLException("Certificate for <" + host + "> doesn't match any " +
@@ -223,10 +224,29 @@ public final class DefaultHostnameVerifier implements HostnameVerifier {
     }
 
     static List<String> extractSubjectAlts(final X509Certificate cert, final int subjectType) {
+        final List<String> subjectAltList = new ArrayList<String>(2);
+        final boolean parsed = SubjectAltNameParser.parse(cert, subjectType, new SubjectAltNameParser.Visitor() {
+            @Override
+            public void visit(final String name) {
+                subjectAltList.add(name);
+            }
+        });
+        if (!parsed) {
+            return extractSubjectAltsFromCollection(cert, subjectType);
+        }
+        return subjectAltList.isEmpty() ? null : subjectAltList;
+    }
+
+    /*
+     * Slow path for extensions the DER reader does not understand.
+     */
+    static List<String> extractSubjectAltsFromCollection(final X509Certificate cert, final int subjectType) {
         Collection<List<?>> c = null;
         try {
             c = cert.getSubjectAlternativeNames();
         } catch(final CertificateParsingException ignore) {
+        } catch(final RuntimeException ignore) {
+            // some providers throw unchecked exceptions for malformed names, e.g. IP masks
         }
         List<String> subjectAltList = null;
         if (c != null) {
@@ -247,16 +267,34 @@ public final class DefaultHostnameVerifier implements HostnameVerifier {
 
     /*
      * Normalize IPv6 or DNS name.
+     * IPv6 literals are canonicalized in memory, any other input is returned unchanged.
      */
     static String normaliseAddress(final String hostname) {
         if (hostname == null) {
             return hostname;
         }
-        try {
-            final InetAddress inetAddress = InetAddress.getByName(hostname);
-            return inetAddress.getHostAddress();
-        } catch (final UnknownHostException unexpected) { // Should not happen, because we check for IPv6 address above
+        final long[] address = new long[2];
+        if (!InetAddressUtils.parseIPv6Address(hostname, address)) {
             return hostname;
         }
+        final StringBuilder buf = new StringBuilder(39);
+        if (address[0] == 0 && (address[1] >>> 32) == 0xffffL) {
+            // IPv4-mapped address, formatted the way InetAddress does
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buf.append((address[1] >>> shift) & 0xff);
+                if (shift > 0) {
+                    buf.append('.');
+                }
+            }
+            return buf.toString();
+        }
+        for (int group = 0; group < 8; group++) {
+            final long word = address[group >> 2];
+            buf.append(Long.toHexString((word >>> (48 - 16 * (group & 3))) & 0xffff));
+            if (group < 7) {
+                buf.append(':');
+            }
+        }
+        return buf.toString();
     }
 }
@@ -35,6 +35,12 @@ public final class DistinguishedNameParser {
     private int cur;
     /** distinguished name chars */
     private char[] chars;
+    /** positions of the last parsed attribute type */
+    private int typeBeg;
+    private int typeEnd;
+    /** positions of the last parsed attribute value in chars, once unescaped */
+    private int valueBeg;
+    private int valueEnd;
     public DistinguishedNameParser(X500Principal principal) {
         // RFC2253 is used to ensure we get attributes in the reverse
         // order of the underlying ASN.1 encoding, so that the most
@@ -43,13 +49,14 @@ public final class DistinguishedNameParser {
         this.length = this.dn.length();
     }
     // gets next attribute type: (ALPHA 1*keychar) / oid
-    private String nextAT() {
+    // returns false if the end of DN has been reached
+    private boolean nextAT() {
         // skip preceding space chars, they can present after
         // comma or semicolon (compatibility with RFC 1779)
         for (; pos < length && chars[pos] == ' '; pos++) {
         }
         if (pos == length) {
-            return null; // reached the end of DN
+            return false; // reached the end of DN
         }
         // mark the beginning of attribute type
         beg = pos;
@@ -86,10 +93,37 @@ public final class DistinguishedNameParser {
                 && (chars[beg + 2] == 'D' || chars[beg + 2] == 'd')) {
             beg += 4;
         }
-        return new String(chars, beg, end - beg);
+        typeBeg = beg;
+        typeEnd = end;
+        return true;
+    }
+    // checks the last parsed attribute type without copying it
+    private boolean typeMatches(String attributeType) {
+        int len = typeEnd - typeBeg;
+        if (len != attributeType.length()) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            char c1 = chars[typeBeg + i];
+            char c2 = attributeType.charAt(i);
+            if (c1 != c2 && Character.toLowerCase(c1) != Character.toLowerCase(c2)
+                    && Character.toUpperCase(c1) != Character.toUpperCase(c2)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    // marks the range of the parsed attribute value
+    private void setValue(int valueBeg, int valueEnd) {
+        this.valueBeg = valueBeg;
+        this.valueEnd = valueEnd;
+    }
+    // returns the last parsed attribute value, only copied for the attribute type looked for
+    private String value() {
+        return new String(chars, valueBeg, valueEnd - valueBeg);
     }
     // gets quoted attribute value: QUOTATION *( quotechar / pair ) QUOTATION
-    private String quotedAV() {
+    private void quotedAV() {
         pos++;
         beg = pos;
         end = beg;
@@ -114,10 +148,10 @@ public final class DistinguishedNameParser {
         // (compatibility with RFC 1779)
         for (; pos < length && chars[pos] == ' '; pos++) {
         }
-        return new String(chars, beg, end - beg);
+        setValue(beg, end);
     }
     // gets hex string attribute value: "#" hexstring
-    private String hexAV() {
+    private void hexAV() {
         if (pos + 4 >= length) {
             // encoded byte array  must be not less then 4 c
             throw new IllegalStateException("Unexpected end of DN: " + dn);
@@ -156,23 +190,25 @@ public final class DistinguishedNameParser {
         for (int i = 0, p = beg + 1; i < encoded.length; p += 2, i++) {
             encoded[i] = (byte) getByte(p);
         }
-        return new String(chars, beg, hexLen);
+        setValue(beg, beg + hexLen);
     }
     // gets string attribute value: *( stringchar / pair )
-    private String escapedAV() {
+    private void escapedAV() {
         beg = pos;
         end = pos;
         while (true) {
             if (pos >= length) {
                 // the end of DN has been found
-                return new String(chars, beg, end - beg);
+                setValue(beg, end);
+                return;
             }
             switch (chars[pos]) {
             case '+':
             case ',':
             case ';':
                 // separator char has been found
-                return new String(chars, beg, end - beg);
+                setValue(beg, end);
+                return;
             case '\\':
                 // escaped char
                 chars[end++] = getEscaped();
@@ -190,7 +226,8 @@ public final class DistinguishedNameParser {
                 if (pos == length || chars[pos] == ',' || chars[pos] == '+'
                         || chars[pos] == ';') {
                     // separator char or the end of DN has been found
-                    return new String(chars, beg, cur - beg);
+                    setValue(beg, cur);
+                    return;
                 }
                 break;
             default:
@@ -311,35 +348,34 @@ public final class DistinguishedNameParser {
         end = 0;
         cur = 0;
         chars = dn.toCharArray();
-        String attType = nextAT();
-        if (attType == null) {
+        if (!nextAT()) {
             return null;
         }
         while (true) {
-            String attValue = "";
             if (pos == length) {
                 return null;
             }
             switch (chars[pos]) {
             case '"':
-                attValue = quotedAV();
+                quotedAV();
                 break;
             case '#':
-                attValue = hexAV();
+                hexAV();
                 break;
             case '+':
             case ',':
             case ';': // compatibility with RFC 1779: semicolon can separate RDNs
                 //empty attribute value
+                setValue(pos, pos);
                 break;
             default:
-                attValue = escapedAV();
+                escapedAV();
             }
             // Values are ordered from most specific to least specific
             // due to the RFC2253 formatting. So take the first match
             // we see.
-            if (attributeType.equalsIgnoreCase(attType)) {
-                return attValue;
+            if (typeMatches(attributeType)) {
+                return value();
             }
             if (pos >= length) {
                 return null;
@@ -349,8 +385,7 @@ public final class DistinguishedNameParser {
                 throw new IllegalStateException("Malformed DN: " + dn);
             }
             pos++;
-            attType = nextAT();
-            if (attType == null) {
+            if (!nextAT()) {
                 throw new IllegalStateException("Malformed DN: " + dn);
             }
         }
@@ -369,35 +404,34 @@ public final class DistinguishedNameParser {
         cur = 0;
         chars = dn.toCharArray();
         List<String> result = Collections.emptyList();
-        String attType = nextAT();
-        if (attType == null) {
+        if (!nextAT()) {
             return result;
         }
         while (pos < length) {
-            String attValue = "";
             switch (chars[pos]) {
             case '"':
-                attValue = quotedAV();
+                quotedAV();
                 break;
             case '#':
-                attValue = hexAV();
+                hexAV();
                 break;
             case '+':
             case ',':
             case ';': // compatibility with RFC 1779: semicolon can separate RDNs
                 //empty attribute value
+                setValue(pos, pos);
                 break;
             default:
-                attValue = escapedAV();
+                escapedAV();
             }
             // Values are ordered from most specific to least specific
             // due to the RFC2253 formatting. So take the first match
             // we see.
-            if (attributeType.equalsIgnoreCase(attType)) {
+            if (typeMatches(attributeType)) {
                 if (result.isEmpty()) {
                     result = new ArrayList<String>();
                 }
-                result.add(attValue);
+                result.add(value());
             }
             if (pos >= length) {
                 break;
@@ -407,8 +441,7 @@ public final class DistinguishedNameParser {
                 throw new IllegalStateException("Malformed DN: " + dn);
             }
             pos++;
-            attType = nextAT();
-            if (attType == null) {
+            if (!nextAT()) {
                 throw new IllegalStateException("Malformed DN: " + dn);
             }
         }
@@ -0,0 +1,235 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package com.scottyab.safetynet.internal.cz.msebera.android.httpclient.conn.ssl;
+
+import java.nio.charset.Charset;
+import java.security.cert.X509Certificate;
+
+/**
+ * Minimal DER reader for the subject alternative name extension (OID 2.5.29.17).
+ * <p>
+ * Unlike {@link X509Certificate#getSubjectAlternativeNames()} it does not decode the
+ * names of other types nor box their tags, it only hands the DNS names or IP addresses
+ * it is asked for to a {@link Visitor}, formatted the same way the JDK formats them.
+ * Extensions it can't represent exactly as the JDK does, e.g. with a dNSName that is not
+ * IA5, are reported as unparsed so that callers fall back to the JDK.
+ */
+final class SubjectAltNameParser {
+
+    static final String SUBJECT_ALT_NAME_OID = "2.5.29.17";
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final int TAG_OCTET_STRING = 0x04;
+    private static final int TAG_SEQUENCE = 0x30;
+    /* GeneralName choices are context specific and implicitly tagged */
+    private static final int TAG_CONTEXT_SPECIFIC = 0x80;
+    private static final int TAG_CONSTRUCTED = 0x20;
+
+    private SubjectAltNameParser() {
+    }
+
+    /**
+     * Receives the subject alternative names of the requested type.
+     */
+    interface Visitor {
+        void visit(String name);
+    }
+
+    /**
+     * Parses the subject alternative names of a certificate.
+     *
+     * @param cert the certificate
+     * @param subjectType {@link DefaultHostnameVerifier#DNS_NAME_TYPE} or
+     * {@link DefaultHostnameVerifier#IP_ADDRESS_TYPE}
+     * @param visitor receives the names of the requested type, in certificate order
+     * @return false if the extension could not be parsed, true otherwise (including when the
+     * certificate has no such extension)
+     */
+    static boolean parse(final X509Certificate cert, final int subjectType, final Visitor visitor) {
+        final byte[] der = cert.getExtensionValue(SUBJECT_ALT_NAME_OID);
+        if (der == null) {
+            return true;
+        }
+        return parse(der, subjectType, visitor);
+    }
+
+    /**
+     * Parses the DER encoded value returned by {@link X509Certificate#getExtensionValue(String)}
+     * for the subject alternative name extension.
+     */
+    static boolean parse(final byte[] der, final int subjectType, final Visitor visitor) {
+        // extnValue OCTET STRING wrapping GeneralNames ::= SEQUENCE SIZE (1..MAX) OF GeneralName
+        int pos = 0;
+        if (der.length < 2 || (der[pos++] & 0xff) != TAG_OCTET_STRING) {
+            return false;
+        }
+        int length = readLength(der, pos);
+        if (length < 0) {
+            return false;
+        }
+        pos = skipLength(der, pos);
+        if (pos + length != der.length || pos >= der.length || (der[pos++] & 0xff) != TAG_SEQUENCE) {
+            return false;
+        }
+        length = readLength(der, pos);
+        if (length < 0) {
+            return false;
+        }
+        pos = skipLength(der, pos);
+        final int end = pos + length;
+        if (end != der.length) {
+            return false;
+        }
+        // Validate the whole sequence first so that a malformed extension yields no names at all.
+        // Like the JDK, a malformed DNS name or IP address fails the extension whatever type is
+        // asked for.
+        int scan = pos;
+        while (scan < end) {
+            final int tag = der[scan++] & 0xff;
+            final int elementLength = readLength(der, scan);
+            if (elementLength < 0) {
+                return false;
+            }
+            scan = skipLength(der, scan);
+            if (scan + elementLength > end) {
+                return false;
+            }
+            if (tag == (TAG_CONTEXT_SPECIFIC | DefaultHostnameVerifier.DNS_NAME_TYPE)) {
+                if (!isIA5(der, scan, elementLength)) {
+                    return false;
+                }
+            } else if (tag == (TAG_CONTEXT_SPECIFIC | DefaultHostnameVerifier.IP_ADDRESS_TYPE)) {
+                if (elementLength != 4 && elementLength != 16) {
+                    return false;
+                }
+            } else if (tag == (TAG_CONSTRUCTED | TAG_CONTEXT_SPECIFIC | DefaultHostnameVerifier.DNS_NAME_TYPE)
+                    || tag == (TAG_CONSTRUCTED | TAG_CONTEXT_SPECIFIC | DefaultHostnameVerifier.IP_ADDRESS_TYPE)) {
+                return false;
+            }
+            scan += elementLength;
+        }
+        while (pos < end) {
+            final int tag = der[pos++] & 0xff;
+            final int elementLength = readLength(der, pos);
+            pos = skipLength(der, pos);
+            if (tag == (TAG_CONTEXT_SPECIFIC | subjectType)) {
+                if (subjectType == DefaultHostnameVerifier.DNS_NAME_TYPE) {
+                    visitor.visit(new String(der, pos, elementLength, US_ASCII));
+                } else if (subjectType == DefaultHostnameVerifier.IP_ADDRESS_TYPE) {
+                    visitor.visit(formatAddress(der, pos, elementLength));
+                }
+            }
+            pos += elementLength;
+        }
+        return true;
+    }
+
+    /**
+     * Reads a DER length starting at {@code pos}, or returns -1 if it is malformed or runs
+     * past the end of the input.
+     */
+    private static int readLength(final byte[] der, final int pos) {
+        if (pos >= der.length) {
+            return -1;
+        }
+        final int first = der[pos] & 0xff;
+        if (first < 0x80) {
+            return first;
+        }
+        final int count = first & 0x7f;
+        if (count == 0 || count > 3 || pos + count >= der.length) {
+            return -1;
+        }
+        int length = 0;
+        for (int i = 1; i <= count; i++) {
+            length = (length << 8) | (der[pos + i] & 0xff);
+        }
+        return length;
+    }
+
+    private static int skipLength(final byte[] der, final int pos) {
+        final int first = der[pos] & 0xff;
+        return first < 0x80 ? pos + 1 : pos + 1 + (first & 0x7f);
+    }
+
+    /**
+     * Returns whether the bytes are all IA5 (7-bit ASCII) characters. dNSName is an IA5String:
+     * an extension with any other byte in one is malformed.
+     */
+    private static boolean isIA5(final byte[] der, final int pos, final int length) {
+        for (int i = pos; i < pos + length; i++) {
+            if (der[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Formats a 4 or 16 byte address the way {@link X509Certificate#getSubjectAlternativeNames()}
+     * does, IPv4-mapped IPv6 addresses as IPv4.
+     */
+    private static String formatAddress(final byte[] der, final int pos, final int length) {
+        final StringBuilder buf = new StringBuilder(39);
+        if (length == 4) {
+            appendIPv4(buf, der, pos);
+        } else if (length == 16 && isIPv4Mapped(der, pos)) {
+            appendIPv4(buf, der, pos + 12);
+        } else {
+            for (int i = 0; i < 16; i += 2) {
+                if (i > 0) {
+                    buf.append(':');
+                }
+                buf.append(Integer.toHexString(((der[pos + i] & 0xff) << 8) | (der[pos + i + 1] & 0xff)));
+            }
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Returns whether the 16 bytes are an IPv4-mapped IPv6 address, {@code ::ffff:a.b.c.d}.
+     */
+    private static boolean isIPv4Mapped(final byte[] der, final int pos) {
+        for (int i = 0; i < 10; i++) {
+            if (der[pos + i] != 0) {
+                return false;
+            }
+        }
+        return der[pos + 10] == (byte) 0xff && der[pos + 11] == (byte) 0xff;
+    }
+
+    private static void appendIPv4(final StringBuilder buf, final byte[] der, final int pos) {
+        for (int i = 0; i < 4; i++) {
+            if (i > 0) {
+                buf.append('.');
+            }
+            buf.append(der[pos + i] & 0xff);
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package com.scottyab.safetynet.internal.cz.msebera.android.httpclient.conn.util;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Public Suffix List compiled into a compact, sorted binary form which is searched in place,
+ * so that it can be memory mapped from a file or an uncompressed asset without loading the
+ * rules onto the heap.
+ * <p>
+ * Layout (big endian):
+ * <pre>
+ * int    magic ('P' 'S' 'L' 1)
+ * int    entry count n
+ * int[]  n + 1 entry offsets, relative to the start of the entry data
+ * byte[] entries, each one flags byte followed by the UTF-8 bytes of the lower case suffix
+ * </pre>
+ * Entries are sorted by their unsigned UTF-8 bytes, which is the same as code point order.
+ * Every rule is stored in both its Unicode and its ASCII (punycode) form.
+ * <p>
+ * Lists are compiled at build time from the text format published at
+ * <a href="http://publicsuffix.org/">publicsuffix.org</a>:
+ * <pre>
+ * java BinaryPublicSuffixList public_suffix_list.dat public_suffix_list.bin
+ * </pre>
+ */
+public final class BinaryPublicSuffixList {
+
+    static final int RULE = 1;
+    static final int WILDCARD = 2;
+    static final int EXCEPTION = 4;
+
+    private static final int MAGIC = 0x50534C01;
+    private static final int HEADER_SIZE = 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int dataStart;
+
+    private BinaryPublicSuffixList(final ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.count = buffer.getInt(4);
+        this.dataStart = HEADER_SIZE + 4 * (this.count + 1);
+    }
+
+    /**
+     * Wraps a buffer holding a compiled list. The buffer is used in place and must not be
+     * modified afterwards.
+     */
+    public static BinaryPublicSuffixList wrap(final ByteBuffer source) throws IOException {
+        final ByteBuffer buffer = source.duplicate().order(ByteOrder.BIG_ENDIAN);
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a compiled public suffix list");
+        }
+        final int count = buffer.getInt(4);
+        if (count < 0 || HEADER_SIZE + 4L * count + 4 > buffer.capacity()) {
+            throw new IOException("Truncated public suffix list");
+        }
+        // Lookups follow the offsets without bound checks: each entry must hold at least its
+        // flags and end within the buffer
+        final long dataStart = HEADER_SIZE + 4L * count + 4;
+        int previous = -1;
+        for (int i = 0; i <= count; i++) {
+            final int offset = buffer.getInt(HEADER_SIZE + 4 * i);
+            if ((i == 0 ? offset != 0 : offset <= previous) || dataStart + offset > buffer.capacity()) {
+                throw new IOException("Damaged public suffix list, entry " + i + " at " + offset);
+            }
+            previous = offset;
+        }
+        return new BinaryPublicSuffixList(buffer);
+    }
+
+    /**
+     * Memory maps a region of a channel holding a compiled list.
+     */
+    public static BinaryPublicSuffixList map(final FileChannel channel, final long offset, final long length)
+            throws IOException {
+        return wrap(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+    }
+
+    /**
+     * Memory maps a file holding a compiled list.
+     */
+    public static BinaryPublicSuffixList map(final File file) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            // The mapping stays valid after the channel is closed
+            return map(channel, 0, channel.size());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the number of entries in the list.
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Returns the flags of the rules for {@code domain.substring(start, end)}, or 0 if there
+     * are none.
+     */
+    int lookup(final String domain, final int start, final int end) {
+        int low = 0;
+        int high = this.count - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = compare(mid, domain, start, end);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return this.buffer.get(this.dataStart + entryOffset(mid));
+            }
+        }
+        return 0;
+    }
+
+    private int entryOffset(final int index) {
+        return this.buffer.getInt(HEADER_SIZE + 4 * index);
+    }
+
+    /**
+     * Compares the suffix of an entry against a lower cased range of the domain, code point
+     * by code point.
+     */
+    private int compare(final int index, final String domain, final int start, final int end) {
+        int pos = this.dataStart + entryOffset(index) + 1;
+        final int limit = this.dataStart + entryOffset(index + 1);
+        int i = start;
+        while (pos < limit && i < end) {
+            int b = this.buffer.get(pos++) & 0xff;
+            int entryCodePoint;
+            if (b < 0x80) {
+                entryCodePoint = b;
+            } else {
+                final int extra = b >= 0xf0 ? 3 : b >= 0xe0 ? 2 : 1;
+                entryCodePoint = b & (0x3f >> extra);
+                for (int j = 0; j < extra && pos < limit; j++) {
+                    entryCodePoint = (entryCodePoint << 6) | (this.buffer.get(pos++) & 0x3f);
+                }
+            }
+            final int domainCodePoint = Character.toLowerCase(Character.codePointAt(domain, i));
+            i += Character.charCount(Character.codePointAt(domain, i));
+            if (entryCodePoint != domainCodePoint) {
+                return entryCodePoint < domainCodePoint ? -1 : 1;
+            }
+        }
+        if (pos < limit) {
+            return 1;
+        }
+        return i < end ? -1 : 0;
+    }
+
+    /**
+     * Compiles a Public Suffix List in its published text format into the binary format.
+     */
+    public static void compile(final Reader source, final OutputStream out) throws IOException {
+        final Map<byte[], Integer> entries = new TreeMap<byte[], Integer>(new Comparator<byte[]>() {
+            @Override
+            public int compare(final byte[] a, final byte[] b) {
+                final int length = Math.min(a.length, b.length);
+                for (int i = 0; i < length; i++) {
+                    final int diff = (a[i] & 0xff) - (b[i] & 0xff);
+                    if (diff != 0) {
+                        return diff;
+                    }
+                }
+                return a.length - b.length;
+            }
+        });
+
+        final BufferedReader reader = new BufferedReader(source);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("//")) {
+                continue;
+            }
+            // Only the first whitespace delimited token of a line is significant
+            for (int i = 0; i < line.length(); i++) {
+                if (Character.isWhitespace(line.charAt(i))) {
+                    line = line.substring(0, i);
+                    break;
+                }
+            }
+            final int flag;
+            if (line.startsWith("!")) {
+                flag = EXCEPTION;
+                line = line.substring(1);
+            } else if (line.startsWith("*.")) {
+                flag = WILDCARD;
+                line = line.substring(2);
+            } else {
+                flag = RULE;
+            }
+            for (String form : PublicSuffixMatcher.normalisedForms(line)) {
+                final byte[] key = form.getBytes(UTF_8);
+                final Integer flags = entries.get(key);
+                entries.put(key, flags != null ? flags | flag : flag);
+            }
+        }
+
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(entries.size());
+        int offset = 0;
+        for (byte[] key : entries.keySet()) {
+            data.writeInt(offset);
+            offset += 1 + key.length;
+        }
+        data.writeInt(offset);
+        for (Map.Entry<byte[], Integer> entry : entries.entrySet()) {
+            data.writeByte(entry.getValue());
+            data.write(entry.getKey());
+        }
+        data.flush();
+    }
+
+    /**
+     * Build time entry point: compiles the text list given as first argument into the binary
+     * file given as second argument.
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: BinaryPublicSuffixList <public_suffix_list.dat> <output.bin>");
+            System.exit(1);
+        }
+        final Reader source = new InputStreamReader(new FileInputStream(args[0]), UTF_8);
+        try {
+            final OutputStream out = new FileOutputStream(args[1]);
+            try {
+                compile(source, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+}
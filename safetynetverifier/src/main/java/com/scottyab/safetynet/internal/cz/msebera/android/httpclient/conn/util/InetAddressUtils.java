@@ -0,0 +1,287 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package com.scottyab.safetynet.internal.cz.msebera.android.httpclient.conn.util;
+
+import java.util.regex.Pattern;
+
+/**
+ * A collection of utilities relating to InetAddresses.
+ *
+ * @since 4.0
+ */
+public class InetAddressUtils {
+
+    private InetAddressUtils() {
+    }
+
+    private static final String IPV4_BASIC_PATTERN_STRING =
+            "(([1-9]|[1-9][0-9]|1[0-9]{2}|2[0-4][0-9]|25[0-5])\\.){1}" + // initial first field, 1-255
+            "(([0-9]|[1-9][0-9]|1[0-9]{2}|2[0-4][0-9]|25[0-5])\\.){2}" + // following 2 fields, 0-255 followed by .
+             "([0-9]|[1-9][0-9]|1[0-9]{2}|2[0-4][0-9]|25[0-5])"; // final field, 0-255
+
+    private static final Pattern IPV4_PATTERN =
+        Pattern.compile("^" + IPV4_BASIC_PATTERN_STRING + "$");
+
+    private static final Pattern IPV4_MAPPED_IPV6_PATTERN = // TODO does not allow for redundant leading zeros
+            Pattern.compile("^::[fF]{4}:" + IPV4_BASIC_PATTERN_STRING + "$");
+
+    private static final Pattern IPV6_STD_PATTERN =
+        Pattern.compile(
+                "^[0-9a-fA-F]{1,4}(:[0-9a-fA-F]{1,4}){7}$");
+
+    private static final Pattern IPV6_HEX_COMPRESSED_PATTERN =
+        Pattern.compile(
+                "^(([0-9A-Fa-f]{1,4}(:[0-9A-Fa-f]{1,4}){0,5})?)" + // 0-6 hex fields
+                 "::" +
+                 "(([0-9A-Fa-f]{1,4}(:[0-9A-Fa-f]{1,4}){0,5})?)$"); // 0-6 hex fields
+
+    /*
+     *  The above pattern is not totally rigorous as it allows for more than 7 hex fields in total
+     */
+    private static final char COLON_CHAR = ':';
+
+    // Must not have more than 7 colons (i.e. 8 fields)
+    private static final int MAX_COLON_COUNT = 7;
+
+    /**
+     * Checks whether the parameter is a valid IPv4 address
+     *
+     * @param input the address string to check for validity
+     * @return true if the input parameter is a valid IPv4 address
+     */
+    public static boolean isIPv4Address(final String input) {
+        return IPV4_PATTERN.matcher(input).matches();
+    }
+
+    public static boolean isIPv4MappedIPv64Address(final String input) {
+        return IPV4_MAPPED_IPV6_PATTERN.matcher(input).matches();
+    }
+
+    /**
+     * Checks whether the parameter is a valid standard (non-compressed) IPv6 address
+     *
+     * @param input the address string to check for validity
+     * @return true if the input parameter is a valid standard (non-compressed) IPv6 address
+     */
+    public static boolean isIPv6StdAddress(final String input) {
+        return IPV6_STD_PATTERN.matcher(input).matches();
+    }
+
+    /**
+     * Checks whether the parameter is a valid compressed IPv6 address
+     *
+     * @param input the address string to check for validity
+     * @return true if the input parameter is a valid compressed IPv6 address
+     */
+    public static boolean isIPv6HexCompressedAddress(final String input) {
+        int colonCount = 0;
+        for(int i = 0; i < input.length(); i++) {
+            if (input.charAt(i) == COLON_CHAR) {
+                colonCount++;
+            }
+        }
+        return  colonCount <= MAX_COLON_COUNT && IPV6_HEX_COMPRESSED_PATTERN.matcher(input).matches();
+    }
+
+    /**
+     * Checks whether the parameter is a valid IPv6 address (including compressed).
+     *
+     * @param input the address string to check for validity
+     * @return true if the input parameter is a valid standard or compressed IPv6 address
+     */
+    public static boolean isIPv6Address(final String input) {
+        return isIPv6StdAddress(input) || isIPv6HexCompressedAddress(input);
+    }
+
+    /**
+     * Parses an IPv6 address literal (standard, compressed or with an embedded IPv4 tail)
+     * into its 128-bit value. Unlike {@link java.net.InetAddress#getByName(String)} this
+     * never consults the resolver and does not allocate.
+     * <p>
+     * Only ASCII hex digits are accepted, unlike {@link Character#digit(char, int)} which also
+     * takes other Unicode digits. Zone ids ({@code %scope} suffixes) are rejected: they name an
+     * interface of the local host, which no certificate can vouch for.
+     *
+     * @param input the address string to parse
+     * @param dest array of at least two elements receiving the high and low 64 bits
+     * @return true if the input was a valid IPv6 address, in which case {@code dest}
+     * holds its value; false otherwise, in which case {@code dest} is left untouched
+     */
+    public static boolean parseIPv6Address(final String input, final long[] dest) {
+        final int len = input.length();
+        if (len < 2 || input.indexOf('%') >= 0) {
+            return false;
+        }
+        long hi = 0;
+        long lo = 0;
+        long headHi = 0;
+        long headLo = 0;
+        int groups = 0;
+        int compressAt = -1;
+        int i = 0;
+        if (input.charAt(0) == COLON_CHAR) {
+            if (input.charAt(1) != COLON_CHAR) {
+                return false;
+            }
+            compressAt = 0;
+            i = 2;
+        }
+        while (i < len) {
+            if (groups >= 8) {
+                return false;
+            }
+            final int start = i;
+            int value = 0;
+            while (i < len && i - start <= 4) {
+                final int digit = hexDigit(input.charAt(i));
+                if (digit < 0) {
+                    break;
+                }
+                value = (value << 4) | digit;
+                i++;
+            }
+            if (i < len && input.charAt(i) == '.') {
+                // Embedded IPv4 address, only allowed in place of the last two groups
+                if (groups > 6) {
+                    return false;
+                }
+                final long ipv4 = parseIPv4Tail(input, start);
+                if (ipv4 < 0) {
+                    return false;
+                }
+                hi = (hi << 32) | (lo >>> 32);
+                lo = (lo << 32) | ipv4;
+                groups += 2;
+                break;
+            }
+            final int digits = i - start;
+            if (digits == 0 || digits > 4) {
+                return false;
+            }
+            hi = (hi << 16) | (lo >>> 48);
+            lo = (lo << 16) | value;
+            groups++;
+            if (i == len) {
+                break;
+            }
+            if (input.charAt(i) != COLON_CHAR) {
+                return false;
+            }
+            i++;
+            if (i == len) {
+                return false;
+            }
+            if (input.charAt(i) == COLON_CHAR) {
+                if (compressAt != -1) {
+                    return false;
+                }
+                compressAt = groups;
+                headHi = hi;
+                headLo = lo;
+                hi = 0;
+                lo = 0;
+                i++;
+            }
+        }
+        if (compressAt == -1) {
+            if (groups != 8) {
+                return false;
+            }
+            dest[0] = hi;
+            dest[1] = lo;
+            return true;
+        }
+        if (groups > 7) {
+            return false;
+        }
+        // Groups before "::" move to the top, the ones after it are already right aligned
+        final int shift = 16 * (8 - compressAt);
+        if (shift >= 128) {
+            dest[0] = hi;
+            dest[1] = lo;
+        } else if (shift >= 64) {
+            dest[0] = hi | (headLo << (shift - 64));
+            dest[1] = lo;
+        } else {
+            dest[0] = hi | (headHi << shift) | (headLo >>> (64 - shift));
+            dest[1] = lo | (headLo << shift);
+        }
+        return true;
+    }
+
+    private static int hexDigit(final char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the dotted-quad IPv4 address which makes up the rest of the input from
+     * {@code start} onwards.
+     *
+     * @return the 32-bit address value, or -1 if the input is not a valid IPv4 address
+     */
+    private static long parseIPv4Tail(final String input, final int start) {
+        final int len = input.length();
+        long result = 0;
+        int octets = 0;
+        int i = start;
+        while (i < len) {
+            final int octetStart = i;
+            int value = 0;
+            while (i < len && i - octetStart < 3) {
+                final char c = input.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+                i++;
+            }
+            if (i == octetStart || value > 255) {
+                return -1;
+            }
+            result = (result << 8) | value;
+            octets++;
+            if (i == len) {
+                break;
+            }
+            if (input.charAt(i) != '.' || octets == 4 || ++i == len) {
+                return -1;
+            }
+        }
+        return octets == 4 ? result : -1;
+    }
+
+}
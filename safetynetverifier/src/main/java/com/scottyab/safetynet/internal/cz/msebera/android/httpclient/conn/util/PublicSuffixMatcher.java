@@ -0,0 +1,296 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package com.scottyab.safetynet.internal.cz.msebera.android.httpclient.conn.util;
+
+import java.net.IDN;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * Utility class that can test if DNS names match the content of the Public Suffix List.
+ * <p>
+ * An up-to-date list of suffixes can be obtained from
+ * <a href="http://publicsuffix.org/">publicsuffix.org</a>
+ * <p>
+ * Rules are kept in an immutable trie of reversed labels built once at construction, with
+ * both the Unicode and the ASCII (punycode) form of every rule. Lookups walk the domain from
+ * its rightmost label and do not convert or copy the input. Alternatively the rules can be
+ * searched in place in a precompiled {@link BinaryPublicSuffixList}.
+ *
+ * @since 4.4
+ */
+public final class PublicSuffixMatcher {
+
+    private static final String WILDCARD_PREFIX = "*.";
+
+    private final Node root;
+    private final BinaryPublicSuffixList table;
+
+    public PublicSuffixMatcher(final BinaryPublicSuffixList table) {
+        this.root = null;
+        this.table = table;
+    }
+
+    public PublicSuffixMatcher(final Collection<String> rules, final Collection<String> exceptions) {
+        final Node.Builder builder = new Node.Builder();
+        for (String rule: rules) {
+            if (rule.startsWith(WILDCARD_PREFIX)) {
+                for (String form: normalisedForms(rule.substring(WILDCARD_PREFIX.length()))) {
+                    builder.add(form).wildcard = true;
+                }
+            } else {
+                for (String form: normalisedForms(rule)) {
+                    builder.add(form).rule = true;
+                }
+            }
+        }
+        if (exceptions != null) {
+            for (String exception: exceptions) {
+                for (String form: normalisedForms(exception)) {
+                    builder.add(form).exception = true;
+                }
+            }
+        }
+        this.root = builder.build();
+        this.table = null;
+    }
+
+    /**
+     * Returns the lower case Unicode and ASCII forms of a rule, either of which may appear in
+     * the domains being matched.
+     */
+    static String[] normalisedForms(final String rule) {
+        final String lower = rule.toLowerCase(Locale.ROOT);
+        final String unicode = IDN.toUnicode(lower).toLowerCase(Locale.ROOT);
+        String ascii;
+        try {
+            ascii = IDN.toASCII(lower).toLowerCase(Locale.ROOT);
+        } catch (final IllegalArgumentException ignore) {
+            ascii = unicode;
+        }
+        return new String[] { lower, unicode, ascii };
+    }
+
+    /**
+     * Returns registrable part of the domain for the given domain name of {@code null}
+     * if given domain represents a public suffix.
+     *
+     * @param domain
+     * @return domain root
+     */
+    public String getDomainRoot(final String domain) {
+        final int index = getDomainRootIndex(domain);
+        return index >= 0 ? domain.substring(index).toLowerCase(Locale.ROOT) : null;
+    }
+
+    /**
+     * Returns the index in {@code domain} at which its registrable part starts, or -1
+     * if given domain represents a public suffix.
+     */
+    int getDomainRootIndex(final String domain) {
+        if (domain == null) {
+            return -1;
+        }
+        if (domain.startsWith(".")) {
+            return -1;
+        }
+        // Without any matching rule the rightmost label is taken as the public suffix
+        int suffixStart = domain.lastIndexOf('.') + 1;
+        boolean exception = false;
+
+        if (this.table != null) {
+            int parentFlags = 0;
+            int end = domain.length();
+            while (true) {
+                final int start = domain.lastIndexOf('.', end - 1) + 1;
+                final int flags = this.table.lookup(domain, start, domain.length());
+                if ((flags & BinaryPublicSuffixList.EXCEPTION) != 0) {
+                    suffixStart = start;
+                    exception = true;
+                } else if ((flags & BinaryPublicSuffixList.RULE) != 0
+                        || (parentFlags & BinaryPublicSuffixList.WILDCARD) != 0) {
+                    suffixStart = start;
+                    exception = false;
+                }
+                if (start == 0) {
+                    break;
+                }
+                parentFlags = flags;
+                end = start - 1;
+            }
+            return resolveDomainRoot(domain, suffixStart, exception);
+        }
+
+        Node node = this.root;
+        int end = domain.length();
+        while (node != null) {
+            final int start = domain.lastIndexOf('.', end - 1) + 1;
+            final Node child = node.child(domain, start, end);
+            // The longest matching rule wins, an exception rule takes priority over any
+            // other rule of the same length.
+            if (child != null && child.exception) {
+                suffixStart = start;
+                exception = true;
+            } else if ((child != null && child.rule) || node.wildcard) {
+                suffixStart = start;
+                exception = false;
+            }
+            if (start == 0) {
+                break;
+            }
+            node = child;
+            end = start - 1;
+        }
+        return resolveDomainRoot(domain, suffixStart, exception);
+    }
+
+    /**
+     * Returns the index of the registrable part given the start of the longest matching
+     * public suffix, or -1 if the domain itself is a public suffix.
+     */
+    private static int resolveDomainRoot(final String domain, final int suffixStart, final boolean exception) {
+        if (exception) {
+            return suffixStart;
+        }
+        if (suffixStart == 0) {
+            return -1;
+        }
+        return domain.lastIndexOf('.', suffixStart - 2) + 1;
+    }
+
+    public boolean matches(final String domain) {
+        if (domain == null) {
+            return false;
+        }
+        final int domainRoot = getDomainRootIndex(domain.startsWith(".") ? domain.substring(1) : domain);
+        return domainRoot < 0;
+    }
+
+    /**
+     * Trie node holding the child labels of a domain suffix in an open addressing table.
+     */
+    private static final class Node {
+
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        final boolean rule;
+        final boolean exception;
+        final boolean wildcard;
+
+        private final String[] labels;
+        private final Node[] children;
+
+        private Node(final Builder builder) {
+            this.rule = builder.rule;
+            this.exception = builder.exception;
+            this.wildcard = builder.wildcard;
+            if (builder.children.isEmpty()) {
+                this.labels = null;
+                this.children = NO_CHILDREN;
+            } else {
+                int capacity = 2;
+                while (capacity < builder.children.size() * 2) {
+                    capacity <<= 1;
+                }
+                this.labels = new String[capacity];
+                this.children = new Node[capacity];
+                for (final Map.Entry<String, Builder> entry: builder.children.entrySet()) {
+                    final String label = entry.getKey();
+                    int slot = hash(label, 0, label.length()) & (capacity - 1);
+                    while (this.labels[slot] != null) {
+                        slot = (slot + 1) & (capacity - 1);
+                    }
+                    this.labels[slot] = label;
+                    this.children[slot] = entry.getValue().build();
+                }
+            }
+        }
+
+        Node child(final String domain, final int start, final int end) {
+            if (this.labels == null) {
+                return null;
+            }
+            final int mask = this.labels.length - 1;
+            final int length = end - start;
+            int slot = hash(domain, start, end) & mask;
+            String label;
+            while ((label = this.labels[slot]) != null) {
+                if (label.length() == length && label.regionMatches(true, 0, domain, start, length)) {
+                    return this.children[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        private static int hash(final String s, final int start, final int end) {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + Character.toLowerCase(s.charAt(i));
+            }
+            return h ^ (h >>> 16);
+        }
+
+        /**
+         * Mutable counterpart of {@link Node}, only used while building the trie.
+         */
+        static final class Builder {
+            boolean rule;
+            boolean exception;
+            boolean wildcard;
+            final Map<String, Builder> children = new HashMap<String, Builder>();
+
+            /**
+             * Returns the node for the given dot separated suffix, creating it if needed.
+             */
+            Builder add(final String suffix) {
+                Builder node = this;
+                int end = suffix.length();
+                while (end >= 0) {
+                    final int start = suffix.lastIndexOf('.', end - 1) + 1;
+                    final String label = suffix.substring(start, end);
+                    Builder child = node.children.get(label);
+                    if (child == null) {
+                        child = new Builder();
+                        node.children.put(label, child);
+                    }
+                    node = child;
+                    end = start - 1;
+                }
+                return node;
+            }
+
+            Node build() {
+                return new Node(this);
+            }
+        }
+    }
+
+}
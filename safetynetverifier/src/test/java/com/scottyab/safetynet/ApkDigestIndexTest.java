@@ -0,0 +1,227 @@
+package com.scottyab.safetynet;
+
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ApkDigestIndexTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("apks").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static byte[] digest(int n) {
+		byte[] digest = new byte[32];
+		digest[0] = (byte) n;
+		digest[31] = (byte) (n * 7);
+		return digest;
+	}
+
+	private static ByteBuffer compile(ApkDigestIndex.Builder builder) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		builder.write(out);
+		return ByteBuffer.wrap(out.toByteArray());
+	}
+
+	@Test
+	public void looksUpTheApksOfTheIndex() throws Exception {
+		ApkDigestIndex index = ApkDigestIndex.wrap(compile(new ApkDigestIndex.Builder()
+				.add(digest(3), "com.example.b", 30)
+				.add(digest(1), "com.example.a", 10)
+				.add(digest(2), "com.example.a", 20)
+				// the same APK again
+				.add(digest(1), "com.example.a", 10)));
+		assertEquals(3, index.size());
+		ApkDigestIndex.Entry entry = index.lookup(Base64Utils.encode(digest(2)));
+		assertNotNull(entry);
+		assertEquals("com.example.a", entry.getPackageName());
+		assertEquals(20, entry.getVersionCode());
+		assertEquals("com.example.b", index.lookup(digest(3)).getPackageName());
+		assertNull(index.lookup(digest(4)));
+		assertNull(index.lookup(new byte[31]));
+		assertNull(index.lookup("not base64!"));
+
+		assertNull(index.check(statement(digest(1), "com.example.a"), null, 0));
+		assertTrue(index.check(statement(digest(1), "com.example.b"), null, 0).startsWith("Invalid apkDigest"));
+		assertTrue(index.check(statement(digest(4), "com.example.a"), null, 0).startsWith("Unknown apkDigest"));
+	}
+
+	private static AttestationStatement statement(byte[] apkDigest, String packageName) {
+		return new Gson().fromJson("{\"ctsProfileMatch\":true,\"apkPackageName\":\"" + packageName
+				+ "\",\"apkDigestSha256\":\"" + Base64Utils.encode(apkDigest) + "\"}", AttestationStatement.class);
+	}
+
+	@Test
+	public void refusesIndexesWithCountsOrOffsetsOutOfBounds() throws Exception {
+		byte[] index = compile(new ApkDigestIndex.Builder()
+				.add(digest(1), "com.example.a", 10)
+				.add(digest(2), "com.example.b", 20)).array();
+		// count, then the string offset of the second entry
+		assertRefused(index, 4, 3);
+		assertRefused(index, 4, -1);
+		assertRefused(index, 8 + 40 + 36, 1000);
+		assertRefused(index, 8 + 40 + 36, -2);
+		// the length of the last package name
+		ByteBuffer lengths = ByteBuffer.wrap(index);
+		lengths.putShort(8 + 80 + 2 + "com.example.a".length(), (short) 100);
+		try {
+			ApkDigestIndex.wrap(lengths);
+			fail("Package name past the end accepted");
+		} catch (IOException expected) {
+		}
+		assertRefused(new byte[7], 0, 0);
+	}
+
+	private static void assertRefused(byte[] index, int position, int value) {
+		ByteBuffer damaged = ByteBuffer.wrap(index.clone());
+		if (damaged.capacity() >= position + 4) {
+			damaged.putInt(position, value);
+		}
+		try {
+			ApkDigestIndex.wrap(damaged);
+			fail("Damaged index accepted, " + value + " at " + position);
+		} catch (IOException expected) {
+		}
+	}
+
+	@Test
+	public void readsThePackageAndVersionCodeOfAnApk() throws Exception {
+		File apk = writeApk("app.apk", manifest("com.example.app", 42));
+		ApkDigestIndex index = ApkDigestIndex.wrap(compile(new ApkDigestIndex.Builder().addApk(apk)));
+		ApkDigestIndex.Entry entry = index.lookup(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(apk.toPath())));
+		assertNotNull(entry);
+		assertEquals("com.example.app", entry.getPackageName());
+		assertEquals(42, entry.getVersionCode());
+	}
+
+	@Test
+	public void refusesStringPoolsOutOfBounds() throws Exception {
+		byte[] manifest = manifest("com.example.app", 42);
+		// string count, strings start, then the offset of the first string, in the pool at 8
+		int[][] damages = { { 16, -1 }, { 16, 0x7fffffff }, { 16, 1000 }, { 28, 0 }, { 28, 100000 }, { 36, -8 }, { 36, 100000 } };
+		for (int[] damage : damages) {
+			byte[] damaged = manifest.clone();
+			ByteBuffer.wrap(damaged).order(ByteOrder.LITTLE_ENDIAN).putInt(damage[0], damage[1]);
+			try {
+				new ApkDigestIndex.Builder().addApk(writeApk("damaged.apk", damaged));
+				fail("Damaged manifest accepted, " + damage[1] + " at " + damage[0]);
+			} catch (IOException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void skipsMalformedApksOfADirectory() throws Exception {
+		byte[] malformed = manifest("com.example.bad", 1);
+		ByteBuffer.wrap(malformed).order(ByteOrder.LITTLE_ENDIAN).putInt(16, -1);
+		writeApk("a/good.apk", manifest("com.example.good", 1));
+		writeApk("b/bad.apk", malformed);
+		writeApk("b/c/other.apk", manifest("com.example.other", 2));
+		writeApk("b/not-an-apk.txt", new byte[1]);
+
+		ApkDigestIndex.Builder builder = new ApkDigestIndex.Builder();
+		try {
+			builder.addDirectory(directory, 2);
+			fail("Malformed APK not reported");
+		} catch (IOException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().contains("bad.apk"));
+		}
+		assertEquals(2, ApkDigestIndex.wrap(compile(builder)).size());
+	}
+
+	private File writeApk(String path, byte[] manifest) throws IOException {
+		File apk = new File(directory, path);
+		apk.getParentFile().mkdirs();
+		ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(apk));
+		try {
+			zip.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+			zip.write(manifest);
+			zip.closeEntry();
+		} finally {
+			zip.close();
+		}
+		return apk;
+	}
+
+	/**
+	 * Returns a compiled AndroidManifest.xml with just a {@code <manifest>} element, its string
+	 * pool in UTF-8 right after the 8 bytes of the XML header.
+	 */
+	private static byte[] manifest(String packageName, int versionCode) {
+		String[] strings = { "manifest", "package", "versionCode", packageName };
+		ByteArrayOutputStream stringData = new ByteArrayOutputStream();
+		int[] offsets = new int[strings.length];
+		for (int i = 0; i < strings.length; i++) {
+			offsets[i] = stringData.size();
+			byte[] bytes = strings[i].getBytes(UTF_8);
+			stringData.write(strings[i].length());
+			stringData.write(bytes.length);
+			stringData.write(bytes, 0, bytes.length);
+			stringData.write(0);
+		}
+		while (stringData.size() % 4 != 0) {
+			stringData.write(0);
+		}
+		int poolSize = 28 + 4 * strings.length + stringData.size();
+		int elementSize = 36 + 2 * 20;
+		ByteBuffer xml = ByteBuffer.allocate(8 + poolSize + elementSize).order(ByteOrder.LITTLE_ENDIAN);
+		xml.putShort((short) 0x0003).putShort((short) 8).putInt(xml.capacity());
+
+		xml.putShort((short) 0x0001).putShort((short) 28).putInt(poolSize)
+				.putInt(strings.length).putInt(0).putInt(1 << 8).putInt(28 + 4 * strings.length).putInt(0);
+		for (int offset : offsets) {
+			xml.putInt(offset);
+		}
+		xml.put(stringData.toByteArray());
+
+		xml.putShort((short) 0x0102).putShort((short) 16).putInt(elementSize)
+				.putInt(1).putInt(-1)
+				.putInt(-1).putInt(0).putShort((short) 20).putShort((short) 20).putShort((short) 2)
+				.putShort((short) 0).putShort((short) 0).putShort((short) 0);
+		// package="...", as a string
+		xml.putInt(-1).putInt(1).putInt(3).putShort((short) 8).put((byte) 0).put((byte) 0x03).putInt(3);
+		// versionCode="...", as an int
+		xml.putInt(-1).putInt(2).putInt(-1).putShort((short) 8).put((byte) 0).put((byte) 0x10).putInt(versionCode);
+		return xml.array();
+	}
+}
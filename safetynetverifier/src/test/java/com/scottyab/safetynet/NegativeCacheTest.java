@@ -0,0 +1,135 @@
+package com.scottyab.safetynet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.X509TrustManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NegativeCacheTest {
+
+	private FakeAttestationService service;
+	private NegativeCache cache;
+
+	@Before
+	public void setUp() throws Exception {
+		service = new FakeAttestationService();
+		cache = new NegativeCache(100, TimeUnit.MINUTES.toMillis(1)).setSampleInterval(0);
+	}
+
+	private String attest(FakeAttestationService service, int nonce) throws Exception {
+		return service.attest(new FakeAttestationService.Payload()
+				.setNonce(new byte[] { 1, 2, 3, 4, 5, 6, 7, (byte) nonce })
+				.setTimestampMs(System.currentTimeMillis())
+				.setApkPackageName("com.example.app"));
+	}
+
+	private SafetyNetVerificationException reject(String jws, X509TrustManager trustManager) {
+		try {
+			cache.verify(jws, trustManager);
+		} catch (SafetyNetVerificationException e) {
+			return e;
+		}
+		fail("Statement accepted");
+		return null;
+	}
+
+	private static boolean fromCache(SafetyNetVerificationException e) {
+		return e.getMessage().startsWith("Statement rejected recently");
+	}
+
+	@Test
+	public void verifiesValidStatementsEveryTime() throws Exception {
+		String jws = attest(service, 1);
+		cache.verify(jws, service.getTrustManager());
+		assertEquals("com.example.app", cache.verify(jws, service.getTrustManager()).getAttestationStatement().getApkPackageName());
+		assertEquals(0, cache.getStats().getHits());
+		assertEquals(0, cache.getStats().getSize());
+	}
+
+	@Test
+	public void remembersAForgedStatementButNotItsChain() throws Exception {
+		String jws = attest(service, 1);
+		// flip a char in the middle of the signature, the last one may only carry padding bits
+		int position = jws.lastIndexOf('.') + 20;
+		String forged = jws.substring(0, position) + (jws.charAt(position) == 'A' ? 'B' : 'A') + jws.substring(position + 1);
+
+		SafetyNetVerificationException first = reject(forged, service.getTrustManager());
+		assertEquals(SafetyNetVerificationException.ErrorCode.SIGNATURE_VERIFICATION_FAILED, first.getErrorCode());
+		SafetyNetVerificationException second = reject(forged, service.getTrustManager());
+		assertTrue(fromCache(second));
+		assertEquals(SafetyNetVerificationException.ErrorCode.SIGNATURE_VERIFICATION_FAILED, second.getErrorCode());
+
+		// the chain is fine
+		cache.verify(jws, service.getTrustManager());
+		assertEquals(1, cache.getStats().getHits());
+	}
+
+	@Test
+	public void remembersTheChainOfALeafNotIssuedToAttestAndroidCom() throws Exception {
+		FakeAttestationService other = new FakeAttestationService("attest.example.com");
+		SafetyNetVerificationException first = reject(attest(other, 1), other.getTrustManager());
+		assertEquals(SafetyNetVerificationException.ErrorCode.INVALID_CERTIFICATE_ISSUER, first.getErrorCode());
+		assertFalse(fromCache(first));
+
+		// another statement signed with the same chain
+		SafetyNetVerificationException second = reject(attest(other, 2), other.getTrustManager());
+		assertTrue(fromCache(second));
+		assertEquals(SafetyNetVerificationException.ErrorCode.INVALID_CERTIFICATE_ISSUER, second.getErrorCode());
+		assertEquals(2, cache.getStats().getInsertions());
+	}
+
+	@Test
+	public void doesNotRememberTheChainWhenItIsNotTrusted() throws Exception {
+		// e.g. a trust manager being updated
+		X509TrustManager stale = new FakeAttestationService().getTrustManager();
+		String rejected = attest(service, 1);
+		assertEquals(SafetyNetVerificationException.ErrorCode.SIGNATURE_VERIFICATION_FAILED, reject(rejected, stale).getErrorCode());
+
+		// the statement itself is remembered, other statements with the chain are verified
+		assertTrue(fromCache(reject(rejected, service.getTrustManager())));
+		cache.verify(attest(service, 2), service.getTrustManager());
+
+		// same for a leaf not valid yet, which depends on the clock
+		long now = System.currentTimeMillis();
+		FakeAttestationService notYetValid = new FakeAttestationService("attest.android.com", 0, now + TimeUnit.DAYS.toMillis(1), now + TimeUnit.DAYS.toMillis(2));
+		assertEquals(SafetyNetVerificationException.ErrorCode.SIGNATURE_VERIFICATION_FAILED, reject(attest(notYetValid, 1), notYetValid.getTrustManager()).getErrorCode());
+		assertFalse(fromCache(reject(attest(notYetValid, 2), notYetValid.getTrustManager())));
+	}
+
+	@Test
+	public void remembersMalformedStatements() throws Exception {
+		SafetyNetVerificationException first = reject("not a jws", service.getTrustManager());
+		assertEquals(SafetyNetVerificationException.ErrorCode.INVALID_JWT_RESPONSE, first.getErrorCode());
+		assertTrue(fromCache(reject("not a jws", service.getTrustManager())));
+	}
+
+	@Test
+	public void forgetsASampledHitWhichTurnsOutValid() throws Exception {
+		cache.setSampleInterval(1);
+		String jws = attest(service, 1);
+		reject(jws, new FakeAttestationService().getTrustManager());
+
+		cache.verify(jws, service.getTrustManager());
+		NegativeCache.Stats stats = cache.getStats();
+		assertEquals(1, stats.getHits());
+		assertEquals(1, stats.getSampledHits());
+		assertEquals(1, stats.getFalsePositives());
+		assertEquals(0, stats.getSize());
+	}
+
+	@Test
+	public void forgetsEverythingWhenCleared() throws Exception {
+		String jws = attest(service, 1);
+		reject(jws, new FakeAttestationService().getTrustManager());
+		cache.clear();
+		cache.verify(jws, service.getTrustManager());
+		assertEquals(0, cache.getStats().getHits());
+	}
+}
@@ -0,0 +1,47 @@
+package com.scottyab.safetynet;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NonceGeneratorTest {
+
+	@Test
+	public void generatesDistinctNoncesFromManyThreads() throws Exception {
+		final NonceGenerator generator = new NonceGenerator.Builder().setNonceLength(16).setReseedIntervalBytes(4096).build();
+		final Set<ByteBuffer> nonces = Collections.synchronizedSet(new HashSet<ByteBuffer>());
+		// more threads than stripes, and each short lived
+		Thread[] threads = new Thread[Stripes.count() * 4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 100; j++) {
+						byte[] nonce = generator.next();
+						assertEquals(16, nonce.length);
+						nonces.add(ByteBuffer.wrap(nonce));
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(threads.length * 100, nonces.size());
+	}
+
+	@Test
+	public void picksTheSameStripeForAThread() {
+		int count = Stripes.count();
+		int index = Stripes.index(count);
+		assertEquals(index, Stripes.index(count));
+		assertTrue(index >= 0 && index < count);
+	}
+}
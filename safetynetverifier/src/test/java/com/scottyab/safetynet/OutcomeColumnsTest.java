@@ -0,0 +1,201 @@
+package com.scottyab.safetynet;
+
+import com.google.gson.Gson;
+import com.scottyab.safetynet.OutcomeColumns.Column;
+import com.scottyab.safetynet.OutcomeColumns.Filter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OutcomeColumnsTest {
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("outcomes", ".col");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	private static AttestationStatement statement(String packageName, boolean ctsProfileMatch, String advice) {
+		Map<String, Object> json = new HashMap<String, Object>();
+		json.put("apkPackageName", packageName);
+		json.put("ctsProfileMatch", ctsProfileMatch);
+		json.put("basicIntegrity", true);
+		json.put("advice", advice);
+		json.put("evaluationType", "BASIC");
+		Gson gson = new Gson();
+		return gson.fromJson(gson.toJson(json), AttestationStatement.class);
+	}
+
+	/*
+	 * 3 rows per group: the first group has no statement at all, so empty dictionaries and a bit
+	 * width of 0; timestamps go backwards within and across groups.
+	 */
+	private void writeSample() throws IOException {
+		OutcomeColumns.Writer writer = new OutcomeColumns.Writer(file).setRowGroupSize(3);
+		writer.add(5000, null, SafetyNetVerificationException.ErrorCode.INVALID_JWT_RESPONSE);
+		writer.add(4000, null, SafetyNetVerificationException.ErrorCode.INVALID_JWT_RESPONSE);
+		writer.add(-1000, null, SafetyNetVerificationException.ErrorCode.INVALID_JWT_RESPONSE);
+		writer.add(10000, statement("com.example.a", true, null), null);
+		writer.add(9000, statement("com.example.b", false, "RESTORE_TO_FACTORY_ROM"), SafetyNetVerificationException.ErrorCode.PAYLOAD_VALIDATION_FAILED);
+		writer.add(11000, statement("com.example.a", true, null), null);
+		writer.add(20000, statement("com.example.c", false, null), null);
+		writer.close();
+	}
+
+	@Test
+	public void readsBackEveryColumnOfEveryGroup() throws Exception {
+		writeSample();
+		OutcomeColumns.Reader reader = new OutcomeColumns.Reader(file);
+		try {
+			assertEquals(7, reader.getRowCount());
+			final List<String> rows = new ArrayList<String>();
+			reader.scan(Filter.all(), new OutcomeColumns.BatchVisitor() {
+				@Override
+				public void visit(OutcomeColumns.Batch batch) throws IOException {
+					for (int row = batch.nextSelected(0); row >= 0; row = batch.nextSelected(row + 1)) {
+						rows.add(batch.getTimestamps()[row]
+								+ " " + batch.getBoolean(Column.CTS_PROFILE_MATCH, row)
+								+ " " + batch.getBoolean(Column.BASIC_INTEGRITY, row)
+								+ " " + value(batch, Column.PACKAGE_NAME, row)
+								+ " " + value(batch, Column.ADVICE, row)
+								+ " " + value(batch, Column.EVALUATION_TYPE, row)
+								+ " " + value(batch, Column.APK_DIGEST_SHA256, row)
+								+ " " + value(batch, Column.ERROR_CODE, row));
+					}
+				}
+			});
+			assertEquals(Arrays.asList(
+					"5000 false false null null null null INVALID_JWT_RESPONSE",
+					"4000 false false null null null null INVALID_JWT_RESPONSE",
+					"-1000 false false null null null null INVALID_JWT_RESPONSE",
+					"10000 true true com.example.a null BASIC null null",
+					"9000 false true com.example.b RESTORE_TO_FACTORY_ROM BASIC null PAYLOAD_VALIDATION_FAILED",
+					"11000 true true com.example.a null BASIC null null",
+					"20000 false true com.example.c null BASIC null null"), rows);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static String value(OutcomeColumns.Batch batch, Column column, int row) throws IOException {
+		return batch.getDictionary(column)[batch.getStringIds(column)[row]];
+	}
+
+	@Test
+	public void countsByColumnAndTime() throws Exception {
+		writeSample();
+		OutcomeColumns.Reader reader = new OutcomeColumns.Reader(file);
+		try {
+			Map<String, Long> byPackage = reader.countBy(Column.PACKAGE_NAME, Filter.isFalse(Column.CTS_PROFILE_MATCH));
+			assertEquals(Long.valueOf(3), byPackage.get(null));
+			assertEquals(Long.valueOf(1), byPackage.get("com.example.b"));
+			assertEquals(Long.valueOf(1), byPackage.get("com.example.c"));
+			assertNull(byPackage.get("com.example.a"));
+			assertEquals(2, reader.count(Filter.equalTo(Column.PACKAGE_NAME, "com.example.a")));
+			assertEquals(0, reader.count(Filter.equalTo(Column.PACKAGE_NAME, "com.example.z")));
+			assertEquals(Long.valueOf(1), reader.countByTime(10000, Filter.all()).get(-10000L));
+			assertEquals(Long.valueOf(2), reader.countByTime(10000, Filter.all()).get(10000L));
+			assertEquals(Long.valueOf(3), reader.countByTime(10000, Filter.all()).get(0L));
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void skipsTheGroupsOutsideTheTimeRange() throws Exception {
+		writeSample();
+		OutcomeColumns.Reader reader = new OutcomeColumns.Reader(file);
+		try {
+			// only the second group spans [9000, 11000]
+			assertEquals(1, groupsScanned(reader, Filter.between(9500, 10500)));
+			assertEquals(1, reader.count(Filter.between(9500, 10500)));
+			// toMs is exclusive, the third group starts at it
+			assertEquals(2, groupsScanned(reader, Filter.between(-1000, 20000)));
+			assertEquals(0, groupsScanned(reader, Filter.between(12000, 20000)));
+			assertEquals(0, groupsScanned(reader, Filter.and(Filter.between(0, 1000), Filter.between(9000, 9001))));
+			assertEquals(2, groupsScanned(reader, Filter.or(Filter.between(0, 1000), Filter.between(20000, 20001))));
+			assertEquals(2, reader.count(Filter.or(Filter.between(-1000, -999), Filter.between(20000, 20001))));
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static int groupsScanned(OutcomeColumns.Reader reader, Filter filter) throws IOException {
+		final int[] groups = new int[1];
+		reader.scan(filter, new OutcomeColumns.BatchVisitor() {
+			@Override
+			public void visit(OutcomeColumns.Batch batch) {
+				groups[0]++;
+			}
+		});
+		return groups[0];
+	}
+
+	@Test
+	public void reportsDamagedChunksAsIOException() throws Exception {
+		writeSample();
+		byte[] original = Files.readAllBytes(file.toPath());
+		// every byte of the row groups set to values that make lengths, varints and widths wrong
+		for (int i = 5; i < original.length; i++) {
+			for (int value : new int[] { 0x00, 0x7f, 0x80, 0xff }) {
+				byte[] damaged = original.clone();
+				damaged[i] = (byte) value;
+				queryAll(damaged);
+			}
+		}
+		for (int length = 0; length < original.length; length++) {
+			queryAll(Arrays.copyOf(original, length));
+		}
+	}
+
+	/**
+	 * Runs queries decoding every column, which may fail with an IOException only.
+	 */
+	private void queryAll(byte[] bytes) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+		OutcomeColumns.Reader reader;
+		try {
+			reader = new OutcomeColumns.Reader(file);
+		} catch (IOException e) {
+			return;
+		}
+		try {
+			reader.countByTime(1000, Filter.isTrue(Column.CTS_PROFILE_MATCH));
+			reader.countBy(Column.BASIC_INTEGRITY, Filter.all());
+			for (Column column : Column.values()) {
+				if (column != Column.TIMESTAMP && column != Column.CTS_PROFILE_MATCH && column != Column.BASIC_INTEGRITY) {
+					reader.countBy(column, Filter.all());
+				}
+			}
+		} catch (IOException e) {
+			// expected for most damages
+		} finally {
+			reader.close();
+		}
+	}
+}
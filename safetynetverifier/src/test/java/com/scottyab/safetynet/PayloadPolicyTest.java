@@ -0,0 +1,62 @@
+package com.scottyab.safetynet;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class PayloadPolicyTest {
+
+	private static final List<String> DIGESTS = Arrays.asList("old", "new");
+
+	private static AttestationStatement statement(String json) {
+		return new Gson().fromJson(json, AttestationStatement.class);
+	}
+
+	private static void assertPasses(PayloadPolicy policy, String json) throws SafetyNetVerificationException {
+		policy.check(statement(json), null, 0);
+	}
+
+	private static void assertRejects(PayloadPolicy policy, String json) {
+		try {
+			policy.check(statement(json), null, 0);
+			fail("accepted " + json);
+		} catch (SafetyNetVerificationException e) {
+			assertEquals(SafetyNetVerificationException.ErrorCode.PAYLOAD_VALIDATION_FAILED, e.getErrorCode());
+		}
+	}
+
+	@Test
+	public void certificateDigestsMustMatchExactlyByDefault() throws Exception {
+		PayloadPolicy policy = new PayloadPolicy.Builder().allowCertificateDigests(DIGESTS).build();
+		assertPasses(policy, "{\"ctsProfileMatch\":true,\"apkCertificateDigestSha256\":[\"new\",\"old\"]}");
+		assertRejects(policy, "{\"ctsProfileMatch\":true,\"apkCertificateDigestSha256\":[\"old\"]}");
+		assertRejects(policy, "{\"ctsProfileMatch\":true,\"apkCertificateDigestSha256\":[\"old\",\"new\",\"other\"]}");
+		assertRejects(policy, "{\"ctsProfileMatch\":true,\"apkCertificateDigestSha256\":[]}");
+		assertRejects(policy, "{\"ctsProfileMatch\":true}");
+	}
+
+	@Test
+	public void certificateDigestsAmongAllowsASubset() throws Exception {
+		PayloadPolicy policy = new PayloadPolicy.Builder().allowCertificateDigestsAmong(DIGESTS).build();
+		assertPasses(policy, "{\"ctsProfileMatch\":true,\"apkCertificateDigestSha256\":[\"old\"]}");
+		assertPasses(policy, "{\"ctsProfileMatch\":true,\"apkCertificateDigestSha256\":[\"old\",\"new\"]}");
+		assertRejects(policy, "{\"ctsProfileMatch\":true,\"apkCertificateDigestSha256\":[\"old\",\"other\"]}");
+		assertRejects(policy, "{\"ctsProfileMatch\":true,\"apkCertificateDigestSha256\":[]}");
+	}
+
+	@Test
+	public void booleanRulesCheckTheirOwnVerdict() throws Exception {
+		PayloadPolicy cts = new PayloadPolicy.Builder().requireCtsProfileMatch().build();
+		PayloadPolicy basic = new PayloadPolicy.Builder().requireBasicIntegrity().build();
+		assertPasses(cts, "{\"ctsProfileMatch\":true}");
+		assertRejects(cts, "{\"basicIntegrity\":true}");
+		assertPasses(basic, "{\"basicIntegrity\":true}");
+		assertRejects(basic, "{\"ctsProfileMatch\":true}");
+	}
+}
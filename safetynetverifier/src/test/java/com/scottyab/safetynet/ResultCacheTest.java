@@ -0,0 +1,128 @@
+package com.scottyab.safetynet;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResultCacheTest {
+
+	private static final long FRESHNESS_MS = TimeUnit.MINUTES.toMillis(10);
+
+	private static AttestationStatement statement(long timestampMs) {
+		return new Gson().fromJson("{\"nonce\":\"AQID\",\"timestampMs\":" + timestampMs + ",\"apkPackageName\":\"com.example.app\"}", AttestationStatement.class);
+	}
+
+	@Test
+	public void returnsTheOutcomeOfTheSameStatementOnly() {
+		ResultCache cache = new ResultCache(100, FRESHNESS_MS);
+		long now = System.currentTimeMillis();
+		cache.putAccepted("header.accepted.signature", statement(now));
+		cache.putRejected("header.rejected.signature", new SafetyNetVerificationException(
+				SafetyNetVerificationException.ErrorCode.PAYLOAD_VALIDATION_FAILED, "Nonce already used", statement(now)));
+
+		ResultCache.Result accepted = cache.get("header.accepted.signature");
+		assertNotNull(accepted);
+		assertTrue(accepted.isValid());
+		assertNull(accepted.toException());
+		assertEquals(now, accepted.getStatement().getTimestampMs());
+
+		ResultCache.Result rejected = cache.get("header.rejected.signature");
+		assertNotNull(rejected);
+		assertFalse(rejected.isValid());
+		assertEquals(SafetyNetVerificationException.ErrorCode.PAYLOAD_VALIDATION_FAILED, rejected.getErrorCode());
+		assertEquals("Nonce already used", rejected.getMessage());
+
+		assertNull(cache.get("header.accepted.signaturf"));
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void forgetsAcceptedStatementsOnceTheyAreNoLongerFresh() {
+		ResultCache cache = new ResultCache(100, FRESHNESS_MS);
+		long now = System.currentTimeMillis();
+		cache.putAccepted("recent", statement(now - 1000));
+		assertNotNull(cache.get("recent", now));
+		assertNull(cache.get("recent", now - 1000 + FRESHNESS_MS));
+		// and no longer there once it expired
+		assertNull(cache.get("recent", now));
+
+		// already stale when put
+		cache.putAccepted("stale", statement(now - FRESHNESS_MS - 1000));
+		assertNull(cache.get("stale", now));
+	}
+
+	@Test
+	public void forgetsRejectionsAfterTheFreshnessWindow() {
+		ResultCache cache = new ResultCache(100, FRESHNESS_MS);
+		long before = System.currentTimeMillis();
+		cache.putRejected("forged", new SafetyNetVerificationException(
+				SafetyNetVerificationException.ErrorCode.SIGNATURE_VERIFICATION_FAILED, "Bad signature", null));
+		long after = System.currentTimeMillis();
+		assertNotNull(cache.get("forged", before + FRESHNESS_MS - 1));
+		assertNull(cache.get("forged", after + FRESHNESS_MS));
+	}
+
+	@Test
+	public void keepsWithinMaxEntries() {
+		// one statement per segment
+		ResultCache cache = new ResultCache(SegmentedLruCache.SEGMENTS, FRESHNESS_MS);
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 1000; i++) {
+			cache.putAccepted("statement-" + i, statement(now));
+			// the statement just put is the most recently used of its segment
+			assertNotNull(cache.get("statement-" + i));
+		}
+		int cached = 0;
+		for (int i = 0; i < 1000; i++) {
+			if (cache.get("statement-" + i) != null) {
+				cached++;
+			}
+		}
+		assertTrue(cached <= SegmentedLruCache.SEGMENTS);
+		assertEquals(1000 - cached, cache.getEvictions());
+	}
+
+	@Test
+	public void servesConcurrentReadersAndWriters() throws Exception {
+		final ResultCache cache = new ResultCache(1000, FRESHNESS_MS);
+		final long now = System.currentTimeMillis();
+		final AtomicInteger wrong = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 20000; i++) {
+						// 500 statements shared by all the threads, each with its own timestamp
+						int n = (i * 7 + thread) % 500;
+						String jws = "statement-" + n;
+						ResultCache.Result result = cache.get(jws);
+						if (result == null) {
+							cache.putAccepted(jws, statement(now + n));
+						} else if (result.getStatement().getTimestampMs() != now + n) {
+							wrong.incrementAndGet();
+						}
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, wrong.get());
+		assertTrue(cache.getHits() > 0);
+		assertEquals(8 * 20000, cache.getHits() + cache.getMisses());
+	}
+}
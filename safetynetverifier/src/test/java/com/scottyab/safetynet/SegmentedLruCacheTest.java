@@ -0,0 +1,61 @@
+package com.scottyab.safetynet;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SegmentedLruCacheTest {
+
+	private static final long NEVER = Long.MAX_VALUE;
+
+	/**
+	 * Returns the low half of a key in the given segment.
+	 */
+	private static long low(int segment, int n) {
+		return ((long) segment << 60) | n;
+	}
+
+	@Test
+	public void evictsTheLeastRecentlyUsedValueOfTheSegment() {
+		// 2 per segment
+		SegmentedLruCache<String> cache = new SegmentedLruCache<String>(2 * SegmentedLruCache.SEGMENTS);
+		cache.put(1, low(3, 1), "a", NEVER);
+		cache.put(2, low(3, 2), "b", NEVER);
+		// a is now more recently used than b
+		assertEquals("a", cache.get(1, low(3, 1), 0));
+		cache.put(3, low(3, 3), "c", NEVER);
+		assertEquals(1, cache.getEvictions());
+		assertNull(cache.get(2, low(3, 2), 0));
+		assertEquals("a", cache.get(1, low(3, 1), 0));
+		assertEquals("c", cache.get(3, low(3, 3), 0));
+
+		// other segments are not affected
+		cache.put(4, low(4, 4), "d", NEVER);
+		cache.put(5, low(5, 5), "e", NEVER);
+		assertEquals(1, cache.getEvictions());
+		assertEquals(4, cache.size());
+	}
+
+	@Test
+	public void forgetsExpiredValues() {
+		SegmentedLruCache<String> cache = new SegmentedLruCache<String>(16);
+		cache.put(1, low(0, 1), "a", 1000);
+		assertEquals("a", cache.get(1, low(0, 1), 999));
+		assertNull(cache.get(1, low(0, 1), 1000));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void tellsKeysApartByBothHalves() {
+		SegmentedLruCache<String> cache = new SegmentedLruCache<String>(16);
+		cache.put(1, low(0, 1), "a", NEVER);
+		assertNull(cache.get(2, low(0, 1), 0));
+		assertNull(cache.get(1, low(0, 2), 0));
+		cache.remove(1, low(0, 1));
+		assertNull(cache.get(1, low(0, 1), 0));
+		cache.put(1, low(0, 1), "a", NEVER);
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+}
@@ -0,0 +1,143 @@
+package com.scottyab.safetynet;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StatelessNonceTest {
+
+	private static final byte[] KEY = new byte[32];
+	private static final byte[] OTHER_KEY = new byte[32];
+	private static final long VALIDITY_MS = 60000;
+	private static final long NOW = 1600000000000L;
+	private static final byte[] BINDING = { 'u', 's', 'e', 'r' };
+
+	static {
+		Arrays.fill(OTHER_KEY, (byte) 1);
+	}
+
+	private static void assertRefused(StatelessNonce nonces, byte[] nonce, byte[] binding, long nowMs, String reason) {
+		try {
+			nonces.verify(nonce, binding, nowMs);
+			fail("Nonce accepted, expected: " + reason);
+		} catch (SafetyNetVerificationException e) {
+			assertEquals(SafetyNetVerificationException.ErrorCode.PAYLOAD_VALIDATION_FAILED, e.getErrorCode());
+			assertTrue(e.getMessage(), e.getMessage().startsWith(reason));
+		}
+	}
+
+	@Test
+	public void acceptsTheNoncesItIssued() throws Exception {
+		StatelessNonce nonces = new StatelessNonce(1, KEY, VALIDITY_MS);
+		byte[] nonce = nonces.issue(BINDING, NOW);
+		assertEquals(StatelessNonce.NONCE_LENGTH, nonce.length);
+		nonces.verify(nonce, BINDING, NOW);
+		// without a replay window, until it expires
+		nonces.verify(nonce, BINDING, NOW + 1000);
+		assertTrue(!Arrays.equals(nonce, nonces.issue(BINDING, NOW)));
+	}
+
+	@Test(expected = SafetyNetVerificationException.class)
+	public void rejectsATamperedNonce() throws Exception {
+		StatelessNonce nonces = new StatelessNonce(1, KEY, VALIDITY_MS);
+		byte[] nonce = nonces.issue(BINDING, NOW);
+		nonce[20] ^= 1;
+		nonces.verify(nonce, BINDING, NOW);
+	}
+
+	@Test
+	public void rejectsAnyChangeToTheNonceOrItsBinding() {
+		StatelessNonce nonces = new StatelessNonce(1, KEY, VALIDITY_MS);
+		byte[] nonce = nonces.issue(BINDING, NOW);
+		// the issue time, the salt and the MAC
+		for (int i = 5; i < nonce.length; i++) {
+			byte[] tampered = nonce.clone();
+			tampered[i] ^= 0x10;
+			assertRefused(nonces, tampered, BINDING, NOW, "Invalid nonce, bad MAC or binding");
+		}
+		assertRefused(nonces, nonce, new byte[] { 'u', 's', 'e', 'R' }, NOW, "Invalid nonce, bad MAC or binding");
+		assertRefused(nonces, nonce, null, NOW, "Invalid nonce, bad MAC or binding");
+		assertRefused(new StatelessNonce(1, OTHER_KEY, VALIDITY_MS), nonce, BINDING, NOW, "Invalid nonce, bad MAC or binding");
+
+		byte[] version = nonce.clone();
+		version[0] = 2;
+		assertRefused(nonces, version, BINDING, NOW, "Invalid nonce, not issued by this server");
+		assertRefused(nonces, Arrays.copyOf(nonce, nonce.length - 1), BINDING, NOW, "Invalid nonce, not issued by this server");
+		assertRefused(nonces, null, BINDING, NOW, "Invalid nonce, not issued by this server");
+	}
+
+	@Test
+	public void rejectsExpiredNoncesAndNoncesFromTheFuture() throws Exception {
+		StatelessNonce nonces = new StatelessNonce(1, KEY, VALIDITY_MS, 2000);
+		byte[] nonce = nonces.issue(BINDING, NOW);
+		nonces.verify(nonce, BINDING, NOW + VALIDITY_MS);
+		assertRefused(nonces, nonce, BINDING, NOW + VALIDITY_MS + 1, "Invalid nonce, expired 1ms ago");
+		// issued by a server with a clock ahead
+		nonces.verify(nonce, BINDING, NOW - 2000);
+		assertRefused(nonces, nonce, BINDING, NOW - 2001, "Invalid nonce, issued 2001ms in the future");
+		assertRefused(new StatelessNonce(1, KEY, VALIDITY_MS), nonce, BINDING, NOW - 1, "Invalid nonce, issued 1ms in the future");
+	}
+
+	@Test
+	public void acceptsNoncesOfPreviousKeysUntilRetired() throws Exception {
+		StatelessNonce nonces = new StatelessNonce(1, KEY, VALIDITY_MS);
+		byte[] old = nonces.issue(BINDING, NOW);
+		nonces.rotate(2, OTHER_KEY);
+		byte[] rotated = nonces.issue(BINDING, NOW);
+		assertEquals(2, rotated[4]);
+		nonces.verify(old, BINDING, NOW);
+		nonces.verify(rotated, BINDING, NOW);
+
+		nonces.retire(1);
+		assertRefused(nonces, old, BINDING, NOW, "Invalid nonce, unknown or retired key 1");
+		nonces.verify(rotated, BINDING, NOW);
+		// a key id carried by a nonce is only trusted with its own key
+		byte[] swapped = old.clone();
+		swapped[4] = 2;
+		assertRefused(nonces, swapped, BINDING, NOW, "Invalid nonce, bad MAC or binding");
+		try {
+			nonces.retire(2);
+			fail("Current key retired");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	@Test
+	public void refusesReplaysWithinTheWindow() throws Exception {
+		StatelessNonce nonces = new StatelessNonce(1, KEY, VALIDITY_MS).setReplayWindow(2);
+		byte[] first = nonces.issue(BINDING, NOW + 1);
+		byte[] second = nonces.issue(BINDING, NOW + 2);
+		byte[] third = nonces.issue(BINDING, NOW + 3);
+		nonces.verify(first, BINDING, NOW + 10);
+		assertRefused(nonces, first, BINDING, NOW + 10, "Invalid nonce, already used");
+		nonces.verify(second, BINDING, NOW + 10);
+		// forgets the first one, and refuses the nonces issued up to it as possible replays
+		nonces.verify(third, BINDING, NOW + 10);
+		assertRefused(nonces, first, BINDING, NOW + 10, "Invalid nonce, already used");
+		assertRefused(nonces, nonces.issue(BINDING, NOW + 1), BINDING, NOW + 10, "Invalid nonce, already used");
+		nonces.verify(nonces.issue(BINDING, NOW + 2), BINDING, NOW + 10);
+		assertRefused(nonces, third, BINDING, NOW + 10, "Invalid nonce, already used");
+	}
+
+	@Test
+	public void checksTheNonceOfStatements() {
+		StatelessNonce nonces = new StatelessNonce(1, KEY, VALIDITY_MS);
+		byte[] nonce = nonces.issue(null, NOW);
+		assertNull(nonces.check(statement("\"" + Base64Utils.encode(nonce) + "\""), null, NOW));
+		assertEquals("Invalid nonce, bad MAC or binding",
+				nonces.check(statement("\"" + Base64Utils.encode(nonces.issue(BINDING, NOW)) + "\""), null, NOW));
+		assertEquals("Invalid nonce, not base64", nonces.check(statement("\"%%%\""), null, NOW));
+		assertEquals("Invalid nonce, not issued by this server", nonces.check(statement("null"), null, NOW));
+	}
+
+	private static AttestationStatement statement(String nonce) {
+		return new Gson().fromJson("{\"nonce\":" + nonce + ",\"timestampMs\":" + NOW + "}", AttestationStatement.class);
+	}
+}
@@ -0,0 +1,109 @@
+package com.scottyab.safetynet;
+
+import com.google.gson.Gson;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TenantRegistryTest {
+
+	private TenantRegistry tenants;
+
+	@Before
+	public void setUp() {
+		tenants = new TenantRegistry();
+		tenants.putTenant(new TenantRegistry.Tenant.Builder("com.example.app")
+				.allowCertificateDigests(Collections.singletonList("digest"))
+				.setTimestampWindow(1000, 100)
+				.build());
+	}
+
+	private String check(String json) {
+		return tenants.check(new Gson().fromJson(json, AttestationStatement.class), null, 10000);
+	}
+
+	@Test
+	public void checksTheDigestsWithCtsProfileMatch() {
+		assertNull(check("{\"ctsProfileMatch\":true,\"apkPackageName\":\"com.example.app\",\"timestampMs\":10000,\"apkCertificateDigestSha256\":[\"digest\"]}"));
+		assertNotNull(check("{\"ctsProfileMatch\":true,\"apkPackageName\":\"com.example.app\",\"timestampMs\":10000,\"apkCertificateDigestSha256\":[\"other\"]}"));
+	}
+
+	@Test
+	public void checksThePackageAndTimestampWithoutCtsProfileMatch() {
+		// the digests cannot be trusted, so they are not compared
+		assertNull(check("{\"apkPackageName\":\"com.example.app\",\"timestampMs\":10000,\"apkCertificateDigestSha256\":[\"other\"]}"));
+		assertNotNull(check("{\"apkPackageName\":\"com.example.other\",\"timestampMs\":10000}"));
+		assertNotNull(check("{\"timestampMs\":10000}"));
+		assertNotNull(check("{\"apkPackageName\":\"com.example.app\",\"timestampMs\":5000}"));
+		assertNotNull(check("{\"apkPackageName\":\"com.example.app\",\"timestampMs\":10500}"));
+	}
+
+	@Test
+	public void requiresExactlyTheCertificateDigestsUnlessAmong() {
+		tenants.putTenant(new TenantRegistry.Tenant.Builder("com.example.app")
+				.allowCertificateDigests(Arrays.asList("old", "new"))
+				.build());
+		tenants.putTenant(new TenantRegistry.Tenant.Builder("com.example.rotating")
+				.allowCertificateDigestsAmong(Arrays.asList("old", "new"))
+				.build());
+		assertNull(check("{\"ctsProfileMatch\":true,\"apkPackageName\":\"com.example.app\",\"apkCertificateDigestSha256\":[\"new\",\"old\"]}"));
+		assertNotNull(check("{\"ctsProfileMatch\":true,\"apkPackageName\":\"com.example.app\",\"apkCertificateDigestSha256\":[\"new\"]}"));
+		assertNull(check("{\"ctsProfileMatch\":true,\"apkPackageName\":\"com.example.rotating\",\"apkCertificateDigestSha256\":[\"new\"]}"));
+		assertNull(check("{\"ctsProfileMatch\":true,\"apkPackageName\":\"com.example.rotating\",\"apkCertificateDigestSha256\":[\"new\",\"old\"]}"));
+		assertNotNull(check("{\"ctsProfileMatch\":true,\"apkPackageName\":\"com.example.rotating\",\"apkCertificateDigestSha256\":[\"new\",\"other\"]}"));
+	}
+
+	@Test
+	public void loadsTheTenantsOfTheConfig() throws Exception {
+		tenants.load(new StringReader("{\"tenants\":["
+				+ "{\"packageName\":\"com.example.a\",\"certificateDigests\":[\"a\"],\"maxAgeMs\":1000},"
+				+ "{\"packageName\":\"com.example.b\",\"certificateDigestsAmong\":[\"b\",\"c\"],\"apkDigests\":[\"apk\"]}]}"));
+		assertEquals(2, tenants.getTenants().size());
+		assertNull(tenants.getTenant("com.example.app"));
+		TenantRegistry.Tenant a = tenants.getTenant("COM.example.A");
+		assertEquals(Collections.singleton("a"), a.getCertificateDigests());
+		assertEquals(false, a.isCertificateDigestsAmong());
+		assertEquals(1000, a.getMaxAgeMs());
+		assertEquals(Long.MAX_VALUE, a.getMaxSkewMs());
+		TenantRegistry.Tenant b = tenants.getTenant("com.example.b");
+		assertTrue(b.isCertificateDigestsAmong());
+		assertEquals(Collections.singleton("apk"), b.getApkDigests());
+	}
+
+	@Test
+	public void reportsInvalidConfigsAsIOException() {
+		String[] configs = {
+				"not json",
+				"{}",
+				"{\"tenants\":[{\"packageName\":\"com.example.a\"}]}",
+				"{\"tenants\":[{\"packageName\":\"com.example.a\",\"certificateDigests\":[]}]}",
+				"{\"tenants\":[{\"packageName\":\"com.example.a\",\"certificateDigests\":[\"a\"],\"certificateDigestsAmong\":[\"b\"]}]}",
+				"{\"tenants\":[{\"packageName\":\"com.example.a\",\"certificateDigests\":[\"a\"],\"maxAgeMs\":-1}]}",
+				"{\"tenants\":[{\"packageName\":\"com.example.a\",\"certificateDigests\":[\"a\"],\"maxSkewMs\":-1}]}",
+				"{\"tenants\":[{\"packageName\":\"com.example.a\",\"certificateDigests\":[\"a\"]},"
+						+ "{\"packageName\":\"com.Example.A\",\"certificateDigests\":[\"b\"]}]}",
+		};
+		for (String config : configs) {
+			try {
+				tenants.load(new StringReader(config));
+				fail("Invalid config loaded: " + config);
+			} catch (IOException e) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid tenant config; "));
+			}
+			// left unchanged
+			assertNotNull(tenants.getTenant("com.example.app"));
+			assertEquals(1, tenants.getTenants().size());
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package com.scottyab.safetynet;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TokenArchiveTest {
+
+	/**
+	 * Statements with a few headers, each long enough for several to fill a block, and parts
+	 * which are not in canonical base64 or not a JWS at all.
+	 */
+	private static List<String> statements() {
+		Random random = new Random(42);
+		String[] headers = new String[5];
+		for (int i = 0; i < headers.length; i++) {
+			byte[] chain = new byte[3000];
+			random.nextBytes(chain);
+			headers[i] = Base64Utils.encodeUrlSafe(chain);
+		}
+		List<String> statements = new ArrayList<String>();
+		for (int i = 0; i < 200; i++) {
+			byte[] payload = ("{\"nonce\":\"" + i + "\",\"timestampMs\":" + (1600000000000L + i) + ",\"ctsProfileMatch\":true}").getBytes();
+			byte[] signature = new byte[256];
+			random.nextBytes(signature);
+			String jws = headers[i % headers.length] + '.' + Base64Utils.encodeUrlSafe(payload) + '.' + Base64Utils.encodeUrlSafe(signature);
+			statements.add(jws);
+		}
+		// padded payload, signature with chars outside base64, empty parts
+		statements.add(headers[0] + '.' + Base64Utils.encodeUrlSafe("{}".getBytes()) + "==." + "not base64!");
+		statements.add(headers[1] + "..");
+		statements.add("not a jws");
+		statements.add("a.b.c.d");
+		statements.add("");
+		statements.add("caf\u00e9.\u00e9t\u00e9.na\u00efve");
+		return statements;
+	}
+
+	private static byte[] write(List<String> statements, boolean compress, int maxHeaders, long maxHeaderBytes) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TokenArchive.Writer writer = new TokenArchive.Writer(out, compress)
+				.setBlockBytes(16 * 1024)
+				.setMaxHeaders(maxHeaders)
+				.setMaxHeaderBytes(maxHeaderBytes);
+		for (String jws : statements) {
+			writer.append(jws);
+		}
+		writer.close();
+		assertEquals(statements.size(), writer.getStatements());
+		assertEquals(out.size(), writer.getBytesOut());
+		return out.toByteArray();
+	}
+
+	private static List<String> read(byte[] archive) throws IOException {
+		TokenArchive.Reader reader = new TokenArchive.Reader(new ByteArrayInputStream(archive));
+		try {
+			List<String> statements = new ArrayList<String>();
+			for (String jws = reader.next(); jws != null; jws = reader.next()) {
+				statements.add(jws);
+			}
+			return statements;
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void readsBackTheSameStatementsOverSeveralBlocks() throws Exception {
+		List<String> statements = statements();
+		for (boolean compress : new boolean[] { false, true }) {
+			byte[] archive = write(statements, compress, 4096, 16 * 1024 * 1024);
+			assertEquals("compress " + compress, statements, read(archive));
+		}
+		// the headers are stored once
+		byte[] archive = write(statements, false, 4096, 16 * 1024 * 1024);
+		int length = 0;
+		for (String jws : statements) {
+			length += jws.length();
+		}
+		assertTrue(archive.length < length / 2);
+	}
+
+	@Test
+	public void storesStatementsAsIsOnceTheDictionaryIsFull() throws Exception {
+		List<String> statements = statements();
+		// no dictionary, 2 headers, and room for 3 headers by size only
+		for (long[] limits : new long[][] { { 0, 16 * 1024 * 1024 }, { 2, 16 * 1024 * 1024 }, { 4096, 3 * 4000 + 1 } }) {
+			for (boolean compress : new boolean[] { false, true }) {
+				byte[] archive = write(statements, compress, (int) limits[0], limits[1]);
+				assertEquals(Arrays.toString(limits), statements, read(archive));
+			}
+		}
+	}
+
+	@Test
+	public void reportsDamagedArchivesAsIOException() throws Exception {
+		List<String> statements = statements().subList(0, 20);
+		for (boolean compress : new boolean[] { false, true }) {
+			byte[] original = write(statements, compress, 4096, 16 * 1024 * 1024);
+			Random random = new Random(7);
+			for (int i = 0; i < 2000; i++) {
+				byte[] damaged = original.clone();
+				damaged[random.nextInt(damaged.length)] ^= (byte) (1 << random.nextInt(8));
+				readExpectingDamage(damaged);
+			}
+			for (int length = 0; length < original.length; length += 7) {
+				readExpectingDamage(Arrays.copyOf(original, length));
+			}
+		}
+	}
+
+	@Test
+	public void rejectsABlockInflatingToMoreOrLessThanItsLength() throws Exception {
+		List<String> statements = statements().subList(0, 3);
+		byte[] original = write(statements, true, 4096, 16 * 1024 * 1024);
+		// the length of the entries of the single block follows the 6 bytes of the archive header
+		for (int delta : new int[] { -1, 1 }) {
+			byte[] damaged = original.clone();
+			damaged[9] += delta;
+			try {
+				read(damaged);
+				fail("Length off by " + delta);
+			} catch (IOException expected) {
+				assertTrue(expected.getMessage(), expected.getMessage().startsWith("Damaged block"));
+			}
+		}
+	}
+
+	/**
+	 * Reads the archive, which may fail with an IOException only, or read fewer statements if
+	 * truncated between blocks.
+	 */
+	private static void readExpectingDamage(byte[] archive) {
+		try {
+			read(archive);
+		} catch (IOException e) {
+			// expected for most damages
+		}
+	}
+}
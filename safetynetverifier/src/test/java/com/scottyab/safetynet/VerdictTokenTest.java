@@ -0,0 +1,50 @@
+package com.scottyab.safetynet;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VerdictTokenTest {
+
+	private static final byte[] KEY = new byte[32];
+
+	private static AttestationStatement statement(String packageName) {
+		return new Gson().fromJson("{\"nonce\":\"AQID\",\"timestampMs\":1000,\"ctsProfileMatch\":true,"
+				+ "\"apkPackageName\":\"" + packageName + "\"}", AttestationStatement.class);
+	}
+
+	@Test
+	public void roundTrips() throws Exception {
+		String token = new VerdictToken.Signer(7, KEY).signToString(statement("com.example.App"));
+		VerdictToken verdict = new VerdictToken.Verifier(7, KEY).verify(token);
+		assertEquals(7, verdict.getKeyId());
+		assertEquals(1000, verdict.getTimestampMs());
+		assertTrue(verdict.isCtsProfileMatch());
+		assertFalse(verdict.isBasicIntegrity());
+		assertTrue(verdict.matchesPackageName("com.example.app"));
+		assertFalse(verdict.matchesPackageName("com.example.other"));
+		assertTrue(verdict.matchesNonce(new byte[] { 1, 2, 3 }));
+	}
+
+	@Test
+	public void staysUnder100BytesWithTheLongestPackageName() {
+		char[] name = new char[255];
+		Arrays.fill(name, 'a');
+		VerdictToken.Signer signer = new VerdictToken.Signer(1, KEY);
+		assertEquals(62, signer.sign(statement(new String(name))).length);
+		assertEquals(83, signer.signToString(statement(new String(name))).length());
+	}
+
+	@Test(expected = SafetyNetVerificationException.class)
+	public void rejectsATamperedToken() throws Exception {
+		byte[] token = new VerdictToken.Signer(1, KEY).sign(statement("com.example.app"));
+		token[20] ^= 1;
+		new VerdictToken.Verifier(1, KEY).verify(token);
+	}
+}
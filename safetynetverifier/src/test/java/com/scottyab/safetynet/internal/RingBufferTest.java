@@ -0,0 +1,77 @@
+package com.scottyab.safetynet.internal;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RingBufferTest {
+
+	@Test
+	public void queuesInOrderUpToItsCapacity() {
+		RingBuffer<Integer> ring = new RingBuffer<Integer>(3);
+		assertEquals(4, ring.capacity());
+		assertTrue(ring.isEmpty());
+		for (int i = 0; i < 4; i++) {
+			assertEquals(i, ring.offer(i));
+		}
+		assertEquals(-1, ring.offer(4));
+		assertEquals(4, ring.size());
+		assertEquals(Integer.valueOf(0), ring.poll());
+		// positions keep counting over the laps
+		assertEquals(4, ring.offer(4));
+		for (int i = 1; i <= 4; i++) {
+			assertEquals(Integer.valueOf(i), ring.poll());
+		}
+		assertNull(ring.poll());
+		assertTrue(ring.isEmpty());
+	}
+
+	@Test
+	public void passesEveryValueFromProducersToConsumers() throws Exception {
+		final RingBuffer<Long> ring = new RingBuffer<Long>(64);
+		final int perProducer = 20000;
+		final AtomicLong sum = new AtomicLong();
+		final AtomicLong received = new AtomicLong();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < 4; i++) {
+			final long base = i * (long) perProducer;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (long value = base; value < base + perProducer; value++) {
+						while (ring.offer(value) < 0) {
+							Thread.yield();
+						}
+					}
+				}
+			});
+			threads[4 + i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (received.get() < 4L * perProducer) {
+						Long value = ring.poll();
+						if (value == null) {
+							Thread.yield();
+							continue;
+						}
+						sum.addAndGet(value);
+						received.incrementAndGet();
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long n = 4L * perProducer;
+		assertEquals(n, received.get());
+		assertEquals(n * (n - 1) / 2, sum.get());
+	}
+}
@@ -0,0 +1,47 @@
+package com.scottyab.safetynet.internal.cz.msebera.android.httpclient.conn.ssl;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.security.auth.x500.X500Principal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DistinguishedNameParserTest {
+
+    private static String cn(final String name) {
+        return new DistinguishedNameParser(new X500Principal(name)).findMostSpecific("cn");
+    }
+
+    @Test
+    public void findsMostSpecificCommonName() {
+        assertEquals("b.example.com", cn("CN=b.example.com, CN=a.example.com, O=Example"));
+        assertEquals("b.example.com", cn("O=Example, cn=b.example.com"));
+        assertNull(cn("O=Example"));
+    }
+
+    @Test
+    public void returnsCommonNamesAsTyped() {
+        assertEquals("Attest.Example.COM", cn("CN=Attest.Example.COM, O=Example"));
+        assertEquals("attest.example.com", cn("CN=attest.example.com,  O=Example  Inc"));
+    }
+
+    @Test
+    public void unescapesValues() {
+        assertEquals("a,b+c", cn("CN=a\\,b\\+c, O=Example"));
+        assertEquals("a \"b\"", cn("CN=\"a \\\"b\\\"\", O=Example"));
+        assertEquals("caf\u00e9", cn("CN=caf\u00e9, O=Example"));
+    }
+
+    @Test
+    public void findsAllValuesMostSpecificFirst() {
+        final DistinguishedNameParser parser = new DistinguishedNameParser(
+                new X500Principal("CN=c.example.com, OU=Unit, CN=b\\,example, CN=a.example.com"));
+        assertEquals(Arrays.asList("c.example.com", "b,example", "a.example.com"), parser.getAllMostSpecificFirst("cn"));
+        assertEquals(Collections.singletonList("Unit"), parser.getAllMostSpecificFirst("ou"));
+        assertEquals(Collections.<String>emptyList(), parser.getAllMostSpecificFirst("o"));
+    }
+}
@@ -0,0 +1,188 @@
+package com.scottyab.safetynet.internal.cz.msebera.android.httpclient.conn.ssl;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import javax.security.auth.x500.X500Principal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class SubjectAltNameParserTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final byte[] ECDSA_WITH_SHA256 = sequence(
+            new byte[] { 6, 8, 0x2a, (byte) 0x86, 0x48, (byte) 0xce, 0x3d, 4, 3, 2 });
+
+    private static PublicKey publicKey;
+
+    @BeforeClass
+    public static void generateKey() throws Exception {
+        publicKey = KeyPairGenerator.getInstance("EC").generateKeyPair().getPublic();
+    }
+
+    @Test
+    public void formatsIPv4MappedAddressesAsIPv4() throws Exception {
+        final X509Certificate cert = certificate(sequence(tagged(0x87, new byte[] {
+                0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xff, (byte) 0xff, 1, 2, 3, 4 })));
+        assertEquals(Collections.singletonList("1.2.3.4"),
+                DefaultHostnameVerifier.extractSubjectAlts(cert, DefaultHostnameVerifier.IP_ADDRESS_TYPE));
+    }
+
+    @Test
+    public void rejectsDnsNamesThatAreNotIA5() throws Exception {
+        final X509Certificate cert = certificate(sequence(
+                tagged(0x82, "a.example.com".getBytes(US_ASCII)),
+                tagged(0x82, new byte[] { 'b', (byte) 0xe9, '.', 'c', 'o', 'm' })));
+        assertFalse(SubjectAltNameParser.parse(cert, DefaultHostnameVerifier.DNS_NAME_TYPE,
+                new SubjectAltNameParser.Visitor() {
+                    @Override
+                    public void visit(final String name) {
+                    }
+                }));
+    }
+
+    @Test
+    public void ignoresAddressMasksTheJdkCannotDecode() throws Exception {
+        final byte[] address = new byte[32];
+        address[16] = (byte) 0xf0;
+        address[17] = 0x0f;
+        final X509Certificate cert = certificate(sequence(tagged(0x82, "a.example.com".getBytes(US_ASCII)),
+                tagged(0x87, address)));
+        assertNull(DefaultHostnameVerifier.extractSubjectAlts(cert, DefaultHostnameVerifier.DNS_NAME_TYPE));
+    }
+
+    @Test
+    public void agreesWithTheJdkOnAGeneratedCorpus() throws Exception {
+        final Random random = new Random(30);
+        for (int i = 0; i < 2000; i++) {
+            final int count = random.nextInt(6);
+            final byte[][] names = new byte[count][];
+            for (int j = 0; j < count; j++) {
+                names[j] = generalName(random);
+            }
+            final X509Certificate cert = certificate(sequence(names));
+            for (final int type : new int[] {
+                    DefaultHostnameVerifier.DNS_NAME_TYPE, DefaultHostnameVerifier.IP_ADDRESS_TYPE }) {
+                assertEquals("corpus entry " + i + ", type " + type,
+                        DefaultHostnameVerifier.extractSubjectAltsFromCollection(cert, type),
+                        DefaultHostnameVerifier.extractSubjectAlts(cert, type));
+            }
+        }
+    }
+
+    private static byte[] generalName(final Random random) {
+        switch (random.nextInt(6)) {
+            case 0:
+                return tagged(0x82, dnsName(random));
+            case 1:
+                return tagged(0x87, address(random));
+            case 2:
+                return tagged(0x81, ("user" + random.nextInt(100) + "@example.com").getBytes(US_ASCII));
+            case 3:
+                return tagged(0x86, ("https://example.com/" + random.nextInt(100)).getBytes(US_ASCII));
+            case 4:
+                return tagged(0x88, new byte[] { 0x2a, 3, 4 });
+            default:
+                return tagged(0xa4, new X500Principal("CN=n" + random.nextInt(100) + ", O=Example").getEncoded());
+        }
+    }
+
+    private static byte[] dnsName(final Random random) {
+        final String[] fixed = { "", "*.example.com", "Example.COM", "a..b", "a b", "a_b", "xn--bcher-kva.example" };
+        if (random.nextInt(4) == 0) {
+            return fixed[random.nextInt(fixed.length)].getBytes(US_ASCII);
+        }
+        final byte[] name = new byte[1 + random.nextInt(40)];
+        for (int i = 0; i < name.length; i++) {
+            // mostly hostname characters, now and then a control or 8-bit byte
+            final int pick = random.nextInt(40);
+            name[i] = (byte) (pick == 0 ? random.nextInt(256) : pick == 1 ? '.' : "abcdefghijklmnopqrstuvwxyz0123456789-.".charAt(pick - 2));
+        }
+        return name;
+    }
+
+    private static byte[] address(final Random random) {
+        final int[] lengths = { 4, 16, 16, 16, 0, 3, 8, 32 };
+        final byte[] address = new byte[lengths[random.nextInt(lengths.length)]];
+        random.nextBytes(address);
+        if (address.length == 8 || address.length == 32) {
+            // address and mask, the JDK only decodes contiguous masks consistently
+            final int half = address.length / 2;
+            final int prefix = random.nextInt(half * 8 + 1);
+            for (int i = 0; i < half; i++) {
+                final int bits = Math.max(0, Math.min(8, prefix - i * 8));
+                address[half + i] = (byte) (0xff00 >> bits);
+            }
+        } else if (address.length == 16 && random.nextBoolean()) {
+            // IPv4-mapped or IPv4-compatible
+            Arrays.fill(address, 0, 12, (byte) 0);
+            if (random.nextBoolean()) {
+                address[10] = (byte) 0xff;
+                address[11] = (byte) 0xff;
+            }
+        }
+        return address;
+    }
+
+    /*
+     * Builds a certificate around the given SubjectAltName extension value. The signature is
+     * garbage, CertificateFactory doesn't verify it.
+     */
+    private static X509Certificate certificate(final byte[] subjectAltName) throws Exception {
+        final byte[] name = new X500Principal("CN=test").getEncoded();
+        final byte[] extension = sequence(new byte[] { 6, 3, 0x55, 0x1d, 0x11 }, tagged(4, subjectAltName));
+        final byte[] tbs = sequence(
+                tagged(0xa0, new byte[] { 2, 1, 2 }),
+                new byte[] { 2, 1, 1 },
+                ECDSA_WITH_SHA256,
+                name,
+                sequence(tagged(0x17, "200101000000Z".getBytes(US_ASCII)),
+                        tagged(0x17, "300101000000Z".getBytes(US_ASCII))),
+                name,
+                publicKey.getEncoded(),
+                tagged(0xa3, sequence(extension)));
+        final byte[] der = sequence(tbs, ECDSA_WITH_SHA256, tagged(3, new byte[] { 0, 0x30, 0 }));
+        return (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(der));
+    }
+
+    private static byte[] sequence(final byte[]... elements) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (final byte[] element : elements) {
+            out.write(element, 0, element.length);
+        }
+        return tagged(0x30, out.toByteArray());
+    }
+
+    private static byte[] tagged(final int tag, final byte[] content) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(tag);
+        final int length = content.length;
+        if (length < 0x80) {
+            out.write(length);
+        } else if (length < 0x100) {
+            out.write(0x81);
+            out.write(length);
+        } else {
+            out.write(0x82);
+            out.write(length >> 8);
+            out.write(length);
+        }
+        out.write(content, 0, content.length);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,103 @@
+package com.scottyab.safetynet.internal.cz.msebera.android.httpclient.conn.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BinaryPublicSuffixListTest {
+
+    /** The rules of {@link PublicSuffixMatcherTest#matcher()} in the published text format */
+    private static final String LIST = "// ===BEGIN ICANN DOMAINS===\n"
+            + "com\n"
+            + "cn\n"
+            + PublicSuffixMatcherTest.IDN_RULE + "\n"
+            + "\n"
+            + "jp\n"
+            + "ac.jp   // only the first token counts\n"
+            + "*.kawasaki.jp\n"
+            + "!city.kawasaki.jp\n"
+            + "  *.ck\n"
+            + "!www.ck\n"
+            + "// ===END ICANN DOMAINS===\n"
+            + "// ===BEGIN PRIVATE DOMAINS===\n"
+            + "blogspot.com\n"
+            + "// ===END PRIVATE DOMAINS===\n";
+
+    private static byte[] compile() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryPublicSuffixList.compile(new StringReader(LIST), out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void matchesLikeTheRulesItWasCompiledFrom() throws Exception {
+        final BinaryPublicSuffixList list = BinaryPublicSuffixList.wrap(ByteBuffer.wrap(compile()));
+        // each rule in its lower case, Unicode and ASCII forms, the same ones merged
+        assertEquals(11, list.size());
+        PublicSuffixMatcherTest.assertMatchesRules(new PublicSuffixMatcher(list));
+    }
+
+    @Test
+    public void mapsACompiledFile() throws Exception {
+        final File file = File.createTempFile("psl", ".bin");
+        try {
+            final FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(compile());
+            } finally {
+                out.close();
+            }
+            PublicSuffixMatcherTest.assertMatchesRules(new PublicSuffixMatcher(BinaryPublicSuffixList.map(file)));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void readsBigEndianWhateverTheOrderOfTheBuffer() throws Exception {
+        final ByteBuffer buffer = ByteBuffer.wrap(compile()).order(ByteOrder.LITTLE_ENDIAN);
+        PublicSuffixMatcherTest.assertMatchesRules(new PublicSuffixMatcher(BinaryPublicSuffixList.wrap(buffer)));
+    }
+
+    @Test
+    public void refusesCountsAndOffsetsOutOfBounds() throws Exception {
+        final byte[] compiled = compile();
+        final int count = ByteBuffer.wrap(compiled).getInt(4);
+        final int offsets = 8;
+        final int last = offsets + 4 * count;
+        assertRefused(compiled, 0, 0x50534C02);
+        assertRefused(compiled, 4, -1);
+        assertRefused(compiled, 4, count + 1000);
+        assertRefused(compiled, 4, Integer.MAX_VALUE);
+        // the first offset, an entry without its flags byte, offsets going backwards, past the end
+        assertRefused(compiled, offsets, 1);
+        assertRefused(compiled, offsets + 4, 0);
+        assertRefused(compiled, offsets + 8, ByteBuffer.wrap(compiled).getInt(offsets + 4) - 1);
+        assertRefused(compiled, last, ByteBuffer.wrap(compiled).getInt(last) + 1);
+        assertRefused(compiled, last, Integer.MAX_VALUE);
+        try {
+            BinaryPublicSuffixList.wrap(ByteBuffer.wrap(compiled, 0, compiled.length - 1).slice());
+            fail("Truncated list accepted");
+        } catch (final IOException expected) {
+        }
+    }
+
+    private static void assertRefused(final byte[] compiled, final int position, final int value) {
+        final ByteBuffer damaged = ByteBuffer.wrap(compiled.clone());
+        damaged.putInt(position, value);
+        try {
+            BinaryPublicSuffixList.wrap(damaged);
+            fail("Damaged list accepted, " + value + " at " + position);
+        } catch (final IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.scottyab.safetynet.internal.cz.msebera.android.httpclient.conn.util;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InetAddressUtilsTest {
+
+    @Test
+    public void parsesLikeInetAddress() throws Exception {
+        final String[] inputs = {
+                "::1", "::", "1::", "2001:db8::ff00:42:8329", "2001:0db8:0000:0000:0000:ff00:0042:8329",
+                "fe80::1:2:3:4", "1:2:3:4:5:6:7:8", "::ffff:1.2.3.4", "64:ff9b::192.0.2.33", "ABCD:EF::1"
+        };
+        for (final String input : inputs) {
+            final long[] parsed = new long[2];
+            assertTrue(input, InetAddressUtils.parseIPv6Address(input, parsed));
+            assertArrayEquals(toLongs(InetAddress.getByName(input).getAddress()), parsed);
+        }
+    }
+
+    @Test
+    public void rejectsInvalidLiterals() {
+        final String[] inputs = {
+                "", ":", ":1", "1:", "1:::2", "1::2::3", "1:2:3:4:5:6:7:8:9", "12345::", "::g",
+                "1.2.3.4", "::1.2.3", "::1.2.3.256", "1:2:3:4:5:6:7:1.2.3.4"
+        };
+        for (final String input : inputs) {
+            assertFalse(input, InetAddressUtils.parseIPv6Address(input, new long[2]));
+        }
+    }
+
+    @Test
+    public void rejectsNonAsciiDigits() {
+        // ARABIC-INDIC DIGIT ONE and FULLWIDTH LATIN SMALL LETTER A, both hex digits to Character.digit
+        assertFalse(InetAddressUtils.parseIPv6Address("::\u0661", new long[2]));
+        assertFalse(InetAddressUtils.parseIPv6Address("::\uff41", new long[2]));
+    }
+
+    @Test
+    public void rejectsZoneIds() {
+        assertFalse(InetAddressUtils.parseIPv6Address("fe80::1%eth0", new long[2]));
+        assertFalse(InetAddressUtils.parseIPv6Address("fe80::1%1", new long[2]));
+        assertFalse(InetAddressUtils.parseIPv6Address("::ffff:1.2.3.4%1", new long[2]));
+    }
+
+    private static long[] toLongs(final byte[] address) {
+        final byte[] ipv6 = new byte[16];
+        if (address.length == 4) {
+            // InetAddress returns mapped addresses as IPv4
+            ipv6[10] = (byte) 0xff;
+            ipv6[11] = (byte) 0xff;
+        }
+        System.arraycopy(address, 0, ipv6, 16 - address.length, address.length);
+        long hi = 0;
+        long lo = 0;
+        for (int i = 0; i < 8; i++) {
+            hi = (hi << 8) | (ipv6[i] & 0xff);
+            lo = (lo << 8) | (ipv6[8 + i] & 0xff);
+        }
+        return new long[]{hi, lo};
+    }
+}
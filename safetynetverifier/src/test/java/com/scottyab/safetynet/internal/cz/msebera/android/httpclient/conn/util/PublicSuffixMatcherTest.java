@@ -0,0 +1,83 @@
+package com.scottyab.safetynet.internal.cz.msebera.android.httpclient.conn.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PublicSuffixMatcherTest {
+
+    /** "company" in Chinese under cn, whose ASCII form is xn--55qx5d.cn */
+    static final String IDN_RULE = "\u516c\u53f8.cn";
+
+    static PublicSuffixMatcher matcher() {
+        return new PublicSuffixMatcher(
+                Arrays.asList("com", "cn", IDN_RULE, "jp", "ac.jp", "*.kawasaki.jp", "*.ck",
+                        // from the private domains section, matched like the others
+                        "blogspot.com"),
+                Arrays.asList("city.kawasaki.jp", "www.ck"));
+    }
+
+    /**
+     * Checks the answers for the rules of {@link #matcher()}, however they are stored.
+     */
+    static void assertMatchesRules(final PublicSuffixMatcher matcher) {
+        assertEquals("example.com", matcher.getDomainRoot("www.example.com"));
+        assertEquals("example.com", matcher.getDomainRoot("example.com"));
+        assertEquals("example.com", matcher.getDomainRoot("WWW.Example.COM"));
+        assertNull(matcher.getDomainRoot("com"));
+        // without a rule, the rightmost label is the public suffix
+        assertEquals("example.test", matcher.getDomainRoot("www.example.test"));
+        assertNull(matcher.getDomainRoot("test"));
+        assertNull(matcher.getDomainRoot(".com"));
+        assertNull(matcher.getDomainRoot(null));
+
+        // the longest rule wins
+        assertEquals("foo.ac.jp", matcher.getDomainRoot("www.foo.ac.jp"));
+        assertNull(matcher.getDomainRoot("ac.jp"));
+        assertEquals("bar.blogspot.com", matcher.getDomainRoot("foo.bar.blogspot.com"));
+        assertNull(matcher.getDomainRoot("blogspot.com"));
+
+        // wildcards cover one label, exceptions take precedence over them
+        assertNull(matcher.getDomainRoot("foo.kawasaki.jp"));
+        assertEquals("bar.foo.kawasaki.jp", matcher.getDomainRoot("www.bar.foo.kawasaki.jp"));
+        assertEquals("city.kawasaki.jp", matcher.getDomainRoot("city.kawasaki.jp"));
+        assertEquals("city.kawasaki.jp", matcher.getDomainRoot("www.city.kawasaki.jp"));
+        assertEquals("kawasaki.jp", matcher.getDomainRoot("kawasaki.jp"));
+        assertNull(matcher.getDomainRoot("foo.ck"));
+        assertEquals("www.ck", matcher.getDomainRoot("www.ck"));
+
+        // rules match in either form of an internationalized domain
+        assertNull(matcher.getDomainRoot(IDN_RULE));
+        assertNull(matcher.getDomainRoot("xn--55qx5d.cn"));
+        assertNull(matcher.getDomainRoot("XN--55QX5D.CN"));
+        assertEquals("shop." + IDN_RULE, matcher.getDomainRoot("www.shop." + IDN_RULE));
+        assertEquals("shop.xn--55qx5d.cn", matcher.getDomainRoot("www.shop.xn--55qx5d.cn"));
+        assertEquals("xn--85x722f.cn", matcher.getDomainRoot("xn--85x722f.cn"));
+
+        assertTrue(matcher.matches("com"));
+        assertTrue(matcher.matches(".com"));
+        assertTrue(matcher.matches("foo.kawasaki.jp"));
+        assertTrue(matcher.matches("xn--55qx5d.cn"));
+        assertFalse(matcher.matches("example.com"));
+        assertFalse(matcher.matches("city.kawasaki.jp"));
+        assertFalse(matcher.matches(null));
+    }
+
+    @Test
+    public void findsTheRegistrableDomain() {
+        assertMatchesRules(matcher());
+    }
+
+    @Test
+    public void normalisesRulesToBothForms() {
+        assertEquals(Arrays.asList("xn--55qx5d.cn", IDN_RULE, "xn--55qx5d.cn"),
+                Arrays.asList(PublicSuffixMatcher.normalisedForms("XN--55QX5D.cn")));
+        assertEquals(Arrays.asList(IDN_RULE, IDN_RULE, "xn--55qx5d.cn"),
+                Arrays.asList(PublicSuffixMatcher.normalisedForms(IDN_RULE)));
+    }
+}
@@ -0,0 +1,406 @@
+package com.scottyab.safetynet;
+
+import com.google.gson.Gson;
+import com.google.gson.annotations.SerializedName;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+import javax.security.auth.x500.X500Principal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Local stand-in for the SafetyNet attestation service, to exercise the verification path off
+ * device and under load.
+ *
+ * <p>Creates a throwaway CA and a leaf certificate for attest.android.com, and mints RS256 JWS
+ * attestation statements signed by the leaf, with the certificate chain in the {@code x5c} header.
+ * The number of intermediate CAs and the validity of the leaf can be chosen, e.g. to produce
+ * statements failing the chain validation.
+ * Statements pass {@link OfflineVerifier#verify(X509TrustManager)} when verified with
+ * {@link #getTrustManager()}.
+ *
+ * <p>Instances are thread-safe.
+ */
+public class FakeAttestationService {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final Gson GSON = new Gson();
+
+	private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+	private static final int KEY_SIZE = 2048;
+
+	private final X509Certificate caCertificate;
+	private final X509Certificate leafCertificate;
+	private final PrivateKey leafKey;
+	private final List<String> x509Certificates;
+	private final Map<String, String> encodedHeaders = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Creates a service issuing statements from attest.android.com.
+	 */
+	public FakeAttestationService() throws GeneralSecurityException {
+		this("attest.android.com");
+	}
+
+	/**
+	 * Creates a service issuing statements from the given host name, e.g. to check that statements
+	 * not issued by attest.android.com are rejected.
+	 */
+	public FakeAttestationService(@NonNull String hostname) throws GeneralSecurityException {
+		this(hostname, 0, System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1), System.currentTimeMillis() + TimeUnit.DAYS.toMillis(365));
+	}
+
+	/**
+	 * @param hostname      host name the leaf certificate is issued to
+	 * @param intermediates number of intermediate CAs between the root CA and the leaf
+	 * @param notBeforeMs   start of the validity of the leaf certificate
+	 * @param notAfterMs    end of the validity of the leaf certificate
+	 */
+	public FakeAttestationService(@NonNull String hostname, int intermediates, long notBeforeMs, long notAfterMs) throws GeneralSecurityException {
+		Preconditions.checkArgument(intermediates >= 0);
+		SecureRandom random = new SecureRandom();
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(KEY_SIZE, random);
+
+		long now = System.currentTimeMillis();
+		Date caNotBefore = new Date(Math.min(notBeforeMs, now) - TimeUnit.DAYS.toMillis(1));
+		Date caNotAfter = new Date(Math.max(notAfterMs, now) + TimeUnit.DAYS.toMillis(365));
+		byte[] caExtensions = Der.sequence(
+				Der.extension(Der.OID_BASIC_CONSTRAINTS, true, Der.sequence(Der.bool(true))),
+				Der.extension(Der.OID_KEY_USAGE, true, Der.bitString(new byte[]{0x06}, 1)));
+
+		KeyPair caKeys = generator.generateKeyPair();
+		X500Principal caName = new X500Principal("CN=Fake Attestation CA, O=SafetyNetHelper");
+		caCertificate = Der.certificate(new BigInteger(64, random), caName, caName, caNotBefore, caNotAfter,
+				caKeys.getPublic().getEncoded(), caExtensions, caKeys.getPrivate());
+
+		// x5c lists the leaf first, up to the root
+		String[] chain = new String[intermediates + 2];
+		chain[chain.length - 1] = Base64Utils.encode(caCertificate.getEncoded());
+		KeyPair issuerKeys = caKeys;
+		X500Principal issuerName = caName;
+		for (int i = 1; i <= intermediates; i++) {
+			KeyPair keys = generator.generateKeyPair();
+			X500Principal name = new X500Principal("CN=Fake Attestation Intermediate CA " + i + ", O=SafetyNetHelper");
+			X509Certificate certificate = Der.certificate(new BigInteger(64, random), issuerName, name, caNotBefore, caNotAfter,
+					keys.getPublic().getEncoded(), caExtensions, issuerKeys.getPrivate());
+			chain[chain.length - 1 - i] = Base64Utils.encode(certificate.getEncoded());
+			issuerKeys = keys;
+			issuerName = name;
+		}
+
+		KeyPair leafKeys = generator.generateKeyPair();
+		X500Principal leafName = new X500Principal("CN=" + hostname + ", O=SafetyNetHelper");
+		byte[] leafExtensions = Der.sequence(
+				Der.extension(Der.OID_KEY_USAGE, true, Der.bitString(new byte[]{(byte) 0xa0}, 5)),
+				Der.extension(Der.OID_EXTENDED_KEY_USAGE, false, Der.sequence(Der.oid(Der.OID_SERVER_AUTH))),
+				Der.extension(Der.OID_SUBJECT_ALT_NAME, false, Der.sequence(Der.tagged(0x82, hostname.getBytes(UTF_8)))));
+		leafCertificate = Der.certificate(new BigInteger(64, random), issuerName, leafName, new Date(notBeforeMs), new Date(notAfterMs),
+				leafKeys.getPublic().getEncoded(), leafExtensions, issuerKeys.getPrivate());
+		leafKey = leafKeys.getPrivate();
+		chain[0] = Base64Utils.encode(leafCertificate.getEncoded());
+		x509Certificates = Arrays.asList(chain);
+	}
+
+	/**
+	 * Returns the self-signed CA all the statements chain up to.
+	 */
+	@NonNull
+	public X509Certificate getCaCertificate() {
+		return caCertificate;
+	}
+
+	/**
+	 * Returns the certificate the statements are signed with.
+	 */
+	@NonNull
+	public X509Certificate getLeafCertificate() {
+		return leafCertificate;
+	}
+
+	/**
+	 * Returns a trust manager trusting only {@link #getCaCertificate()}.
+	 */
+	@NonNull
+	public X509TrustManager getTrustManager() throws GeneralSecurityException {
+		KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+		try {
+			keyStore.load(null, null);
+		} catch (IOException e) {
+			throw new GeneralSecurityException(e);
+		}
+		keyStore.setCertificateEntry("ca", caCertificate);
+		TrustManagerFactory factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		factory.init(keyStore);
+		for (TrustManager manager : factory.getTrustManagers()) {
+			if (manager instanceof X509TrustManager) {
+				return (X509TrustManager) manager;
+			}
+		}
+		throw new GeneralSecurityException("No X509TrustManager available");
+	}
+
+	/**
+	 * Returns a signed attestation statement in compact JWS serialization, like
+	 * {@code SafetyNetApi.AttestationResponse#getJwsResult()}.
+	 */
+	@NonNull
+	public String attest(@NonNull Payload payload) throws GeneralSecurityException {
+		return attest(payload, "RS256");
+	}
+
+	/**
+	 * Like {@link #attest(Payload)}, signing with the given JWS algorithm: RS256, RS384 or RS512.
+	 * Only RS256 is used by SafetyNet, the others are meant to check that they are rejected.
+	 */
+	@NonNull
+	public String attest(@NonNull Payload payload, @NonNull String algorithm) throws GeneralSecurityException {
+		String signatureAlgorithm;
+		if ("RS256".equals(algorithm)) {
+			signatureAlgorithm = "SHA256withRSA";
+		} else if ("RS384".equals(algorithm)) {
+			signatureAlgorithm = "SHA384withRSA";
+		} else if ("RS512".equals(algorithm)) {
+			signatureAlgorithm = "SHA512withRSA";
+		} else {
+			throw new GeneralSecurityException("Unsupported algorithm " + algorithm);
+		}
+		String encodedHeader = encodedHeaders.get(algorithm);
+		if (encodedHeader == null) {
+			Header header = new Header();
+			header.algorithm = algorithm;
+			header.x509Certificates = x509Certificates;
+			encodedHeader = Base64Utils.encodeUrlSafe(GSON.toJson(header).getBytes(UTF_8));
+			encodedHeaders.put(algorithm, encodedHeader);
+		}
+		String signedContent = encodedHeader + '.' + Base64Utils.encodeUrlSafe(GSON.toJson(payload).getBytes(UTF_8));
+		Signature signature = Signature.getInstance(signatureAlgorithm);
+		signature.initSign(leafKey);
+		signature.update(signedContent.getBytes(UTF_8));
+		return signedContent + '.' + Base64Utils.encodeUrlSafe(signature.sign());
+	}
+
+	/**
+	 * Content of a statement to mint, serialized with the same names as {@link AttestationStatement}.
+	 */
+	@SuppressWarnings("unused")
+	public static class Payload {
+		@SerializedName("nonce")
+		private String nonce;
+
+		@SerializedName("timestampMs")
+		private long timestampMs;
+
+		@SerializedName("apkPackageName")
+		private String apkPackageName;
+
+		@SerializedName("apkCertificateDigestSha256")
+		private String[] apkCertificateDigestSha256;
+
+		@SerializedName("apkDigestSha256")
+		private String apkDigestSha256;
+
+		@SerializedName("ctsProfileMatch")
+		private boolean ctsProfileMatch;
+
+		@SerializedName("basicIntegrity")
+		private boolean basicIntegrity;
+
+		@SerializedName("advice")
+		private String advice;
+
+		@SerializedName("evaluationType")
+		private String evaluationType;
+
+		public Payload setNonce(@NonNull byte[] nonce) {
+			this.nonce = Base64Utils.encode(nonce);
+			return this;
+		}
+
+		public Payload setTimestampMs(long timestampMs) {
+			this.timestampMs = timestampMs;
+			return this;
+		}
+
+		public Payload setApkPackageName(@Nullable String apkPackageName) {
+			this.apkPackageName = apkPackageName;
+			return this;
+		}
+
+		public Payload setApkCertificateDigestSha256(@Nullable List<String> apkCertificateDigestSha256) {
+			this.apkCertificateDigestSha256 = apkCertificateDigestSha256 == null ? null
+					: apkCertificateDigestSha256.toArray(new String[apkCertificateDigestSha256.size()]);
+			return this;
+		}
+
+		public Payload setApkDigestSha256(@Nullable String apkDigestSha256) {
+			this.apkDigestSha256 = apkDigestSha256;
+			return this;
+		}
+
+		public Payload setCtsProfileMatch(boolean ctsProfileMatch) {
+			this.ctsProfileMatch = ctsProfileMatch;
+			return this;
+		}
+
+		public Payload setBasicIntegrity(boolean basicIntegrity) {
+			this.basicIntegrity = basicIntegrity;
+			return this;
+		}
+
+		public Payload setAdvice(@Nullable String advice) {
+			this.advice = advice;
+			return this;
+		}
+
+		public Payload setEvaluationType(@Nullable String evaluationType) {
+			this.evaluationType = evaluationType;
+			return this;
+		}
+	}
+
+	@SuppressWarnings("unused")
+	private static class Header {
+		@SerializedName("alg")
+		String algorithm;
+
+		@SerializedName("x5c")
+		List<String> x509Certificates;
+	}
+
+	/**
+	 * Just enough of a DER encoder to issue X.509 v3 certificates.
+	 */
+	private static final class Der {
+		static final int[] OID_SHA256_WITH_RSA = {1, 2, 840, 113549, 1, 1, 11};
+		static final int[] OID_BASIC_CONSTRAINTS = {2, 5, 29, 19};
+		static final int[] OID_KEY_USAGE = {2, 5, 29, 15};
+		static final int[] OID_SUBJECT_ALT_NAME = {2, 5, 29, 17};
+		static final int[] OID_EXTENDED_KEY_USAGE = {2, 5, 29, 37};
+		static final int[] OID_SERVER_AUTH = {1, 3, 6, 1, 5, 5, 7, 3, 1};
+
+		private Der() {
+		}
+
+		static X509Certificate certificate(BigInteger serial, X500Principal issuer, X500Principal subject,
+		                                   Date notBefore, Date notAfter, byte[] subjectPublicKeyInfo,
+		                                   byte[] extensions, PrivateKey issuerKey) throws GeneralSecurityException {
+			byte[] algorithm = sequence(oid(OID_SHA256_WITH_RSA), new byte[]{0x05, 0x00});
+			byte[] tbs = sequence(
+					tagged(0xa0, integer(BigInteger.valueOf(2))),
+					integer(serial),
+					algorithm,
+					issuer.getEncoded(),
+					sequence(utcTime(notBefore), utcTime(notAfter)),
+					subject.getEncoded(),
+					subjectPublicKeyInfo,
+					tagged(0xa3, extensions));
+			Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+			signature.initSign(issuerKey);
+			signature.update(tbs);
+			byte[] encoded = sequence(tbs, algorithm, bitString(signature.sign(), 0));
+			return (X509Certificate) CertificateFactory.getInstance("X.509")
+					.generateCertificate(new ByteArrayInputStream(encoded));
+		}
+
+		static byte[] extension(int[] oid, boolean critical, byte[] value) {
+			if (critical) {
+				return sequence(oid(oid), bool(true), tagged(0x04, value));
+			}
+			return sequence(oid(oid), tagged(0x04, value));
+		}
+
+		static byte[] sequence(byte[]... elements) {
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			for (byte[] element : elements) {
+				content.write(element, 0, element.length);
+			}
+			return tagged(0x30, content.toByteArray());
+		}
+
+		static byte[] integer(BigInteger value) {
+			return tagged(0x02, value.toByteArray());
+		}
+
+		static byte[] bool(boolean value) {
+			return new byte[]{0x01, 0x01, (byte) (value ? 0xff : 0x00)};
+		}
+
+		static byte[] bitString(byte[] bits, int unusedBits) {
+			byte[] content = new byte[bits.length + 1];
+			content[0] = (byte) unusedBits;
+			System.arraycopy(bits, 0, content, 1, bits.length);
+			return tagged(0x03, content);
+		}
+
+		static byte[] oid(int[] arcs) {
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			writeBase128(content, arcs[0] * 40 + arcs[1]);
+			for (int i = 2; i < arcs.length; i++) {
+				writeBase128(content, arcs[i]);
+			}
+			return tagged(0x06, content.toByteArray());
+		}
+
+		static byte[] utcTime(Date date) {
+			SimpleDateFormat format = new SimpleDateFormat("yyMMddHHmmss'Z'", Locale.US);
+			format.setTimeZone(TimeZone.getTimeZone("UTC"));
+			return tagged(0x17, format.format(date).getBytes(UTF_8));
+		}
+
+		static byte[] tagged(int tag, byte[] content) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(content.length + 6);
+			out.write(tag);
+			int length = content.length;
+			if (length < 0x80) {
+				out.write(length);
+			} else {
+				int bytes = length > 0xffffff ? 4 : length > 0xffff ? 3 : length > 0xff ? 2 : 1;
+				out.write(0x80 | bytes);
+				for (int i = bytes - 1; i >= 0; i--) {
+					out.write(length >>> (8 * i));
+				}
+			}
+			out.write(content, 0, content.length);
+			return out.toByteArray();
+		}
+
+		private static void writeBase128(ByteArrayOutputStream out, int value) {
+			int shift = 28;
+			while (shift > 0 && (value >>> shift) == 0) {
+				shift -= 7;
+			}
+			for (; shift > 0; shift -= 7) {
+				out.write(0x80 | ((value >>> shift) & 0x7f));
+			}
+			out.write(value & 0x7f);
+		}
+	}
+}